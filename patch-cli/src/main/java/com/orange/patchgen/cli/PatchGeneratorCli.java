@@ -1,10 +1,14 @@
 package com.orange.patchgen.cli;
 
+import com.orange.patchgen.BatchPatchGenerator;
 import com.orange.patchgen.PatchGenerator;
 import com.orange.patchgen.callback.GeneratorCallback;
 import com.orange.patchgen.config.EngineType;
+import com.orange.patchgen.config.GeneratorConfig;
 import com.orange.patchgen.config.PatchMode;
 import com.orange.patchgen.config.SigningConfig;
+import com.orange.patchgen.model.BatchManifest;
+import com.orange.patchgen.model.BatchResult;
 import com.orange.patchgen.model.DiffSummary;
 import com.orange.patchgen.model.PatchInfo;
 import com.orange.patchgen.model.PatchResult;
@@ -19,7 +23,10 @@ import org.apache.commons.cli.ParseException;
 
 import java.io.File;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 
 /**
  * 补丁生成器命令行工具
@@ -30,6 +37,7 @@ public class PatchGeneratorCli {
 
     private static final String VERSION = "1.0.0";
     private static final String PROGRAM_NAME = "patch-generator";
+    private static final String DEFAULT_CACHE_DIR_NAME = "patch-baseline-cache";
     
     private static boolean verbose = false;
 
@@ -59,12 +67,14 @@ public class PatchGeneratorCli {
             validateRequiredParams(cmd);
             
             // Parse parameters
-            File baseApk = new File(cmd.getOptionValue("base"));
+            List<File> baseApks = collectBaseApks(cmd);
             File newApk = new File(cmd.getOptionValue("new"));
             File output = new File(cmd.getOptionValue("output"));
             
             // Validate input files
-            validateInputFiles(baseApk, newApk);
+            for (File baseApk : baseApks) {
+                validateInputFiles(baseApk, newApk);
+            }
             
             // Build signing config if provided
             SigningConfig signingConfig = buildSigningConfig(cmd);
@@ -75,6 +85,34 @@ public class PatchGeneratorCli {
             // Parse patch mode
             PatchMode patchMode = parsePatchMode(cmd.getOptionValue("mode", "full_dex"));
             
+            // Build generator config
+            GeneratorConfig config = GeneratorConfig.builder()
+                    .engineType(engineType)
+                    .patchMode(patchMode)
+                    .verbose(verbose)
+                    .inArchiveDiff(cmd.hasOption("in-archive"))
+                    .baselineCacheDir(resolveBaselineCacheDir(cmd))
+                    .build();
+            
+            // Batch mode: output is a directory with one patch per base APK and a manifest
+            if (isBatchMode(cmd, baseApks)) {
+                printBatchStartMessage(baseApks, newApk, output, engineType, patchMode);
+                BatchResult batchResult = new BatchPatchGenerator.Builder()
+                        .baseApks(baseApks)
+                        .newApk(newApk)
+                        .outputDir(output)
+                        .signingConfig(signingConfig)
+                        .engineType(engineType)
+                        .patchMode(patchMode)
+                        .config(config)
+                        .callback(new ConsoleBatchCallback())
+                        .build()
+                        .generate();
+                printBatchResult(batchResult);
+                System.exit(batchResult.isAllSuccess() ? 0 : 1);
+            }
+            File baseApk = baseApks.get(0);
+            
             // Print start message
             printStartMessage(baseApk, newApk, output, engineType, patchMode);
             
@@ -86,6 +124,7 @@ public class PatchGeneratorCli {
                     .signingConfig(signingConfig)
                     .engineType(engineType)
                     .patchMode(patchMode)
+                    .config(config)
                     .callback(new ConsoleCallback())
                     .build();
             
@@ -127,11 +166,18 @@ public class PatchGeneratorCli {
         // Required options
         options.addOption(Option.builder("b")
                 .longOpt("base")
-                .desc("Base APK file path (required)")
+                .desc("Base APK file path (required unless --base-dir is given, may be repeated)")
                 .hasArg()
                 .argName("FILE")
                 .build());
         
+        options.addOption(Option.builder()
+                .longOpt("base-dir")
+                .desc("Directory of base APKs; generates one patch per APK")
+                .hasArg()
+                .argName("DIR")
+                .build());
+        
         options.addOption(Option.builder("n")
                 .longOpt("new")
                 .desc("New APK file path (required)")
@@ -141,7 +187,7 @@ public class PatchGeneratorCli {
         
         options.addOption(Option.builder("o")
                 .longOpt("output")
-                .desc("Output patch file path (required)")
+                .desc("Output patch file path, or output directory for multiple bases (required)")
                 .hasArg()
                 .argName("FILE")
                 .build());
@@ -185,11 +231,29 @@ public class PatchGeneratorCli {
         
         options.addOption(Option.builder("m")
                 .longOpt("mode")
-                .desc("Patch mode: full_dex, bsdiff (default: full_dex)")
+                .desc("Patch mode: full_dex (default)")
                 .hasArg()
                 .argName("MODE")
                 .build());
         
+        options.addOption(Option.builder()
+                .longOpt("in-archive")
+                .desc("Diff entries directly inside the APKs instead of extracting them first")
+                .build());
+        
+        // Cache options
+        options.addOption(Option.builder()
+                .longOpt("cache-dir")
+                .desc("Directory for cached base APK analysis (default: <tmp>/" + DEFAULT_CACHE_DIR_NAME + ")")
+                .hasArg()
+                .argName("DIR")
+                .build());
+        
+        options.addOption(Option.builder()
+                .longOpt("no-cache")
+                .desc("Always analyze the base APK, without reading or writing the cache")
+                .build());
+        
         // Other options
         options.addOption(Option.builder("v")
                 .longOpt("verbose")
@@ -213,8 +277,8 @@ public class PatchGeneratorCli {
      * Validate required parameters
      */
     private static void validateRequiredParams(CommandLine cmd) throws ParseException {
-        if (!cmd.hasOption("base")) {
-            throw new ParseException("Missing required option: --base");
+        if (!cmd.hasOption("base") && !cmd.hasOption("base-dir")) {
+            throw new ParseException("Missing required option: --base or --base-dir");
         }
         if (!cmd.hasOption("new")) {
             throw new ParseException("Missing required option: --new");
@@ -224,6 +288,40 @@ public class PatchGeneratorCli {
         }
     }
 
+    /**
+     * Collect base APKs from repeated --base options and --base-dir
+     */
+    private static List<File> collectBaseApks(CommandLine cmd) throws ParseException {
+        List<File> baseApks = new ArrayList<>();
+        String[] bases = cmd.getOptionValues("base");
+        if (bases != null) {
+            for (String base : bases) {
+                baseApks.add(new File(base));
+            }
+        }
+        
+        if (cmd.hasOption("base-dir")) {
+            File baseDir = new File(cmd.getOptionValue("base-dir"));
+            if (!baseDir.isDirectory()) {
+                throw new ParseException("Base directory not found: " + baseDir.getAbsolutePath());
+            }
+            File[] apks = baseDir.listFiles((dir, name) -> name.toLowerCase().endsWith(".apk"));
+            if (apks == null || apks.length == 0) {
+                throw new ParseException("No APK files found in base directory: " + baseDir.getAbsolutePath());
+            }
+            Arrays.sort(apks);
+            baseApks.addAll(Arrays.asList(apks));
+        }
+        return baseApks;
+    }
+
+    /**
+     * Whether patches are generated against multiple base APKs
+     */
+    private static boolean isBatchMode(CommandLine cmd, List<File> baseApks) {
+        return cmd.hasOption("base-dir") || baseApks.size() > 1;
+    }
+
     /**
      * Validate input files exist and are readable
      */
@@ -268,6 +366,19 @@ public class PatchGeneratorCli {
                 .build();
     }
 
+    /**
+     * Resolve base APK analysis cache directory, null if caching is disabled
+     */
+    private static File resolveBaselineCacheDir(CommandLine cmd) {
+        if (cmd.hasOption("no-cache")) {
+            return null;
+        }
+        if (cmd.hasOption("cache-dir")) {
+            return new File(cmd.getOptionValue("cache-dir"));
+        }
+        return new File(System.getProperty("java.io.tmpdir"), DEFAULT_CACHE_DIR_NAME);
+    }
+
     /**
      * Parse engine type from string
      */
@@ -293,9 +404,10 @@ public class PatchGeneratorCli {
             case "fulldex":
                 return PatchMode.FULL_DEX;
             case "bsdiff":
+                // Still parsed so that PatchGenerator reports ERROR_PATCH_MODE_UNSUPPORTED
                 return PatchMode.BSDIFF;
             default:
-                throw new ParseException("Invalid patch mode: " + value + ". Valid values: full_dex, bsdiff");
+                throw new ParseException("Invalid patch mode: " + value + ". Valid values: full_dex");
         }
     }
 
@@ -311,7 +423,8 @@ public class PatchGeneratorCli {
                 "  " + PROGRAM_NAME + " -b app-v1.0.apk -n app-v1.1.apk -o patch.zip\n" +
                 "  " + PROGRAM_NAME + " --base app-v1.0.apk --new app-v1.1.apk --output patch.zip \\\n" +
                 "                   --keystore keystore.jks --key-alias patch --key-password secret\n" +
-                "  " + PROGRAM_NAME + " -b old.apk -n new.apk -o patch.zip -e native -m bsdiff -v\n";
+                "  " + PROGRAM_NAME + " -b old.apk -n new.apk -o patch.zip -e native -v\n" +
+                "  " + PROGRAM_NAME + " --base-dir releases/ -n app-v1.3.apk -o patches/\n";
         
         formatter.printHelp(PROGRAM_NAME, header, options, footer, true);
     }
@@ -342,6 +455,57 @@ public class PatchGeneratorCli {
         System.out.println();
     }
 
+    /**
+     * Print batch start message
+     */
+    private static void printBatchStartMessage(List<File> baseApks, File newApk, File outputDir,
+                                               EngineType engineType, PatchMode patchMode) {
+        System.out.println("=".repeat(60));
+        System.out.println("Patch Generator CLI v" + VERSION);
+        System.out.println("=".repeat(60));
+        System.out.println();
+        System.out.println("Configuration:");
+        System.out.println("  Base APKs:   " + baseApks.size());
+        for (File baseApk : baseApks) {
+            System.out.println("               " + baseApk.getAbsolutePath());
+        }
+        System.out.println("  New APK:     " + newApk.getAbsolutePath());
+        System.out.println("  Output Dir:  " + outputDir.getAbsolutePath());
+        System.out.println("  Engine:      " + engineType.name().toLowerCase());
+        System.out.println("  Mode:        " + patchMode.name().toLowerCase());
+        System.out.println();
+    }
+
+    /**
+     * Print batch generation result
+     */
+    private static void printBatchResult(BatchResult batchResult) {
+        System.out.println();
+        System.out.println("=".repeat(60));
+        int failures = batchResult.getFailureCount();
+        System.out.println(failures == 0 ? "SUCCESS" : "FAILED (" + failures + " of "
+                + batchResult.getResults().size() + " bases)");
+        System.out.println("=".repeat(60));
+        System.out.println();
+        
+        System.out.println("Patches:");
+        for (BatchManifest.Entry entry : batchResult.getManifest().getPatches()) {
+            String line = "  " + entry.getBaseApk()
+                    + (entry.getBaseVersion() != null ? " (" + entry.getBaseVersion() + ")" : "") + ": ";
+            if (BatchManifest.STATUS_SUCCESS.equals(entry.getStatus())) {
+                line += entry.getPatchFile() + ", " + formatSize(entry.getPatchSize());
+            } else if (BatchManifest.STATUS_NO_CHANGE.equals(entry.getStatus())) {
+                line += "no changes";
+            } else {
+                line += "error " + entry.getErrorCode() + ": " + entry.getErrorMessage();
+            }
+            System.out.println(line);
+        }
+        System.out.println();
+        System.out.println("Manifest:        " + batchResult.getManifestFile().getAbsolutePath());
+        System.out.println("Generation Time: " + formatDuration(batchResult.getGenerateTime()));
+    }
+
     /**
      * Print generation result
      */
@@ -525,4 +689,23 @@ public class PatchGeneratorCli {
             }
         }
     }
+
+    /**
+     * Console callback for batch progress display
+     */
+    private static class ConsoleBatchCallback implements BatchPatchGenerator.BatchCallback {
+
+        @Override
+        public void onPatchComplete(File baseApk, PatchResult result, int completed, int total) {
+            String status;
+            if (!result.isSuccess()) {
+                status = "failed (code: " + result.getErrorCode() + ")";
+            } else if (!result.hasPatch()) {
+                status = "no changes";
+            } else {
+                status = formatSize(result.getPatchSize()) + " in " + formatDuration(result.getGenerateTime());
+            }
+            System.out.println("[" + completed + "/" + total + "] " + baseApk.getName() + ": " + status);
+        }
+    }
 }
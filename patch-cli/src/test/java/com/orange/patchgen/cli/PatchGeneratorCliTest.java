@@ -24,6 +24,7 @@ import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.lang.reflect.Method;
+import java.util.List;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -56,6 +57,8 @@ public class PatchGeneratorCliTest {
     private Method parseEngineTypeMethod;
     private Method parsePatchModeMethod;
     private Method buildSigningConfigMethod;
+    private Method resolveBaselineCacheDirMethod;
+    private Method collectBaseApksMethod;
 
     @Before
     public void setUp() throws Exception {
@@ -91,6 +94,14 @@ public class PatchGeneratorCliTest {
         buildSigningConfigMethod = PatchGeneratorCli.class.getDeclaredMethod(
             "buildSigningConfig", CommandLine.class);
         buildSigningConfigMethod.setAccessible(true);
+
+        resolveBaselineCacheDirMethod = PatchGeneratorCli.class.getDeclaredMethod(
+            "resolveBaselineCacheDir", CommandLine.class);
+        resolveBaselineCacheDirMethod.setAccessible(true);
+
+        collectBaseApksMethod = PatchGeneratorCli.class.getDeclaredMethod(
+            "collectBaseApks", CommandLine.class);
+        collectBaseApksMethod.setAccessible(true);
     }
 
     @After
@@ -395,6 +406,110 @@ public class PatchGeneratorCliTest {
         assertThat(result).isEqualTo(PatchMode.FULL_DEX);
     }
 
+    @Test
+    public void testDefaultBaselineCacheDir() throws Exception {
+        Options options = (Options) buildOptionsMethod.invoke(null);
+        CommandLineParser parser = new DefaultParser();
+        CommandLine cmd = parser.parse(options, new String[]{
+            "--base", baseApk.getAbsolutePath(),
+            "--new", newApk.getAbsolutePath(),
+            "--output", outputPatch.getAbsolutePath()
+        });
+        
+        File result = (File) resolveBaselineCacheDirMethod.invoke(null, cmd);
+        assertThat(result).isEqualTo(
+            new File(System.getProperty("java.io.tmpdir"), "patch-baseline-cache"));
+    }
+
+    @Test
+    public void testCustomBaselineCacheDir() throws Exception {
+        File cacheDir = tempFolder.newFolder("cache");
+        Options options = (Options) buildOptionsMethod.invoke(null);
+        CommandLineParser parser = new DefaultParser();
+        CommandLine cmd = parser.parse(options, new String[]{
+            "--base", baseApk.getAbsolutePath(),
+            "--new", newApk.getAbsolutePath(),
+            "--output", outputPatch.getAbsolutePath(),
+            "--cache-dir", cacheDir.getAbsolutePath()
+        });
+        
+        File result = (File) resolveBaselineCacheDirMethod.invoke(null, cmd);
+        assertThat(result).isEqualTo(cacheDir);
+    }
+
+    @Test
+    public void testNoCacheDisablesBaselineCache() throws Exception {
+        Options options = (Options) buildOptionsMethod.invoke(null);
+        CommandLineParser parser = new DefaultParser();
+        CommandLine cmd = parser.parse(options, new String[]{
+            "--base", baseApk.getAbsolutePath(),
+            "--new", newApk.getAbsolutePath(),
+            "--output", outputPatch.getAbsolutePath(),
+            "--cache-dir", tempFolder.getRoot().getAbsolutePath(),
+            "--no-cache"
+        });
+        
+        File result = (File) resolveBaselineCacheDirMethod.invoke(null, cmd);
+        assertThat(result).isNull();
+    }
+
+    @Test
+    public void testMultipleBaseOptions() throws Exception {
+        File olderApk = tempFolder.newFile("older.apk");
+        Options options = (Options) buildOptionsMethod.invoke(null);
+        CommandLineParser parser = new DefaultParser();
+        CommandLine cmd = parser.parse(options, new String[]{
+            "-b", baseApk.getAbsolutePath(),
+            "-b", olderApk.getAbsolutePath(),
+            "-n", newApk.getAbsolutePath(),
+            "-o", tempFolder.getRoot().getAbsolutePath()
+        });
+        
+        @SuppressWarnings("unchecked")
+        List<File> result = (List<File>) collectBaseApksMethod.invoke(null, cmd);
+        assertThat(result).containsExactly(baseApk, olderApk);
+    }
+
+    @Test
+    public void testBaseDirCollectsApks() throws Exception {
+        File baseDir = tempFolder.newFolder("bases");
+        File v2 = new File(baseDir, "app-v2.apk");
+        File v1 = new File(baseDir, "app-v1.apk");
+        createMinimalApk(v2, "2.0.0", 2);
+        createMinimalApk(v1, "1.0.0", 1);
+        new File(baseDir, "notes.txt").createNewFile();
+        
+        Options options = (Options) buildOptionsMethod.invoke(null);
+        CommandLineParser parser = new DefaultParser();
+        CommandLine cmd = parser.parse(options, new String[]{
+            "--base-dir", baseDir.getAbsolutePath(),
+            "--new", newApk.getAbsolutePath(),
+            "--output", tempFolder.getRoot().getAbsolutePath()
+        });
+        
+        validateRequiredParamsMethod.invoke(null, cmd);
+        @SuppressWarnings("unchecked")
+        List<File> result = (List<File>) collectBaseApksMethod.invoke(null, cmd);
+        assertThat(result).containsExactly(v1, v2);
+    }
+
+    @Test
+    public void testEmptyBaseDir() throws Exception {
+        File baseDir = tempFolder.newFolder("empty");
+        Options options = (Options) buildOptionsMethod.invoke(null);
+        CommandLineParser parser = new DefaultParser();
+        CommandLine cmd = parser.parse(options, new String[]{
+            "--base-dir", baseDir.getAbsolutePath(),
+            "--new", newApk.getAbsolutePath(),
+            "--output", tempFolder.getRoot().getAbsolutePath()
+        });
+        
+        assertThatThrownBy(() -> collectBaseApksMethod.invoke(null, cmd))
+            .hasRootCauseInstanceOf(ParseException.class)
+            .rootCause()
+            .hasMessageContaining("No APK files");
+    }
+
     private void createMinimalApk(File apkFile, String versionName, int versionCode) 
             throws IOException {
         try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(apkFile))) {
@@ -0,0 +1,141 @@
+package com.orange.patchgen.differ;
+
+import org.jf.dexlib2.AccessFlags;
+import org.jf.dexlib2.Opcode;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.instruction.Instruction;
+import org.jf.dexlib2.immutable.ImmutableClassDef;
+import org.jf.dexlib2.immutable.ImmutableField;
+import org.jf.dexlib2.immutable.ImmutableMethod;
+import org.jf.dexlib2.immutable.ImmutableMethodImplementation;
+import org.jf.dexlib2.immutable.instruction.ImmutableInstruction10x;
+import org.jf.dexlib2.immutable.instruction.ImmutableInstruction21c;
+import org.jf.dexlib2.immutable.instruction.ImmutableInstruction35c;
+import org.jf.dexlib2.immutable.reference.ImmutableFieldReference;
+import org.jf.dexlib2.immutable.reference.ImmutableMethodReference;
+import org.jf.dexlib2.immutable.reference.ImmutableStringReference;
+import org.jf.dexlib2.writer.io.MemoryDataStore;
+import org.jf.dexlib2.writer.pool.DexPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 类签名哈希基准测试
+ *
+ * 在内存中生成一个合成 dex 并按 DexBackedDexFile 读取（与补丁生成时的读取路径一致），
+ * 测量哈希整个 dex 中所有类的耗时，并以旧版字符串拼接实现 {@link LegacyClassHasher} 为对照。
+ * 加上 -prof gc 可同时查看每次操作的分配量：
+ * <pre>
+ * ./gradlew :patch-core:jmh -PjmhArgs="-prof gc"
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClassHasherBenchmark {
+
+    @Param({"500"})
+    public int classCount;
+
+    @Param({"20"})
+    public int methodsPerClass;
+
+    private List<ClassDef> classes;
+    private ClassHasher hasher;
+    private LegacyClassHasher legacyHasher;
+    private DexDiffer dexDiffer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        DexPool pool = new DexPool(Opcodes.getDefault());
+        for (int i = 0; i < classCount; i++) {
+            pool.internClass(syntheticClass(i));
+        }
+        MemoryDataStore store = new MemoryDataStore();
+        pool.writeTo(store);
+        DexBackedDexFile dexFile = new DexBackedDexFile(Opcodes.getDefault(), store.getData());
+        classes = new ArrayList<>(dexFile.getClasses());
+        hasher = new ClassHasher();
+        legacyHasher = new LegacyClassHasher();
+        dexDiffer = new DexDiffer();
+    }
+
+    /**
+     * 对照基线：旧版字符串拼接实现
+     */
+    @Benchmark
+    public void hashLegacy(Blackhole blackhole) {
+        for (ClassDef classDef : classes) {
+            blackhole.consume(legacyHasher.hash(classDef));
+        }
+    }
+
+    /**
+     * 复用同一个哈希器
+     */
+    @Benchmark
+    public void hashReusedHasher(Blackhole blackhole) {
+        for (ClassDef classDef : classes) {
+            blackhole.consume(hasher.hash(classDef));
+        }
+    }
+
+    /**
+     * DexDiffer 的实际调用路径（每线程一个哈希器）
+     */
+    @Benchmark
+    public void hashViaDexDiffer(Blackhole blackhole) {
+        for (ClassDef classDef : classes) {
+            blackhole.consume(dexDiffer.calculateClassHash(classDef));
+        }
+    }
+
+    private ClassDef syntheticClass(int index) {
+        String type = "Lcom/example/bench/Class" + index + ";";
+        List<ImmutableMethod> methods = new ArrayList<>();
+        for (int m = 0; m < methodsPerClass; m++) {
+            List<Instruction> instructions = Arrays.asList(
+                    new ImmutableInstruction21c(Opcode.CONST_STRING, 0,
+                            new ImmutableStringReference("value-" + index + "-" + m)),
+                    new ImmutableInstruction21c(Opcode.SGET_OBJECT, 1,
+                            new ImmutableFieldReference(type, "field" + (m % 4), "Ljava/lang/Object;")),
+                    new ImmutableInstruction35c(Opcode.INVOKE_STATIC, 2, 0, 1, 0, 0, 0,
+                            new ImmutableMethodReference("Lcom/example/bench/Util;", "call" + (m % 8),
+                                    Arrays.asList("Ljava/lang/String;", "Ljava/lang/Object;"), "V")),
+                    new ImmutableInstruction10x(Opcode.RETURN_VOID));
+            methods.add(new ImmutableMethod(type, "method" + m, null, "V",
+                    AccessFlags.PUBLIC.getValue() | AccessFlags.STATIC.getValue(), null, null,
+                    new ImmutableMethodImplementation(2, instructions, null, null)));
+        }
+        List<ImmutableField> fields = new ArrayList<>();
+        for (int f = 0; f < 4; f++) {
+            fields.add(new ImmutableField(type, "field" + f, "Ljava/lang/Object;",
+                    AccessFlags.PRIVATE.getValue() | AccessFlags.STATIC.getValue(), null, null, null));
+        }
+        return new ImmutableClassDef(type, AccessFlags.PUBLIC.getValue(), "Ljava/lang/Object;",
+                Collections.singletonList("Ljava/lang/Runnable;"), null, null, fields, methods);
+    }
+}
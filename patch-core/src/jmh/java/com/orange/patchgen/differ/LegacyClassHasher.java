@@ -0,0 +1,129 @@
+package com.orange.patchgen.differ;
+
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.Field;
+import org.jf.dexlib2.iface.Method;
+import org.jf.dexlib2.iface.MethodImplementation;
+import org.jf.dexlib2.iface.instruction.Instruction;
+import org.jf.dexlib2.iface.instruction.ReferenceInstruction;
+import org.jf.dexlib2.iface.reference.Reference;
+import org.jf.dexlib2.iface.reference.StringReference;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 旧版类签名哈希（拼接字符串后计算 MD5），仅作为 {@link ClassHasherBenchmark} 的对照基线
+ *
+ * 与 ClassHasher 引入前 DexDiffer.calculateClassHash 的实现一致，不在补丁生成中使用。
+ */
+final class LegacyClassHasher {
+
+    String hash(ClassDef classDef) {
+        StringBuilder sb = new StringBuilder();
+
+        // 类基本信息
+        sb.append(classDef.getType());
+        sb.append("|");
+        sb.append(classDef.getAccessFlags());
+        sb.append("|");
+        if (classDef.getSuperclass() != null) {
+            sb.append(classDef.getSuperclass());
+        }
+        sb.append("|");
+
+        // 接口
+        List<String> interfaces = new ArrayList<>();
+        for (String iface : classDef.getInterfaces()) {
+            interfaces.add(iface);
+        }
+        Collections.sort(interfaces);
+        sb.append(String.join(",", interfaces));
+        sb.append("|");
+
+        // 字段（按名称排序）
+        List<String> fieldSignatures = new ArrayList<>();
+        for (Field field : classDef.getFields()) {
+            fieldSignatures.add(field.getName() + ":" + field.getType() + ":" + field.getAccessFlags());
+        }
+        Collections.sort(fieldSignatures);
+        sb.append(String.join(",", fieldSignatures));
+        sb.append("|");
+
+        // 方法（按名称排序）
+        List<String> methodSignatures = new ArrayList<>();
+        for (Method method : classDef.getMethods()) {
+            methodSignatures.add(getMethodSignature(method));
+        }
+        Collections.sort(methodSignatures);
+        sb.append(String.join(",", methodSignatures));
+
+        return md5(sb.toString());
+    }
+
+    private String getMethodSignature(Method method) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(method.getName());
+        sb.append("(");
+
+        // 参数类型
+        List<String> params = new ArrayList<>();
+        for (CharSequence param : method.getParameterTypes()) {
+            params.add(param.toString());
+        }
+        sb.append(String.join(",", params));
+        sb.append(")");
+        sb.append(method.getReturnType());
+        sb.append(":");
+        sb.append(method.getAccessFlags());
+
+        // 方法实现哈希
+        MethodImplementation impl = method.getImplementation();
+        if (impl != null) {
+            sb.append(":");
+            sb.append(getImplementationHash(impl));
+        }
+
+        return sb.toString();
+    }
+
+    private String getImplementationHash(MethodImplementation impl) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(impl.getRegisterCount());
+        sb.append("|");
+
+        // 指令序列（包含字符串常量）
+        for (Instruction instruction : impl.getInstructions()) {
+            sb.append(instruction.getOpcode().name);
+            if (instruction instanceof ReferenceInstruction) {
+                Reference ref = ((ReferenceInstruction) instruction).getReference();
+                if (ref instanceof StringReference) {
+                    sb.append("[STR:");
+                    sb.append(((StringReference) ref).getString());
+                    sb.append("]");
+                }
+            }
+            sb.append(";");
+        }
+
+        return md5(sb.toString());
+    }
+
+    private String md5(String input) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            byte[] digest = md.digest(input.getBytes());
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // MD5 应该总是可用的
+            throw new RuntimeException("MD5 algorithm not available", e);
+        }
+    }
+}
@@ -0,0 +1,513 @@
+package com.orange.patchgen;
+
+import com.orange.patchgen.PatchGenerator.PatchGeneratorException;
+import com.orange.patchgen.callback.GeneratorErrorCode;
+import com.orange.patchgen.config.EngineType;
+import com.orange.patchgen.config.GeneratorConfig;
+import com.orange.patchgen.config.PatchMode;
+import com.orange.patchgen.config.SigningConfig;
+import com.orange.patchgen.differ.BaselineCache;
+import com.orange.patchgen.differ.BaselineIndex;
+import com.orange.patchgen.differ.DexDiffException;
+import com.orange.patchgen.differ.DexModelCache;
+import com.orange.patchgen.model.ApkInfo;
+import com.orange.patchgen.model.BatchManifest;
+import com.orange.patchgen.model.BatchResult;
+import com.orange.patchgen.model.PatchResult;
+import com.orange.patchgen.parser.ApkParser;
+import com.orange.patchgen.parser.ParseException;
+import com.orange.patchgen.parser.VersionInfo;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 批量补丁生成器
+ *
+ * 一个新版本 APK 针对多个历史基准版本生成补丁。新版本 APK 只解析、解压和计算类哈希一次，
+ * 各基准的比较和打包并行执行；每个基准输出一个补丁文件，并在输出目录写入 manifest.json 清单。
+ * 单个基准失败只记录在结果和清单中，不影响其他基准。
+ */
+public class BatchPatchGenerator {
+
+    /** 清单文件名 */
+    public static final String MANIFEST_FILE_NAME = "manifest.json";
+
+    private final List<File> baseApks;
+    private final File newApk;
+    private final File outputDir;
+    private final SigningConfig signingConfig;
+    private final EngineType engineType;
+    private final PatchMode patchMode;
+    private final GeneratorConfig config;
+    private final BatchCallback callback;
+
+    private final AtomicBoolean cancelled = new AtomicBoolean(false);
+    private final Set<PatchGenerator> running = new HashSet<>();
+
+    private BatchPatchGenerator(Builder builder) {
+        this.baseApks = new ArrayList<>(builder.baseApks);
+        this.newApk = builder.newApk;
+        this.outputDir = builder.outputDir;
+        this.signingConfig = builder.signingConfig;
+        this.engineType = builder.engineType;
+        this.patchMode = builder.patchMode;
+        this.config = builder.config != null ? builder.config : GeneratorConfig.builder().build();
+        this.callback = builder.callback;
+    }
+
+    /**
+     * 同步批量生成补丁
+     *
+     * @return 批量生成结果
+     * @throws PatchGeneratorException 新版本 APK 分析失败或无法写入清单时抛出
+     */
+    public BatchResult generate() throws PatchGeneratorException {
+        long startTime = System.currentTimeMillis();
+        validateInputs();
+
+        File workDir = createWorkDir();
+        DexModelCache dexCache = new DexModelCache(config.getMaxMemory() / 2);
+        ExecutorService pool = null;
+        try {
+            // 1. 分析新版本 APK（所有基准共用）
+            PreparedApk prepared = prepareNewApk(workDir, dexCache);
+
+            // 2. 并行生成各基准的补丁：线程和内存预算在并行任务间平分，另一半内存留给共享的 dex 模型缓存
+            int parallelism = Math.max(1, Math.min(baseApks.size(), config.getThreadCount()));
+            GeneratorConfig jobConfig = config.toBuilder()
+                    .threadCount(Math.max(1, config.getThreadCount() / parallelism))
+                    .maxMemory(config.getMaxMemory() / 2 / parallelism)
+                    .tempDir(workDir)
+                    .build();
+            List<File> outputFiles = assignOutputFiles();
+
+            pool = createBatchPool(parallelism);
+            AtomicInteger completed = new AtomicInteger();
+            List<Future<PatchResult>> futures = new ArrayList<>();
+            for (int i = 0; i < baseApks.size(); i++) {
+                File baseApk = baseApks.get(i);
+                File outputFile = outputFiles.get(i);
+                futures.add(pool.submit(() -> {
+                    PatchResult result = generateOne(baseApk, outputFile, prepared, jobConfig);
+                    notifyComplete(baseApk, result, completed.incrementAndGet());
+                    return result;
+                }));
+            }
+
+            BatchResult batchResult = new BatchResult();
+            for (int i = 0; i < baseApks.size(); i++) {
+                batchResult.addResult(baseApks.get(i), await(futures.get(i)));
+            }
+
+            // 3. 写入清单
+            BatchManifest manifest = createManifest(prepared.getIndex(), batchResult, outputFiles);
+            File manifestFile = new File(outputDir, MANIFEST_FILE_NAME);
+            FileUtils.writeStringToFile(manifestFile, manifest.toJson(), StandardCharsets.UTF_8);
+
+            batchResult.setManifest(manifest);
+            batchResult.setManifestFile(manifestFile);
+            batchResult.setGenerateTime(System.currentTimeMillis() - startTime);
+            return batchResult;
+
+        } catch (ParseException e) {
+            throw new PatchGeneratorException("APK parse failed: " + e.getMessage(), e.getErrorCode(), e);
+        } catch (DexDiffException e) {
+            throw new PatchGeneratorException("Dex analysis failed: " + e.getMessage(), e.getErrorCode(), e);
+        } catch (IOException e) {
+            throw new PatchGeneratorException("IO error: " + e.getMessage(),
+                    GeneratorErrorCode.ERROR_FILE_READ_FAILED, e);
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+            dexCache.clear();
+
+            // 清理工作目录（包括新版本 APK 的解压目录）
+            try {
+                FileUtils.deleteDirectory(workDir);
+            } catch (IOException e) {
+                // Ignore cleanup errors
+            }
+        }
+    }
+
+    /**
+     * 取消批量生成
+     *
+     * 正在生成的基准以取消错误结束，尚未开始的基准不再生成。
+     */
+    public void cancel() {
+        cancelled.set(true);
+        synchronized (running) {
+            for (PatchGenerator generator : running) {
+                generator.cancel();
+            }
+        }
+    }
+
+    /**
+     * 是否已取消
+     */
+    public boolean isCancelled() {
+        return cancelled.get();
+    }
+
+    /**
+     * 验证输入参数
+     */
+    private void validateInputs() throws PatchGeneratorException {
+        PatchGenerator.checkPatchModeSupported(patchMode);
+        if (baseApks.isEmpty()) {
+            throw new PatchGeneratorException("No base APK specified",
+                    GeneratorErrorCode.ERROR_FILE_NOT_FOUND);
+        }
+        if (newApk == null || !newApk.exists()) {
+            throw new PatchGeneratorException("New APK not found: "
+                    + (newApk != null ? newApk.getAbsolutePath() : null),
+                    GeneratorErrorCode.ERROR_FILE_NOT_FOUND);
+        }
+        if (!newApk.canRead()) {
+            throw new PatchGeneratorException("Cannot read new APK: " + newApk.getAbsolutePath(),
+                    GeneratorErrorCode.ERROR_FILE_READ_FAILED);
+        }
+        if (outputDir == null) {
+            throw new PatchGeneratorException("Output directory is null",
+                    GeneratorErrorCode.ERROR_FILE_WRITE_FAILED);
+        }
+        if (!outputDir.exists() && !outputDir.mkdirs()) {
+            throw new PatchGeneratorException("Cannot create output directory: " + outputDir.getAbsolutePath(),
+                    GeneratorErrorCode.ERROR_FILE_WRITE_FAILED);
+        }
+    }
+
+    /**
+     * 创建工作目录
+     */
+    private File createWorkDir() throws PatchGeneratorException {
+        File tempDir = config.getTempDir();
+        if (tempDir == null) {
+            tempDir = new File(System.getProperty("java.io.tmpdir"));
+        }
+
+        File workDir = new File(tempDir, "patch_batch_" + System.currentTimeMillis() + "_"
+                + UUID.randomUUID().toString().substring(0, 8));
+        if (!workDir.mkdirs()) {
+            throw new PatchGeneratorException("Cannot create temp directory: " + workDir.getAbsolutePath(),
+                    GeneratorErrorCode.ERROR_FILE_WRITE_FAILED);
+        }
+        return workDir;
+    }
+
+    /**
+     * 分析并完整解压新版本 APK
+     *
+     * 启用分析缓存时新版本的索引也写入缓存，之后以该版本为基准生成补丁时可直接命中。
+     */
+    private PreparedApk prepareNewApk(File workDir, DexModelCache dexCache)
+            throws ParseException, DexDiffException, IOException {
+        BaselineCache cache = config.getBaselineCacheDir() != null
+                ? new BaselineCache(config.getBaselineCacheDir(), dexCache) : null;
+        BaselineIndex index = cache != null ? cache.load(newApk) : null;
+        if (index == null) {
+            ApkInfo apkInfo = new ApkParser(dexCache).parse(newApk);
+            index = cache != null ? cache.build(newApk, apkInfo) : BaselineIndex.create(newApk, apkInfo, dexCache);
+        }
+
+        File extractDir = new File(workDir, "new");
+        new ApkParser().extract(newApk, extractDir);
+        index.getApkInfo().setExtractedDir(extractDir);
+        System.out.println("[BatchPatchGenerator] 新版本 APK 分析完成，基准数量: " + baseApks.size());
+        return new PreparedApk(index, extractDir, dexCache);
+    }
+
+    /**
+     * 为每个基准分配输出文件，同名基准追加序号
+     */
+    private List<File> assignOutputFiles() {
+        String newName = newApk.getName().replace(".apk", "");
+        Set<String> usedNames = new HashSet<>();
+        List<File> outputFiles = new ArrayList<>();
+        for (int i = 0; i < baseApks.size(); i++) {
+            String baseName = baseApks.get(i).getName().replace(".apk", "");
+            String fileName = String.format("patch_%s_to_%s.zip", baseName, newName);
+            if (!usedNames.add(fileName)) {
+                fileName = String.format("patch_%s_%d_to_%s.zip", baseName, i + 1, newName);
+                usedNames.add(fileName);
+            }
+            outputFiles.add(new File(outputDir, fileName));
+        }
+        return outputFiles;
+    }
+
+    /**
+     * 创建批量线程池
+     */
+    private ExecutorService createBatchPool(int threads) {
+        AtomicInteger index = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "patch-batch-" + index.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * 生成单个基准的补丁（在批量线程池中执行）
+     */
+    private PatchResult generateOne(File baseApk, File outputFile, PreparedApk prepared,
+                                    GeneratorConfig jobConfig) {
+        PatchGenerator generator = new PatchGenerator.Builder()
+                .baseApk(baseApk)
+                .newApk(newApk)
+                .output(outputFile)
+                .signingConfig(signingConfig)
+                .engineType(engineType)
+                .patchMode(patchMode)
+                .config(jobConfig)
+                .preparedNew(prepared)
+                .build();
+        synchronized (running) {
+            if (cancelled.get()) {
+                return PatchResult.failure(GeneratorErrorCode.ERROR_CANCELLED, "Operation cancelled");
+            }
+            running.add(generator);
+        }
+        try {
+            return generator.generate();
+        } catch (PatchGeneratorException e) {
+            System.out.println("[BatchPatchGenerator] ⚠️ " + baseApk.getName() + " 生成失败: " + e.getMessage());
+            return PatchResult.failure(e.getErrorCode(), e.getMessage());
+        } finally {
+            synchronized (running) {
+                running.remove(generator);
+            }
+        }
+    }
+
+    private void notifyComplete(File baseApk, PatchResult result, int completed) {
+        if (callback == null) {
+            return;
+        }
+        synchronized (callback) {
+            callback.onPatchComplete(baseApk, result, completed, baseApks.size());
+        }
+    }
+
+    private PatchResult await(Future<PatchResult> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel();
+            return PatchResult.failure(GeneratorErrorCode.ERROR_CANCELLED, "Operation cancelled");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            return PatchResult.failure(GeneratorErrorCode.ERROR_UNKNOWN, String.valueOf(cause.getMessage()));
+        }
+    }
+
+    /**
+     * 创建批量生成清单
+     */
+    private BatchManifest createManifest(BaselineIndex newApkIndex, BatchResult batchResult,
+                                         List<File> outputFiles) throws IOException {
+        ApkInfo newApkInfo = newApkIndex.getApkInfo();
+        BatchManifest manifest = new BatchManifest();
+        manifest.setPackageName(newApkInfo.getPackageName());
+        manifest.setTargetVersion(newApkInfo.getVersionName());
+        manifest.setTargetVersionCode(newApkInfo.getVersionCode());
+        manifest.setNewApkSha256(newApkIndex.getApkSha256());
+        manifest.setPatchMode(patchMode.name().toLowerCase());
+
+        ApkParser parser = new ApkParser();
+        for (int i = 0; i < baseApks.size(); i++) {
+            File baseApk = baseApks.get(i);
+            PatchResult result = batchResult.getResult(baseApk);
+
+            BatchManifest.Entry entry = new BatchManifest.Entry();
+            entry.setBaseApk(baseApk.getName());
+            VersionInfo versionInfo = parser.getVersionInfo(baseApk);
+            if (versionInfo != null) {
+                entry.setBaseVersion(versionInfo.getVersionName());
+                entry.setBaseVersionCode(versionInfo.getVersionCode());
+            }
+            entry.setGenerateTime(result.getGenerateTime());
+
+            if (!result.isSuccess()) {
+                entry.setStatus(BatchManifest.STATUS_FAILED);
+                entry.setErrorCode(result.getErrorCode());
+                entry.setErrorMessage(result.getErrorMessage());
+            } else if (!result.hasPatch()) {
+                entry.setStatus(BatchManifest.STATUS_NO_CHANGE);
+            } else {
+                // 签名会改写补丁文件，MD5 按最终文件计算
+                File patchFile = outputFiles.get(i);
+                entry.setStatus(BatchManifest.STATUS_SUCCESS);
+                entry.setPatchFile(patchFile.getName());
+                entry.setPatchId(result.getPatchInfo() != null ? result.getPatchInfo().getPatchId() : null);
+                entry.setPatchSize(patchFile.length());
+                entry.setMd5(md5(patchFile));
+            }
+            manifest.getPatches().add(entry);
+        }
+        return manifest;
+    }
+
+    /**
+     * 计算文件 MD5
+     */
+    private String md5(File file) throws IOException {
+        try {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            try (InputStream is = new FileInputStream(file)) {
+                byte[] buffer = new byte[8192];
+                int bytesRead;
+                while ((bytesRead = is.read(buffer)) != -1) {
+                    md.update(buffer, 0, bytesRead);
+                }
+            }
+            StringBuilder sb = new StringBuilder();
+            for (byte b : md.digest()) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("MD5 algorithm not available", e);
+        }
+    }
+
+
+    // ==================== Builder ====================
+
+    /**
+     * BatchPatchGenerator 构建器
+     */
+    public static class Builder {
+        private final List<File> baseApks = new ArrayList<>();
+        private File newApk;
+        private File outputDir;
+        private SigningConfig signingConfig;
+        private EngineType engineType = EngineType.AUTO;
+        private PatchMode patchMode = PatchMode.FULL_DEX;
+        private GeneratorConfig config;
+        private BatchCallback callback;
+
+        public Builder() {
+        }
+
+        /**
+         * 添加基准 APK
+         */
+        public Builder addBaseApk(File apk) {
+            this.baseApks.add(apk);
+            return this;
+        }
+
+        /**
+         * 添加多个基准 APK
+         */
+        public Builder baseApks(List<File> apks) {
+            this.baseApks.addAll(apks);
+            return this;
+        }
+
+        /**
+         * 设置新版本 APK
+         */
+        public Builder newApk(File apk) {
+            this.newApk = apk;
+            return this;
+        }
+
+        /**
+         * 设置输出目录（补丁文件和 manifest.json）
+         */
+        public Builder outputDir(File dir) {
+            this.outputDir = dir;
+            return this;
+        }
+
+        /**
+         * 设置签名配置
+         */
+        public Builder signingConfig(SigningConfig config) {
+            this.signingConfig = config;
+            return this;
+        }
+
+        /**
+         * 设置引擎类型
+         */
+        public Builder engineType(EngineType type) {
+            this.engineType = type;
+            return this;
+        }
+
+        /**
+         * 设置补丁模式
+         */
+        public Builder patchMode(PatchMode mode) {
+            this.patchMode = mode;
+            return this;
+        }
+
+        /**
+         * 设置生成器配置
+         */
+        public Builder config(GeneratorConfig config) {
+            this.config = config;
+            return this;
+        }
+
+        /**
+         * 设置回调
+         */
+        public Builder callback(BatchCallback callback) {
+            this.callback = callback;
+            return this;
+        }
+
+        /**
+         * 构建 BatchPatchGenerator
+         */
+        public BatchPatchGenerator build() {
+            return new BatchPatchGenerator(this);
+        }
+    }
+
+    // ==================== Batch Callback ====================
+
+    /**
+     * 批量生成回调接口（按完成顺序回调，不会并发调用）
+     */
+    public interface BatchCallback {
+        /**
+         * 一个基准处理完成（成功、无需补丁或失败）
+         *
+         * @param baseApk 基准 APK
+         * @param result 生成结果
+         * @param completed 已完成的基准数量
+         * @param total 基准总数
+         */
+        void onPatchComplete(File baseApk, PatchResult result, int completed, int total);
+    }
+}
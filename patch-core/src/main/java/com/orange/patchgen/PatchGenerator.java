@@ -7,14 +7,22 @@ import com.orange.patchgen.config.EngineType;
 import com.orange.patchgen.config.GeneratorConfig;
 import com.orange.patchgen.config.PatchMode;
 import com.orange.patchgen.config.SigningConfig;
+import com.orange.patchgen.differ.ArchiveDiffResult;
+import com.orange.patchgen.differ.ArchiveDiffer;
+import com.orange.patchgen.differ.BaselineCache;
+import com.orange.patchgen.differ.BaselineIndex;
+import com.orange.patchgen.differ.DexClassIndex;
 import com.orange.patchgen.differ.DexDiffException;
 import com.orange.patchgen.differ.DexDiffResult;
 import com.orange.patchgen.differ.DexDiffer;
+import com.orange.patchgen.differ.DexModelCache;
 import com.orange.patchgen.differ.FileChange;
+import com.orange.patchgen.differ.MemoryBudget;
 import com.orange.patchgen.differ.ResourceDiffException;
 import com.orange.patchgen.differ.ResourceDiffResult;
 import com.orange.patchgen.differ.ResourceDiffer;
 import com.orange.patchgen.model.ApkInfo;
+import com.orange.patchgen.model.DexInfo;
 import com.orange.patchgen.model.DiffSummary;
 import com.orange.patchgen.model.PatchChanges;
 import com.orange.patchgen.model.PatchInfo;
@@ -31,12 +39,21 @@ import org.apache.commons.io.FileUtils;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 补丁生成器主类
@@ -56,10 +73,20 @@ public class PatchGenerator {
     private final PatchMode patchMode;
     private final GeneratorCallback callback;
     private final GeneratorConfig config;
+    /** 批量生成时共享的新版本 APK，单独生成时为 null */
+    private final PreparedApk preparedNew;
     
+    /** 单个 dex 比较时的内存放大系数（dex 字节 + dexlib2 对象 + 类哈希表） */
+    private static final int DEX_MEMORY_FACTOR = 3;
+    /** 等待比较任务时检查取消标志的间隔 */
+    private static final long CANCEL_POLL_INTERVAL_MS = 200;
+
     private final AtomicBoolean cancelled = new AtomicBoolean(false);
     private ExecutorService executor;
     private Future<?> currentTask;
+    private volatile ExecutorService comparePool;
+    private DexModelCache dexCache;
+    private long compareMemory;
 
     private PatchGenerator(Builder builder) {
         this.baseApk = builder.baseApk;
@@ -70,6 +97,7 @@ public class PatchGenerator {
         this.patchMode = builder.patchMode;
         this.callback = builder.callback != null ? builder.callback : new SimpleGeneratorCallback();
         this.config = builder.config != null ? builder.config : GeneratorConfig.builder().build();
+        this.preparedNew = builder.preparedNew;
     }
 
     /**
@@ -89,13 +117,25 @@ public class PatchGenerator {
             // 创建临时目录
             tempDir = createTempDir();
             
-            // 1. 解析 APK
-            ApkInfo baseApkInfo = parseApk(baseApk, "base");
+            // 本次生成共享的 dex 模型缓存：每个 dex 只解析一次（批量生成时各基准共用）。
+            // maxMemory 在缓存和并行比较之间平分；批量生成时缓存由 BatchPatchGenerator 分配，maxMemory 即比较额度
+            if (preparedNew != null) {
+                dexCache = preparedNew.getDexCache();
+                compareMemory = config.getMaxMemory();
+            } else {
+                dexCache = new DexModelCache(config.getMaxMemory() / 2);
+                compareMemory = config.getMaxMemory() - config.getMaxMemory() / 2;
+            }
+            
+            // 1. 解析 APK（启用基准缓存时，命中后不再解析基准 APK）
+            BaselineIndex baseline = loadBaseline();
+            ApkInfo baseApkInfo = baseline != null ? baseline.getApkInfo() : parseApk(baseApk, "base");
             if (cancelled.get()) {
                 return PatchResult.failure(GeneratorErrorCode.ERROR_CANCELLED, "Operation cancelled");
             }
             
-            ApkInfo newApkInfo = parseApk(newApk, "new");
+            BaselineIndex newApkIndex = preparedNew != null ? preparedNew.getIndex() : null;
+            ApkInfo newApkInfo = newApkIndex != null ? newApkIndex.getApkInfo() : parseApk(newApk, "new");
             if (cancelled.get()) {
                 return PatchResult.failure(GeneratorErrorCode.ERROR_CANCELLED, "Operation cancelled");
             }
@@ -105,29 +145,72 @@ public class PatchGenerator {
             
             // 解压 APK 用于详细比较
             File baseExtractDir = new File(tempDir, "base");
-            File newExtractDir = new File(tempDir, "new");
+            File newExtractDir = preparedNew != null ? preparedNew.getExtractDir() : new File(tempDir, "new");
             
-            ApkParser parser = new ApkParser();
-            parser.extract(baseApk, baseExtractDir);
-            parser.extract(newApk, newExtractDir);
+            ArchiveDiffResult archiveDiff = null;
+            List<String> dexNames;
+            if (config.isInArchiveDiff()) {
+                // 包内比较：只解压发生变化的条目
+                archiveDiff = prepareInArchiveDiff(baseExtractDir, newExtractDir,
+                        baseline != null, preparedNew != null);
+                dexNames = archiveDiff.getAllDexFiles();
+            } else {
+                ApkParser parser = new ApkParser();
+                if (baseline != null) {
+                    // 基准分析结果来自索引，基准 APK 只按需解压条目
+                    baseExtractDir.mkdirs();
+                } else {
+                    parser.extract(baseApk, baseExtractDir);
+                }
+                if (preparedNew == null) {
+                    parser.extract(newApk, newExtractDir);
+                }
+                dexNames = listDexNames(baseExtractDir, newExtractDir, baseline);
+            }
             
             baseApkInfo.setExtractedDir(baseExtractDir);
-            newApkInfo.setExtractedDir(newExtractDir);
-            
-            // 比较 Dex 差异
-            List<DexDiffResult> dexDiffs = compareDex(baseExtractDir, newExtractDir);
-            if (cancelled.get()) {
-                return PatchResult.failure(GeneratorErrorCode.ERROR_CANCELLED, "Operation cancelled");
+            if (preparedNew == null) {
+                newApkInfo.setExtractedDir(newExtractDir);
             }
-            
-            // 比较资源差异
-            ResourceDiffResult resDiff = compareResources(baseExtractDir, newExtractDir);
-            if (cancelled.get()) {
+
+            // Dex、资源、Assets 比较并行执行，线程数由 threadCount 控制
+            List<DexDiffResult> dexDiffs;
+            DexClassIndex baseClassIndex = new DexClassIndex();
+            DexClassIndex newClassIndex = new DexClassIndex();
+            ResourceDiffResult resDiff;
+            ResourceDiffResult assetsDiff;
+            ExecutorService pool = createComparePool();
+            comparePool = pool;
+            try {
+                Future<ResourceDiffResult> resFuture;
+                Future<ResourceDiffResult> assetsFuture;
+                if (archiveDiff != null) {
+                    resFuture = CompletableFuture.completedFuture(archiveDiff.getResDiff());
+                    assetsFuture = CompletableFuture.completedFuture(archiveDiff.getAssetsDiff());
+                } else {
+                    resFuture = pool.submit(() -> compareResources(baseline, baseExtractDir, newExtractDir));
+                    assetsFuture = pool.submit(() -> compareAssets(baseline, baseExtractDir, newExtractDir));
+                }
+
+                // 比较 Dex 差异
+                dexDiffs = compareDex(dexNames, baseApkInfo, newApkInfo, baseline, newApkIndex,
+                        baseExtractDir, newExtractDir, baseClassIndex, newClassIndex, pool);
+
+                // 比较资源差异
+                resDiff = awaitCompare(resFuture);
+
+                // 比较 Assets 差异
+                assetsDiff = awaitCompare(assetsFuture);
+            } catch (CancellationException | RejectedExecutionException | InterruptedException e) {
+                // cancel() 关闭线程池后再提交任务会抛出 RejectedExecutionException
+                if (e instanceof InterruptedException) {
+                    Thread.currentThread().interrupt();
+                }
                 return PatchResult.failure(GeneratorErrorCode.ERROR_CANCELLED, "Operation cancelled");
+            } finally {
+                comparePool = null;
+                pool.shutdownNow();
             }
-            
-            // 比较 Assets 差异
-            ResourceDiffResult assetsDiff = compareAssets(baseExtractDir, newExtractDir);
             if (cancelled.get()) {
                 return PatchResult.failure(GeneratorErrorCode.ERROR_CANCELLED, "Operation cancelled");
             }
@@ -151,7 +234,10 @@ public class PatchGenerator {
             // 生成补丁 Dex 文件
             File patchDexDir = new File(tempDir, "patch_dex");
             patchDexDir.mkdirs();
-            List<File> patchDexFiles = generatePatchDexFiles(dexDiffs, newExtractDir, patchDexDir);
+            List<File> patchDexFiles = generatePatchDexFiles(dexDiffs, newClassIndex, newExtractDir, patchDexDir);
+            if (cancelled.get()) {
+                return PatchResult.failure(GeneratorErrorCode.ERROR_CANCELLED, "Operation cancelled");
+            }
             
             // 复制修改的资源文件
             File patchResDir = new File(tempDir, "patch_res");
@@ -256,6 +342,13 @@ public class PatchGenerator {
             throw new PatchGeneratorException(message, errorCode, e);
             
         } finally {
+            if (dexCache != null) {
+                if (preparedNew == null) {
+                    dexCache.clear();
+                }
+                dexCache = null;
+            }
+            
             // 清理临时目录
             if (tempDir != null && tempDir.exists()) {
                 try {
@@ -297,6 +390,10 @@ public class PatchGenerator {
      */
     public void cancel() {
         cancelled.set(true);
+        ExecutorService pool = comparePool;
+        if (pool != null) {
+            pool.shutdownNow();
+        }
         if (currentTask != null && !currentTask.isDone()) {
             currentTask.cancel(true);
         }
@@ -326,6 +423,8 @@ public class PatchGenerator {
      * 验证输入参数
      */
     private void validateInputs() throws PatchGeneratorException {
+        checkPatchModeSupported(patchMode);
+        
         if (baseApk == null) {
             throw new PatchGeneratorException("Base APK is null", 
                     GeneratorErrorCode.ERROR_FILE_NOT_FOUND);
@@ -366,6 +465,20 @@ public class PatchGenerator {
         }
     }
 
+    /**
+     * 检查补丁模式是否能被客户端应用
+     * 
+     * update 模块只能加载完整的 dex、资源和 resources.arsc，没有 bspatch 重建逻辑，
+     * 因此拒绝 BSDIFF 模式，而不是静默生成完整补丁。
+     */
+    static void checkPatchModeSupported(PatchMode mode) throws PatchGeneratorException {
+        if (mode == PatchMode.BSDIFF) {
+            throw new PatchGeneratorException("PatchMode.BSDIFF is not supported: the update client "
+                    + "cannot apply bsdiff entries. Use PatchMode.FULL_DEX.",
+                    GeneratorErrorCode.ERROR_PATCH_MODE_UNSUPPORTED);
+        }
+    }
+
     /**
      * 创建临时目录
      */
@@ -375,7 +488,9 @@ public class PatchGenerator {
             tempDir = new File(System.getProperty("java.io.tmpdir"));
         }
         
-        File workDir = new File(tempDir, "patch_gen_" + System.currentTimeMillis());
+        // 批量生成时多个任务可能在同一毫秒创建工作目录
+        File workDir = new File(tempDir, "patch_gen_" + System.currentTimeMillis() + "_"
+                + UUID.randomUUID().toString().substring(0, 8));
         if (!workDir.mkdirs()) {
             throw new PatchGeneratorException("Cannot create temp directory: " + workDir.getAbsolutePath(),
                     GeneratorErrorCode.ERROR_FILE_WRITE_FAILED);
@@ -388,21 +503,207 @@ public class PatchGenerator {
      */
     private ApkInfo parseApk(File apkFile, String name) throws ParseException {
         callback.onParseStart(apkFile.getAbsolutePath());
-        ApkParser parser = new ApkParser();
+        ApkParser parser = new ApkParser(dexCache);
         ApkInfo apkInfo = parser.parse(apkFile);
         callback.onParseProgress(1, 1);
         return apkInfo;
     }
 
 
+    /**
+     * 加载基准 APK 的分析索引
+     * 
+     * 优先从缓存读取；未命中或索引失效时解析基准 APK 并重建索引。
+     * 
+     * @return 基准索引，未启用缓存时返回 null
+     */
+    private BaselineIndex loadBaseline() throws ParseException, DexDiffException, IOException {
+        File cacheDir = config.getBaselineCacheDir();
+        if (cacheDir == null) {
+            return null;
+        }
+        
+        BaselineCache cache = new BaselineCache(cacheDir, dexCache);
+        BaselineIndex index = cache.load(baseApk);
+        if (index != null) {
+            System.out.println("[PatchGenerator] 使用基准缓存: " + baseApk.getName());
+            callback.onParseStart(baseApk.getAbsolutePath());
+            callback.onParseProgress(1, 1);
+            return index;
+        }
+        
+        ApkInfo apkInfo = parseApk(baseApk, "base");
+        System.out.println("[PatchGenerator] 生成基准缓存: " + baseApk.getName());
+        return cache.build(baseApk, apkInfo);
+    }
+
     /**
      * 比较 Dex 差异
+     * 
+     * 类按类型描述符在所有 dex 间全局比较：每个 dex 作为独立任务提交到比较线程池，
+     * 按比较内存额度（maxMemory 扣除 dex 模型缓存的部分）申请后计算类哈希并写入全局类索引，最后统一比较两个索引。
+     * 内容（MD5）在两个 APK 中都存在的 dex 不会被解析；有索引的一侧类哈希直接取自索引。
+     * 索引结果按文件名顺序收集，保证 onCompareProgress 按顺序回调。
      */
-    private List<DexDiffResult> compareDex(File baseExtractDir, File newExtractDir) 
-            throws DexDiffException {
-        DexDiffer dexDiffer = new DexDiffer();
+    private List<DexDiffResult> compareDex(List<String> dexNames,
+                                           ApkInfo baseApkInfo, ApkInfo newApkInfo,
+                                           BaselineIndex baseline, BaselineIndex newApkIndex,
+                                           File baseExtractDir, File newExtractDir,
+                                           DexClassIndex baseIndex, DexClassIndex newIndex,
+                                           ExecutorService pool)
+            throws DexDiffException, ResourceDiffException, InterruptedException {
         List<DexDiffResult> results = new ArrayList<>();
         
+        Map<String, String> baseMd5s = collectDexMd5s(baseApkInfo);
+        Map<String, String> newMd5s = collectDexMd5s(newApkInfo);
+        
+        MemoryBudget budget = new MemoryBudget(compareMemory);
+        List<Future<Void>> futures = new ArrayList<>();
+        for (String dexName : dexNames) {
+            // 另一侧存在相同内容的 dex 时，其中的类两边完全一致，无需解析
+            boolean baseShared = isSharedDex(baseMd5s.get(dexName), newMd5s);
+            if (baseline != null && !baseShared) {
+                baseIndex.add(dexName, baseline.getClassHashes(dexName));
+            }
+            File baseDex = baseShared || baseline != null ? null : new File(baseExtractDir, dexName);
+            boolean newShared = isSharedDex(newMd5s.get(dexName), baseMd5s);
+            if (newApkIndex != null && !newShared) {
+                newIndex.add(dexName, newApkIndex.getClassHashes(dexName));
+            }
+            File newDex = newShared || newApkIndex != null ? null : new File(newExtractDir, dexName);
+            futures.add(pool.submit(() -> indexDexPair(dexName, baseDex, newDex,
+                    baseIndex, newIndex, budget)));
+        }
+        
+        int total = dexNames.size();
+        for (int i = 0; i < total; i++) {
+            awaitCompare(futures.get(i));
+            callback.onCompareProgress(i + 1, total, dexNames.get(i));
+            
+            if (cancelled.get()) {
+                return results;
+            }
+        }
+        
+        DexDiffResult result = new DexDiffer(dexCache).compareIndexes(baseIndex, newIndex);
+        if (result.hasChanges()) {
+            results.add(result);
+        }
+        return results;
+    }
+
+    /**
+     * 解析一对同名 dex 并写入全局类索引（在比较线程池中执行）
+     */
+    private Void indexDexPair(String dexName, File baseDex, File newDex,
+                              DexClassIndex baseIndex, DexClassIndex newIndex,
+                              MemoryBudget budget) throws DexDiffException {
+        if (cancelled.get()) {
+            throw new CancellationException();
+        }
+        
+        boolean hasBase = baseDex != null && baseDex.exists();
+        boolean hasNew = newDex != null && newDex.exists();
+        if (!hasBase && !hasNew) {
+            return null;
+        }
+        
+        long estimate = ((hasBase ? baseDex.length() : 0) + (hasNew ? newDex.length() : 0))
+                * DEX_MEMORY_FACTOR;
+        int units;
+        try {
+            units = budget.acquire(estimate);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException();
+        }
+        try {
+            DexDiffer dexDiffer = new DexDiffer(dexCache);
+            if (hasBase) {
+                baseIndex.add(dexName, dexDiffer.hashClasses(baseDex));
+            }
+            if (cancelled.get()) {
+                throw new CancellationException();
+            }
+            if (hasNew) {
+                newIndex.add(dexName, dexDiffer.hashClasses(newDex));
+            }
+            return null;
+        } finally {
+            budget.release(units);
+        }
+    }
+
+    /**
+     * 收集 APK 中各 dex 的 MD5（文件名 -> MD5）
+     */
+    private Map<String, String> collectDexMd5s(ApkInfo apkInfo) {
+        Map<String, String> md5s = new HashMap<>();
+        if (apkInfo != null && apkInfo.getDexFiles() != null) {
+            for (DexInfo dexInfo : apkInfo.getDexFiles()) {
+                if (dexInfo.getMd5() != null) {
+                    md5s.put(dexInfo.getFileName(), dexInfo.getMd5());
+                }
+            }
+        }
+        return md5s;
+    }
+
+    /**
+     * 判断 dex 内容是否在另一个 APK 中也存在
+     */
+    private boolean isSharedDex(String md5, Map<String, String> otherMd5s) {
+        return md5 != null && otherMd5s.containsValue(md5);
+    }
+
+    /**
+     * 创建比较线程池
+     */
+    private ExecutorService createComparePool() {
+        int threads = Math.max(1, config.getThreadCount());
+        AtomicInteger index = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "patch-compare-" + index.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * 等待比较任务完成，期间响应 cancel()
+     */
+    private <T> T awaitCompare(Future<T> future)
+            throws DexDiffException, ResourceDiffException, InterruptedException {
+        while (true) {
+            if (cancelled.get()) {
+                future.cancel(true);
+                throw new CancellationException();
+            }
+            try {
+                return future.get(CANCEL_POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // 继续等待
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof DexDiffException) {
+                    throw (DexDiffException) cause;
+                }
+                if (cause instanceof ResourceDiffException) {
+                    throw (ResourceDiffException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new DexDiffException("Comparison failed: " + cause.getMessage(),
+                        GeneratorErrorCode.ERROR_COMPARE_FAILED, cause);
+            }
+        }
+    }
+
+    /**
+     * 收集解压目录和基准索引中的所有 dex 文件名（按文件名排序）
+     */
+    private List<String> listDexNames(File baseExtractDir, File newExtractDir, BaselineIndex baseline) {
         // 获取所有 dex 文件
         File[] baseDexFiles = baseExtractDir.listFiles((dir, name) -> 
                 name.matches("classes\\d*\\.dex"));
@@ -410,7 +711,7 @@ public class PatchGenerator {
                 name.matches("classes\\d*\\.dex"));
         
         // 收集所有 dex 文件名
-        java.util.Set<String> allDexNames = new java.util.HashSet<>();
+        java.util.Set<String> allDexNames = new java.util.TreeSet<>();
         if (baseDexFiles != null) {
             for (File f : baseDexFiles) {
                 allDexNames.add(f.getName());
@@ -421,62 +722,91 @@ public class PatchGenerator {
                 allDexNames.add(f.getName());
             }
         }
+        if (baseline != null) {
+            allDexNames.addAll(baseline.getDexNames());
+        }
+        return new ArrayList<>(allDexNames);
+    }
+
+    /**
+     * 包内比较模式：基于 ZIP 中央目录比较，只解压后续步骤需要的条目
+     * 
+     * 基准 APK 只解压内容变化或被删除的 dex（有基准索引时不需要）；新 APK 解压变化/新增的 dex、
+     * 变化/新增的资源和 assets，以及资源变化时所需的 resources.arsc。
+     * 
+     * @param baseIndexed 基准类哈希是否来自基准索引
+     * @param newExtracted 新 APK 是否已完整解压（批量生成）
+     */
+    private ArchiveDiffResult prepareInArchiveDiff(File baseExtractDir, File newExtractDir,
+                                                   boolean baseIndexed, boolean newExtracted)
+            throws ResourceDiffException, IOException {
+        ArchiveDiffer archiveDiffer = new ArchiveDiffer();
+        ArchiveDiffResult archiveDiff = archiveDiffer.compare(baseApk, newApk);
+        
+        List<String> baseEntries = new ArrayList<>();
+        if (!baseIndexed) {
+            baseEntries.addAll(archiveDiff.getChangedDexFiles());
+            baseEntries.addAll(archiveDiff.getDeletedDexFiles());
+        }
         
-        int current = 0;
-        int total = allDexNames.size();
+        List<String> newEntries = new ArrayList<>(archiveDiff.getChangedDexFiles());
+        newEntries.addAll(archiveDiff.getAddedDexFiles());
+        collectChangedEntries(archiveDiff.getResDiff(), "res/", newEntries);
+        collectChangedEntries(archiveDiff.getAssetsDiff(), "assets/", newEntries);
+        if (archiveDiff.getResDiff().hasChanges()) {
+            newEntries.add("resources.arsc");
+        }
         
-        for (String dexName : allDexNames) {
-            File baseDex = new File(baseExtractDir, dexName);
-            File newDex = new File(newExtractDir, dexName);
-            
-            callback.onCompareProgress(++current, total, dexName);
-            
-            if (!baseDex.exists() && newDex.exists()) {
-                // 新增的 dex 文件
-                DexDiffResult result = new DexDiffResult(dexName);
-                // 所有类都是新增的 - 需要解析 dex 获取类列表
-                result.addAddedClass("*"); // 标记整个 dex 为新增
-                results.add(result);
-            } else if (baseDex.exists() && !newDex.exists()) {
-                // 删除的 dex 文件
-                DexDiffResult result = new DexDiffResult(dexName);
-                result.addDeletedClass("*"); // 标记整个 dex 为删除
-                results.add(result);
-            } else if (baseDex.exists() && newDex.exists()) {
-                // 两个都存在，进行详细比较
-                DexDiffResult result = dexDiffer.compare(baseDex, newDex);
-                if (result.hasChanges()) {
-                    results.add(result);
-                }
+        baseExtractDir.mkdirs();
+        archiveDiffer.extractEntries(baseApk, baseEntries, baseExtractDir);
+        if (!newExtracted) {
+            newExtractDir.mkdirs();
+            archiveDiffer.extractEntries(newApk, newEntries, newExtractDir);
+        }
+        return archiveDiff;
+    }
+
+    /**
+     * 收集修改和新增文件的条目名
+     */
+    private void collectChangedEntries(ResourceDiffResult diff, String prefix, List<String> entries) {
+        if (diff.getModifiedFiles() != null) {
+            for (FileChange change : diff.getModifiedFiles()) {
+                entries.add(prefix + change.getRelativePath());
             }
-            
-            if (cancelled.get()) {
-                break;
+        }
+        if (diff.getAddedFiles() != null) {
+            for (FileChange change : diff.getAddedFiles()) {
+                entries.add(prefix + change.getRelativePath());
             }
         }
-        
-        return results;
     }
 
     /**
-     * 比较资源差异
+     * 比较资源差异（有基准索引时使用索引中的基准资源清单）
      */
-    private ResourceDiffResult compareResources(File baseExtractDir, File newExtractDir) 
+    private ResourceDiffResult compareResources(BaselineIndex baseline, File baseExtractDir, File newExtractDir) 
             throws ResourceDiffException {
         ResourceDiffer resourceDiffer = new ResourceDiffer();
-        File baseResDir = new File(baseExtractDir, "res");
         File newResDir = new File(newExtractDir, "res");
+        if (baseline != null) {
+            return resourceDiffer.compare(baseline.getApkInfo().getResources(), newResDir);
+        }
+        File baseResDir = new File(baseExtractDir, "res");
         return resourceDiffer.compare(baseResDir, newResDir);
     }
 
     /**
-     * 比较 Assets 差异
+     * 比较 Assets 差异（有基准索引时使用索引中的基准 assets 清单）
      */
-    private ResourceDiffResult compareAssets(File baseExtractDir, File newExtractDir) 
+    private ResourceDiffResult compareAssets(BaselineIndex baseline, File baseExtractDir, File newExtractDir) 
             throws ResourceDiffException {
         ResourceDiffer resourceDiffer = new ResourceDiffer();
-        File baseAssetsDir = new File(baseExtractDir, "assets");
         File newAssetsDir = new File(newExtractDir, "assets");
+        if (baseline != null) {
+            return resourceDiffer.compareAssets(baseline.getApkInfo().getAssets(), newAssetsDir);
+        }
+        File baseAssetsDir = new File(baseExtractDir, "assets");
         return resourceDiffer.compareAssets(baseAssetsDir, newAssetsDir);
     }
 
@@ -543,46 +873,20 @@ public class PatchGenerator {
     /**
      * 生成补丁 Dex 文件
      */
-    private List<File> generatePatchDexFiles(List<DexDiffResult> dexDiffs, 
+    private List<File> generatePatchDexFiles(List<DexDiffResult> dexDiffs,
+                                              DexClassIndex newClassIndex,
                                               File newExtractDir, 
                                               File outputDir) throws DexDiffException {
         List<File> patchDexFiles = new ArrayList<>();
-        DexDiffer dexDiffer = new DexDiffer();
+        DexDiffer dexDiffer = new DexDiffer(dexCache);
         
         for (DexDiffResult diff : dexDiffs) {
             if (!diff.hasChanges()) {
                 continue;
             }
             
-            // 如果是整个 dex 新增，直接复制
-            if (diff.getAddedClasses() != null && diff.getAddedClasses().contains("*")) {
-                File newDex = new File(newExtractDir, diff.getDexName());
-                if (newDex.exists()) {
-                    File patchDex = new File(outputDir, diff.getDexName());
-                    try {
-                        FileUtils.copyFile(newDex, patchDex);
-                        patchDexFiles.add(patchDex);
-                    } catch (IOException e) {
-                        throw new DexDiffException("Failed to copy dex file: " + e.getMessage(),
-                                GeneratorErrorCode.ERROR_FILE_WRITE_FAILED, e);
-                    }
-                }
-                continue;
-            }
-            
-            // 如果是整个 dex 删除，跳过（删除信息记录在 metadata 中）
-            if (diff.getDeletedClasses() != null && diff.getDeletedClasses().contains("*")) {
-                continue;
-            }
-            
-            // 生成包含修改和新增类的补丁 dex
-            File newDex = new File(newExtractDir, diff.getDexName());
-            if (newDex.exists()) {
-                File patchDex = dexDiffer.generatePatchDex(diff, newDex, outputDir);
-                if (patchDex != null && patchDex.exists()) {
-                    patchDexFiles.add(patchDex);
-                }
-            }
+            // 只包含真正变化的类，删除信息记录在 metadata 中
+            patchDexFiles.addAll(dexDiffer.generatePatchDexes(diff, newClassIndex, newExtractDir, outputDir));
         }
         
         return patchDexFiles;
@@ -741,6 +1045,7 @@ public class PatchGenerator {
         private PatchMode patchMode = PatchMode.FULL_DEX;
         private GeneratorCallback callback;
         private GeneratorConfig config;
+        private PreparedApk preparedNew;
 
         public Builder() {
         }
@@ -809,6 +1114,14 @@ public class PatchGenerator {
             return this;
         }
 
+        /**
+         * 设置预先分析好的新版本 APK（批量生成内部使用）
+         */
+        Builder preparedNew(PreparedApk prepared) {
+            this.preparedNew = prepared;
+            return this;
+        }
+
         /**
          * 构建 PatchGenerator
          */
@@ -0,0 +1,37 @@
+package com.orange.patchgen;
+
+import com.orange.patchgen.differ.BaselineIndex;
+import com.orange.patchgen.differ.DexModelCache;
+
+import java.io.File;
+
+/**
+ * 预先分析好的新版本 APK
+ *
+ * 批量生成时由 {@link BatchPatchGenerator} 创建一次，所有基准共用：
+ * 解析结果和类签名哈希来自索引，解压目录只读，dex 模型缓存在各任务间共享。
+ */
+final class PreparedApk {
+
+    private final BaselineIndex index;
+    private final File extractDir;
+    private final DexModelCache dexCache;
+
+    PreparedApk(BaselineIndex index, File extractDir, DexModelCache dexCache) {
+        this.index = index;
+        this.extractDir = extractDir;
+        this.dexCache = dexCache;
+    }
+
+    BaselineIndex getIndex() {
+        return index;
+    }
+
+    File getExtractDir() {
+        return extractDir;
+    }
+
+    DexModelCache getDexCache() {
+        return dexCache;
+    }
+}
@@ -0,0 +1,456 @@
+package com.orange.patchgen.bsdiff;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CancellationException;
+
+/**
+ * BsDiff 算法（纯 Java 实现）
+ *
+ * 基于 Colin Percival 的 bsdiff 算法，与 patch-native/src/main/cpp/src/bsdiff.c 的
+ * 扫描逻辑和输出格式一致，生成的差异文件可以直接由 Native bspatch 或 {@link BsPatch} 应用。
+ *
+ * 内存占用：
+ * - 后缀数组使用 SA-IS 构建，索引开销约 4 字节/字节（qsufsort 为 8 字节/字节）
+ * - 差异块和额外块写入临时文件，不在内存中缓存
+ * - 文件超过窗口大小时分段处理：新文件按半个窗口切分，每段只与旧文件中按比例对应的窗口比较，
+ *   约需 6 倍窗口大小的堆内存（旧数据 + 后缀数组 + 新数据）
+ *
+ * 文件不超过窗口大小时输出与 Native bsdiff 完全一致；分段后补丁仍是合法的 BSDIFF40，
+ * 只是无法匹配窗口之外的旧数据。
+ */
+public final class BsDiff {
+
+    static final byte[] MAGIC = "BSDIFF40".getBytes(StandardCharsets.US_ASCII);
+    static final int HEADER_SIZE = 32;
+
+    /** 窗口大小上限：后缀数组为 int[n + 1]，受数组长度限制 */
+    public static final int MAX_WINDOW_SIZE = Integer.MAX_VALUE - 16;
+    /** 窗口大小下限 */
+    public static final int MIN_WINDOW_SIZE = 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /** 扫描过程中检查取消和报告进度的间隔（字节） */
+    private static final int CHECK_INTERVAL = 1024 * 1024;
+
+    private final int windowSize;
+    private final BsDiffListener listener;
+
+    private BsDiff(Builder builder) {
+        this.windowSize = builder.windowSize;
+        this.listener = builder.listener;
+    }
+
+    /**
+     * 默认窗口大小：占用不超过最大堆的一半
+     */
+    public static int defaultWindowSize() {
+        long size = Runtime.getRuntime().maxMemory() / 12;
+        return (int) Math.max(MIN_WINDOW_SIZE, Math.min(MAX_WINDOW_SIZE, size));
+    }
+
+    /**
+     * 生成差异文件
+     *
+     * @param oldFile 旧文件
+     * @param newFile 新文件
+     * @param patchFile 输出的差异文件
+     * @throws IOException 读写失败时抛出
+     * @throws CancellationException 监听器取消时抛出
+     */
+    public void diff(File oldFile, File newFile, File patchFile) throws IOException {
+        long oldSize = oldFile.length();
+        long newSize = newFile.length();
+        File dbFile = new File(patchFile.getPath() + ".db.tmp");
+        File ebFile = new File(patchFile.getPath() + ".eb.tmp");
+
+        boolean completed = false;
+        try {
+            Output output;
+            try (RandomAccessFile oldRaf = new RandomAccessFile(oldFile, "r");
+                 RandomAccessFile newRaf = new RandomAccessFile(newFile, "r");
+                 OutputStream ctrlOut = new BufferedOutputStream(new FileOutputStream(patchFile), BUFFER_SIZE)) {
+                ctrlOut.write(new byte[HEADER_SIZE]);
+
+                try (OutputStream dbOut = new BufferedOutputStream(new FileOutputStream(dbFile), BUFFER_SIZE);
+                     OutputStream ebOut = new BufferedOutputStream(new FileOutputStream(ebFile), BUFFER_SIZE)) {
+                    output = new Output(ctrlOut, dbOut, ebOut);
+                    diffWindows(oldRaf, oldSize, newRaf, newSize, output);
+                }
+
+                // 控制块之后依次追加差异块和额外块
+                copy(dbFile, ctrlOut);
+                copy(ebFile, ctrlOut);
+            }
+
+            byte[] header = new byte[HEADER_SIZE];
+            byte[] buf = new byte[8];
+            System.arraycopy(MAGIC, 0, header, 0, MAGIC.length);
+            offtout(output.ctrlLen, buf);
+            System.arraycopy(buf, 0, header, 8, 8);
+            offtout(output.dbLen, buf);
+            System.arraycopy(buf, 0, header, 16, 8);
+            offtout(newSize, buf);
+            System.arraycopy(buf, 0, header, 24, 8);
+            try (RandomAccessFile raf = new RandomAccessFile(patchFile, "rw")) {
+                raf.write(header);
+            }
+            completed = true;
+        } finally {
+            dbFile.delete();
+            ebFile.delete();
+            // 失败或取消时不留下不完整的差异文件
+            if (!completed) {
+                patchFile.delete();
+            }
+        }
+    }
+
+    /**
+     * 按窗口切分新文件并逐段生成差异
+     */
+    private void diffWindows(RandomAccessFile oldRaf, long oldSize,
+                             RandomAccessFile newRaf, long newSize, Output output) throws IOException {
+        int window = (int) Math.min(windowSize, Math.max(oldSize, newSize));
+        // 旧文件需要分窗口时，新文件分段取窗口的一半，为前后偏移留出余量
+        int segmentLimit = oldSize > window ? window / 2 : window;
+        long oldStart = -1;
+        byte[] oldData = null;
+        int[] suffixArray = null;
+
+        for (long newStart = 0; newStart < newSize; ) {
+            int segmentSize = (int) Math.min(segmentLimit, newSize - newStart);
+            long windowStart = oldWindowStart(newStart, segmentSize, oldSize, newSize, window);
+            if (windowStart != oldStart || oldData == null) {
+                oldData = null;
+                suffixArray = null;
+                oldData = read(oldRaf, windowStart, (int) Math.min(window, oldSize));
+                checkpoint(newStart, newSize);
+                suffixArray = SaIs.build(oldData);
+                if (newStart == 0 && windowStart > 0) {
+                    // bspatch 从旧文件 0 处开始，先定位到第一个窗口
+                    output.writeCtrl(0, 0, windowStart);
+                }
+                oldStart = windowStart;
+            }
+            byte[] newData = read(newRaf, newStart, segmentSize);
+
+            long nextStart = newStart + segmentSize;
+            long nextOldStart = -1;
+            if (nextStart < newSize) {
+                int nextSize = (int) Math.min(segmentLimit, newSize - nextStart);
+                nextOldStart = oldWindowStart(nextStart, nextSize, oldSize, newSize, window);
+            }
+            diffWindow(oldData, oldStart, suffixArray, newData, newStart, newSize, nextOldStart, output);
+            newStart = nextStart;
+        }
+        checkpoint(newSize, newSize);
+    }
+
+    /**
+     * 计算新文件分段对应的旧文件窗口起点（按位置比例对齐段中点）
+     */
+    static long oldWindowStart(long newStart, int segmentSize, long oldSize, long newSize, int window) {
+        if (oldSize <= window) {
+            return 0;
+        }
+        long middle = newStart + segmentSize / 2;
+        long oldMiddle = (long) ((double) middle / newSize * oldSize);
+        return Math.max(0, Math.min(oldSize - window, oldMiddle - window / 2));
+    }
+
+    /**
+     * 单个窗口内的 bsdiff 扫描
+     *
+     * @param oldStart 旧数据窗口在旧文件中的偏移
+     * @param newStart 新数据分段在新文件中的偏移
+     * @param nextOldStart 下一个窗口在旧文件中的偏移，最后一段为 -1
+     */
+    private void diffWindow(byte[] oldData, long oldStart, int[] suffixArray,
+                            byte[] newData, long newStart, long totalSize,
+                            long nextOldStart, Output output) throws IOException {
+        int oldSize = oldData.length;
+        int newSize = newData.length;
+        int[] matchPos = new int[1];
+
+        int scan = 0;
+        int len = 0;
+        int pos = 0;
+        int lastScan = 0;
+        int lastPos = 0;
+        int lastOffset = 0;
+        int nextCheck = CHECK_INTERVAL;
+
+        while (scan < newSize) {
+            int oldScore = 0;
+            int scsc;
+
+            for (scsc = scan += len; scan < newSize; scan++) {
+                if (scan >= nextCheck) {
+                    checkpoint(newStart + scan, totalSize);
+                    nextCheck = scan + CHECK_INTERVAL;
+                }
+
+                len = search(suffixArray, oldData, newData, scan, 0, oldSize, matchPos);
+                pos = matchPos[0];
+
+                for (; scsc < scan + len; scsc++) {
+                    if (scsc + lastOffset < oldSize && oldData[scsc + lastOffset] == newData[scsc]) {
+                        oldScore++;
+                    }
+                }
+
+                if ((len == oldScore && len != 0) || len > oldScore + 8) {
+                    break;
+                }
+
+                if (scan + lastOffset < oldSize && oldData[scan + lastOffset] == newData[scan]) {
+                    oldScore--;
+                }
+            }
+
+            if (len != oldScore || scan == newSize) {
+                // 向前扩展
+                long s = 0;
+                long sf = 0;
+                int lenF = 0;
+                for (int i = 0; lastScan + i < scan && lastPos + i < oldSize; ) {
+                    if (oldData[lastPos + i] == newData[lastScan + i]) {
+                        s++;
+                    }
+                    i++;
+                    if (s * 2 - i > sf * 2 - lenF) {
+                        sf = s;
+                        lenF = i;
+                    }
+                }
+
+                // 向后扩展
+                int lenB = 0;
+                if (scan < newSize) {
+                    s = 0;
+                    long sb = 0;
+                    for (int i = 1; scan >= lastScan + i && pos >= i; i++) {
+                        if (oldData[pos - i] == newData[scan - i]) {
+                            s++;
+                        }
+                        if (s * 2 - i > sb * 2 - lenB) {
+                            sb = s;
+                            lenB = i;
+                        }
+                    }
+                }
+
+                // 处理重叠
+                if (lastScan + lenF > scan - lenB) {
+                    int overlap = (lastScan + lenF) - (scan - lenB);
+                    s = 0;
+                    long ss = 0;
+                    int lenS = 0;
+                    for (int i = 0; i < overlap; i++) {
+                        if (newData[lastScan + lenF - overlap + i] == oldData[lastPos + lenF - overlap + i]) {
+                            s++;
+                        }
+                        if (newData[scan - lenB + i] == oldData[pos - lenB + i]) {
+                            s--;
+                        }
+                        if (s > ss) {
+                            ss = s;
+                            lenS = i + 1;
+                        }
+                    }
+                    lenF += lenS - overlap;
+                    lenB -= lenS;
+                }
+
+                int extraLen = (scan - lenB) - (lastScan + lenF);
+                long seek = (pos - lenB) - (lastPos + lenF);
+                if (scan == newSize && nextOldStart >= 0) {
+                    // 段末：定位到下一个窗口的起点
+                    seek = nextOldStart - (oldStart + lastPos + lenF);
+                }
+                output.writeDiff(oldData, lastPos, newData, lastScan, lenF);
+                output.writeExtra(newData, lastScan + lenF, extraLen);
+                output.writeCtrl(lenF, extraLen, seek);
+
+                lastScan = scan - lenB;
+                lastPos = pos - lenB;
+                lastOffset = pos - scan;
+            }
+        }
+    }
+
+    private void checkpoint(long current, long total) {
+        if (listener == null) {
+            return;
+        }
+        if (listener.isCancelled()) {
+            throw new CancellationException("bsdiff cancelled");
+        }
+        listener.onProgress(current, total);
+    }
+
+    // ==================== 最长匹配搜索 ====================
+
+    /**
+     * 在后缀数组 [st, en] 区间内二分查找与 newData[newStart..] 最长的匹配
+     *
+     * @param matchPos 输出匹配在旧数据中的位置
+     * @return 匹配长度
+     */
+    static int search(int[] I, byte[] oldData, byte[] newData, int newStart,
+                      int st, int en, int[] matchPos) {
+        while (en - st >= 2) {
+            int x = st + (en - st) / 2;
+            if (compare(oldData, I[x], newData, newStart) < 0) {
+                st = x;
+            } else {
+                en = x;
+            }
+        }
+
+        int x = matchLen(oldData, I[st], newData, newStart);
+        int y = matchLen(oldData, I[en], newData, newStart);
+        if (x > y) {
+            matchPos[0] = I[st];
+            return x;
+        }
+        matchPos[0] = I[en];
+        return y;
+    }
+
+    private static int matchLen(byte[] oldData, int oldStart, byte[] newData, int newStart) {
+        int max = Math.min(oldData.length - oldStart, newData.length - newStart);
+        int i = 0;
+        while (i < max && oldData[oldStart + i] == newData[newStart + i]) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * 按无符号字节比较两个后缀（只比较较短一方的长度，等价于 memcmp）
+     */
+    private static int compare(byte[] oldData, int oldStart, byte[] newData, int newStart) {
+        int max = Math.min(oldData.length - oldStart, newData.length - newStart);
+        for (int i = 0; i < max; i++) {
+            int a = oldData[oldStart + i] & 0xFF;
+            int b = newData[newStart + i] & 0xFF;
+            if (a != b) {
+                return a - b;
+            }
+        }
+        return 0;
+    }
+
+    // ==================== IO ====================
+
+    private static byte[] read(RandomAccessFile raf, long offset, int length) throws IOException {
+        byte[] data = new byte[length];
+        raf.seek(offset);
+        raf.readFully(data);
+        return data;
+    }
+
+    private static void copy(File file, OutputStream out) throws IOException {
+        try (InputStream is = new FileInputStream(file)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int bytesRead;
+            while ((bytesRead = is.read(buffer)) != -1) {
+                out.write(buffer, 0, bytesRead);
+            }
+        }
+    }
+
+    /**
+     * 写入 8 字节小端有符号数（符号位在最高字节最高位）
+     */
+    static void offtout(long x, byte[] buf) {
+        long y = x < 0 ? -x : x;
+        for (int i = 0; i < 8; i++) {
+            buf[i] = (byte) (y & 0xFF);
+            y >>>= 8;
+        }
+        if (x < 0) {
+            buf[7] |= (byte) 0x80;
+        }
+    }
+
+    /**
+     * 控制块、差异块、额外块输出
+     */
+    private static final class Output {
+        private final OutputStream ctrl;
+        private final OutputStream db;
+        private final OutputStream eb;
+        private final byte[] buf = new byte[8];
+        private final byte[] scratch = new byte[BUFFER_SIZE];
+        long ctrlLen;
+        long dbLen;
+
+        Output(OutputStream ctrl, OutputStream db, OutputStream eb) {
+            this.ctrl = ctrl;
+            this.db = db;
+            this.eb = eb;
+        }
+
+        void writeCtrl(long add, long extra, long seek) throws IOException {
+            offtout(add, buf);
+            ctrl.write(buf, 0, 8);
+            offtout(extra, buf);
+            ctrl.write(buf, 0, 8);
+            offtout(seek, buf);
+            ctrl.write(buf, 0, 8);
+            ctrlLen += 24;
+        }
+
+        void writeDiff(byte[] oldData, int oldOffset, byte[] newData, int newOffset, int length)
+                throws IOException {
+            for (int done = 0; done < length; ) {
+                int n = Math.min(scratch.length, length - done);
+                for (int i = 0; i < n; i++) {
+                    scratch[i] = (byte) (newData[newOffset + done + i] - oldData[oldOffset + done + i]);
+                }
+                db.write(scratch, 0, n);
+                done += n;
+            }
+            dbLen += length;
+        }
+
+        void writeExtra(byte[] newData, int offset, int length) throws IOException {
+            eb.write(newData, offset, length);
+        }
+    }
+
+    /**
+     * BsDiff 构建器
+     */
+    public static class Builder {
+        private int windowSize = defaultWindowSize();
+        private BsDiffListener listener;
+
+        /**
+         * 设置窗口大小，超过该大小的文件分段处理
+         */
+        public Builder windowSize(int windowSize) {
+            this.windowSize = Math.max(MIN_WINDOW_SIZE, Math.min(MAX_WINDOW_SIZE, windowSize));
+            return this;
+        }
+
+        public Builder listener(BsDiffListener listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        public BsDiff build() {
+            return new BsDiff(this);
+        }
+    }
+}
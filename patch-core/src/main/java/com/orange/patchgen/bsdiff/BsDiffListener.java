@@ -0,0 +1,21 @@
+package com.orange.patchgen.bsdiff;
+
+/**
+ * 差异生成/应用监听器
+ *
+ * 用于报告进度和检查取消，BsDiff 与 BsPatch 在处理过程中定期回调。
+ */
+public interface BsDiffListener {
+
+    /**
+     * 处理进度
+     * @param current 已处理的新文件字节数
+     * @param total 新文件总字节数
+     */
+    void onProgress(long current, long total);
+
+    /**
+     * 是否已取消，返回 true 时处理过程以 CancellationException 中止
+     */
+    boolean isCancelled();
+}
@@ -0,0 +1,160 @@
+package com.orange.patchgen.bsdiff;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+
+/**
+ * BsPatch 算法（纯 Java 实现）
+ *
+ * 应用 BSDIFF40 差异文件，与 patch-native/src/main/cpp/src/bspatch.c 的语义一致。
+ * 控制块、差异块、额外块以流方式读取，旧文件按需随机读取，内存占用与文件大小无关。
+ */
+public final class BsPatch {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /** 检查取消和报告进度的间隔（字节） */
+    private static final int CHECK_INTERVAL = 1024 * 1024;
+
+    private BsPatch() {
+    }
+
+    /**
+     * 应用差异文件
+     *
+     * @param oldFile 旧文件
+     * @param patchFile 差异文件
+     * @param newFile 输出的新文件
+     * @param listener 进度监听器，可为 null
+     * @throws IOException 读写失败或差异文件损坏时抛出
+     * @throws CancellationException 监听器取消时抛出
+     */
+    public static void apply(File oldFile, File patchFile, File newFile, BsDiffListener listener)
+            throws IOException {
+        long patchSize = patchFile.length();
+        byte[] header = new byte[BsDiff.HEADER_SIZE];
+        try (DataInputStream in = new DataInputStream(new FileInputStream(patchFile))) {
+            in.readFully(header);
+        }
+        for (int i = 0; i < BsDiff.MAGIC.length; i++) {
+            if (header[i] != BsDiff.MAGIC[i]) {
+                throw new IOException("Invalid bsdiff magic: " + patchFile.getName());
+            }
+        }
+        long ctrlLen = offtin(header, 8);
+        long dbLen = offtin(header, 16);
+        long newSize = offtin(header, 24);
+        if (ctrlLen < 0 || dbLen < 0 || newSize < 0
+                || BsDiff.HEADER_SIZE + ctrlLen + dbLen > patchSize) {
+            throw new IOException("Corrupt bsdiff header: " + patchFile.getName());
+        }
+
+        try (DataInputStream ctrlIn = open(patchFile, BsDiff.HEADER_SIZE);
+             DataInputStream diffIn = open(patchFile, BsDiff.HEADER_SIZE + ctrlLen);
+             DataInputStream extraIn = open(patchFile, BsDiff.HEADER_SIZE + ctrlLen + dbLen);
+             RandomAccessFile oldRaf = new RandomAccessFile(oldFile, "r");
+             OutputStream out = new BufferedOutputStream(new FileOutputStream(newFile), BUFFER_SIZE)) {
+            long oldSize = oldRaf.length();
+            byte[] ctrl = new byte[24];
+            byte[] newBuf = new byte[BUFFER_SIZE];
+            byte[] oldBuf = new byte[BUFFER_SIZE];
+            long oldPos = 0;
+            long newPos = 0;
+            long nextCheck = 0;
+
+            while (newPos < newSize) {
+                if (newPos >= nextCheck) {
+                    checkpoint(listener, newPos, newSize);
+                    nextCheck = newPos + CHECK_INTERVAL;
+                }
+
+                ctrlIn.readFully(ctrl);
+                long add = offtin(ctrl, 0);
+                long extra = offtin(ctrl, 8);
+                long seek = offtin(ctrl, 16);
+                if (add < 0 || extra < 0 || newPos + add + extra > newSize) {
+                    throw new IOException("Corrupt bsdiff control block: " + patchFile.getName());
+                }
+
+                // 差异块：新数据 = 差异 + 旧数据（旧文件范围之外按 0 处理）
+                for (long done = 0; done < add; ) {
+                    int n = (int) Math.min(BUFFER_SIZE, add - done);
+                    diffIn.readFully(newBuf, 0, n);
+                    readOld(oldRaf, oldSize, oldPos + done, oldBuf, n);
+                    for (int i = 0; i < n; i++) {
+                        newBuf[i] += oldBuf[i];
+                    }
+                    out.write(newBuf, 0, n);
+                    done += n;
+                }
+                newPos += add;
+                oldPos += add;
+
+                // 额外块：直接复制
+                for (long done = 0; done < extra; ) {
+                    int n = (int) Math.min(BUFFER_SIZE, extra - done);
+                    extraIn.readFully(newBuf, 0, n);
+                    out.write(newBuf, 0, n);
+                    done += n;
+                }
+                newPos += extra;
+                oldPos += seek;
+            }
+            checkpoint(listener, newSize, newSize);
+        }
+    }
+
+    private static DataInputStream open(File file, long offset) throws IOException {
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            fis.getChannel().position(offset);
+        } catch (IOException e) {
+            fis.close();
+            throw e;
+        }
+        return new DataInputStream(new BufferedInputStream(fis, BUFFER_SIZE));
+    }
+
+    /**
+     * 读取旧文件 [pos, pos + length) 范围，范围之外的部分填 0
+     */
+    private static void readOld(RandomAccessFile raf, long oldSize, long pos, byte[] buf, int length)
+            throws IOException {
+        Arrays.fill(buf, 0, length, (byte) 0);
+        long start = Math.max(pos, 0);
+        long end = Math.min(pos + length, oldSize);
+        if (start < end) {
+            raf.seek(start);
+            raf.readFully(buf, (int) (start - pos), (int) (end - start));
+        }
+    }
+
+    private static void checkpoint(BsDiffListener listener, long current, long total) {
+        if (listener == null) {
+            return;
+        }
+        if (listener.isCancelled()) {
+            throw new CancellationException("bspatch cancelled");
+        }
+        listener.onProgress(current, total);
+    }
+
+    /**
+     * 读取 8 字节小端有符号数（符号位在最高字节最高位）
+     */
+    static long offtin(byte[] buf, int offset) {
+        long y = buf[offset + 7] & 0x7F;
+        for (int i = 6; i >= 0; i--) {
+            y = (y << 8) | (buf[offset + i] & 0xFF);
+        }
+        return (buf[offset + 7] & 0x80) != 0 ? -y : y;
+    }
+}
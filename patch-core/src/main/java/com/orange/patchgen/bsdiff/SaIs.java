@@ -0,0 +1,473 @@
+package com.orange.patchgen.bsdiff;
+
+/**
+ * SA-IS 后缀数组构建（线性时间）
+ *
+ * 基于 Yuta Mori 的 sais-lite 2.4.1（MIT License）。递归子问题复用后缀数组本身的空间，
+ * 除结果数组外只需要两个桶数组，字节输入的索引开销约为 4 字节/字节
+ * （qsufsort 需要 I、V 两个数组）。
+ */
+final class SaIs {
+
+    private static final int MIN_BUCKET_SIZE = 256;
+
+    private SaIs() {
+    }
+
+    /**
+     * 构建 bsdiff 使用的后缀数组
+     *
+     * 结果大小为 data.length + 1，第 0 项为空后缀（data.length），
+     * 与 qsufsort 的输出一致。
+     *
+     * @param data 输入数据
+     * @return 后缀数组
+     */
+    static int[] build(byte[] data) {
+        int n = data.length;
+        int[] sa = new int[n + 1];
+        if (n > 0) {
+            // 使用 1 个空闲槽位构建 SA[0..n)，之后整体后移一位放入空后缀
+            saIs(new ByteArray(data), sa, 1, n, 256);
+            System.arraycopy(sa, 0, sa, 1, n);
+        }
+        sa[0] = n;
+        return sa;
+    }
+
+    // ==================== 输入抽象 ====================
+
+    private interface BaseArray {
+        int get(int i);
+
+        void set(int i, int val);
+
+        int update(int i, int val);
+    }
+
+    private static final class ByteArray implements BaseArray {
+        private final byte[] data;
+
+        ByteArray(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public int get(int i) {
+            return data[i] & 0xFF;
+        }
+
+        @Override
+        public void set(int i, int val) {
+            data[i] = (byte) val;
+        }
+
+        @Override
+        public int update(int i, int val) {
+            return (data[i] += (byte) val) & 0xFF;
+        }
+    }
+
+    private static final class IntArray implements BaseArray {
+        private final int[] data;
+        private final int offset;
+
+        IntArray(int[] data, int offset) {
+            this.data = data;
+            this.offset = offset;
+        }
+
+        @Override
+        public int get(int i) {
+            return data[offset + i];
+        }
+
+        @Override
+        public void set(int i, int val) {
+            data[offset + i] = val;
+        }
+
+        @Override
+        public int update(int i, int val) {
+            return data[offset + i] += val;
+        }
+    }
+
+    // ==================== SA-IS ====================
+
+    private static void getCounts(BaseArray t, BaseArray c, int n, int k) {
+        for (int i = 0; i < k; i++) {
+            c.set(i, 0);
+        }
+        for (int i = 0; i < n; i++) {
+            c.update(t.get(i), 1);
+        }
+    }
+
+    private static void getBuckets(BaseArray c, BaseArray b, int k, boolean end) {
+        int sum = 0;
+        if (end) {
+            for (int i = 0; i < k; i++) {
+                sum += c.get(i);
+                b.set(i, sum);
+            }
+        } else {
+            for (int i = 0; i < k; i++) {
+                sum += c.get(i);
+                b.set(i, sum - c.get(i));
+            }
+        }
+    }
+
+    /**
+     * 对所有 LMS 子串排序
+     */
+    private static void lmsSort(BaseArray t, int[] sa, BaseArray c, BaseArray b, int n, int k) {
+        int bi;
+        int i;
+        int j;
+        int c0;
+        int c1;
+
+        // L 型
+        if (c == b) {
+            getCounts(t, c, n, k);
+        }
+        getBuckets(c, b, k, false);
+        j = n - 1;
+        bi = b.get(c1 = t.get(j));
+        --j;
+        sa[bi++] = (t.get(j) < c1) ? ~j : j;
+        for (i = 0; i < n; i++) {
+            if (0 < (j = sa[i])) {
+                if ((c0 = t.get(j)) != c1) {
+                    b.set(c1, bi);
+                    bi = b.get(c1 = c0);
+                }
+                --j;
+                sa[bi++] = (t.get(j) < c1) ? ~j : j;
+                sa[i] = 0;
+            } else if (j < 0) {
+                sa[i] = ~j;
+            }
+        }
+
+        // S 型
+        if (c == b) {
+            getCounts(t, c, n, k);
+        }
+        getBuckets(c, b, k, true);
+        for (i = n - 1, bi = b.get(c1 = 0); 0 <= i; i--) {
+            if (0 < (j = sa[i])) {
+                if ((c0 = t.get(j)) != c1) {
+                    b.set(c1, bi);
+                    bi = b.get(c1 = c0);
+                }
+                --j;
+                sa[--bi] = (t.get(j) > c1) ? ~(j + 1) : j;
+                sa[i] = 0;
+            }
+        }
+    }
+
+    /**
+     * 压缩已排序的 LMS 子串并命名
+     *
+     * @return 不同名称的数量
+     */
+    private static int lmsPostProc(BaseArray t, int[] sa, int n, int m) {
+        int i;
+        int j;
+        int p;
+        int q;
+        int plen;
+        int qlen;
+        int name;
+        int c0;
+        int c1;
+        boolean diff;
+
+        // 把排好序的子串压缩到 SA 的前 m 项（2m 不超过 n）
+        for (i = 0; (p = sa[i]) < 0; i++) {
+            sa[i] = ~p;
+        }
+        if (i < m) {
+            for (j = i, ++i; ; i++) {
+                if ((p = sa[i]) < 0) {
+                    sa[j++] = ~p;
+                    sa[i] = 0;
+                    if (j == m) {
+                        break;
+                    }
+                }
+            }
+        }
+
+        // 记录所有子串的长度
+        i = n - 1;
+        j = n - 1;
+        c0 = t.get(n - 1);
+        do {
+            c1 = c0;
+        } while ((0 <= --i) && ((c0 = t.get(i)) >= c1));
+        while (0 <= i) {
+            do {
+                c1 = c0;
+            } while ((0 <= --i) && ((c0 = t.get(i)) <= c1));
+            if (0 <= i) {
+                sa[m + ((i + 1) >> 1)] = j - i;
+                j = i + 1;
+                do {
+                    c1 = c0;
+                } while ((0 <= --i) && ((c0 = t.get(i)) >= c1));
+            }
+        }
+
+        // 为所有子串命名
+        for (i = 0, name = 0, q = n, qlen = 0; i < m; i++) {
+            p = sa[i];
+            plen = sa[m + (p >> 1)];
+            diff = true;
+            if ((plen == qlen) && ((q + plen) < n)) {
+                for (j = 0; (j < plen) && (t.get(p + j) == t.get(q + j)); j++) {
+                    // 逐字符比较
+                }
+                if (j == plen) {
+                    diff = false;
+                }
+            }
+            if (diff) {
+                ++name;
+                q = p;
+                qlen = plen;
+            }
+            sa[m + (p >> 1)] = name;
+        }
+        return name;
+    }
+
+    /**
+     * 由排好序的 LMS 后缀诱导出完整后缀数组
+     */
+    private static void induceSA(BaseArray t, int[] sa, BaseArray c, BaseArray b, int n, int k) {
+        int bi;
+        int i;
+        int j;
+        int c0;
+        int c1;
+
+        // L 型
+        if (c == b) {
+            getCounts(t, c, n, k);
+        }
+        getBuckets(c, b, k, false);
+        j = n - 1;
+        bi = b.get(c1 = t.get(j));
+        sa[bi++] = ((0 < j) && (t.get(j - 1) < c1)) ? ~j : j;
+        for (i = 0; i < n; i++) {
+            j = sa[i];
+            sa[i] = ~j;
+            if (0 < j) {
+                --j;
+                if ((c0 = t.get(j)) != c1) {
+                    b.set(c1, bi);
+                    bi = b.get(c1 = c0);
+                }
+                sa[bi++] = ((0 < j) && (t.get(j - 1) < c1)) ? ~j : j;
+            }
+        }
+
+        // S 型
+        if (c == b) {
+            getCounts(t, c, n, k);
+        }
+        getBuckets(c, b, k, true);
+        for (i = n - 1, bi = b.get(c1 = 0); 0 <= i; i--) {
+            if (0 < (j = sa[i])) {
+                --j;
+                if ((c0 = t.get(j)) != c1) {
+                    b.set(c1, bi);
+                    bi = b.get(c1 = c0);
+                }
+                sa[--bi] = ((j == 0) || (t.get(j - 1) > c1)) ? ~j : j;
+            } else {
+                sa[i] = ~j;
+            }
+        }
+    }
+
+    /**
+     * SA-IS 主过程
+     *
+     * @param t 输入串
+     * @param sa 输出数组，可用长度为 n + fs
+     * @param fs sa 中可用于临时存储的空闲长度
+     * @param n 输入长度
+     * @param k 字母表大小
+     */
+    private static void saIs(BaseArray t, int[] sa, int fs, int n, int k) {
+        BaseArray c;
+        BaseArray b;
+        int i;
+        int j;
+        int bi;
+        int m;
+        int p;
+        int q;
+        int name;
+        int newfs;
+        int c0;
+        int c1;
+        int flags;
+
+        if (k <= MIN_BUCKET_SIZE) {
+            c = new IntArray(new int[k], 0);
+            if (k <= fs) {
+                b = new IntArray(sa, n + fs - k);
+                flags = 1;
+            } else {
+                b = new IntArray(new int[k], 0);
+                flags = 3;
+            }
+        } else if (k <= fs) {
+            c = new IntArray(sa, n + fs - k);
+            if (k <= (fs - k)) {
+                b = new IntArray(sa, n + fs - k * 2);
+                flags = 0;
+            } else if (k <= (MIN_BUCKET_SIZE * 4)) {
+                b = new IntArray(new int[k], 0);
+                flags = 2;
+            } else {
+                b = c;
+                flags = 8;
+            }
+        } else {
+            c = b = new IntArray(new int[k], 0);
+            flags = 4 | 8;
+        }
+
+        // 阶段 1：对所有 LMS 子串排序，问题规模至少减半
+        getCounts(t, c, n, k);
+        getBuckets(c, b, k, true);
+        for (i = 0; i < n; i++) {
+            sa[i] = 0;
+        }
+        bi = -1;
+        i = n - 1;
+        j = n;
+        m = 0;
+        c0 = t.get(n - 1);
+        do {
+            c1 = c0;
+        } while ((0 <= --i) && ((c0 = t.get(i)) >= c1));
+        while (0 <= i) {
+            do {
+                c1 = c0;
+            } while ((0 <= --i) && ((c0 = t.get(i)) <= c1));
+            if (0 <= i) {
+                if (bi >= 0) {
+                    sa[bi] = j;
+                }
+                bi = b.update(c1, -1);
+                j = i;
+                ++m;
+                do {
+                    c1 = c0;
+                } while ((0 <= --i) && ((c0 = t.get(i)) >= c1));
+            }
+        }
+
+        if (1 < m) {
+            lmsSort(t, sa, c, b, n, k);
+            name = lmsPostProc(t, sa, n, m);
+        } else if (m == 1) {
+            sa[bi] = j + 1;
+            name = 1;
+        } else {
+            name = 0;
+        }
+
+        // 阶段 2：名称不唯一时递归求解子问题
+        if (name < m) {
+            if ((flags & 4) != 0) {
+                c = null;
+                b = null;
+            }
+            if ((flags & 2) != 0) {
+                b = null;
+            }
+            newfs = (n + fs) - (m * 2);
+            if ((flags & (1 | 4 | 8)) == 0) {
+                if ((k + name) <= newfs) {
+                    newfs -= k;
+                } else {
+                    flags |= 8;
+                }
+            }
+            int ra = m + newfs;
+            for (i = m + (n >> 1) - 1, j = m - 1; m <= i; i--) {
+                if (sa[i] != 0) {
+                    sa[ra + j--] = sa[i] - 1;
+                }
+            }
+            saIs(new IntArray(sa, ra), sa, newfs, m, name);
+
+            i = n - 1;
+            j = m - 1;
+            c0 = t.get(n - 1);
+            do {
+                c1 = c0;
+            } while ((0 <= --i) && ((c0 = t.get(i)) >= c1));
+            while (0 <= i) {
+                do {
+                    c1 = c0;
+                } while ((0 <= --i) && ((c0 = t.get(i)) <= c1));
+                if (0 <= i) {
+                    sa[ra + j--] = i + 1;
+                    do {
+                        c1 = c0;
+                    } while ((0 <= --i) && ((c0 = t.get(i)) >= c1));
+                }
+            }
+            for (i = 0; i < m; i++) {
+                sa[i] = sa[ra + sa[i]];
+            }
+            if ((flags & 4) != 0) {
+                c = b = new IntArray(new int[k], 0);
+            }
+            if ((flags & 2) != 0) {
+                b = new IntArray(new int[k], 0);
+            }
+        }
+
+        // 阶段 3：诱导出原问题的结果
+        if ((flags & 8) != 0) {
+            getCounts(t, c, n, k);
+        }
+        // 把所有 LMS 后缀放入各自桶的末尾
+        if (1 < m) {
+            getBuckets(c, b, k, true);
+            i = m - 1;
+            j = n;
+            p = sa[m - 1];
+            c1 = t.get(p);
+            do {
+                q = b.get(c0 = c1);
+                while (q < j) {
+                    sa[--j] = 0;
+                }
+                do {
+                    sa[--j] = p;
+                    if (--i < 0) {
+                        break;
+                    }
+                    p = sa[i];
+                } while ((c1 = t.get(p)) == c0);
+            } while (0 <= i);
+            while (0 < j) {
+                sa[--j] = 0;
+            }
+        }
+        induceSA(t, sa, c, b, n, k);
+    }
+}
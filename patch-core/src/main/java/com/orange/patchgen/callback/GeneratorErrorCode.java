@@ -35,6 +35,7 @@ public class GeneratorErrorCode {
     public static final int ERROR_NATIVE_INIT_FAILED = 5002;
     public static final int ERROR_BSDIFF_FAILED = 5003;
     public static final int ERROR_BSPATCH_FAILED = 5004;
+    public static final int ERROR_PATCH_MODE_UNSUPPORTED = 5005;
 
     // 操作错误 (6xxx)
     public static final int ERROR_CANCELLED = 6001;
@@ -86,6 +87,8 @@ public class GeneratorErrorCode {
                 return "BsDiff operation failed";
             case ERROR_BSPATCH_FAILED:
                 return "BsPatch operation failed";
+            case ERROR_PATCH_MODE_UNSUPPORTED:
+                return "Patch mode not supported by the update client";
             case ERROR_CANCELLED:
                 return "Operation cancelled";
             case ERROR_TIMEOUT:
@@ -14,6 +14,8 @@ public class GeneratorConfig {
     private long maxMemory;
     private boolean verbose;
     private File tempDir;
+    private boolean inArchiveDiff;
+    private File baselineCacheDir;
 
     private GeneratorConfig(Builder builder) {
         this.engineType = builder.engineType;
@@ -22,6 +24,8 @@ public class GeneratorConfig {
         this.maxMemory = builder.maxMemory;
         this.verbose = builder.verbose;
         this.tempDir = builder.tempDir;
+        this.inArchiveDiff = builder.inArchiveDiff;
+        this.baselineCacheDir = builder.baselineCacheDir;
     }
 
     public EngineType getEngineType() {
@@ -48,10 +52,39 @@ public class GeneratorConfig {
         return tempDir;
     }
 
+    /**
+     * 是否直接在 APK 包内比较（不完整解压 APK）
+     */
+    public boolean isInArchiveDiff() {
+        return inArchiveDiff;
+    }
+
+    /**
+     * 基准 APK 分析缓存目录，为 null 时不使用缓存
+     */
+    public File getBaselineCacheDir() {
+        return baselineCacheDir;
+    }
+
     public static Builder builder() {
         return new Builder();
     }
 
+    /**
+     * 以当前配置为初始值创建构建器
+     */
+    public Builder toBuilder() {
+        return new Builder()
+                .engineType(engineType)
+                .patchMode(patchMode)
+                .threadCount(threadCount)
+                .maxMemory(maxMemory)
+                .verbose(verbose)
+                .tempDir(tempDir)
+                .inArchiveDiff(inArchiveDiff)
+                .baselineCacheDir(baselineCacheDir);
+    }
+
     public static class Builder {
         private EngineType engineType = EngineType.AUTO;
         private PatchMode patchMode = PatchMode.FULL_DEX;
@@ -59,6 +92,8 @@ public class GeneratorConfig {
         private long maxMemory = Runtime.getRuntime().maxMemory();
         private boolean verbose = false;
         private File tempDir = new File(System.getProperty("java.io.tmpdir"));
+        private boolean inArchiveDiff = false;
+        private File baselineCacheDir = null;
 
         public Builder engineType(EngineType type) {
             this.engineType = type;
@@ -90,6 +125,16 @@ public class GeneratorConfig {
             return this;
         }
 
+        public Builder inArchiveDiff(boolean inArchiveDiff) {
+            this.inArchiveDiff = inArchiveDiff;
+            return this;
+        }
+
+        public Builder baselineCacheDir(File dir) {
+            this.baselineCacheDir = dir;
+            return this;
+        }
+
         public GeneratorConfig build() {
             return new GeneratorConfig(this);
         }
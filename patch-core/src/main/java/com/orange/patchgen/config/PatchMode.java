@@ -5,5 +5,5 @@ package com.orange.patchgen.config;
  */
 public enum PatchMode {
     FULL_DEX,   // 完整 Dex 替换模式
-    BSDIFF      // 二进制差异模式
+    BSDIFF      // 二进制差异模式（客户端尚不能重建 .bsdiff 条目，生成器暂时拒绝此模式）
 }
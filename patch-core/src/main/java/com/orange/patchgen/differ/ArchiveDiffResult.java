@@ -0,0 +1,87 @@
+package com.orange.patchgen.differ;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * APK 包内差异比较结果
+ *
+ * 由 {@link ArchiveDiffer} 直接基于 ZIP 中央目录生成，不需要解压 APK。
+ * 包含资源、assets 的文件级差异，以及需要进一步做类级比较的 dex 列表。
+ */
+public class ArchiveDiffResult {
+    private ResourceDiffResult resDiff;
+    private ResourceDiffResult assetsDiff;
+    private List<String> changedDexFiles;
+    private List<String> addedDexFiles;
+    private List<String> deletedDexFiles;
+    private boolean resourcesArscChanged;
+
+    public ArchiveDiffResult() {
+        this.resDiff = new ResourceDiffResult();
+        this.assetsDiff = new ResourceDiffResult();
+        this.changedDexFiles = new ArrayList<>();
+        this.addedDexFiles = new ArrayList<>();
+        this.deletedDexFiles = new ArrayList<>();
+    }
+
+    public ResourceDiffResult getResDiff() {
+        return resDiff;
+    }
+
+    public ResourceDiffResult getAssetsDiff() {
+        return assetsDiff;
+    }
+
+    /**
+     * 两边都存在但内容不同的 dex 文件名
+     */
+    public List<String> getChangedDexFiles() {
+        return changedDexFiles;
+    }
+
+    /**
+     * 仅在新 APK 中存在的 dex 文件名
+     */
+    public List<String> getAddedDexFiles() {
+        return addedDexFiles;
+    }
+
+    /**
+     * 仅在基准 APK 中存在的 dex 文件名
+     */
+    public List<String> getDeletedDexFiles() {
+        return deletedDexFiles;
+    }
+
+    public boolean isResourcesArscChanged() {
+        return resourcesArscChanged;
+    }
+
+    public void setResourcesArscChanged(boolean resourcesArscChanged) {
+        this.resourcesArscChanged = resourcesArscChanged;
+    }
+
+    /**
+     * 获取需要比较的全部 dex 文件名（按文件名排序）
+     */
+    public List<String> getAllDexFiles() {
+        TreeSet<String> all = new TreeSet<>(changedDexFiles);
+        all.addAll(addedDexFiles);
+        all.addAll(deletedDexFiles);
+        return new ArrayList<>(all);
+    }
+
+    @Override
+    public String toString() {
+        return "ArchiveDiffResult{" +
+                "resDiff=" + resDiff +
+                ", assetsDiff=" + assetsDiff +
+                ", changedDexFiles=" + changedDexFiles +
+                ", addedDexFiles=" + addedDexFiles +
+                ", deletedDexFiles=" + deletedDexFiles +
+                ", resourcesArscChanged=" + resourcesArscChanged +
+                '}';
+    }
+}
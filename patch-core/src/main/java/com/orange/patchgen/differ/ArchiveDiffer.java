@@ -0,0 +1,253 @@
+package com.orange.patchgen.differ;
+
+import com.orange.patchgen.callback.GeneratorErrorCode;
+import net.lingala.zip4j.ZipFile;
+import net.lingala.zip4j.model.FileHeader;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * APK 包内差异比较器
+ *
+ * 直接读取两个 APK 的 ZIP 中央目录进行比较，不解压整个 APK：
+ * - 以 CRC32 + 未压缩大小作为快速预筛选，任一不同即判定为变化，不再读取内容确认
+ * - 预筛选一致的条目逐字节比较内容确认，避免 CRC32 碰撞漏掉真实的修改
+ * - 变化的条目流式读取并计算 MD5（用于 FileChange 记录）
+ * - 只把变化的条目解压到临时目录，临时磁盘占用与补丁大小成正比
+ */
+public class ArchiveDiffer {
+
+    private static final Pattern DEX_PATTERN = Pattern.compile("classes\\d*\\.dex");
+    private static final String RES_PREFIX = "res/";
+    private static final String ASSETS_PREFIX = "assets/";
+    private static final String RESOURCES_ARSC = "resources.arsc";
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * 比较两个 APK
+     *
+     * @param baseApk 基准 APK
+     * @param newApk 新版本 APK
+     * @return 包内差异结果
+     * @throws ResourceDiffException 读取 APK 失败时抛出
+     */
+    public ArchiveDiffResult compare(File baseApk, File newApk) throws ResourceDiffException {
+        ArchiveDiffResult result = new ArchiveDiffResult();
+
+        try (ZipFile baseZip = new ZipFile(baseApk);
+             ZipFile newZip = new ZipFile(newApk)) {
+            Map<String, FileHeader> baseEntries = readEntries(baseZip);
+            Map<String, FileHeader> newEntries = readEntries(newZip);
+
+            TreeSet<String> allNames = new TreeSet<>(baseEntries.keySet());
+            allNames.addAll(newEntries.keySet());
+
+            for (String name : allNames) {
+                FileHeader baseHeader = baseEntries.get(name);
+                FileHeader newHeader = newEntries.get(name);
+
+                if (DEX_PATTERN.matcher(name).matches()) {
+                    compareDexEntry(name, baseZip, baseHeader, newZip, newHeader, result);
+                } else if (name.startsWith(RES_PREFIX)) {
+                    compareEntry(name.substring(RES_PREFIX.length()), baseZip, baseHeader,
+                            newZip, newHeader, result.getResDiff());
+                } else if (name.startsWith(ASSETS_PREFIX)) {
+                    compareEntry(name.substring(ASSETS_PREFIX.length()), baseZip, baseHeader,
+                            newZip, newHeader, result.getAssetsDiff());
+                } else if (RESOURCES_ARSC.equals(name)) {
+                    result.setResourcesArscChanged(!sameEntry(baseZip, baseHeader, newZip, newHeader));
+                }
+            }
+        } catch (IOException e) {
+            throw new ResourceDiffException("Failed to compare APK entries: " + e.getMessage(),
+                    GeneratorErrorCode.ERROR_COMPARE_FAILED, e);
+        }
+
+        return result;
+    }
+
+    /**
+     * 只解压指定的条目
+     *
+     * @param apkFile APK 文件
+     * @param entryNames 需要解压的条目名（不存在的条目会被忽略）
+     * @param outputDir 输出目录，条目按原路径写入
+     * @throws IOException 解压失败时抛出
+     */
+    public void extractEntries(File apkFile, Collection<String> entryNames, File outputDir)
+            throws IOException {
+        if (entryNames == null || entryNames.isEmpty()) {
+            return;
+        }
+        if (!outputDir.exists()) {
+            outputDir.mkdirs();
+        }
+        String rootPath = outputDir.getCanonicalPath() + File.separator;
+
+        try (ZipFile zipFile = new ZipFile(apkFile)) {
+            for (String name : entryNames) {
+                FileHeader header = zipFile.getFileHeader(name);
+                if (header == null || header.isDirectory()) {
+                    continue;
+                }
+
+                File target = new File(outputDir, name);
+                if (!target.getCanonicalPath().startsWith(rootPath)) {
+                    throw new IOException("Illegal entry path: " + name);
+                }
+                File parent = target.getParentFile();
+                if (parent != null && !parent.exists()) {
+                    parent.mkdirs();
+                }
+
+                try (InputStream is = zipFile.getInputStream(header);
+                     OutputStream os = new FileOutputStream(target)) {
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    int bytesRead;
+                    while ((bytesRead = is.read(buffer)) != -1) {
+                        os.write(buffer, 0, bytesRead);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 读取中央目录中的文件条目
+     */
+    private Map<String, FileHeader> readEntries(ZipFile zipFile) throws IOException {
+        Map<String, FileHeader> entries = new HashMap<>();
+        for (FileHeader header : zipFile.getFileHeaders()) {
+            if (!header.isDirectory()) {
+                entries.put(header.getFileName(), header);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * 比较 dex 条目，只记录文件级状态，类级比较由 DexDiffer 完成
+     */
+    private void compareDexEntry(String name,
+                                 ZipFile baseZip, FileHeader baseHeader,
+                                 ZipFile newZip, FileHeader newHeader,
+                                 ArchiveDiffResult result) throws IOException {
+        if (baseHeader == null) {
+            result.getAddedDexFiles().add(name);
+        } else if (newHeader == null) {
+            result.getDeletedDexFiles().add(name);
+        } else if (!sameEntry(baseZip, baseHeader, newZip, newHeader)) {
+            result.getChangedDexFiles().add(name);
+        }
+    }
+
+    /**
+     * 比较普通文件条目
+     */
+    private void compareEntry(String relativePath,
+                              ZipFile baseZip, FileHeader baseHeader,
+                              ZipFile newZip, FileHeader newHeader,
+                              ResourceDiffResult result) throws IOException {
+        if (baseHeader == null) {
+            result.addAddedFile(FileChange.added(relativePath,
+                    md5(newZip, newHeader), newHeader.getUncompressedSize()));
+        } else if (newHeader == null) {
+            result.addDeletedFile(relativePath);
+        } else if (!sameEntry(baseZip, baseHeader, newZip, newHeader)) {
+            result.addModifiedFile(FileChange.modified(relativePath,
+                    md5(baseZip, baseHeader), md5(newZip, newHeader),
+                    baseHeader.getUncompressedSize(), newHeader.getUncompressedSize()));
+        }
+    }
+
+    /**
+     * 判断两个条目内容是否相同：CRC32 或未压缩大小不同时直接判定为变化，
+     * 两者都相同时再逐字节比较内容确认
+     */
+    private boolean sameEntry(ZipFile baseZip, FileHeader baseHeader,
+                              ZipFile newZip, FileHeader newHeader) throws IOException {
+        if (baseHeader == null || newHeader == null) {
+            return baseHeader == newHeader;
+        }
+        if (baseHeader.getCrc() != newHeader.getCrc()
+                || baseHeader.getUncompressedSize() != newHeader.getUncompressedSize()) {
+            return false;
+        }
+        return sameContent(baseZip, baseHeader, newZip, newHeader);
+    }
+
+    /**
+     * 流式逐字节比较两个条目的内容，遇到第一个不同的块即返回
+     */
+    private boolean sameContent(ZipFile baseZip, FileHeader baseHeader,
+                                ZipFile newZip, FileHeader newHeader) throws IOException {
+        byte[] baseBuffer = new byte[BUFFER_SIZE];
+        byte[] newBuffer = new byte[BUFFER_SIZE];
+        try (InputStream baseIn = baseZip.getInputStream(baseHeader);
+             InputStream newIn = newZip.getInputStream(newHeader)) {
+            while (true) {
+                int baseRead = readBlock(baseIn, baseBuffer);
+                int newRead = readBlock(newIn, newBuffer);
+                if (baseRead != newRead
+                        || !Arrays.equals(baseBuffer, 0, baseRead, newBuffer, 0, newRead)) {
+                    return false;
+                }
+                if (baseRead < BUFFER_SIZE) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    /**
+     * 读满缓冲区，返回实际读取的字节数（小于缓冲区长度表示已到末尾）
+     */
+    private int readBlock(InputStream is, byte[] buffer) throws IOException {
+        int total = 0;
+        while (total < buffer.length) {
+            int bytesRead = is.read(buffer, total, buffer.length - total);
+            if (bytesRead == -1) {
+                break;
+            }
+            total += bytesRead;
+        }
+        return total;
+    }
+
+    /**
+     * 流式计算条目内容的 MD5
+     */
+    private String md5(ZipFile zipFile, FileHeader header) throws IOException {
+        try {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            try (InputStream is = zipFile.getInputStream(header)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int bytesRead;
+                while ((bytesRead = is.read(buffer)) != -1) {
+                    md.update(buffer, 0, bytesRead);
+                }
+            }
+            byte[] digest = md.digest();
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // MD5 应该总是可用的
+            throw new RuntimeException("MD5 algorithm not available", e);
+        }
+    }
+}
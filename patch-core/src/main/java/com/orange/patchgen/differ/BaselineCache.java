@@ -0,0 +1,172 @@
+package com.orange.patchgen.differ;
+
+import com.google.gson.ExclusionStrategy;
+import com.google.gson.FieldAttributes;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.orange.patchgen.model.ApkInfo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 基准 APK 分析缓存
+ *
+ * 将 {@link BaselineIndex} 以 gzip 压缩的 JSON 保存在缓存目录中，
+ * 文件名为 APK 内容的 SHA-256，APK 内容变化后自动对应新的索引。
+ * 损坏、不完整或格式版本不一致的索引会被删除并重新生成。
+ * 写入先落到临时文件再重命名，多个进程共用一个缓存目录时不会读到半写的文件。
+ */
+public class BaselineCache {
+
+    private static final String FILE_SUFFIX = ".baseline.json.gz";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /** ApkInfo.extractedDir 只在单次生成中有效，不写入索引 */
+    private static final Gson GSON = new GsonBuilder()
+            .setExclusionStrategies(new ExclusionStrategy() {
+                @Override
+                public boolean shouldSkipField(FieldAttributes f) {
+                    return f.getDeclaredClass() == File.class;
+                }
+
+                @Override
+                public boolean shouldSkipClass(Class<?> clazz) {
+                    return false;
+                }
+            })
+            .create();
+
+    private final File cacheDir;
+    private final DexModelCache dexCache;
+
+    /**
+     * @param cacheDir 缓存目录
+     * @param dexCache 共享的 dex 模型缓存，为 null 时每次单独解析
+     */
+    public BaselineCache(File cacheDir, DexModelCache dexCache) {
+        this.cacheDir = cacheDir;
+        this.dexCache = dexCache;
+    }
+
+    /**
+     * 加载基准 APK 的索引
+     *
+     * @param apkFile 基准 APK
+     * @return 索引，不存在或已失效时返回 null
+     */
+    public BaselineIndex load(File apkFile) {
+        File indexFile = null;
+        try {
+            String sha256 = sha256(apkFile);
+            indexFile = getIndexFile(sha256);
+            if (!indexFile.exists()) {
+                return null;
+            }
+
+            BaselineIndex index;
+            try (Reader reader = new InputStreamReader(new GZIPInputStream(
+                    new BufferedInputStream(new FileInputStream(indexFile), BUFFER_SIZE)),
+                    StandardCharsets.UTF_8)) {
+                index = GSON.fromJson(reader, BaselineIndex.class);
+            }
+            if (index != null && index.isValidFor(sha256, apkFile.length())) {
+                return index;
+            }
+            System.out.println("[BaselineCache] ⚠️ 基准索引已失效，重新生成: " + indexFile.getName());
+        } catch (IOException | JsonParseException e) {
+            System.out.println("[BaselineCache] ⚠️ 基准索引读取失败，重新生成: " + e.getMessage());
+        }
+        if (indexFile != null) {
+            indexFile.delete();
+        }
+        return null;
+    }
+
+    /**
+     * 为基准 APK 构建索引并写入缓存
+     *
+     * 计算所有 dex 的类签名哈希；写入缓存失败只打印警告，不影响返回的索引。
+     *
+     * @param apkFile 基准 APK
+     * @param apkInfo 基准 APK 的解析结果
+     * @return 构建的索引
+     * @throws IOException 读取 APK 失败时抛出
+     * @throws DexDiffException 解析 dex 失败时抛出
+     */
+    public BaselineIndex build(File apkFile, ApkInfo apkInfo) throws IOException, DexDiffException {
+        BaselineIndex index = BaselineIndex.create(apkFile, apkInfo, dexCache);
+        try {
+            save(index);
+        } catch (IOException e) {
+            System.out.println("[BaselineCache] ⚠️ 基准索引写入失败: " + e.getMessage());
+        }
+        return index;
+    }
+
+    /**
+     * 获取索引文件
+     */
+    public File getIndexFile(String sha256) {
+        return new File(cacheDir, sha256 + FILE_SUFFIX);
+    }
+
+    private void save(BaselineIndex index) throws IOException {
+        if (!cacheDir.exists() && !cacheDir.mkdirs()) {
+            throw new IOException("Cannot create cache dir: " + cacheDir.getAbsolutePath());
+        }
+        File target = getIndexFile(index.getApkSha256());
+        File tmp = new File(cacheDir, target.getName() + "." + UUID.randomUUID() + ".tmp");
+        try {
+            try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmp), BUFFER_SIZE)),
+                    StandardCharsets.UTF_8)) {
+                GSON.toJson(index, writer);
+            }
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * 计算文件 SHA-256
+     */
+    static String sha256(File file) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            try (InputStream is = new FileInputStream(file)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int bytesRead;
+                while ((bytesRead = is.read(buffer)) != -1) {
+                    digest.update(buffer, 0, bytesRead);
+                }
+            }
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest.digest()) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 algorithm not available", e);
+        }
+    }
+}
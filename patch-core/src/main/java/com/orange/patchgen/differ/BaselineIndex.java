@@ -0,0 +1,139 @@
+package com.orange.patchgen.differ;
+
+import com.orange.patchgen.model.ApkInfo;
+import com.orange.patchgen.model.DexInfo;
+import net.lingala.zip4j.ZipFile;
+import net.lingala.zip4j.model.FileHeader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 基准 APK 分析索引
+ *
+ * 保存基准 APK 的解析结果（dex、资源、assets 的 MD5 和大小）以及每个 dex 的类签名哈希，
+ * 以 APK 内容的 SHA-256 为键持久化，由 {@link BaselineCache} 读写。
+ * 同一基准多次生成补丁时，命中索引后只需分析新版本 APK。
+ */
+public class BaselineIndex {
+
+    /** 索引格式版本，字段或类哈希算法变化时递增，旧索引自动失效 */
+    public static final int FORMAT_VERSION = 2;
+
+    private int formatVersion;
+    private String apkSha256;
+    private long apkSize;
+    private ApkInfo apkInfo;
+    private Map<String, Map<String, String>> classHashes;   // dex 文件名 -> (类名 -> 类哈希)
+
+    public BaselineIndex() {
+    }
+
+    public BaselineIndex(String apkSha256, long apkSize, ApkInfo apkInfo,
+                         Map<String, Map<String, String>> classHashes) {
+        this.formatVersion = FORMAT_VERSION;
+        this.apkSha256 = apkSha256;
+        this.apkSize = apkSize;
+        this.apkInfo = apkInfo;
+        this.classHashes = classHashes;
+    }
+
+    /**
+     * 分析 APK 并创建索引（不写入缓存）
+     *
+     * 直接从 APK 中读取 dex 条目计算类签名哈希，不需要解压。
+     *
+     * @param apkFile APK 文件
+     * @param apkInfo APK 的解析结果
+     * @param dexCache 共享的 dex 模型缓存，为 null 时每次单独解析
+     * @throws IOException 读取 APK 失败时抛出
+     * @throws DexDiffException 解析 dex 失败时抛出
+     */
+    public static BaselineIndex create(File apkFile, ApkInfo apkInfo, DexModelCache dexCache)
+            throws IOException, DexDiffException {
+        Map<String, Map<String, String>> classHashes = new HashMap<>();
+        DexDiffer dexDiffer = new DexDiffer(dexCache);
+        try (ZipFile zipFile = new ZipFile(apkFile)) {
+            if (apkInfo.getDexFiles() != null) {
+                for (DexInfo dexInfo : apkInfo.getDexFiles()) {
+                    FileHeader header = zipFile.getFileHeader(dexInfo.getFileName());
+                    if (header == null) {
+                        continue;
+                    }
+                    try (InputStream is = zipFile.getInputStream(header)) {
+                        classHashes.put(dexInfo.getFileName(), dexDiffer.hashClasses(is));
+                    }
+                }
+            }
+        }
+        return new BaselineIndex(BaselineCache.sha256(apkFile), apkFile.length(), apkInfo, classHashes);
+    }
+
+    /**
+     * 检查索引是否完整且属于指定 APK
+     *
+     * @param sha256 APK 内容的 SHA-256
+     * @param size APK 文件大小
+     */
+    public boolean isValidFor(String sha256, long size) {
+        if (formatVersion != FORMAT_VERSION || apkSize != size
+                || apkSha256 == null || !apkSha256.equals(sha256)
+                || apkInfo == null || classHashes == null) {
+            return false;
+        }
+        if (apkInfo.getDexFiles() != null) {
+            for (DexInfo dexInfo : apkInfo.getDexFiles()) {
+                if (dexInfo.getMd5() == null || !classHashes.containsKey(dexInfo.getFileName())) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    public int getFormatVersion() {
+        return formatVersion;
+    }
+
+    public String getApkSha256() {
+        return apkSha256;
+    }
+
+    public long getApkSize() {
+        return apkSize;
+    }
+
+    public ApkInfo getApkInfo() {
+        return apkInfo;
+    }
+
+    /**
+     * 获取 dex 中所有类的签名哈希
+     *
+     * @param dexName dex 文件名
+     * @return 类名到签名哈希的映射，dex 不存在时返回空映射
+     */
+    public Map<String, String> getClassHashes(String dexName) {
+        Map<String, String> hashes = classHashes != null ? classHashes.get(dexName) : null;
+        return hashes != null ? hashes : Collections.emptyMap();
+    }
+
+    /**
+     * 获取基准 APK 中的所有 dex 文件名
+     */
+    public List<String> getDexNames() {
+        List<String> names = new ArrayList<>();
+        if (apkInfo != null && apkInfo.getDexFiles() != null) {
+            for (DexInfo dexInfo : apkInfo.getDexFiles()) {
+                names.add(dexInfo.getFileName());
+            }
+        }
+        return names;
+    }
+}
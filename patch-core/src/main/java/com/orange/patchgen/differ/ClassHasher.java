@@ -0,0 +1,242 @@
+package com.orange.patchgen.differ;
+
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.Field;
+import org.jf.dexlib2.iface.Method;
+import org.jf.dexlib2.iface.MethodImplementation;
+import org.jf.dexlib2.iface.instruction.DualReferenceInstruction;
+import org.jf.dexlib2.iface.instruction.Instruction;
+import org.jf.dexlib2.iface.instruction.ReferenceInstruction;
+import org.jf.dexlib2.iface.reference.FieldReference;
+import org.jf.dexlib2.iface.reference.MethodProtoReference;
+import org.jf.dexlib2.iface.reference.MethodReference;
+import org.jf.dexlib2.iface.reference.Reference;
+import org.jf.dexlib2.iface.reference.StringReference;
+import org.jf.dexlib2.iface.reference.TypeReference;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 类签名哈希计算器
+ *
+ * 将类的结构（类型、访问标志、父类、接口、字段、方法）以及方法实现
+ * （寄存器数、指令操作码、指令引用）以带长度前缀的二进制形式直接写入
+ * 可复用的 MessageDigest，不拼接中间字符串。
+ *
+ * 字段和方法按 dexlib2 的引用顺序排序，输出与 dex 内布局无关，结果确定。
+ * 实例不是线程安全的，每个线程应使用独立实例。
+ */
+final class ClassHasher {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final int BUFFER_SIZE = 4096;
+
+    // 引用类型标记
+    private static final byte REF_NONE = 0;
+    private static final byte REF_STRING = 1;
+    private static final byte REF_TYPE = 2;
+    private static final byte REF_FIELD = 3;
+    private static final byte REF_METHOD = 4;
+    private static final byte REF_PROTO = 5;
+    private static final byte REF_OTHER = 6;
+
+    private final MessageDigest digest;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+
+    private final List<Field> fields = new ArrayList<>();
+    private final List<Method> methods = new ArrayList<>();
+    private final List<String> interfaces = new ArrayList<>();
+
+    ClassHasher() {
+        try {
+            this.digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            // MD5 应该总是可用的
+            throw new RuntimeException("MD5 algorithm not available", e);
+        }
+    }
+
+    /**
+     * 计算类的签名哈希
+     *
+     * @param classDef 类定义
+     * @return 32 位十六进制 MD5
+     */
+    String hash(ClassDef classDef) {
+        digest.reset();
+        position = 0;
+
+        // 类基本信息
+        putString(classDef.getType());
+        putInt(classDef.getAccessFlags());
+        putString(classDef.getSuperclass());
+
+        // 接口（排序）
+        interfaces.clear();
+        interfaces.addAll(classDef.getInterfaces());
+        Collections.sort(interfaces);
+        putInt(interfaces.size());
+        for (String iface : interfaces) {
+            putString(iface);
+        }
+
+        // 字段（按名称、类型排序）
+        fields.clear();
+        for (Field field : classDef.getFields()) {
+            fields.add(field);
+        }
+        Collections.sort(fields);
+        putInt(fields.size());
+        for (Field field : fields) {
+            putString(field.getName());
+            putString(field.getType());
+            putInt(field.getAccessFlags());
+        }
+
+        // 方法（按名称、参数、返回类型排序）
+        methods.clear();
+        for (Method method : classDef.getMethods()) {
+            methods.add(method);
+        }
+        Collections.sort(methods);
+        putInt(methods.size());
+        for (Method method : methods) {
+            putMethod(method);
+        }
+
+        fields.clear();
+        methods.clear();
+        interfaces.clear();
+        return finish();
+    }
+
+    private void putMethod(Method method) {
+        putString(method.getName());
+        List<? extends CharSequence> params = method.getParameterTypes();
+        putInt(params.size());
+        for (int i = 0; i < params.size(); i++) {
+            putString(params.get(i));
+        }
+        putString(method.getReturnType());
+        putInt(method.getAccessFlags());
+
+        // 方法实现：寄存器数 + 指令序列（操作码和引用）
+        // 操作码按名称写入，不依赖 dexlib2 Opcode 枚举的顺序，升级 dexlib2 后持久化的哈希仍然有效
+        MethodImplementation impl = method.getImplementation();
+        if (impl == null) {
+            putByte((byte) 0);
+            return;
+        }
+        putByte((byte) 1);
+        putInt(impl.getRegisterCount());
+        for (Instruction instruction : impl.getInstructions()) {
+            putString(instruction.getOpcode().name);
+            if (instruction instanceof ReferenceInstruction) {
+                putReference(((ReferenceInstruction) instruction).getReference());
+            }
+            if (instruction instanceof DualReferenceInstruction) {
+                putReference(((DualReferenceInstruction) instruction).getReference2());
+            }
+        }
+        putByte((byte) 0xFF);
+    }
+
+    private void putReference(Reference ref) {
+        if (ref instanceof StringReference) {
+            putByte(REF_STRING);
+            putString(((StringReference) ref).getString());
+        } else if (ref instanceof TypeReference) {
+            putByte(REF_TYPE);
+            putString(((TypeReference) ref).getType());
+        } else if (ref instanceof FieldReference) {
+            FieldReference fieldRef = (FieldReference) ref;
+            putByte(REF_FIELD);
+            putString(fieldRef.getDefiningClass());
+            putString(fieldRef.getName());
+            putString(fieldRef.getType());
+        } else if (ref instanceof MethodReference) {
+            MethodReference methodRef = (MethodReference) ref;
+            putByte(REF_METHOD);
+            putString(methodRef.getDefiningClass());
+            putString(methodRef.getName());
+            putCharSequences(methodRef.getParameterTypes());
+            putString(methodRef.getReturnType());
+        } else if (ref instanceof MethodProtoReference) {
+            MethodProtoReference protoRef = (MethodProtoReference) ref;
+            putByte(REF_PROTO);
+            putCharSequences(protoRef.getParameterTypes());
+            putString(protoRef.getReturnType());
+        } else if (ref != null) {
+            putByte(REF_OTHER);
+        } else {
+            putByte(REF_NONE);
+        }
+    }
+
+    private void putCharSequences(List<? extends CharSequence> values) {
+        putInt(values.size());
+        for (int i = 0; i < values.size(); i++) {
+            putString(values.get(i));
+        }
+    }
+
+    /**
+     * 写入带长度前缀的字符序列（null 写入 -1）
+     */
+    private void putString(CharSequence value) {
+        if (value == null) {
+            putInt(-1);
+            return;
+        }
+        int length = value.length();
+        putInt(length);
+        for (int i = 0; i < length; i++) {
+            putShort(value.charAt(i));
+        }
+    }
+
+    private void putInt(int value) {
+        ensureCapacity(4);
+        buffer[position++] = (byte) (value >>> 24);
+        buffer[position++] = (byte) (value >>> 16);
+        buffer[position++] = (byte) (value >>> 8);
+        buffer[position++] = (byte) value;
+    }
+
+    private void putShort(int value) {
+        ensureCapacity(2);
+        buffer[position++] = (byte) (value >>> 8);
+        buffer[position++] = (byte) value;
+    }
+
+    private void putByte(byte value) {
+        ensureCapacity(1);
+        buffer[position++] = value;
+    }
+
+    private void ensureCapacity(int bytes) {
+        if (position + bytes > BUFFER_SIZE) {
+            digest.update(buffer, 0, position);
+            position = 0;
+        }
+    }
+
+    private String finish() {
+        if (position > 0) {
+            digest.update(buffer, 0, position);
+            position = 0;
+        }
+        byte[] hash = digest.digest();
+        char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hex[i * 2] = HEX[(hash[i] >> 4) & 0x0F];
+            hex[i * 2 + 1] = HEX[hash[i] & 0x0F];
+        }
+        return new String(hex);
+    }
+}
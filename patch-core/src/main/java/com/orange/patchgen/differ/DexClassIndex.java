@@ -0,0 +1,67 @@
+package com.orange.patchgen.differ;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 全局类索引
+ *
+ * 汇总一个 APK 中所有 dex 文件的类签名哈希，并记录每个类所在的 dex 文件。
+ * 类按类型描述符比较，与所在的 classesN.dex 无关，
+ * 因此 D8 重新分配 multidex 导致的类搬迁不会被识别为新增/删除。
+ *
+ * 线程安全，可由多个比较任务并行填充。
+ */
+public class DexClassIndex {
+
+    private final Map<String, String> classHashes = new HashMap<>();
+    private final Map<String, String> classDexNames = new HashMap<>();
+
+    /**
+     * 添加一个 dex 文件的类哈希
+     *
+     * @param dexName dex 文件名
+     * @param hashes 类名到签名哈希的映射
+     */
+    public synchronized void add(String dexName, Map<String, String> hashes) {
+        for (Map.Entry<String, String> entry : hashes.entrySet()) {
+            classHashes.put(entry.getKey(), entry.getValue());
+            classDexNames.put(entry.getKey(), dexName);
+        }
+    }
+
+    /**
+     * 获取类签名哈希
+     */
+    public synchronized String getHash(String className) {
+        return classHashes.get(className);
+    }
+
+    /**
+     * 获取类所在的 dex 文件名
+     */
+    public synchronized String getDexName(String className) {
+        return classDexNames.get(className);
+    }
+
+    /**
+     * 获取类名到签名哈希的映射（只读快照）
+     */
+    public synchronized Map<String, String> getClassHashes() {
+        return Collections.unmodifiableMap(new HashMap<>(classHashes));
+    }
+
+    /**
+     * 获取所有类名（只读快照）
+     */
+    public synchronized Set<String> getClassNames() {
+        return Collections.unmodifiableSet(new HashSet<>(classHashes.keySet()));
+    }
+
+    public synchronized int size() {
+        return classHashes.size();
+    }
+}
@@ -3,19 +3,15 @@ package com.orange.patchgen.differ;
 import com.orange.patchgen.callback.GeneratorErrorCode;
 import com.orange.patchgen.model.ApkInfo;
 import com.orange.patchgen.model.DexInfo;
-import org.jf.dexlib2.DexFileFactory;
 import org.jf.dexlib2.Opcodes;
 import org.jf.dexlib2.iface.ClassDef;
 import org.jf.dexlib2.iface.DexFile;
-import org.jf.dexlib2.iface.Field;
-import org.jf.dexlib2.iface.Method;
-import org.jf.dexlib2.iface.MethodImplementation;
-import org.jf.dexlib2.iface.instruction.Instruction;
+import org.jf.dexlib2.writer.io.FileDataStore;
+import org.jf.dexlib2.writer.pool.DexPool;
 
 import java.io.File;
 import java.io.IOException;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.io.InputStream;
 import java.util.*;
 
 /**
@@ -28,6 +24,24 @@ import java.util.*;
  */
 public class DexDiffer {
 
+    /** 全局比较结果及补丁主 dex 的文件名 */
+    private static final String PATCH_DEX_NAME = "classes.dex";
+
+    private static final ThreadLocal<ClassHasher> CLASS_HASHER = ThreadLocal.withInitial(ClassHasher::new);
+
+    private final DexModelCache dexCache;
+
+    public DexDiffer() {
+        this(null);
+    }
+
+    /**
+     * @param dexCache 共享的 dex 模型缓存，为 null 时每次单独解析
+     */
+    public DexDiffer(DexModelCache dexCache) {
+        this.dexCache = dexCache;
+    }
+
     /**
      * 比较两个 Dex 文件
      * 
@@ -62,9 +76,13 @@ public class DexDiffer {
     /**
      * 比较两个 APK 的所有 Dex 文件
      * 
+     * 按类名在所有 dex 间全局比较，不按 dex 文件名配对，
+     * 类在 classesN.dex 之间搬迁不会被视为删除+新增。
+     * 内容（MD5）在两个 APK 中都存在的 dex 直接跳过。
+     * 
      * @param baseApk 基准 APK 信息
      * @param newApk 新版本 APK 信息
-     * @return 所有 dex 的差异比较结果列表
+     * @return 差异比较结果列表（有变化时包含一个全局结果）
      * @throws DexDiffException 比较失败时抛出
      */
     public List<DexDiffResult> compareAll(ApkInfo baseApk, ApkInfo newApk) throws DexDiffException {
@@ -74,67 +92,179 @@ public class DexDiffer {
         }
 
         List<DexDiffResult> results = new ArrayList<>();
-        
-        // 获取所有 dex 文件名
-        Set<String> allDexNames = new HashSet<>();
-        Map<String, DexInfo> baseDexMap = new HashMap<>();
-        Map<String, DexInfo> newDexMap = new HashMap<>();
-
-        if (baseApk.getDexFiles() != null) {
-            for (DexInfo dex : baseApk.getDexFiles()) {
-                baseDexMap.put(dex.getFileName(), dex);
-                allDexNames.add(dex.getFileName());
-            }
+        Set<String> baseMd5s = collectMd5s(baseApk.getDexFiles());
+        Set<String> newMd5s = collectMd5s(newApk.getDexFiles());
+
+        // 收集两边未共享 dex 中的类名
+        List<String> baseClasses = collectClassNames(baseApk.getDexFiles(), newMd5s);
+        List<String> newClasses = collectClassNames(newApk.getDexFiles(), baseMd5s);
+
+        DexDiffResult result = new DexDiffResult(PATCH_DEX_NAME);
+        compareClassLists(baseClasses, newClasses, result);
+        if (result.hasChanges()) {
+            results.add(result);
         }
 
-        if (newApk.getDexFiles() != null) {
-            for (DexInfo dex : newApk.getDexFiles()) {
-                newDexMap.put(dex.getFileName(), dex);
-                allDexNames.add(dex.getFileName());
-            }
+        return results;
+    }
+
+    /**
+     * 基于全局类索引比较两个 APK 的类
+     * 
+     * 未出现在索引中的类位于两个 APK 共享的 dex 中，视为未变化。
+     * 
+     * @param baseIndex 基准 APK 的类索引
+     * @param newIndex 新版本 APK 的类索引
+     * @return 全局差异结果，dex 名为 classes.dex
+     */
+    public DexDiffResult compareIndexes(DexClassIndex baseIndex, DexClassIndex newIndex) {
+        DexDiffResult result = new DexDiffResult(PATCH_DEX_NAME);
+        compareClasses(baseIndex.getClassHashes(), newIndex.getClassHashes(), result);
+        return result;
+    }
+
+    /**
+     * 计算 dex 文件中所有类的签名哈希，用于构建全局类索引
+     * 
+     * @param dexFile dex 文件
+     * @return 类名到签名哈希的映射
+     * @throws DexDiffException 解析失败时抛出
+     */
+    public Map<String, String> hashClasses(File dexFile) throws DexDiffException {
+        validateDexFile(dexFile, "dex");
+        try {
+            return parseDexClasses(dexFile);
+        } catch (IOException e) {
+            throw new DexDiffException("Failed to parse dex file: " + e.getMessage(),
+                    GeneratorErrorCode.ERROR_DEX_PARSE_FAILED, e);
+        }
+    }
+
+    /**
+     * 计算 dex 内容（如 APK 中的 dex 条目）中所有类的签名哈希
+     * 
+     * @param is dex 内容输入流，由调用方关闭
+     * @return 类名到签名哈希的映射
+     * @throws DexDiffException 解析失败时抛出
+     */
+    public Map<String, String> hashClasses(InputStream is) throws DexDiffException {
+        DexModelCache cache = dexCache != null ? dexCache : new DexModelCache(0);
+        try {
+            return cache.get(is).getClassHashes(this::calculateClassHash);
+        } catch (IOException e) {
+            throw new DexDiffException("Failed to parse dex: " + e.getMessage(),
+                    GeneratorErrorCode.ERROR_DEX_PARSE_FAILED, e);
+        }
+    }
+
+    /**
+     * 基于全局差异结果生成补丁 Dex
+     * 
+     * 只从新版本 dex 中取出真正变化的类（及其内部类、Lambda 类），
+     * 重新排布为 classes.dex、classes2.dex ...，超出单个 dex 的引用上限时自动拆分。
+     * 
+     * @param diff 全局差异结果
+     * @param newIndex 新版本 APK 的类索引
+     * @param newDexDir 新版本 dex 所在目录
+     * @param outputDir 输出目录
+     * @return 生成的补丁 dex 文件列表，没有需要打包的类时为空
+     * @throws DexDiffException 生成失败时抛出
+     */
+    public List<File> generatePatchDexes(DexDiffResult diff, DexClassIndex newIndex,
+                                         File newDexDir, File outputDir) throws DexDiffException {
+        List<File> patchDexFiles = new ArrayList<>();
+        if (diff == null || !diff.hasChanges()) {
+            return patchDexFiles;
+        }
+
+        Set<String> classesToInclude = new HashSet<>();
+        if (diff.getModifiedClasses() != null) {
+            classesToInclude.addAll(diff.getModifiedClasses());
+        }
+        if (diff.getAddedClasses() != null) {
+            classesToInclude.addAll(diff.getAddedClasses());
+        }
+        if (classesToInclude.isEmpty()) {
+            return patchDexFiles;
         }
 
-        // 比较每个 dex 文件
-        for (String dexName : allDexNames) {
-            DexInfo baseDex = baseDexMap.get(dexName);
-            DexInfo newDex = newDexMap.get(dexName);
+        // 扩展类列表，包含内部类和 Lambda 类（在全部新 dex 的类中查找）
+        Set<String> expandedClasses = expandClassesWithInnerAndLambda(
+                classesToInclude, newIndex.getClassNames());
 
-            DexDiffResult result = new DexDiffResult(dexName);
+        // 按所在 dex 分组，每个 dex 只加载一次
+        Map<String, Set<String>> classesByDex = new TreeMap<>();
+        for (String className : expandedClasses) {
+            String dexName = newIndex.getDexName(className);
+            if (dexName != null) {
+                classesByDex.computeIfAbsent(dexName, k -> new HashSet<>()).add(className);
+            }
+        }
 
-            if (baseDex == null && newDex != null) {
-                // 新增的 dex 文件，所有类都是新增的
-                if (newDex.getClassNames() != null) {
-                    for (String className : newDex.getClassNames()) {
-                        result.addAddedClass(className);
-                    }
+        try {
+            List<ClassDef> patchClasses = new ArrayList<>();
+            Opcodes opcodes = null;
+            for (Map.Entry<String, Set<String>> entry : classesByDex.entrySet()) {
+                File dexFile = new File(newDexDir, entry.getKey());
+                validateDexFile(dexFile, "new");
+                DexFile dex = loadModel(dexFile).getDexFile();
+                if (opcodes == null) {
+                    opcodes = dex.getOpcodes();
                 }
-            } else if (baseDex != null && newDex == null) {
-                // 删除的 dex 文件，所有类都是删除的
-                if (baseDex.getClassNames() != null) {
-                    for (String className : baseDex.getClassNames()) {
-                        result.addDeletedClass(className);
+                for (ClassDef classDef : dex.getClasses()) {
+                    if (entry.getValue().contains(convertDexTypeToClassName(classDef.getType()))) {
+                        patchClasses.add(classDef);
                     }
                 }
-            } else if (baseDex != null && newDex != null) {
-                // 两个 dex 都存在，需要详细比较
-                // 首先检查 MD5，如果相同则无需详细比较
-                if (baseDex.getMd5() != null && baseDex.getMd5().equals(newDex.getMd5())) {
-                    // MD5 相同，无变化
-                    continue;
-                }
-                
-                // MD5 不同，需要详细比较类
-                compareClassLists(baseDex.getClassNames(), newDex.getClassNames(), result);
             }
 
-            if (result.hasChanges()) {
-                results.add(result);
+            if (patchClasses.isEmpty()) {
+                return patchDexFiles;
+            }
+
+            if (!outputDir.exists()) {
+                outputDir.mkdirs();
             }
+            return writePatchDexes(patchClasses, outputDir, opcodes);
+
+        } catch (IOException e) {
+            throw new DexDiffException("Failed to generate patch dex: " + e.getMessage(),
+                    GeneratorErrorCode.ERROR_DEX_PARSE_FAILED, e);
         }
+    }
 
-        return results;
+    /**
+     * 收集 dex 的 MD5
+     */
+    private Set<String> collectMd5s(List<DexInfo> dexFiles) {
+        Set<String> md5s = new HashSet<>();
+        if (dexFiles != null) {
+            for (DexInfo dex : dexFiles) {
+                if (dex.getMd5() != null) {
+                    md5s.add(dex.getMd5());
+                }
+            }
+        }
+        return md5s;
     }
 
+    /**
+     * 收集未被另一侧共享的 dex 中的类名
+     */
+    private List<String> collectClassNames(List<DexInfo> dexFiles, Set<String> otherMd5s) {
+        List<String> classNames = new ArrayList<>();
+        if (dexFiles != null) {
+            for (DexInfo dex : dexFiles) {
+                if (dex.getMd5() != null && otherMd5s.contains(dex.getMd5())) {
+                    continue;
+                }
+                if (dex.getClassNames() != null) {
+                    classNames.addAll(dex.getClassNames());
+                }
+            }
+        }
+        return classNames;
+    }
 
     /**
      * 生成补丁 Dex（包含修改和新增的类）
@@ -166,11 +296,15 @@ public class DexDiffer {
         validateDexFile(newDexFile, "new");
 
         try {
-            // 解析新版本 dex 文件
-            DexFile newDex = DexFileFactory.loadDexFile(newDexFile, Opcodes.getDefault());
+            // 解析新版本 dex 文件（与 compare 阶段共享同一个模型）
+            DexFile newDex = loadModel(newDexFile).getDexFile();
 
             // 扩展类列表，包含内部类和 Lambda 类
-            Set<String> expandedClasses = expandClassesWithInnerAndLambda(classesToInclude, newDex);
+            Set<String> allClassNames = new HashSet<>();
+            for (ClassDef classDef : newDex.getClasses()) {
+                allClassNames.add(convertDexTypeToClassName(classDef.getType()));
+            }
+            Set<String> expandedClasses = expandClassesWithInnerAndLambda(classesToInclude, allClassNames);
 
             // 筛选需要的类
             List<ClassDef> patchClasses = new ArrayList<>();
@@ -209,34 +343,18 @@ public class DexDiffer {
      * 
      * 当一个类被修改时，它的内部类、匿名类和 Lambda 类也需要包含在补丁中，
      * 因为它们可能被主类引用，且它们的字节码可能也发生了变化。
+     * 所有类名先建立一次 {@link NestedClassIndex}，每个基础类按外部类直接查找。
      * 
      * @param baseClasses 基础类列表
-     * @param dexFile DEX 文件
+     * @param allClassNames DEX 中的所有类名
      * @return 扩展后的类列表
      */
-    private Set<String> expandClassesWithInnerAndLambda(Set<String> baseClasses, DexFile dexFile) {
+    private Set<String> expandClassesWithInnerAndLambda(Set<String> baseClasses, Collection<String> allClassNames) {
         Set<String> expandedClasses = new HashSet<>(baseClasses);
-        
-        // 收集所有 DEX 中的类名
-        Set<String> allClassNames = new HashSet<>();
-        for (ClassDef classDef : dexFile.getClasses()) {
-            allClassNames.add(convertDexTypeToClassName(classDef.getType()));
-        }
-        
-        // 对于每个基础类，查找其内部类、匿名类和 Lambda 类
+        NestedClassIndex nestedIndex = new NestedClassIndex(allClassNames);
         for (String baseClass : baseClasses) {
-            // 内部类和匿名类的命名模式: OuterClass$InnerClass, OuterClass$1, OuterClass$2
-            // Lambda 类的命名模式: OuterClass$$ExternalSyntheticLambda0
-            String prefix = baseClass + "$";
-            String lambdaPrefix = baseClass + "$$";
-            
-            for (String className : allClassNames) {
-                if (className.startsWith(prefix) || className.startsWith(lambdaPrefix)) {
-                    expandedClasses.add(className);
-                }
-            }
+            expandedClasses.addAll(nestedIndex.getNestedClasses(baseClass));
         }
-        
         return expandedClasses;
     }
 
@@ -269,142 +387,28 @@ public class DexDiffer {
      * @return 类名到签名哈希的映射
      */
     private Map<String, String> parseDexClasses(File dexFile) throws IOException {
-        Map<String, String> classHashes = new HashMap<>();
-
-        DexFile dex = DexFileFactory.loadDexFile(dexFile, Opcodes.getDefault());
-
-        for (ClassDef classDef : dex.getClasses()) {
-            String className = convertDexTypeToClassName(classDef.getType());
-            String classHash = calculateClassHash(classDef);
-            classHashes.put(className, classHash);
-        }
+        return loadModel(dexFile).getClassHashes(this::calculateClassHash);
+    }
 
-        return classHashes;
+    /**
+     * 加载 dex 模型，优先使用共享缓存
+     */
+    private DexModelCache.DexModel loadModel(File dexFile) throws IOException {
+        DexModelCache cache = dexCache != null ? dexCache : new DexModelCache(0);
+        return cache.get(dexFile);
     }
 
     /**
      * 计算类的签名哈希
      * 
-     * 基于类的完整定义（字段、方法、方法实现）计算哈希值，
-     * 用于判断类是否被修改。
+     * 基于类的完整定义（字段、方法、方法实现中的指令和引用）计算哈希值，
+     * 用于判断类是否被修改。计算过程不构建中间字符串，见 {@link ClassHasher}。
      * 
      * @param classDef 类定义
      * @return 类签名哈希（MD5）
      */
     String calculateClassHash(ClassDef classDef) {
-        StringBuilder sb = new StringBuilder();
-
-        // 类基本信息
-        sb.append(classDef.getType());
-        sb.append("|");
-        sb.append(classDef.getAccessFlags());
-        sb.append("|");
-        if (classDef.getSuperclass() != null) {
-            sb.append(classDef.getSuperclass());
-        }
-        sb.append("|");
-
-        // 接口
-        List<String> interfaces = new ArrayList<>();
-        for (String iface : classDef.getInterfaces()) {
-            interfaces.add(iface);
-        }
-        Collections.sort(interfaces);
-        sb.append(String.join(",", interfaces));
-        sb.append("|");
-
-        // 字段（按名称排序）
-        List<String> fieldSignatures = new ArrayList<>();
-        for (Field field : classDef.getFields()) {
-            fieldSignatures.add(getFieldSignature(field));
-        }
-        Collections.sort(fieldSignatures);
-        sb.append(String.join(",", fieldSignatures));
-        sb.append("|");
-
-        // 方法（按名称排序）
-        List<String> methodSignatures = new ArrayList<>();
-        for (Method method : classDef.getMethods()) {
-            methodSignatures.add(getMethodSignature(method));
-        }
-        Collections.sort(methodSignatures);
-        sb.append(String.join(",", methodSignatures));
-
-        return md5(sb.toString());
-    }
-
-
-    /**
-     * 获取字段签名
-     */
-    private String getFieldSignature(Field field) {
-        return field.getName() + ":" + field.getType() + ":" + field.getAccessFlags();
-    }
-
-    /**
-     * 获取方法签名（包含方法实现的哈希）
-     */
-    private String getMethodSignature(Method method) {
-        StringBuilder sb = new StringBuilder();
-        sb.append(method.getName());
-        sb.append("(");
-        
-        // 参数类型
-        List<String> params = new ArrayList<>();
-        for (CharSequence param : method.getParameterTypes()) {
-            params.add(param.toString());
-        }
-        sb.append(String.join(",", params));
-        sb.append(")");
-        sb.append(method.getReturnType());
-        sb.append(":");
-        sb.append(method.getAccessFlags());
-
-        // 方法实现哈希
-        MethodImplementation impl = method.getImplementation();
-        if (impl != null) {
-            sb.append(":");
-            sb.append(getImplementationHash(impl));
-        }
-
-        return sb.toString();
-    }
-
-    /**
-     * 获取方法实现的哈希
-     * 
-     * 包含指令序列和字符串常量，确保字符串修改也能被检测到
-     */
-    private String getImplementationHash(MethodImplementation impl) {
-        StringBuilder sb = new StringBuilder();
-        sb.append(impl.getRegisterCount());
-        sb.append("|");
-
-        // 指令序列（包含字符串常量）
-        for (Instruction instruction : impl.getInstructions()) {
-            sb.append(instruction.getOpcode().name);
-            
-            // 提取字符串常量
-            // const-string 和 const-string/jumbo 指令包含字符串引用
-            if (instruction instanceof org.jf.dexlib2.iface.instruction.ReferenceInstruction) {
-                org.jf.dexlib2.iface.instruction.ReferenceInstruction refInst = 
-                    (org.jf.dexlib2.iface.instruction.ReferenceInstruction) instruction;
-                org.jf.dexlib2.iface.reference.Reference ref = refInst.getReference();
-                
-                // 如果是字符串引用，包含字符串内容
-                if (ref instanceof org.jf.dexlib2.iface.reference.StringReference) {
-                    org.jf.dexlib2.iface.reference.StringReference strRef = 
-                        (org.jf.dexlib2.iface.reference.StringReference) ref;
-                    sb.append("[STR:");
-                    sb.append(strRef.getString());
-                    sb.append("]");
-                }
-            }
-            
-            sb.append(";");
-        }
-
-        return md5(sb.toString());
+        return CLASS_HASHER.get().hash(classDef);
     }
 
     /**
@@ -497,6 +501,42 @@ public class DexDiffer {
         return "L" + className.replace('.', '/') + ";";
     }
 
+    /**
+     * 写入补丁 dex 文件，超出单个 dex 的方法/字段/类型引用上限时拆分为多个 dex
+     */
+    private List<File> writePatchDexes(List<ClassDef> classes, File outputDir, Opcodes opcodes)
+            throws IOException {
+        List<File> dexFiles = new ArrayList<>();
+        DexPool pool = new DexPool(opcodes);
+        int classCount = 0;
+
+        for (ClassDef classDef : classes) {
+            pool.mark();
+            pool.internClass(classDef);
+            if (pool.hasOverflowed() && classCount > 0) {
+                // 当前 dex 已满，回滚后写出，再放入新的 dex
+                pool.reset();
+                dexFiles.add(writeDexPool(pool, outputDir, dexFiles.size()));
+                pool = new DexPool(opcodes);
+                pool.internClass(classDef);
+                classCount = 0;
+            }
+            classCount++;
+        }
+        dexFiles.add(writeDexPool(pool, outputDir, dexFiles.size()));
+        return dexFiles;
+    }
+
+    /**
+     * 写出 DexPool，按序号命名为 classes.dex、classes2.dex ...
+     */
+    private File writeDexPool(DexPool pool, File outputDir, int index) throws IOException {
+        String name = index == 0 ? PATCH_DEX_NAME : "classes" + (index + 1) + ".dex";
+        File dexFile = new File(outputDir, name);
+        pool.writeTo(new FileDataStore(dexFile));
+        return dexFile;
+    }
+
     /**
      * 写入补丁 dex 文件
      */
@@ -521,22 +561,4 @@ public class DexDiffer {
         // 写入 dex 文件
         org.jf.dexlib2.writer.pool.DexPool.writeTo(dataStore, patchDex);
     }
-
-    /**
-     * 计算字符串的 MD5 哈希
-     */
-    private String md5(String input) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("MD5");
-            byte[] digest = md.digest(input.getBytes());
-            StringBuilder sb = new StringBuilder();
-            for (byte b : digest) {
-                sb.append(String.format("%02x", b));
-            }
-            return sb.toString();
-        } catch (NoSuchAlgorithmException e) {
-            // MD5 应该总是可用的
-            throw new RuntimeException("MD5 algorithm not available", e);
-        }
-    }
 }
@@ -0,0 +1,296 @@
+package com.orange.patchgen.differ;
+
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.DexFile;
+import org.jf.dexlib2.util.DexUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Dex 模型缓存
+ *
+ * 单次补丁生成过程内共享的 dex 解析结果缓存。每个 dex 只读取、解析一次，
+ * 解析后的 DexFile、类名列表和类哈希表由 ApkParser、DexDiffer.compare
+ * 和 DexDiffer.generatePatchDex 共同使用。
+ *
+ * 缓存以 dex 内容的 MD5 为键，因此 APK 内的 dex 条目和解压后的同一个 dex 文件
+ * 会命中同一个模型，基准和新版本中内容相同的 dex 也只解析一次。
+ * 超出内存预算时按 LRU 淘汰。
+ *
+ * dex 文件以只读内存映射读取并计算 MD5，命中缓存时不会复制到堆上。
+ * 未命中时仍需复制为 byte[]：dexlib2 2.5.2 的 DexBuffer 及其读取器直接访问
+ * 内部的 byte[]，无法基于映射缓冲区解析。
+ */
+public class DexModelCache {
+
+    /** 模型内存估算系数（原始字节 + dexlib2 对象 + 类哈希表） */
+    private static final int MODEL_MEMORY_FACTOR = 3;
+    private static final int BUFFER_SIZE = 8192;
+
+    private final long maxBytes;
+    private final LinkedHashMap<String, DexModel> models = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, String> fileIndex = new HashMap<>();
+    private long usedBytes;
+
+    /**
+     * @param maxBytes 缓存内存预算（字节），小于等于 0 表示不限制
+     */
+    public DexModelCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * 获取 dex 文件的模型
+     *
+     * 同一文件（路径、大小、修改时间不变）再次获取时不会重新读取；
+     * 文件以内存映射方式计算 MD5，内容相同的模型已缓存时不复制到堆上。
+     *
+     * @param dexFile dex 文件
+     * @return dex 模型
+     * @throws IOException 读取或解析失败时抛出
+     */
+    public DexModel get(File dexFile) throws IOException {
+        String fileKey = dexFile.getAbsolutePath() + "|" + dexFile.length() + "|" + dexFile.lastModified();
+        synchronized (this) {
+            String md5 = fileIndex.get(fileKey);
+            DexModel model = md5 != null ? models.get(md5) : null;
+            if (model != null) {
+                return model;
+            }
+        }
+
+        DexModel model;
+        try (FileChannel channel = FileChannel.open(dexFile.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            String md5 = md5(mapped.duplicate());
+            synchronized (this) {
+                model = models.get(md5);
+            }
+            if (model == null) {
+                byte[] dexBytes = new byte[mapped.remaining()];
+                mapped.get(dexBytes);
+                model = get(md5, dexBytes);
+            }
+        }
+        synchronized (this) {
+            if (models.containsKey(model.getMd5())) {
+                fileIndex.put(fileKey, model.getMd5());
+            }
+        }
+        return model;
+    }
+
+    /**
+     * 从输入流（如 APK 中的 dex 条目）获取 dex 模型
+     *
+     * @param is dex 内容输入流，由调用方关闭
+     * @return dex 模型
+     * @throws IOException 读取或解析失败时抛出
+     */
+    public DexModel get(InputStream is) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int bytesRead;
+        while ((bytesRead = is.read(buffer)) != -1) {
+            bos.write(buffer, 0, bytesRead);
+        }
+        return get(bos.toByteArray());
+    }
+
+    /**
+     * 从内存中的 dex 内容获取模型
+     *
+     * @param dexBytes dex 内容
+     * @return dex 模型
+     * @throws IOException 不是有效的 dex 时抛出
+     */
+    public DexModel get(byte[] dexBytes) throws IOException {
+        return get(md5(ByteBuffer.wrap(dexBytes)), dexBytes);
+    }
+
+    private DexModel get(String md5, byte[] dexBytes) throws IOException {
+        synchronized (this) {
+            DexModel model = models.get(md5);
+            if (model != null) {
+                return model;
+            }
+        }
+
+        DexModel model = new DexModel(md5, parse(dexBytes), dexBytes.length);
+        synchronized (this) {
+            DexModel existing = models.get(md5);
+            if (existing != null) {
+                return existing;
+            }
+            models.put(md5, model);
+            usedBytes += model.getEstimatedSize();
+            evictIfNeeded(model);
+        }
+        return model;
+    }
+
+    /**
+     * 清空缓存
+     */
+    public synchronized void clear() {
+        models.clear();
+        fileIndex.clear();
+        usedBytes = 0;
+    }
+
+    /**
+     * 当前缓存的模型数量
+     */
+    public synchronized int size() {
+        return models.size();
+    }
+
+    /**
+     * 当前缓存占用的估算内存（字节）
+     */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * 按 LRU 淘汰，直到占用低于预算（刚加入的模型不会被淘汰），同时移除指向被淘汰模型的文件索引
+     */
+    private void evictIfNeeded(DexModel keep) {
+        if (maxBytes <= 0) {
+            return;
+        }
+        Iterator<Map.Entry<String, DexModel>> it = models.entrySet().iterator();
+        while (usedBytes > maxBytes && it.hasNext()) {
+            DexModel model = it.next().getValue();
+            if (model == keep) {
+                continue;
+            }
+            it.remove();
+            usedBytes -= model.getEstimatedSize();
+            fileIndex.values().removeIf(model.getMd5()::equals);
+        }
+    }
+
+    private DexFile parse(byte[] dexBytes) throws IOException {
+        try {
+            DexUtil.verifyDexHeader(dexBytes, 0);
+            return new DexBackedDexFile(Opcodes.getDefault(), dexBytes);
+        } catch (RuntimeException e) {
+            throw new IOException("Invalid dex file: " + e.getMessage(), e);
+        }
+    }
+
+    private static String md5(ByteBuffer data) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            md.update(data);
+            byte[] digest = md.digest();
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // MD5 应该总是可用的
+            throw new RuntimeException("MD5 algorithm not available", e);
+        }
+    }
+
+    /**
+     * 已解析的 dex 模型
+     */
+    public static class DexModel {
+        private final String md5;
+        private final DexFile dexFile;
+        private final long size;
+        private List<String> classNames;
+        private Map<String, String> classHashes;
+
+        DexModel(String md5, DexFile dexFile, long size) {
+            this.md5 = md5;
+            this.dexFile = dexFile;
+            this.size = size;
+        }
+
+        /**
+         * dex 内容的 MD5
+         */
+        public String getMd5() {
+            return md5;
+        }
+
+        /**
+         * dex 原始大小（字节）
+         */
+        public long getSize() {
+            return size;
+        }
+
+        public DexFile getDexFile() {
+            return dexFile;
+        }
+
+        /**
+         * 获取所有类名（com.example.Class 格式）
+         */
+        public synchronized List<String> getClassNames() {
+            if (classNames == null) {
+                List<String> names = new ArrayList<>();
+                for (ClassDef classDef : dexFile.getClasses()) {
+                    names.add(toClassName(classDef.getType()));
+                }
+                classNames = Collections.unmodifiableList(names);
+            }
+            return classNames;
+        }
+
+        /**
+         * 获取类名到类哈希的映射，首次调用时计算
+         *
+         * @param hasher 类哈希函数
+         */
+        public synchronized Map<String, String> getClassHashes(Function<ClassDef, String> hasher) {
+            if (classHashes == null) {
+                Map<String, String> hashes = new HashMap<>();
+                for (ClassDef classDef : dexFile.getClasses()) {
+                    hashes.put(toClassName(classDef.getType()), hasher.apply(classDef));
+                }
+                classHashes = Collections.unmodifiableMap(hashes);
+            }
+            return classHashes;
+        }
+
+        long getEstimatedSize() {
+            return size * MODEL_MEMORY_FACTOR;
+        }
+
+        /**
+         * 转换格式: Lcom/example/Class; -> com.example.Class
+         */
+        private static String toClassName(String dexType) {
+            if (dexType.startsWith("L") && dexType.endsWith(";")) {
+                return dexType.substring(1, dexType.length() - 1).replace('/', '.');
+            }
+            return dexType;
+        }
+    }
+}
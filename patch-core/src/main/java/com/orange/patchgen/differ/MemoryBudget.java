@@ -0,0 +1,58 @@
+package com.orange.patchgen.differ;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * 内存预算
+ *
+ * 基于 GeneratorConfig.maxMemory 的简单背压机制：并行比较任务在解析 dex 前
+ * 按预估内存申请额度，额度不足时阻塞等待其他任务释放。
+ * 单个任务的申请量会被限制在总预算以内，保证超大文件仍能单独执行。
+ */
+public class MemoryBudget {
+
+    private static final long UNIT = 1024;
+
+    private final Semaphore permits;
+    private final int totalUnits;
+
+    /**
+     * @param maxBytes 总内存预算（字节），小于等于 0 表示不限制
+     */
+    public MemoryBudget(long maxBytes) {
+        long units = maxBytes > 0 ? maxBytes / UNIT : Integer.MAX_VALUE;
+        this.totalUnits = (int) Math.max(1, Math.min(units, Integer.MAX_VALUE));
+        this.permits = new Semaphore(totalUnits, true);
+    }
+
+    /**
+     * 申请内存额度，额度不足时阻塞
+     *
+     * @param bytes 预估需要的字节数
+     * @return 实际占用的额度，需要传给 {@link #release(int)}
+     * @throws InterruptedException 等待时被中断
+     */
+    public int acquire(long bytes) throws InterruptedException {
+        int units = (int) Math.max(1, Math.min(bytes / UNIT, totalUnits));
+        permits.acquire(units);
+        return units;
+    }
+
+    /**
+     * 释放内存额度
+     *
+     * @param units {@link #acquire(long)} 返回的额度
+     */
+    public void release(int units) {
+        if (units > 0) {
+            permits.release(units);
+        }
+    }
+
+    /**
+     * 获取当前可用额度（字节）
+     */
+    public long getAvailableBytes() {
+        return permits.availablePermits() * UNIT;
+    }
+}
@@ -0,0 +1,59 @@
+package com.orange.patchgen.differ;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 嵌套类索引
+ *
+ * 以外部类名为键索引内部类、匿名类和编译器生成的合成类，构建一次后按外部类直接查找，
+ * 查找开销只与结果数量有关，不需要对每个变化的类扫描全部类名。
+ *
+ * 收录的命名模式：
+ * - Outer$Inner、Outer$1、Outer$Companion、Outer$$ExternalSyntheticLambda0、Outer$-CC：
+ *   简单类名中每个 '$' 之前的部分都视为外部类
+ * - pkg.-$$Lambda$Outer$Hash（旧版 D8/desugar 生成的 Lambda 类）：归属同包下的 Outer 及其内部类
+ */
+final class NestedClassIndex {
+
+    private static final String LEGACY_LAMBDA_PREFIX = "-$$Lambda$";
+
+    private final Map<String, List<String>> nestedByOuter = new HashMap<>();
+
+    /**
+     * @param classNames 所有类名（com.example.Outer 格式）
+     */
+    NestedClassIndex(Collection<String> classNames) {
+        for (String className : classNames) {
+            int simpleStart = className.lastIndexOf('.') + 1;
+            if (className.startsWith(LEGACY_LAMBDA_PREFIX, simpleStart)) {
+                // pkg.-$$Lambda$Outer$Inner$Hash -> pkg.Outer, pkg.Outer$Inner
+                String pkg = className.substring(0, simpleStart);
+                int nameStart = simpleStart + LEGACY_LAMBDA_PREFIX.length();
+                for (int i = className.indexOf('$', nameStart + 1); i > 0; i = className.indexOf('$', i + 1)) {
+                    add(pkg + className.substring(nameStart, i), className);
+                }
+            } else {
+                for (int i = className.indexOf('$', simpleStart + 1); i > 0; i = className.indexOf('$', i + 1)) {
+                    add(className.substring(0, i), className);
+                }
+            }
+        }
+    }
+
+    private void add(String outerClass, String className) {
+        nestedByOuter.computeIfAbsent(outerClass, k -> new ArrayList<>()).add(className);
+    }
+
+    /**
+     * 获取外部类的所有嵌套类和合成类（不含外部类本身）
+     */
+    List<String> getNestedClasses(String outerClass) {
+        List<String> nested = nestedByOuter.get(outerClass);
+        return nested != null ? nested : Collections.emptyList();
+    }
+}
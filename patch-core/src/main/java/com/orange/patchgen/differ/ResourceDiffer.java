@@ -1,6 +1,8 @@
 package com.orange.patchgen.differ;
 
 import com.orange.patchgen.callback.GeneratorErrorCode;
+import com.orange.patchgen.model.AssetInfo;
+import com.orange.patchgen.model.ResourceInfo;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -9,6 +11,7 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -23,6 +26,7 @@ import java.util.Set;
 public class ResourceDiffer {
 
     private static final int BUFFER_SIZE = 8192;
+    private static final String RES_PREFIX = "res/";
 
     /**
      * 比较两个资源目录 (res/)
@@ -48,6 +52,62 @@ public class ResourceDiffer {
         return compareDirectories(baseAssetsDir, newAssetsDir, "assets");
     }
 
+    /**
+     * 以基准 APK 的资源清单比较 res/ 目录，基准 APK 无需解压
+     * 
+     * @param baseResources 基准资源清单（ApkInfo.getResources()，路径以 res/ 开头）
+     * @param newResDir 新版本资源目录
+     * @return 差异比较结果
+     * @throws ResourceDiffException 比较失败时抛出
+     */
+    public ResourceDiffResult compare(List<ResourceInfo> baseResources, File newResDir)
+            throws ResourceDiffException {
+        Map<String, FileInfo> baseFiles = new HashMap<>();
+        if (baseResources != null) {
+            for (ResourceInfo info : baseResources) {
+                String path = info.getRelativePath();
+                if (info.getType() == ResourceInfo.ResourceType.RES && path.startsWith(RES_PREFIX)) {
+                    baseFiles.put(path.substring(RES_PREFIX.length()), new FileInfo(info.getMd5(), info.getSize()));
+                }
+            }
+        }
+        return compareWithBaseFiles(baseFiles, newResDir, "res");
+    }
+
+    /**
+     * 以基准 APK 的 assets 清单比较 assets 目录，基准 APK 无需解压
+     * 
+     * @param baseAssets 基准 assets 清单（ApkInfo.getAssets()，路径相对于 assets/）
+     * @param newAssetsDir 新版本 assets 目录
+     * @return 差异比较结果
+     * @throws ResourceDiffException 比较失败时抛出
+     */
+    public ResourceDiffResult compareAssets(List<AssetInfo> baseAssets, File newAssetsDir)
+            throws ResourceDiffException {
+        Map<String, FileInfo> baseFiles = new HashMap<>();
+        if (baseAssets != null) {
+            for (AssetInfo info : baseAssets) {
+                baseFiles.put(info.getRelativePath(), new FileInfo(info.getMd5(), info.getSize()));
+            }
+        }
+        return compareWithBaseFiles(baseFiles, newAssetsDir, "assets");
+    }
+
+    /**
+     * 以基准文件清单比较目录
+     */
+    private ResourceDiffResult compareWithBaseFiles(Map<String, FileInfo> baseFiles, File newDir,
+                                                    String dirType) throws ResourceDiffException {
+        ResourceDiffResult result = new ResourceDiffResult();
+        try {
+            compareFileMaps(baseFiles, scanDirectory(newDir), result);
+        } catch (IOException e) {
+            throw new ResourceDiffException("Failed to compare " + dirType + " directories: " + e.getMessage(),
+                    GeneratorErrorCode.ERROR_COMPARE_FAILED, e);
+        }
+        return result;
+    }
+
     /**
      * 比较两个目录
      * 
@@ -0,0 +1,206 @@
+package com.orange.patchgen.model;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 批量生成清单 (manifest.json)
+ *
+ * 记录一个新版本 APK 针对多个基准版本生成的所有补丁。
+ */
+public class BatchManifest {
+    public static final String STATUS_SUCCESS = "success";
+    public static final String STATUS_NO_CHANGE = "no_change";
+    public static final String STATUS_FAILED = "failed";
+
+    private String packageName;
+    private String targetVersion;
+    private int targetVersionCode;
+    private String newApkSha256;
+    private String patchMode;       // full_dex or bsdiff
+    private long createTime;
+    private List<Entry> patches;
+
+    private static final Gson GSON = new GsonBuilder()
+            .setPrettyPrinting()
+            .create();
+
+    public BatchManifest() {
+        this.patches = new ArrayList<>();
+        this.createTime = System.currentTimeMillis();
+    }
+
+    // JSON serialization
+    public String toJson() {
+        return GSON.toJson(this);
+    }
+
+    public static BatchManifest fromJson(String json) {
+        return GSON.fromJson(json, BatchManifest.class);
+    }
+
+    // Getters and Setters
+    public String getPackageName() {
+        return packageName;
+    }
+
+    public void setPackageName(String packageName) {
+        this.packageName = packageName;
+    }
+
+    public String getTargetVersion() {
+        return targetVersion;
+    }
+
+    public void setTargetVersion(String targetVersion) {
+        this.targetVersion = targetVersion;
+    }
+
+    public int getTargetVersionCode() {
+        return targetVersionCode;
+    }
+
+    public void setTargetVersionCode(int targetVersionCode) {
+        this.targetVersionCode = targetVersionCode;
+    }
+
+    public String getNewApkSha256() {
+        return newApkSha256;
+    }
+
+    public void setNewApkSha256(String newApkSha256) {
+        this.newApkSha256 = newApkSha256;
+    }
+
+    public String getPatchMode() {
+        return patchMode;
+    }
+
+    public void setPatchMode(String patchMode) {
+        this.patchMode = patchMode;
+    }
+
+    public long getCreateTime() {
+        return createTime;
+    }
+
+    public void setCreateTime(long createTime) {
+        this.createTime = createTime;
+    }
+
+    public List<Entry> getPatches() {
+        return patches;
+    }
+
+    public void setPatches(List<Entry> patches) {
+        this.patches = patches;
+    }
+
+    /**
+     * 单个基准版本的补丁记录
+     */
+    public static class Entry {
+        private String baseApk;         // 基准 APK 文件名
+        private String baseVersion;
+        private int baseVersionCode;
+        private String status;          // success, no_change or failed
+        private String patchFile;       // 补丁文件名（相对清单所在目录）
+        private String patchId;
+        private long patchSize;
+        private String md5;
+        private long generateTime;      // 生成耗时(ms)
+        private int errorCode;
+        private String errorMessage;
+
+        public String getBaseApk() {
+            return baseApk;
+        }
+
+        public void setBaseApk(String baseApk) {
+            this.baseApk = baseApk;
+        }
+
+        public String getBaseVersion() {
+            return baseVersion;
+        }
+
+        public void setBaseVersion(String baseVersion) {
+            this.baseVersion = baseVersion;
+        }
+
+        public int getBaseVersionCode() {
+            return baseVersionCode;
+        }
+
+        public void setBaseVersionCode(int baseVersionCode) {
+            this.baseVersionCode = baseVersionCode;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        public void setStatus(String status) {
+            this.status = status;
+        }
+
+        public String getPatchFile() {
+            return patchFile;
+        }
+
+        public void setPatchFile(String patchFile) {
+            this.patchFile = patchFile;
+        }
+
+        public String getPatchId() {
+            return patchId;
+        }
+
+        public void setPatchId(String patchId) {
+            this.patchId = patchId;
+        }
+
+        public long getPatchSize() {
+            return patchSize;
+        }
+
+        public void setPatchSize(long patchSize) {
+            this.patchSize = patchSize;
+        }
+
+        public String getMd5() {
+            return md5;
+        }
+
+        public void setMd5(String md5) {
+            this.md5 = md5;
+        }
+
+        public long getGenerateTime() {
+            return generateTime;
+        }
+
+        public void setGenerateTime(long generateTime) {
+            this.generateTime = generateTime;
+        }
+
+        public int getErrorCode() {
+            return errorCode;
+        }
+
+        public void setErrorCode(int errorCode) {
+            this.errorCode = errorCode;
+        }
+
+        public String getErrorMessage() {
+            return errorMessage;
+        }
+
+        public void setErrorMessage(String errorMessage) {
+            this.errorMessage = errorMessage;
+        }
+    }
+}
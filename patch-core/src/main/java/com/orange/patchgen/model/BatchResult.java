@@ -0,0 +1,83 @@
+package com.orange.patchgen.model;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 批量生成结果
+ *
+ * 按基准 APK 的输入顺序保存每个补丁的生成结果，失败的基准不影响其他基准。
+ */
+public class BatchResult {
+    private final Map<File, PatchResult> results = new LinkedHashMap<>();
+    private BatchManifest manifest;
+    private File manifestFile;
+    private long generateTime;      // 生成耗时(ms)
+
+    public BatchResult() {
+    }
+
+    public void addResult(File baseApk, PatchResult result) {
+        results.put(baseApk, result);
+    }
+
+    /**
+     * 获取指定基准 APK 的生成结果
+     */
+    public PatchResult getResult(File baseApk) {
+        return results.get(baseApk);
+    }
+
+    /**
+     * 获取所有结果（基准 APK -> 生成结果，按输入顺序）
+     */
+    public Map<File, PatchResult> getResults() {
+        return Collections.unmodifiableMap(results);
+    }
+
+    /**
+     * 生成失败的基准数量
+     */
+    public int getFailureCount() {
+        int count = 0;
+        for (PatchResult result : results.values()) {
+            if (!result.isSuccess()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 是否所有基准都生成成功（包括无需补丁的基准）
+     */
+    public boolean isAllSuccess() {
+        return getFailureCount() == 0;
+    }
+
+    public BatchManifest getManifest() {
+        return manifest;
+    }
+
+    public void setManifest(BatchManifest manifest) {
+        this.manifest = manifest;
+    }
+
+    public File getManifestFile() {
+        return manifestFile;
+    }
+
+    public void setManifestFile(File manifestFile) {
+        this.manifestFile = manifestFile;
+    }
+
+    public long getGenerateTime() {
+        return generateTime;
+    }
+
+    public void setGenerateTime(long generateTime) {
+        this.generateTime = generateTime;
+    }
+}
@@ -1,6 +1,7 @@
 package com.orange.patchgen.parser;
 
 import com.orange.patchgen.callback.GeneratorErrorCode;
+import com.orange.patchgen.differ.DexModelCache;
 import com.orange.patchgen.model.ApkInfo;
 import com.orange.patchgen.model.AssetInfo;
 import com.orange.patchgen.model.DexInfo;
@@ -10,9 +11,6 @@ import net.dongliu.apk.parser.bean.ApkMeta;
 import net.lingala.zip4j.ZipFile;
 import net.lingala.zip4j.model.FileHeader;
 import org.apache.commons.io.FileUtils;
-import org.jf.dexlib2.DexFileFactory;
-import org.jf.dexlib2.Opcodes;
-import org.jf.dexlib2.iface.ClassDef;
 
 import java.io.*;
 import java.security.MessageDigest;
@@ -35,6 +33,20 @@ public class ApkParser {
     private static final String RES_DIR = "res/";
     private static final String ASSETS_DIR = "assets/";
 
+    private final DexModelCache dexCache;
+
+    public ApkParser() {
+        this(null);
+    }
+
+    /**
+     * @param dexCache 共享的 dex 模型缓存，解析出的 dex 可被后续比较阶段复用；
+     *                 为 null 时每个 dex 单独解析
+     */
+    public ApkParser(DexModelCache dexCache) {
+        this.dexCache = dexCache;
+    }
+
     /**
      * 解析 APK 文件
      * 
@@ -58,7 +70,7 @@ public class ApkParser {
             
             try (ZipFile zipFile = new ZipFile(apkFile)) {
                 // 提取 dex 文件列表
-                List<DexInfo> dexFiles = extractDexList(zipFile, apkFile);
+                List<DexInfo> dexFiles = extractDexList(zipFile);
                 apkInfo.setDexFiles(dexFiles);
 
                 // 提取资源文件列表
@@ -159,7 +171,7 @@ public class ApkParser {
     /**
      * 提取 dex 文件列表
      */
-    private List<DexInfo> extractDexList(ZipFile zipFile, File apkFile) throws ParseException {
+    private List<DexInfo> extractDexList(ZipFile zipFile) throws ParseException {
         List<DexInfo> dexFiles = new ArrayList<>();
         
         try {
@@ -172,15 +184,18 @@ public class ApkParser {
                     dexInfo.setFileName(fileName);
                     dexInfo.setSize(header.getUncompressedSize());
                     
-                    // 计算 MD5
-                    try (InputStream is = zipFile.getInputStream(header)) {
-                        dexInfo.setMd5(calculateMd5(is));
+                    // 直接从 APK 中读取 dex，计算 MD5 并提取类名列表
+                    DexModelCache.DexModel model = loadDexModel(zipFile, header);
+                    if (model != null) {
+                        dexInfo.setMd5(model.getMd5());
+                        dexInfo.setClassNames(new ArrayList<>(model.getClassNames()));
+                    } else {
+                        // 如果 dexlib2 解析失败，只计算 MD5，类名列表为空
+                        try (InputStream is = zipFile.getInputStream(header)) {
+                            dexInfo.setMd5(calculateMd5(is));
+                        }
                     }
                     
-                    // 提取类名列表
-                    List<String> classNames = extractClassNames(apkFile, fileName);
-                    dexInfo.setClassNames(classNames);
-                    
                     dexFiles.add(dexInfo);
                 }
             }
@@ -203,46 +218,17 @@ public class ApkParser {
     }
 
     /**
-     * 使用 dexlib2 提取 dex 文件中的类名
+     * 使用 dexlib2 直接从 APK 条目解析 dex，无需解压到临时目录
+     * 
+     * @return dex 模型，解析失败时返回 null
      */
-    private List<String> extractClassNames(File apkFile, String dexFileName) {
-        List<String> classNames = new ArrayList<>();
-        
-        try {
-            // 先解压 dex 文件到临时目录
-            File tempDir = new File(System.getProperty("java.io.tmpdir"), "apk_parser_" + System.currentTimeMillis());
-            tempDir.mkdirs();
-            
-            try (ZipFile zipFile = new ZipFile(apkFile)) {
-                FileHeader dexHeader = zipFile.getFileHeader(dexFileName);
-                if (dexHeader != null) {
-                    zipFile.extractFile(dexHeader, tempDir.getAbsolutePath());
-                    File dexFile = new File(tempDir, dexFileName);
-                    
-                    // 使用 dexlib2 解析 dex 文件
-                    org.jf.dexlib2.iface.DexFile parsedDex = DexFileFactory.loadDexFile(dexFile, Opcodes.getDefault());
-                    
-                    for (ClassDef classDef : parsedDex.getClasses()) {
-                        String className = classDef.getType();
-                        // 转换格式: Lcom/example/Class; -> com.example.Class
-                        if (className.startsWith("L") && className.endsWith(";")) {
-                            className = className.substring(1, className.length() - 1).replace('/', '.');
-                        }
-                        classNames.add(className);
-                    }
-                    
-                    // 清理临时文件
-                    dexFile.delete();
-                }
-            } finally {
-                // 清理临时目录
-                FileUtils.deleteDirectory(tempDir);
-            }
+    private DexModelCache.DexModel loadDexModel(ZipFile zipFile, FileHeader header) {
+        DexModelCache cache = dexCache != null ? dexCache : new DexModelCache(0);
+        try (InputStream is = zipFile.getInputStream(header)) {
+            return cache.get(is);
         } catch (Exception e) {
-            // 如果 dexlib2 解析失败，返回空列表
+            return null;
         }
-        
-        return classNames;
     }
 
     /**
@@ -0,0 +1,52 @@
+package com.orange.patchgen;
+
+import com.orange.patchgen.PatchGenerator.PatchGeneratorException;
+import com.orange.patchgen.callback.GeneratorErrorCode;
+import com.orange.patchgen.config.PatchMode;
+
+import net.jqwik.api.Example;
+
+import java.io.File;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * PatchGenerator 参数校验测试
+ */
+class PatchGeneratorTest {
+
+    /**
+     * 客户端不能应用 .bsdiff 条目，BSDIFF 模式在读取任何输入前被拒绝
+     */
+    @Example
+    void bsdiffModeIsRejected() {
+        File missing = new File("does-not-exist.apk");
+        PatchGenerator generator = new PatchGenerator.Builder()
+                .baseApk(missing)
+                .newApk(missing)
+                .output(new File("patch.zip"))
+                .patchMode(PatchMode.BSDIFF)
+                .build();
+
+        assertThatThrownBy(generator::generate)
+                .isInstanceOf(PatchGeneratorException.class)
+                .extracting(e -> ((PatchGeneratorException) e).getErrorCode())
+                .isEqualTo(GeneratorErrorCode.ERROR_PATCH_MODE_UNSUPPORTED);
+    }
+
+    @Example
+    void bsdiffModeIsRejectedInBatch() {
+        File missing = new File("does-not-exist.apk");
+        BatchPatchGenerator generator = new BatchPatchGenerator.Builder()
+                .addBaseApk(missing)
+                .newApk(missing)
+                .outputDir(new File("patches"))
+                .patchMode(PatchMode.BSDIFF)
+                .build();
+
+        assertThatThrownBy(generator::generate)
+                .isInstanceOf(PatchGeneratorException.class)
+                .extracting(e -> ((PatchGeneratorException) e).getErrorCode())
+                .isEqualTo(GeneratorErrorCode.ERROR_PATCH_MODE_UNSUPPORTED);
+    }
+}
@@ -0,0 +1,314 @@
+package com.orange.patchgen.bsdiff;
+
+import net.jqwik.api.Example;
+import net.jqwik.api.ForAll;
+import net.jqwik.api.Property;
+import net.jqwik.api.constraints.IntRange;
+import net.jqwik.api.constraints.Size;
+import net.jqwik.api.lifecycle.AfterContainer;
+import net.jqwik.api.lifecycle.BeforeContainer;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * BsDiff / BsPatch 往返测试
+ *
+ * 任意新旧输入生成的差异文件经 BsPatch 应用后必须还原新文件，
+ * 覆盖空输入、超过窗口大小的分段模式，以及差异生成和应用过程中的取消。
+ */
+class BsDiffTest {
+
+    /** 分段测试的输入大小：大于最小窗口，按半个窗口切分为多段 */
+    private static final int LARGE_SIZE = 3 * BsDiff.MIN_WINDOW_SIZE + 12345;
+
+    private static File dir;
+
+    @BeforeContainer
+    static void createDir() throws IOException {
+        dir = Files.createTempDirectory("bsdiff-test").toFile();
+    }
+
+    @AfterContainer
+    static void deleteDir() {
+        FileUtils.deleteQuietly(dir);
+    }
+
+    @Property
+    void roundTripArbitraryInputs(@ForAll @Size(max = 2048) byte[] oldData,
+                                  @ForAll @Size(max = 2048) byte[] newData) throws IOException {
+        assertThat(roundTrip(oldData, newData, BsDiff.defaultWindowSize())).isEqualTo(newData);
+    }
+
+    @Property
+    void roundTripRelatedInputs(@ForAll long seed,
+                                @ForAll @IntRange(max = 16384) int size,
+                                @ForAll @IntRange(max = 32) int edits) throws IOException {
+        byte[] oldData = randomBytes(size, seed);
+        byte[] newData = mutate(oldData, edits, seed + 1);
+        assertThat(roundTrip(oldData, newData, BsDiff.defaultWindowSize())).isEqualTo(newData);
+    }
+
+    @Example
+    void roundTripEmptyOld() throws IOException {
+        byte[] newData = randomBytes(1000, 1);
+        assertThat(roundTrip(new byte[0], newData, BsDiff.defaultWindowSize())).isEqualTo(newData);
+    }
+
+    @Example
+    void roundTripEmptyNew() throws IOException {
+        assertThat(roundTrip(randomBytes(1000, 2), new byte[0], BsDiff.defaultWindowSize())).isEmpty();
+    }
+
+    @Example
+    void roundTripBothEmpty() throws IOException {
+        assertThat(roundTrip(new byte[0], new byte[0], BsDiff.defaultWindowSize())).isEmpty();
+    }
+
+    /**
+     * 输入超过窗口大小时分段生成，补丁仍能完整还原新文件
+     */
+    @Property(tries = 4)
+    void roundTripWindowed(@ForAll long seed, @ForAll @IntRange(min = 1, max = 64) int edits)
+            throws IOException {
+        byte[] oldData = randomBytes(LARGE_SIZE, seed);
+        byte[] newData = mutate(oldData, edits, seed + 1);
+        assertThat(roundTrip(oldData, newData, BsDiff.MIN_WINDOW_SIZE)).isEqualTo(newData);
+    }
+
+    /**
+     * 相似输入的差异远小于新文件，分段时也成立
+     */
+    @Example
+    void windowedDiffOfSimilarInputsIsSmall() throws IOException {
+        byte[] oldData = randomBytes(LARGE_SIZE, 3);
+        byte[] newData = mutate(oldData, 16, 4);
+        File patch = diff(oldData, newData, BsDiff.MIN_WINDOW_SIZE, null);
+        assertThat(FileUtils.readFileToByteArray(patch)).hasSizeGreaterThan(BsDiff.HEADER_SIZE);
+        assertThat(deflatedSize(patch)).isLessThan(newData.length / 10);
+    }
+
+    /**
+     * 进度单调递增，最后一次回调为 (total, total)
+     */
+    @Example
+    void progressIsMonotonic() throws IOException {
+        byte[] oldData = randomBytes(LARGE_SIZE, 5);
+        byte[] newData = mutate(oldData, 8, 6);
+        long[] last = {-1, -1};
+        BsDiffListener listener = new BsDiffListener() {
+            @Override
+            public void onProgress(long current, long total) {
+                assertThat(current).isGreaterThanOrEqualTo(last[0]).isLessThanOrEqualTo(total);
+                last[0] = current;
+                last[1] = total;
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return false;
+            }
+        };
+        diff(oldData, newData, BsDiff.MIN_WINDOW_SIZE, listener);
+        assertThat(last[0]).isEqualTo(newData.length);
+        assertThat(last[1]).isEqualTo(newData.length);
+    }
+
+    /**
+     * 差异生成过程中取消：抛出 CancellationException，不留下补丁和临时文件
+     */
+    @Property(tries = 4)
+    void cancelMidDiff(@ForAll @IntRange(min = 1, max = 4) int cancelAtCheck) throws IOException {
+        File oldFile = write("cancel-old", randomBytes(LARGE_SIZE, 7));
+        File newFile = write("cancel-new", mutate(FileUtils.readFileToByteArray(oldFile), 8, 8));
+        File patchFile = new File(dir, "cancel.patch");
+        AtomicInteger checks = new AtomicInteger();
+
+        BsDiff bsDiff = new BsDiff.Builder()
+                .windowSize(BsDiff.MIN_WINDOW_SIZE)
+                .listener(cancelAfter(checks, cancelAtCheck))
+                .build();
+        assertThatThrownBy(() -> bsDiff.diff(oldFile, newFile, patchFile))
+                .isInstanceOf(CancellationException.class);
+
+        assertThat(checks.get()).isEqualTo(cancelAtCheck);
+        assertThat(patchFile).doesNotExist();
+        assertThat(new File(patchFile.getPath() + ".db.tmp")).doesNotExist();
+        assertThat(new File(patchFile.getPath() + ".eb.tmp")).doesNotExist();
+    }
+
+    /**
+     * 应用过程中取消：抛出 CancellationException
+     */
+    @Example
+    void cancelMidPatch() throws IOException {
+        byte[] oldData = randomBytes(LARGE_SIZE, 9);
+        File oldFile = write("patch-cancel-old", oldData);
+        File patch = diff(oldData, mutate(oldData, 8, 10), BsDiff.MIN_WINDOW_SIZE, null);
+        AtomicInteger checks = new AtomicInteger();
+
+        assertThatThrownBy(() -> BsPatch.apply(oldFile, patch, new File(dir, "patch-cancel.out"),
+                cancelAfter(checks, 2)))
+                .isInstanceOf(CancellationException.class);
+        assertThat(checks.get()).isEqualTo(2);
+    }
+
+    @Example
+    void corruptMagicIsRejected() throws IOException {
+        File patch = diff(randomBytes(100, 11), randomBytes(100, 12), BsDiff.defaultWindowSize(), null);
+        byte[] bytes = FileUtils.readFileToByteArray(patch);
+        bytes[0] = 'X';
+        File corrupt = write("corrupt.patch", bytes);
+
+        assertThatThrownBy(() -> BsPatch.apply(write("corrupt-old", new byte[100]), corrupt,
+                new File(dir, "corrupt.out"), null))
+                .isInstanceOf(IOException.class);
+    }
+
+    // ==================== SA-IS ====================
+
+    @Property
+    void suffixArrayIsSorted(@ForAll @Size(max = 512) byte[] data) {
+        int[] sa = SaIs.build(data);
+        assertThat(sa).hasSize(data.length + 1);
+        assertThat(sa[0]).isEqualTo(data.length);
+        for (int i = 1; i < sa.length; i++) {
+            assertThat(compareSuffixes(data, sa[i - 1], sa[i])).isNegative();
+        }
+    }
+
+    @Property
+    void suffixArrayOfRepetitiveInput(@ForAll @IntRange(min = 1, max = 4) int alphabet,
+                                      @ForAll @IntRange(max = 2000) int size,
+                                      @ForAll long seed) {
+        Random random = new Random(seed);
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) random.nextInt(alphabet);
+        }
+        int[] sa = SaIs.build(data);
+        int[] sorted = sa.clone();
+        Integer[] boxed = Arrays.stream(sorted).boxed().toArray(Integer[]::new);
+        Arrays.sort(boxed, (a, b) -> compareSuffixes(data, a, b));
+        assertThat(sa).containsExactly(Arrays.stream(boxed).mapToInt(Integer::intValue).toArray());
+    }
+
+    // ==================== 辅助方法 ====================
+
+    private static byte[] roundTrip(byte[] oldData, byte[] newData, int windowSize) throws IOException {
+        File oldFile = write("old", oldData);
+        File patch = diff(oldData, newData, windowSize, null);
+        File out = new File(dir, "new.out");
+        BsPatch.apply(oldFile, patch, out, null);
+        return FileUtils.readFileToByteArray(out);
+    }
+
+    private static File diff(byte[] oldData, byte[] newData, int windowSize, BsDiffListener listener)
+            throws IOException {
+        File oldFile = write("diff-old", oldData);
+        File newFile = write("diff-new", newData);
+        File patch = new File(dir, "diff.patch");
+        new BsDiff.Builder().windowSize(windowSize).listener(listener).build().diff(oldFile, newFile, patch);
+        return patch;
+    }
+
+    private static File write(String name, byte[] data) throws IOException {
+        File file = new File(dir, name);
+        FileUtils.writeByteArrayToFile(file, data);
+        return file;
+    }
+
+    private static BsDiffListener cancelAfter(AtomicInteger checks, int cancelAtCheck) {
+        return new BsDiffListener() {
+            @Override
+            public void onProgress(long current, long total) {
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return checks.incrementAndGet() >= cancelAtCheck;
+            }
+        };
+    }
+
+    private static byte[] randomBytes(int size, long seed) {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * 对数据做随机的插入、删除和覆盖，模拟版本间的修改
+     */
+    private static byte[] mutate(byte[] data, int edits, long seed) {
+        Random random = new Random(seed);
+        byte[] result = data.clone();
+        for (int i = 0; i < edits; i++) {
+            int pos = result.length == 0 ? 0 : random.nextInt(result.length + 1);
+            int length = 1 + random.nextInt(64);
+            byte[] chunk = new byte[length];
+            random.nextBytes(chunk);
+            switch (random.nextInt(3)) {
+                case 0: {
+                    byte[] inserted = new byte[result.length + length];
+                    System.arraycopy(result, 0, inserted, 0, pos);
+                    System.arraycopy(chunk, 0, inserted, pos, length);
+                    System.arraycopy(result, pos, inserted, pos + length, result.length - pos);
+                    result = inserted;
+                    break;
+                }
+                case 1: {
+                    int end = Math.min(result.length, pos + length);
+                    byte[] removed = new byte[result.length - (end - pos)];
+                    System.arraycopy(result, 0, removed, 0, pos);
+                    System.arraycopy(result, end, removed, pos, result.length - end);
+                    result = removed;
+                    break;
+                }
+                default: {
+                    int end = Math.min(result.length, pos + length);
+                    System.arraycopy(chunk, 0, result, pos, end - pos);
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static int compareSuffixes(byte[] data, int a, int b) {
+        int n = data.length;
+        while (a < n && b < n) {
+            int diff = (data[a] & 0xFF) - (data[b] & 0xFF);
+            if (diff != 0) {
+                return diff;
+            }
+            a++;
+            b++;
+        }
+        return (n - a) - (n - b);
+    }
+
+    private static long deflatedSize(File file) throws IOException {
+        Deflater deflater = new Deflater();
+        deflater.setInput(FileUtils.readFileToByteArray(file));
+        deflater.finish();
+        byte[] buffer = new byte[65536];
+        long total = 0;
+        while (!deflater.finished()) {
+            total += deflater.deflate(buffer);
+        }
+        deflater.end();
+        return total;
+    }
+}
@@ -0,0 +1,171 @@
+package com.orange.patchgen.differ;
+
+import net.jqwik.api.Example;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * ArchiveDiffer 测试
+ *
+ * 重点覆盖 CRC32 + 大小预筛选相同但内容不同的条目（CRC32 碰撞）必须被识别为变化
+ */
+class ArchiveDifferTest {
+
+    @Example
+    void identicalEntriesAreUnchanged() throws IOException {
+        byte[] content = randomBytes(64, 1);
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("classes.dex", content);
+        entries.put("resources.arsc", content);
+        entries.put("res/raw/data.bin", content);
+        entries.put("assets/data.bin", content);
+
+        ArchiveDiffResult result = compare(entries, entries);
+
+        assertThat(result.getChangedDexFiles()).isEmpty();
+        assertThat(result.isResourcesArscChanged()).isFalse();
+        assertThat(result.getResDiff().hasChanges()).isFalse();
+        assertThat(result.getAssetsDiff().hasChanges()).isFalse();
+    }
+
+    @Example
+    void crcCollisionIsDetectedAsChange() throws IOException {
+        byte[] baseContent = randomBytes(64, 2);
+        byte[] newContent = crcCollidingVariant(baseContent);
+        assertThat(newContent).isNotEqualTo(baseContent).hasSameSizeAs(baseContent);
+        assertThat(crc(newContent)).isEqualTo(crc(baseContent));
+
+        Map<String, byte[]> baseEntries = new LinkedHashMap<>();
+        baseEntries.put("classes.dex", baseContent);
+        baseEntries.put("resources.arsc", baseContent);
+        baseEntries.put("res/raw/data.bin", baseContent);
+        baseEntries.put("assets/data.bin", baseContent);
+        Map<String, byte[]> newEntries = new LinkedHashMap<>();
+        newEntries.put("classes.dex", newContent);
+        newEntries.put("resources.arsc", newContent);
+        newEntries.put("res/raw/data.bin", newContent);
+        newEntries.put("assets/data.bin", newContent);
+
+        ArchiveDiffResult result = compare(baseEntries, newEntries);
+
+        assertThat(result.getChangedDexFiles()).containsExactly("classes.dex");
+        assertThat(result.isResourcesArscChanged()).isTrue();
+        assertThat(result.getResDiff().getModifiedFilePaths()).containsExactly("raw/data.bin");
+        assertThat(result.getAssetsDiff().getModifiedFilePaths()).containsExactly("data.bin");
+    }
+
+    @Example
+    void sizeChangeIsDetectedWithoutReadingContent() throws IOException {
+        Map<String, byte[]> baseEntries = new LinkedHashMap<>();
+        baseEntries.put("assets/a.txt", "hello".getBytes(StandardCharsets.UTF_8));
+        Map<String, byte[]> newEntries = new LinkedHashMap<>();
+        newEntries.put("assets/a.txt", "hello world".getBytes(StandardCharsets.UTF_8));
+
+        ArchiveDiffResult result = compare(baseEntries, newEntries);
+
+        assertThat(result.getAssetsDiff().getModifiedFilePaths()).containsExactly("a.txt");
+    }
+
+    private ArchiveDiffResult compare(Map<String, byte[]> baseEntries, Map<String, byte[]> newEntries)
+            throws IOException {
+        File dir = Files.createTempDirectory("archive-differ").toFile();
+        try {
+            File baseApk = writeZip(new File(dir, "base.apk"), baseEntries);
+            File newApk = writeZip(new File(dir, "new.apk"), newEntries);
+            return new ArchiveDiffer().compare(baseApk, newApk);
+        } catch (ResourceDiffException e) {
+            throw new IOException(e);
+        } finally {
+            FileUtils.deleteQuietly(dir);
+        }
+    }
+
+    private static File writeZip(File file, Map<String, byte[]> entries) throws IOException {
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(file))) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                zos.putNextEntry(new ZipEntry(entry.getKey()));
+                zos.write(entry.getValue());
+                zos.closeEntry();
+            }
+        }
+        return file;
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static long crc(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+
+    /**
+     * 构造与 data 等长、CRC32 相同但内容不同的数据。
+     *
+     * 定长消息的 CRC32 是仿射函数：crc(a ^ d) = crc(a) ^ crc(d) ^ crc(0)。
+     * 对前 33 个单比特向量做 GF(2) 消元，必然得到一个非零组合 d 使 crc(d) == crc(0)。
+     */
+    private static byte[] crcCollidingVariant(byte[] data) {
+        int rows = 33;
+        long zeroCrc = crc(new byte[data.length]);
+        long[] values = new long[rows];
+        long[] masks = new long[rows];
+        for (int i = 0; i < rows; i++) {
+            byte[] unit = new byte[data.length];
+            unit[i / 8] |= (byte) (1 << (i % 8));
+            values[i] = crc(unit) ^ zeroCrc;
+            masks[i] = 1L << i;
+        }
+
+        boolean[] pivot = new boolean[rows];
+        for (int bit = 31; bit >= 0; bit--) {
+            int row = -1;
+            for (int i = 0; i < rows; i++) {
+                if (!pivot[i] && (values[i] >>> bit & 1) != 0) {
+                    row = i;
+                    break;
+                }
+            }
+            if (row < 0) {
+                continue;
+            }
+            pivot[row] = true;
+            for (int i = 0; i < rows; i++) {
+                if (i != row && (values[i] >>> bit & 1) != 0) {
+                    values[i] ^= values[row];
+                    masks[i] ^= masks[row];
+                }
+            }
+        }
+
+        for (int i = 0; i < rows; i++) {
+            if (!pivot[i]) {
+                byte[] result = data.clone();
+                for (int b = 0; b < rows; b++) {
+                    if ((masks[i] >>> b & 1) != 0) {
+                        result[b / 8] ^= (byte) (1 << (b % 8));
+                    }
+                }
+                return result;
+            }
+        }
+        throw new IllegalStateException("No CRC32 collision found");
+    }
+}
@@ -0,0 +1,158 @@
+package com.orange.patchgen.differ;
+
+import net.jqwik.api.Arbitraries;
+import net.jqwik.api.Arbitrary;
+import net.jqwik.api.Example;
+import net.jqwik.api.ForAll;
+import net.jqwik.api.Property;
+import net.jqwik.api.Provide;
+import net.jqwik.api.constraints.StringLength;
+
+import org.jf.dexlib2.AccessFlags;
+import org.jf.dexlib2.Opcode;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.instruction.Instruction;
+import org.jf.dexlib2.immutable.ImmutableClassDef;
+import org.jf.dexlib2.immutable.ImmutableField;
+import org.jf.dexlib2.immutable.ImmutableMethod;
+import org.jf.dexlib2.immutable.ImmutableMethodImplementation;
+import org.jf.dexlib2.immutable.ImmutableMethodParameter;
+import org.jf.dexlib2.immutable.instruction.ImmutableInstruction10x;
+import org.jf.dexlib2.immutable.instruction.ImmutableInstruction21c;
+import org.jf.dexlib2.immutable.instruction.ImmutableInstruction35c;
+import org.jf.dexlib2.immutable.reference.ImmutableFieldReference;
+import org.jf.dexlib2.immutable.reference.ImmutableMethodReference;
+import org.jf.dexlib2.immutable.reference.ImmutableStringReference;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * ClassHasher 哈希稳定性测试
+ *
+ * 固定类的哈希值被钉住：哈希编码格式的任何变化（字段顺序、长度前缀、引用标记、
+ * 操作码编码）都会让 {@link #hashIsPinned()} 失败，需要有意识地更新期望值，
+ * 并递增 {@link BaselineIndex#FORMAT_VERSION} 使已缓存的基准哈希失效。
+ * 操作码按名称编码，dexlib2 升级调整 Opcode 枚举顺序不会改变哈希。
+ */
+class ClassHasherTest {
+
+    private static final String PINNED_HASH = "804057a455be09e30aef32283297e464";
+
+    @Example
+    void hashIsPinned() {
+        assertThat(new ClassHasher().hash(sampleClass("hello", "Lcom/example/Target;->run()V")))
+                .isEqualTo(PINNED_HASH);
+    }
+
+    @Example
+    void hashIsLowercaseHexMd5() {
+        assertThat(new ClassHasher().hash(sampleClass("hello", "Lcom/example/Target;->run()V")))
+                .matches("[0-9a-f]{32}");
+    }
+
+    @Example
+    void changedConstStringChangesHash() {
+        ClassHasher hasher = new ClassHasher();
+        assertThat(hasher.hash(sampleClass("hello", "Lcom/example/Target;->run()V")))
+                .isNotEqualTo(hasher.hash(sampleClass("hello!", "Lcom/example/Target;->run()V")));
+    }
+
+    @Example
+    void changedInvokeTargetChangesHash() {
+        ClassHasher hasher = new ClassHasher();
+        assertThat(hasher.hash(sampleClass("hello", "Lcom/example/Target;->run()V")))
+                .isNotEqualTo(hasher.hash(sampleClass("hello", "Lcom/example/Target;->stop()V")));
+    }
+
+    @Example
+    void changedFieldAccessChangesHash() {
+        ClassHasher hasher = new ClassHasher();
+        ClassDef base = classWithFieldAccess("Lcom/example/Target;", "count");
+        ClassDef changed = classWithFieldAccess("Lcom/example/Target;", "total");
+        assertThat(hasher.hash(base)).isNotEqualTo(hasher.hash(changed));
+    }
+
+    /**
+     * 哈希只取决于类内容：新实例、复用实例（包括刚哈希过其他类的实例）结果一致，
+     * 字符串长度跨越内部缓冲区边界时也一致
+     */
+    @Property
+    void hashIsStableAcrossHasherReuse(@ForAll @StringLength(max = 3000) String constant,
+                                       @ForAll("methodNames") List<String> methodNames) {
+        ClassDef classDef = classWithMethods(constant, methodNames);
+        String fresh = new ClassHasher().hash(classDef);
+
+        ClassHasher reused = new ClassHasher();
+        reused.hash(sampleClass(constant + "x", "Lcom/example/Target;->run()V"));
+        assertThat(reused.hash(classDef)).isEqualTo(fresh);
+        assertThat(reused.hash(classDef)).isEqualTo(fresh);
+    }
+
+    /**
+     * 成员声明顺序不影响哈希
+     */
+    @Property
+    void hashIgnoresMemberOrder(@ForAll("methodNames") List<String> methodNames) {
+        List<String> reversed = new ArrayList<>(methodNames);
+        Collections.reverse(reversed);
+        ClassHasher hasher = new ClassHasher();
+        assertThat(hasher.hash(classWithMethods("c", reversed)))
+                .isEqualTo(hasher.hash(classWithMethods("c", methodNames)));
+    }
+
+    @Provide
+    Arbitrary<List<String>> methodNames() {
+        return Arbitraries.strings().alpha().ofMinLength(1).ofMaxLength(12)
+                .list().uniqueElements().ofMaxSize(20);
+    }
+
+    private static ClassDef sampleClass(String constant, String invokeTarget) {
+        String definingClass = invokeTarget.substring(0, invokeTarget.indexOf("->"));
+        String name = invokeTarget.substring(invokeTarget.indexOf("->") + 2, invokeTarget.indexOf('('));
+        List<Instruction> instructions = Arrays.asList(
+                new ImmutableInstruction21c(Opcode.CONST_STRING, 0, new ImmutableStringReference(constant)),
+                new ImmutableInstruction35c(Opcode.INVOKE_STATIC, 0, 0, 0, 0, 0, 0,
+                        new ImmutableMethodReference(definingClass, name, Collections.emptyList(), "V")),
+                new ImmutableInstruction10x(Opcode.RETURN_VOID));
+        ImmutableMethod method = new ImmutableMethod("Lcom/example/Sample;", "call",
+                Collections.singletonList(new ImmutableMethodParameter("Ljava/lang/String;", null, "arg")),
+                "V", AccessFlags.PUBLIC.getValue(), null, null,
+                new ImmutableMethodImplementation(2, instructions, null, null));
+        ImmutableField field = new ImmutableField("Lcom/example/Sample;", "value", "I",
+                AccessFlags.PRIVATE.getValue(), null, null, null);
+        return new ImmutableClassDef("Lcom/example/Sample;", AccessFlags.PUBLIC.getValue(),
+                "Ljava/lang/Object;", Arrays.asList("Ljava/lang/Runnable;", "Ljava/io/Serializable;"),
+                "Sample.java", null, Collections.singletonList(field), Collections.singletonList(method));
+    }
+
+    private static ClassDef classWithFieldAccess(String owner, String fieldName) {
+        List<Instruction> instructions = Arrays.asList(
+                new ImmutableInstruction21c(Opcode.SGET, 0, new ImmutableFieldReference(owner, fieldName, "I")),
+                new ImmutableInstruction10x(Opcode.RETURN_VOID));
+        ImmutableMethod method = new ImmutableMethod("Lcom/example/Sample;", "read", null, "V",
+                AccessFlags.STATIC.getValue(), null, null,
+                new ImmutableMethodImplementation(1, instructions, null, null));
+        return new ImmutableClassDef("Lcom/example/Sample;", AccessFlags.PUBLIC.getValue(),
+                "Ljava/lang/Object;", null, null, null, null, Collections.singletonList(method));
+    }
+
+    private static ClassDef classWithMethods(String constant, List<String> methodNames) {
+        List<ImmutableMethod> methods = new ArrayList<>();
+        for (String name : methodNames) {
+            List<Instruction> instructions = Arrays.asList(
+                    new ImmutableInstruction21c(Opcode.CONST_STRING, 0,
+                            new ImmutableStringReference(constant + name)),
+                    new ImmutableInstruction10x(Opcode.RETURN_VOID));
+            methods.add(new ImmutableMethod("Lcom/example/Sample;", name, null, "V",
+                    AccessFlags.PUBLIC.getValue(), null, null,
+                    new ImmutableMethodImplementation(1, instructions, null, null)));
+        }
+        return new ImmutableClassDef("Lcom/example/Sample;", AccessFlags.PUBLIC.getValue(),
+                "Ljava/lang/Object;", null, null, null, null, methods);
+    }
+}
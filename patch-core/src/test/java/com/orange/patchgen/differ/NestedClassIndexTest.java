@@ -0,0 +1,146 @@
+package com.orange.patchgen.differ;
+
+import net.jqwik.api.Arbitraries;
+import net.jqwik.api.Arbitrary;
+import net.jqwik.api.Combinators;
+import net.jqwik.api.Example;
+import net.jqwik.api.ForAll;
+import net.jqwik.api.Property;
+import net.jqwik.api.Provide;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * NestedClassIndex 与旧版逐类扫描的一致性测试
+ *
+ * 旧版 expandClassesWithInnerAndLambda 对每个变化的类扫描全部类名，按 Outer$ 前缀匹配。
+ * 内部类、匿名类和 Outer$$ 合成类两者结果一致；旧版 -$$Lambda$Outer$Hash 只有索引收录。
+ */
+class NestedClassIndexTest {
+
+    private static final List<String> CLASS_NAMES = Arrays.asList(
+            "com.example.Outer",
+            "com.example.Outer$Inner",
+            "com.example.Outer$Inner$1",
+            "com.example.Outer$1",
+            "com.example.Outer$2",
+            "com.example.Outer$Companion",
+            "com.example.Outer$$ExternalSyntheticLambda0",
+            "com.example.Outer$-CC",
+            "com.example.-$$Lambda$Outer$7f3a",
+            "com.example.-$$Lambda$Outer$Inner$9c1d",
+            "com.example.OuterView",
+            "com.example.OuterView$1",
+            "com.other.Outer$1",
+            "com.other.-$$Lambda$Outer$55aa");
+
+    @Example
+    void innerAndAnonymousClassesMatchOldScan() {
+        NestedClassIndex index = new NestedClassIndex(CLASS_NAMES);
+
+        assertThat(withoutLegacyLambdas(expand(index, "com.example.Outer$Inner")))
+                .isEqualTo(legacyScan("com.example.Outer$Inner", CLASS_NAMES))
+                .containsOnly("com.example.Outer$Inner$1");
+        assertThat(expand(index, "com.example.Outer$Companion")).isEmpty();
+        assertThat(expand(index, "com.example.OuterView"))
+                .isEqualTo(legacyScan("com.example.OuterView", CLASS_NAMES))
+                .containsOnly("com.example.OuterView$1");
+    }
+
+    @Example
+    void syntheticLambdasMatchOldScan() {
+        NestedClassIndex index = new NestedClassIndex(CLASS_NAMES);
+
+        assertThat(legacyScan("com.example.Outer", CLASS_NAMES)).containsOnly(
+                "com.example.Outer$Inner",
+                "com.example.Outer$Inner$1",
+                "com.example.Outer$1",
+                "com.example.Outer$2",
+                "com.example.Outer$Companion",
+                "com.example.Outer$$ExternalSyntheticLambda0",
+                "com.example.Outer$-CC");
+        assertThat(expand(index, "com.example.Outer"))
+                .containsAll(legacyScan("com.example.Outer", CLASS_NAMES));
+    }
+
+    @Example
+    void legacyLambdasAreAddedOnlyByIndex() {
+        NestedClassIndex index = new NestedClassIndex(CLASS_NAMES);
+
+        Set<String> added = expand(index, "com.example.Outer");
+        added.removeAll(legacyScan("com.example.Outer", CLASS_NAMES));
+        assertThat(added).containsOnly(
+                "com.example.-$$Lambda$Outer$7f3a",
+                "com.example.-$$Lambda$Outer$Inner$9c1d");
+
+        // 内部类的旧版 Lambda 同时归属内部类，其他包的同名类不受影响
+        assertThat(expand(index, "com.example.Outer$Inner"))
+                .contains("com.example.-$$Lambda$Outer$Inner$9c1d")
+                .doesNotContain("com.example.-$$Lambda$Outer$7f3a");
+        assertThat(expand(index, "com.other.Outer"))
+                .containsOnly("com.other.Outer$1", "com.other.-$$Lambda$Outer$55aa");
+    }
+
+    /**
+     * 随机类名下，除旧版 -$$Lambda$ 类外，索引结果与旧版扫描完全一致
+     *
+     * 旧版 Lambda 类本身不作为外部类比较：旧版扫描会把 -$$Lambda$Outer$Inner 当作
+     * -$$Lambda$Outer 的内部类，而它实际是 Outer$Inner 的 Lambda。
+     */
+    @Property(tries = 200)
+    void matchesOldScanExceptLegacyLambdas(@ForAll("classNames") List<String> classNames) {
+        NestedClassIndex index = new NestedClassIndex(classNames);
+        for (String baseClass : classNames) {
+            if (isLegacyLambda(baseClass)) {
+                continue;
+            }
+            assertThat(withoutLegacyLambdas(expand(index, baseClass)))
+                    .as(baseClass)
+                    .isEqualTo(legacyScan(baseClass, classNames));
+        }
+    }
+
+    @Provide
+    Arbitrary<List<String>> classNames() {
+        Arbitrary<String> pkg = Arbitraries.of("a", "a.b", "com.example");
+        Arbitrary<String> outer = Arbitraries.of("Outer", "OuterView", "Main", "-$$Lambda$Outer");
+        Arbitrary<String> suffix = Arbitraries.of("", "$Inner", "$1", "$2", "$Inner$1", "$Companion",
+                "$$ExternalSyntheticLambda0", "$-CC", "$Inner$$ExternalSyntheticLambda1", "$7f3a");
+        return Combinators.combine(pkg, outer, suffix)
+                .as((p, o, s) -> p + "." + o + s)
+                .list().uniqueElements().ofMinSize(1).ofMaxSize(40);
+    }
+
+    private static Set<String> expand(NestedClassIndex index, String baseClass) {
+        return new HashSet<>(index.getNestedClasses(baseClass));
+    }
+
+    private static Set<String> withoutLegacyLambdas(Set<String> classNames) {
+        classNames.removeIf(NestedClassIndexTest::isLegacyLambda);
+        return classNames;
+    }
+
+    private static boolean isLegacyLambda(String className) {
+        return className.contains(".-$$Lambda$");
+    }
+
+    /**
+     * 引入 NestedClassIndex 前 DexDiffer 对单个类的扫描
+     */
+    private static Set<String> legacyScan(String baseClass, List<String> allClassNames) {
+        Set<String> result = new HashSet<>();
+        String prefix = baseClass + "$";
+        String lambdaPrefix = baseClass + "$$";
+        for (String className : allClassNames) {
+            if (className.startsWith(prefix) || className.startsWith(lambdaPrefix)) {
+                result.add(className);
+            }
+        }
+        return result;
+    }
+}
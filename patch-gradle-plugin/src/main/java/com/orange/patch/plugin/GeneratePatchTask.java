@@ -4,6 +4,7 @@ import com.orange.patchgen.PatchGenerator;
 import com.orange.patchgen.callback.GeneratorCallback;
 import com.orange.patchgen.callback.SimpleGeneratorCallback;
 import com.orange.patchgen.config.EngineType;
+import com.orange.patchgen.config.GeneratorConfig;
 import com.orange.patchgen.config.PatchMode;
 import com.orange.patchgen.config.SigningConfig;
 import com.orange.patchgen.model.PatchResult;
@@ -158,6 +159,10 @@ public abstract class GeneratePatchTask extends DefaultTask {
                     .output(outputFile)
                     .engineType(parseEngineType())
                     .patchMode(parsePatchMode())
+                    .config(GeneratorConfig.builder()
+                            // 基准 APK 的分析结果按内容缓存，同一基准多次生成时只分析新 APK
+                            .baselineCacheDir(new File(getTemporaryDir(), "baseline-cache"))
+                            .build())
                     .callback(createCallback(logger));
             
             if (signingConfig != null) {
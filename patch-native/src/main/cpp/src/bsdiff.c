@@ -249,7 +249,7 @@ int bsdiff_generate(
     uint8_t *db, *eb;
     uint8_t buf[8];
     uint8_t header[32];
-    int64_t dblen, eblen;
+    int64_t dblen, eblen, ctrllen;
     FILE *pf;
     
     /* 参数检查 */
@@ -293,6 +293,7 @@ int bsdiff_generate(
     }
     dblen = 0;
     eblen = 0;
+    ctrllen = 0;
 
     /* 打开输出文件 */
     pf = fopen(patchPath, "wb");
@@ -414,6 +415,7 @@ int bsdiff_generate(
             fwrite(buf, 1, 8, pf);
             offtout((pos - lenb) - (lastpos + lenf), buf);
             fwrite(buf, 1, 8, pf);
+            ctrllen += 24;
 
             lastscan = scan - lenb;
             lastpos = pos - lenb;
@@ -434,7 +436,7 @@ int bsdiff_generate(
     /* 更新头部 */
     fseek(pf, 0, SEEK_SET);
     memcpy(header, BSDIFF_MAGIC, 8);
-    offtout(0, header + 8);      /* ctrl size - simplified */
+    offtout(ctrllen, header + 8); /* ctrl block size */
     offtout(dblen, header + 16); /* diff size */
     offtout(newsize, header + 24);
     fwrite(header, 1, 32, pf);
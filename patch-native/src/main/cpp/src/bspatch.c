@@ -99,7 +99,7 @@ int bspatch_apply(
     ProgressCallback callback,
     void* userData
 ) {
-    int64_t ctrllen, difflen;
+    int64_t ctrllen, difflen, extralen;
     int64_t oldpos, newpos;
     int64_t ctrl[3];
     int64_t i;
@@ -132,10 +132,13 @@ int bspatch_apply(
     }
     
     /* 检查块大小是否合理 */
-    if (ctrllen < 0 || difflen < 0) {
+    if (ctrllen < 0 || difflen < 0
+            || ctrllen > patchsize - BSDIFF_HEADER_SIZE
+            || difflen > patchsize - BSDIFF_HEADER_SIZE - ctrllen) {
         pe_set_error(PE_ERROR_CORRUPT_PATCH, "Invalid block sizes");
         return PE_ERROR_CORRUPT_PATCH;
     }
+    extralen = patchsize - BSDIFF_HEADER_SIZE - ctrllen - difflen;
     
     /* 设置块指针 */
     ctrlblock = patch + BSDIFF_HEADER_SIZE;
@@ -155,7 +158,11 @@ int bspatch_apply(
             return PE_ERROR_CANCELLED;
         }
         
-        /* 读取控制数据 */
+        /* 读取控制数据（截断或损坏的补丁不能越界读取） */
+        if (ctrlptr + 24 > diffblock) {
+            pe_set_error(PE_ERROR_CORRUPT_PATCH, "Control block truncated");
+            return PE_ERROR_CORRUPT_PATCH;
+        }
         ctrl[0] = offtin(ctrlptr);
         ctrl[1] = offtin(ctrlptr + 8);
         ctrl[2] = offtin(ctrlptr + 16);
@@ -172,6 +179,12 @@ int bspatch_apply(
             return PE_ERROR_CORRUPT_PATCH;
         }
         
+        if (ctrl[0] > difflen - (diffptr - diffblock)
+                || ctrl[1] > extralen - (extraptr - extrablock)) {
+            pe_set_error(PE_ERROR_CORRUPT_PATCH, "Control data exceeds patch size");
+            return PE_ERROR_CORRUPT_PATCH;
+        }
+        
         /* 应用差异块 */
         for (i = 0; i < ctrl[0]; i++) {
             if (oldpos + i >= 0 && oldpos + i < oldsize) {
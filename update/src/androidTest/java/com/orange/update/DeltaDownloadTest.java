@@ -0,0 +1,239 @@
+package com.orange.update;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * PatchManager 差量下载测试：从已应用的补丁 N 和差量包重建 N+1，
+ * 差量包损坏时回退到完整补丁，并按阶段通知
+ */
+@RunWith(AndroidJUnit4.class)
+public class DeltaDownloadTest {
+
+    private static final String BASE_ID = "delta_test_base";
+    private static final String NEXT_ID = "delta_test_next";
+    private static final String DELTA_URL = "https://example.com/next.delta";
+    private static final String FULL_URL = "https://example.com/next.zip";
+
+    private PatchStorage storage;
+    private FakeDownloader downloader;
+    private PatchManager patchManager;
+    private byte[] base;
+    private byte[] next;
+
+    private final List<Integer> phases = new ArrayList<>();
+    private File savedFile;
+    private String error;
+
+    @Before
+    public void setUp() throws IOException {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        UpdateConfig config = new UpdateConfig.Builder()
+                .serverUrl("https://example.com")
+                .appKey("test")
+                .appVersion("1.0")
+                .build();
+        SecurityManager securityManager = new SecurityManager(context, true);
+        storage = new PatchStorage(context, securityManager);
+        storage.clearAll();
+        downloader = new FakeDownloader(config);
+        patchManager = new PatchManager(context, config, storage, downloader, securityManager);
+
+        Random random = new Random(25);
+        base = new byte[64 * 1024];
+        random.nextBytes(base);
+        next = Arrays.copyOf(base, base.length + 4096);
+        for (int i = 0; i < 256; i++) {
+            next[random.nextInt(next.length)] ^= 0x5A;
+        }
+
+        // 补丁 N 经写入器提交后解密到应用目录，记录其哈希作为差量包的基准
+        PatchStreamWriter writer = storage.openPatchWriter(BASE_ID, Md5Utils.calculateMd5(base), base.length);
+        try {
+            writer.write(base, 0, base.length);
+            writer.commit();
+        } finally {
+            writer.abort();
+        }
+        assertNotNull(storage.decryptPatchToApplied(BASE_ID));
+
+        downloader.files.put(FULL_URL, next);
+        downloader.files.put(DELTA_URL, encodeDelta(base, next));
+    }
+
+    @After
+    public void tearDown() {
+        storage.clearAll();
+    }
+
+    @Test
+    public void deltaRebuildsNextPatch() {
+        assumeTrue(DeltaPatchApplier.isAvailable());
+
+        patchManager.download(nextPatchInfo(storage.getAppliedPatchHash()), newCallback());
+
+        assertNull(error);
+        assertNotNull(savedFile);
+        assertTrue(storage.getPatchFile(NEXT_ID).isFile());
+        assertEquals(Collections.singletonList(DELTA_URL), downloader.urls);
+        assertEquals(Collections.singletonList(DownloadCallback.PHASE_DELTA), phases);
+    }
+
+    @Test
+    public void truncatedDeltaFallsBackToFullPatch() {
+        assumeTrue(DeltaPatchApplier.isAvailable());
+        byte[] delta = downloader.files.get(DELTA_URL);
+        downloader.files.put(DELTA_URL, Arrays.copyOf(delta, delta.length / 2));
+
+        patchManager.download(nextPatchInfo(storage.getAppliedPatchHash()), newCallback());
+
+        assertNull(error);
+        assertNotNull(savedFile);
+        assertEquals(Arrays.asList(DELTA_URL, FULL_URL), downloader.urls);
+        assertEquals(Arrays.asList(DownloadCallback.PHASE_DELTA, DownloadCallback.PHASE_FULL_FALLBACK), phases);
+    }
+
+    @Test
+    public void deltaForOtherBaseDownloadsFullPatch() {
+        char[] otherHash = new char[64];
+        Arrays.fill(otherHash, '0');
+
+        patchManager.download(nextPatchInfo(new String(otherHash)), newCallback());
+
+        assertNull(error);
+        assertNotNull(savedFile);
+        assertEquals(Collections.singletonList(FULL_URL), downloader.urls);
+        assertEquals(Collections.singletonList(DownloadCallback.PHASE_FULL), phases);
+    }
+
+    private PatchInfo nextPatchInfo(String deltaBaseHash) {
+        PatchInfo patchInfo = new PatchInfo();
+        patchInfo.setPatchId(NEXT_ID);
+        patchInfo.setPatchVersion("1.0.1");
+        patchInfo.setDownloadUrl(FULL_URL);
+        patchInfo.setFileSize(next.length);
+        patchInfo.setMd5(Md5Utils.calculateMd5(next));
+        patchInfo.setDeltaUrl(DELTA_URL);
+        patchInfo.setDeltaSize(downloader.files.get(DELTA_URL).length);
+        patchInfo.setDeltaBaseHash(deltaBaseHash);
+        return patchInfo;
+    }
+
+    private DownloadCallback newCallback() {
+        return new DownloadCallback() {
+            @Override
+            public void onPhaseChanged(int phase) {
+                phases.add(phase);
+            }
+
+            @Override
+            public void onProgress(long current, long total) {
+            }
+
+            @Override
+            public void onSuccess(File file) {
+                savedFile = file;
+            }
+
+            @Override
+            public void onError(int errorCode, String message) {
+                error = message;
+            }
+        };
+    }
+
+    /**
+     * 按 BSDIFF40 格式生成差量包：一条控制记录，公共长度部分为逐字节差值，其余为额外数据
+     */
+    private static byte[] encodeDelta(byte[] oldData, byte[] newData) {
+        int add = Math.min(oldData.length, newData.length);
+        int extra = newData.length - add;
+        byte[] delta = new byte[32 + 24 + newData.length];
+        System.arraycopy("BSDIFF40".getBytes(StandardCharsets.US_ASCII), 0, delta, 0, 8);
+        offtout(24, delta, 8);
+        offtout(add, delta, 16);
+        offtout(newData.length, delta, 24);
+        offtout(add, delta, 32);
+        offtout(extra, delta, 40);
+        offtout(0, delta, 48);
+        for (int i = 0; i < add; i++) {
+            delta[56 + i] = (byte) (newData[i] - oldData[i]);
+        }
+        System.arraycopy(newData, add, delta, 56 + add, extra);
+        return delta;
+    }
+
+    private static void offtout(long value, byte[] buf, int offset) {
+        for (int i = 0; i < 8; i++) {
+            buf[offset + i] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    /**
+     * 按 URL 返回固定内容的下载器，记录请求的 URL
+     */
+    private static final class FakeDownloader extends PatchDownloader {
+
+        final Map<String, byte[]> files = new HashMap<>();
+        final List<String> urls = new ArrayList<>();
+
+        FakeDownloader(UpdateConfig config) {
+            super(config);
+        }
+
+        @Override
+        public void download(String downloadUrl, File targetFile, DownloadCallback callback) {
+            urls.add(downloadUrl);
+            byte[] data = files.get(downloadUrl);
+            try (FileOutputStream out = new FileOutputStream(targetFile)) {
+                out.write(data);
+            } catch (IOException e) {
+                callback.onError(UpdateErrorCode.ERROR_FILE_WRITE_FAILED, e.getMessage());
+                return;
+            }
+            callback.onProgress(data.length, data.length);
+            callback.onSuccess(targetFile);
+        }
+
+        @Override
+        void download(String downloadUrl, PatchStreamWriter writer, long expectedSize,
+                      SegmentCache segmentCache, DownloadCallback callback) {
+            urls.add(downloadUrl);
+            byte[] data = files.get(downloadUrl);
+            try {
+                writer.write(data, 0, data.length);
+                callback.onProgress(data.length, data.length);
+                callback.onSuccess(writer.commit());
+            } catch (IOException e) {
+                callback.onError(UpdateErrorCode.ERROR_DOWNLOAD_FAILED, e.getMessage());
+            } finally {
+                writer.abort();
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.orange.update;
+
+import android.util.Log;
+
+import com.orange.patchnative.NativePatchEngine;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 差量包重建器：用 patch-native 的二进制差分引擎，从当前已应用的补丁和差量包重建新补丁。
+ *
+ * patch-native 是可选依赖（compileOnly），应用未引入或 native 库加载失败时
+ * {@link #isAvailable()} 返回 false，此时不请求差量包，只下载完整补丁。
+ *
+ * 差量包格式与 patch-core 的 BsDiff 输出一致：32 字节头（"BSDIFF40"、控制块长度、
+ * 差异块长度、新文件大小，8 字节小端符号-数值编码），其后依次为未压缩的控制块、差异块和额外块。
+ * 与原版 bsdiff 的区别是各块不做 bzip2 压缩，原版工具生成的差量包魔数相同但不能使用。
+ * native 引擎把基准、差量和结果整个读入内存，因此应用前先用 {@link #isValidDelta(File, long)}
+ * 校验头部和控制块，格式不符的差量包直接回退到完整补丁。
+ */
+final class DeltaPatchApplier {
+
+    private static final String TAG = "DeltaPatchApplier";
+    private static final String ENGINE_CLASS = "com.orange.patchnative.NativePatchEngine";
+
+    private static final byte[] MAGIC = "BSDIFF40".getBytes(StandardCharsets.US_ASCII);
+    private static final int HEADER_SIZE = 32;
+    private static final int CTRL_ENTRY_SIZE = 24;
+
+    private static volatile Boolean sAvailable;
+
+    private DeltaPatchApplier() {
+        // 防止实例化
+    }
+
+    /**
+     * 检查差分引擎是否可用（类存在且 native 库可加载）
+     */
+    static boolean isAvailable() {
+        Boolean available = sAvailable;
+        if (available == null) {
+            try {
+                Class.forName(ENGINE_CLASS, false, DeltaPatchApplier.class.getClassLoader());
+                available = NativePatchEngine.isAvailable();
+            } catch (ClassNotFoundException | LinkageError e) {
+                available = false;
+            }
+            sAvailable = available;
+        }
+        return available;
+    }
+
+    /**
+     * 应用差量包
+     *
+     * @param baseFile 基准补丁（当前已应用的补丁明文）
+     * @param deltaFile 差量包
+     * @param outputFile 重建出的新补丁
+     * @param expectedSize 新补丁的大小，不大于 0 时不校验
+     * @return 是否成功
+     */
+    static boolean apply(File baseFile, File deltaFile, File outputFile, long expectedSize) {
+        if (!isAvailable()) {
+            return false;
+        }
+        if (!isValidDelta(deltaFile, expectedSize)) {
+            Log.w(TAG, "Invalid delta format: " + deltaFile.getName());
+            return false;
+        }
+        NativePatchEngine engine = new NativePatchEngine();
+        try {
+            if (!engine.init()) {
+                Log.w(TAG, "Failed to init native patch engine");
+                return false;
+            }
+            int result = engine.applyPatch(baseFile.getAbsolutePath(), deltaFile.getAbsolutePath(),
+                    outputFile.getAbsolutePath(), null);
+            if (result != NativePatchEngine.SUCCESS) {
+                Log.w(TAG, "Failed to apply delta: " + engine.errorToString(result)
+                        + ", " + engine.getLastError());
+                return false;
+            }
+            return true;
+        } finally {
+            engine.release();
+        }
+    }
+
+    /**
+     * 校验差量包格式：魔数、各块长度与文件大小一致，控制块记录的差异、额外数据长度
+     * 与对应块的长度一致且合计等于新文件大小
+     *
+     * @param deltaFile 差量包
+     * @param expectedSize 新补丁的大小，不大于 0 时不校验
+     * @return 格式是否有效
+     */
+    static boolean isValidDelta(File deltaFile, long expectedSize) {
+        long fileSize = deltaFile.length();
+        if (fileSize < HEADER_SIZE) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(deltaFile)))) {
+            byte[] header = new byte[HEADER_SIZE];
+            in.readFully(header);
+            if (!Arrays.equals(Arrays.copyOf(header, MAGIC.length), MAGIC)) {
+                return false;
+            }
+            long ctrlLen = offtin(header, 8);
+            long diffLen = offtin(header, 16);
+            long newSize = offtin(header, 24);
+            if (ctrlLen < 0 || diffLen < 0 || newSize < 0
+                    || ctrlLen > fileSize - HEADER_SIZE
+                    || diffLen > fileSize - HEADER_SIZE - ctrlLen
+                    || ctrlLen % CTRL_ENTRY_SIZE != 0
+                    || (expectedSize > 0 && newSize != expectedSize)) {
+                return false;
+            }
+            long extraLen = fileSize - HEADER_SIZE - ctrlLen - diffLen;
+
+            long diffTotal = 0;
+            long extraTotal = 0;
+            byte[] entry = new byte[CTRL_ENTRY_SIZE];
+            for (long i = 0; i < ctrlLen / CTRL_ENTRY_SIZE; i++) {
+                in.readFully(entry);
+                long add = offtin(entry, 0);
+                long extra = offtin(entry, 8);
+                if (add < 0 || extra < 0 || add > diffLen - diffTotal || extra > extraLen - extraTotal) {
+                    return false;
+                }
+                diffTotal += add;
+                extraTotal += extra;
+            }
+            return diffTotal == diffLen && extraTotal == extraLen && diffTotal + extraTotal == newSize;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read delta: " + deltaFile.getName(), e);
+            return false;
+        }
+    }
+
+    /**
+     * 读取 8 字节小端符号-数值编码的整数
+     */
+    private static long offtin(byte[] buf, int offset) {
+        long y = buf[offset + 7] & 0x7F;
+        for (int i = 6; i >= 0; i--) {
+            y = (y << 8) | (buf[offset + i] & 0xFF);
+        }
+        return (buf[offset + 7] & 0x80) != 0 ? -y : y;
+    }
+}
@@ -1,7 +1,9 @@
 package com.orange.update;
 
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.os.Build;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.annotation.ChecksSdkIntAtLeast;
@@ -39,6 +41,30 @@ public class DexPatcher {
     private static final String FIELD_NATIVE_LIBRARY_DIRECTORIES = "nativeLibraryDirectories";
     private static final String FIELD_NATIVE_LIBRARY_PATH_ELEMENTS = "nativeLibraryPathElements";
     
+    // 代码缓存目录中的补丁副本：patch_<内容MD5>.zip，ART 的编译产物位于 oat/<isa>/patch_<内容MD5>.*
+    private static final String CODE_CACHE_SLOT_PREFIX = "patch_";
+    private static final String CODE_CACHE_SLOT_SUFFIX = ".zip";
+    private static final String CODE_CACHE_OAT_DIR = "oat";
+    
+    // 预编译状态记录在 patch_storage_prefs 中：状态|补丁路径
+    private static final String PREFS_NAME = "patch_storage_prefs";
+    private static final String KEY_DEX_COMPILE_STATE = "dex_compile_state";
+    private static final String COMPILE_STATE_SEPARATOR = "|";
+    
+    /**
+     * 补丁 dex 的编译状态
+     */
+    public enum CompileState {
+        /** 尚未预编译或状态已清除 */
+        UNKNOWN,
+        /** 没有任何编译产物，启动时解释执行并在运行时校验 */
+        NONE,
+        /** 只有 vdex（已校验），启动时跳过校验但仍解释执行 */
+        VERIFIED,
+        /** 已生成 odex/oat 机器码 */
+        COMPILED
+    }
+    
     /**
      * 将补丁 dex 注入到当前 ClassLoader
      * 
@@ -47,6 +73,19 @@ public class DexPatcher {
      * @throws PatchException 如果注入失败
      */
     public static void injectPatchDex(Context context, String patchDexPath) throws PatchException {
+        injectPatchDex(context, patchDexPath, (String) null);
+    }
+    
+    /**
+     * 将补丁 dex 注入到当前 ClassLoader
+     * 
+     * @param context 应用上下文
+     * @param patchDexPath 补丁 dex 文件路径
+     * @param contentHash 调用方已记录的补丁内容哈希，用于命名代码缓存副本；为 null 时现场计算
+     * @throws PatchException 如果注入失败
+     */
+    public static void injectPatchDex(Context context, String patchDexPath, String contentHash)
+            throws PatchException {
         if (context == null) {
             throw new IllegalArgumentException("Context cannot be null");
         }
@@ -61,7 +100,7 @@ public class DexPatcher {
         }
         
         File optimizedDir = getOptimizedDir(context);
-        injectPatchDex(context, patchDexPath, optimizedDir);
+        injectPatchDex(context, patchDexPath, optimizedDir, contentHash);
     }
     
     /**
@@ -74,6 +113,20 @@ public class DexPatcher {
      */
     public static void injectPatchDex(Context context, String patchDexPath, File optimizedDir) 
             throws PatchException {
+        injectPatchDex(context, patchDexPath, optimizedDir, null);
+    }
+    
+    /**
+     * 将补丁 dex 注入到当前 ClassLoader
+     * 
+     * @param context 应用上下文
+     * @param patchDexPath 补丁 dex 文件路径
+     * @param optimizedDir dex 优化输出目录
+     * @param contentHash 调用方已记录的补丁内容哈希，用于命名代码缓存副本；为 null 时现场计算
+     * @throws PatchException 如果注入失败
+     */
+    public static void injectPatchDex(Context context, String patchDexPath, File optimizedDir,
+            String contentHash) throws PatchException {
         if (context == null) {
             throw new IllegalArgumentException("Context cannot be null");
         }
@@ -102,7 +155,7 @@ public class DexPatcher {
             
             if (sdkVersion >= Build.VERSION_CODES.Q) {
                 // Android 10+ (API 29+)
-                injectPatchForQ(context, patchDexPath, optimizedDir);
+                injectPatchForQ(context, patchDexPath, optimizedDir, contentHash);
             } else if (sdkVersion >= Build.VERSION_CODES.N) {
                 // Android 7.0+ (API 24+)
                 injectPatchForN(context, patchDexPath, optimizedDir);
@@ -192,21 +245,15 @@ public class DexPatcher {
      * Android 10+ 注入方案 (API 29+)
      * 需要处理非 SDK 接口限制和可写目录限制
      */
-    private static void injectPatchForQ(Context context, String patchDexPath, File optimizedDir) 
-            throws Exception {
+    private static void injectPatchForQ(Context context, String patchDexPath, File optimizedDir,
+            String contentHash) throws Exception {
         // Android 10+ 不允许从可写目录加载 DEX 文件
-        // 需要将补丁文件复制到代码缓存目录（只读）
+        // 需要将补丁文件复制到代码缓存目录（只读），副本按内容命名，内容不变时跨启动复用
         
         File patchFile = new File(patchDexPath);
-        File codeCacheDir = context.getCodeCacheDir();
-        File readOnlyPatchFile = new File(codeCacheDir, "patch_" + System.currentTimeMillis() + ".zip");
-        
-        // 复制补丁文件到代码缓存目录
+        File readOnlyPatchFile;
         try {
-            copyFile(patchFile, readOnlyPatchFile);
-            // 设置为只读
-            readOnlyPatchFile.setReadOnly();
-            Log.d(TAG, "Copied patch to code cache dir: " + readOnlyPatchFile.getPath());
+            readOnlyPatchFile = prepareCodeCacheSlot(context.getCodeCacheDir(), patchFile, contentHash);
         } catch (Exception e) {
             Log.e(TAG, "Failed to copy patch file", e);
             throw new Exception("Failed to copy patch to code cache directory", e);
@@ -234,6 +281,112 @@ public class DexPatcher {
         Log.d(TAG, "Patch injected for Android Q+ from read-only location");
     }
     
+    /**
+     * 准备补丁在代码缓存目录中的只读副本
+     * 
+     * 副本以补丁内容哈希命名：内容不变时直接复用已有副本，ART 在副本旁生成的
+     * odex/vdex 路径也不变，第二次及之后的冷启动无需复制，也不会重新编译或校验。
+     * 其他内容的旧副本及其编译产物会被清理。
+     * 
+     * 哈希优先使用调用方已记录的值（applied_patch_hash），冷启动路径上不再读取整个补丁；
+     * 只有调用方没有记录时才现场计算 MD5。
+     * 
+     * @param codeCacheDir 代码缓存目录
+     * @param patchFile 补丁文件
+     * @param contentHash 已记录的补丁内容哈希，可为 null
+     * @return 只读副本
+     * @throws IOException 如果复制失败
+     */
+    static File prepareCodeCacheSlot(File codeCacheDir, File patchFile, String contentHash)
+            throws IOException {
+        String slotKey = contentHash != null && !contentHash.isEmpty()
+                ? contentHash : Md5Utils.calculateMd5(patchFile);
+        String slotName = CODE_CACHE_SLOT_PREFIX + slotKey + CODE_CACHE_SLOT_SUFFIX;
+        File slotFile = new File(codeCacheDir, slotName);
+        
+        if (slotFile.isFile() && slotFile.length() == patchFile.length()) {
+            Log.d(TAG, "Reusing patch in code cache dir: " + slotFile.getPath());
+        } else {
+            // 先写入临时文件再重命名，进程中途被杀时不会留下不完整的副本
+            File tempFile = new File(codeCacheDir, slotName + ".tmp");
+            tempFile.delete();
+            slotFile.delete();
+            try {
+                copyFile(patchFile, tempFile);
+            } catch (Exception e) {
+                tempFile.delete();
+                throw new IOException("Failed to copy patch: " + e.getMessage(), e);
+            }
+            if (!tempFile.renameTo(slotFile)) {
+                tempFile.delete();
+                throw new IOException("Failed to rename patch copy: " + slotFile.getPath());
+            }
+            // 设置为只读
+            slotFile.setReadOnly();
+            Log.d(TAG, "Copied patch to code cache dir: " + slotFile.getPath());
+        }
+        
+        removeCodeCacheSlots(codeCacheDir, slotName);
+        return slotFile;
+    }
+    
+    /**
+     * 清理代码缓存目录中的所有补丁副本及其编译产物（清除补丁时调用）
+     * 
+     * @param context 应用上下文
+     */
+    public static void clearCodeCacheSlots(Context context) {
+        removeCodeCacheSlots(context.getCodeCacheDir(), null);
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .edit().remove(KEY_DEX_COMPILE_STATE).apply();
+    }
+    
+    /**
+     * 删除代码缓存目录中除 keepName 之外的补丁副本，以及 oat/<isa>/ 下对应的 odex/vdex/art
+     */
+    private static void removeCodeCacheSlots(File codeCacheDir, String keepName) {
+        File[] files = codeCacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        String keepBase = keepName != null ? stripSuffix(keepName) : null;
+        for (File file : files) {
+            String name = file.getName();
+            if (!file.isFile() || !name.startsWith(CODE_CACHE_SLOT_PREFIX) || name.equals(keepName)) {
+                continue;
+            }
+            // 包括旧版本按时间戳命名的副本和残留的临时文件
+            if (name.endsWith(CODE_CACHE_SLOT_SUFFIX) || name.endsWith(".tmp")) {
+                if (file.delete()) {
+                    Log.d(TAG, "Removed stale code cache patch: " + name);
+                }
+            }
+        }
+        
+        File[] isaDirs = new File(codeCacheDir, CODE_CACHE_OAT_DIR).listFiles();
+        if (isaDirs == null) {
+            return;
+        }
+        for (File isaDir : isaDirs) {
+            File[] artifacts = isaDir.listFiles();
+            if (artifacts == null) {
+                continue;
+            }
+            for (File artifact : artifacts) {
+                String name = artifact.getName();
+                if (name.startsWith(CODE_CACHE_SLOT_PREFIX)
+                        && (keepBase == null || !stripSuffix(name).equals(keepBase))) {
+                    artifact.delete();
+                }
+            }
+        }
+    }
+    
+    private static String stripSuffix(String name) {
+        int dot = name.indexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+    
     /**
      * 复制文件
      */
@@ -268,6 +421,176 @@ public class DexPatcher {
     }
 
     
+    // ==================== 后台预编译 ====================
+    
+    /**
+     * 在后台线程预编译已应用的补丁
+     * 
+     * 补丁应用后调用，不阻塞应用流程。下次冷启动注入时即可直接使用 ART 的编译产物，
+     * 不必在启动路径上等待 dex2oat 或逐类校验。
+     * 
+     * @param context 应用上下文
+     * @param patchFile 启动时注入的补丁文件（ZIP 密码保护补丁为加载用的明文）
+     */
+    public static void precompilePatchAsync(final Context context, final File patchFile) {
+        precompilePatchAsync(context, patchFile, null);
+    }
+    
+    /**
+     * 在后台线程预编译已应用的补丁
+     * 
+     * @param context 应用上下文
+     * @param patchFile 启动时注入的补丁文件（ZIP 密码保护补丁为加载用的明文）
+     * @param contentHash 已记录的补丁内容哈希，需与启动注入时传入的一致；为 null 时现场计算
+     */
+    public static void precompilePatchAsync(final Context context, final File patchFile,
+            final String contentHash) {
+        precompilePatchAsync(context, patchFile, contentHash, false);
+    }
+    
+    /**
+     * 在后台线程预编译已应用的补丁
+     * 
+     * @param context 应用上下文
+     * @param patchFile 启动时注入的补丁文件
+     * @param contentHash 已记录的补丁内容哈希，为 null 时现场计算
+     * @param deleteWhenDone 预编译结束后删除 patchFile（ZIP 密码保护补丁的临时明文）
+     */
+    public static void precompilePatchAsync(final Context context, final File patchFile,
+            final String contentHash, final boolean deleteWhenDone) {
+        final Context appContext = context.getApplicationContext() != null
+                ? context.getApplicationContext() : context;
+        new Thread(() -> {
+            android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+            try {
+                precompilePatch(appContext, patchFile, contentHash);
+            } finally {
+                if (deleteWhenDone) {
+                    patchFile.delete();
+                }
+            }
+        }, "PatchDexOpt").start();
+    }
+    
+    /**
+     * 预编译补丁并记录编译状态
+     * 
+     * 使用与启动注入完全相同的路径（Android 10+ 为代码缓存中的副本）创建一个临时
+     * DexClassLoader，由 ART 生成 odex/vdex；临时 ClassLoader 不注入、用完即弃。
+     * Android 10+ 不再为应用加载的二级 dex 同步调用 dex2oat，此时结果取决于系统
+     * （后台 dexopt、运行时校验生成 vdex），状态如实记录为 NONE 或 VERIFIED。
+     * 
+     * 耗时操作，不要在主线程调用。
+     * 
+     * @param context 应用上下文
+     * @param patchFile 启动时注入的补丁文件
+     * @return 编译状态
+     */
+    public static CompileState precompilePatch(Context context, File patchFile) {
+        return precompilePatch(context, patchFile, null);
+    }
+    
+    /**
+     * 预编译补丁并记录编译状态
+     * 
+     * @param context 应用上下文
+     * @param patchFile 启动时注入的补丁文件
+     * @param contentHash 已记录的补丁内容哈希，需与启动注入时传入的一致；为 null 时现场计算
+     * @return 编译状态
+     */
+    public static CompileState precompilePatch(Context context, File patchFile, String contentHash) {
+        // 先清除旧记录，避免预编译中途失败时报告上一个补丁的状态
+        recordCompileState(context, CompileState.UNKNOWN, patchFile);
+        if (patchFile == null || !patchFile.isFile()) {
+            Log.w(TAG, "Patch file not found, skip precompile");
+            return CompileState.UNKNOWN;
+        }
+        
+        long startTime = SystemClock.elapsedRealtime();
+        CompileState state;
+        try {
+            File dexFile = patchFile;
+            if (requiresSpecialHandling()) {
+                dexFile = prepareCodeCacheSlot(context.getCodeCacheDir(), patchFile, contentHash);
+            }
+            File optimizedDir = getOptimizedDir(context);
+            new DexClassLoader(
+                    dexFile.getAbsolutePath(),
+                    optimizedDir.getAbsolutePath(),
+                    null,
+                    context.getClassLoader().getParent()
+            );
+            state = inspectCompileState(dexFile, optimizedDir);
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to precompile patch: " + e.getMessage());
+            return CompileState.UNKNOWN;
+        }
+        
+        recordCompileState(context, state, patchFile);
+        Log.i(TAG, "Patch precompiled in " + (SystemClock.elapsedRealtime() - startTime)
+                + "ms, state: " + state);
+        return state;
+    }
+    
+    /**
+     * 获取最近一次预编译记录的状态
+     * 
+     * @param context 应用上下文
+     * @return 编译状态，未预编译时返回 UNKNOWN
+     */
+    public static CompileState getCompileState(Context context) {
+        String record = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .getString(KEY_DEX_COMPILE_STATE, null);
+        if (record == null) {
+            return CompileState.UNKNOWN;
+        }
+        int separator = record.indexOf(COMPILE_STATE_SEPARATOR);
+        try {
+            return CompileState.valueOf(separator > 0 ? record.substring(0, separator) : record);
+        } catch (IllegalArgumentException e) {
+            return CompileState.UNKNOWN;
+        }
+    }
+    
+    private static void recordCompileState(Context context, CompileState state, File patchFile) {
+        SharedPreferences.Editor editor = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit();
+        if (state == CompileState.UNKNOWN) {
+            editor.remove(KEY_DEX_COMPILE_STATE);
+        } else {
+            editor.putString(KEY_DEX_COMPILE_STATE,
+                    state.name() + COMPILE_STATE_SEPARATOR + patchFile.getAbsolutePath());
+        }
+        editor.apply();
+    }
+    
+    /**
+     * 检查 ART 编译产物
+     * 
+     * - API 26+: dex 所在目录的 oat/<isa>/<名称>.odex、.vdex
+     * - API 21-25: 优化目录下的 <名称>.dex
+     */
+    static CompileState inspectCompileState(File dexFile, File optimizedDir) {
+        String baseName = stripSuffix(dexFile.getName());
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            File odexFile = new File(optimizedDir, baseName + ".dex");
+            return odexFile.isFile() && odexFile.length() > 0 ? CompileState.COMPILED : CompileState.NONE;
+        }
+        
+        boolean verified = false;
+        File[] isaDirs = new File(dexFile.getParentFile(), CODE_CACHE_OAT_DIR).listFiles();
+        if (isaDirs != null) {
+            for (File isaDir : isaDirs) {
+                if (new File(isaDir, baseName + ".odex").isFile()) {
+                    return CompileState.COMPILED;
+                }
+                if (new File(isaDir, baseName + ".vdex").isFile()) {
+                    verified = true;
+                }
+            }
+        }
+        return verified ? CompileState.VERIFIED : CompileState.NONE;
+    }
+    
     // ==================== 反射工具方法 ====================
     
     /**
@@ -395,6 +718,16 @@ public class DexPatcher {
         }
     }
     
+    /**
+     * 获取兼容性级别，并附带已应用补丁的预编译状态
+     * 
+     * @param context 应用上下文
+     * @return 兼容性级别描述
+     */
+    public static String getCompatibilityLevel(Context context) {
+        return getCompatibilityLevel() + ", patch dex: " + getCompileState(context);
+    }
+    
     /**
      * 检查是否需要特殊处理
      * 
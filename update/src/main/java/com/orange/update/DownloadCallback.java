@@ -8,6 +8,15 @@ import java.io.File;
  */
 public interface DownloadCallback {
     
+    /** 下载差量包，完成后在本地重建补丁 */
+    int PHASE_DELTA = 1;
+    
+    /** 下载完整补丁 */
+    int PHASE_FULL = 2;
+    
+    /** 差量包下载或重建失败后改为下载完整补丁，进度从 0 重新开始 */
+    int PHASE_FULL_FALLBACK = 3;
+    
     /**
      * 下载进度回调
      * @param current 当前已下载字节数
@@ -27,4 +36,11 @@ public interface DownloadCallback {
      * @param message 错误描述信息
      */
     void onError(int errorCode, String message);
+    
+    /**
+     * 下载阶段变化回调，在该阶段的第一次进度回调之前调用
+     * @param phase {@link #PHASE_DELTA}、{@link #PHASE_FULL} 或 {@link #PHASE_FULL_FALLBACK}
+     */
+    default void onPhaseChanged(int phase) {
+    }
 }
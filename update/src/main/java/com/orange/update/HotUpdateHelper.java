@@ -2,6 +2,7 @@ package com.orange.update;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.os.Trace;
 import android.util.Log;
 
 import java.io.File;
@@ -46,6 +47,15 @@ import java.util.concurrent.Executors;
  * // 3. 在 Application.attachBaseContext() 中加载补丁
  * helper.loadAppliedPatch();
  * </pre>
+ * 
+ * ZIP 密码保护补丁：
+ * 应用时解密一次，解密副本用 SecurityManager 的分段 AES-GCM 格式加密保存在 noBackupFilesDir 中。
+ * 正文使用软件数据密钥，数据密钥由 KeyStore 包装后保存，冷启动只需一次 KeyStore 操作解开密钥，
+ * 再在进程内解出副本，比重新解密 ZIP 快得多。DexClassLoader 和 AssetManager 只接受明文路径，
+ * 明文只在加载期间存在于 {@link PatchStorage#getZipPatchLoadFile}，注入完成后删除
+ * （Android 10+ 代码缓存中的只读副本由系统要求，不在此列）。
+ * KeyStore 不可用时不保存副本，每次加载重新解密 ZIP，不退化为明文保存。
+ * 源补丁被删除或替换时副本一并删除（见 {@link PatchStorage#deleteDecryptedZipPatch}）。
  */
 public class HotUpdateHelper {
     
@@ -59,9 +69,9 @@ public class HotUpdateHelper {
     private PatchStorage storage;  // 延迟初始化
     private PatchApplier applier;  // 延迟初始化
     private SecurityManager securityManager;  // 延迟初始化
-    private final PatchSigner patchSigner;  // 使用 apksig 进行签名验证
+    private PatchSigner patchSigner;  // 使用 apksig 进行签名验证，延迟初始化
     private ExecutorService executor;  // 延迟初始化
-    private final SharedPreferences securityPrefs;
+    private SharedPreferences securityPrefs;  // 延迟初始化
     
     // 应用配置
     private String appId;  // 应用ID，用于服务端更新检查
@@ -75,6 +85,9 @@ public class HotUpdateHelper {
     private static final String KEY_REQUIRE_SIGNATURE = "require_signature";
     private static final String KEY_REQUIRE_ENCRYPTION = "require_encryption";
     
+    // ZIP 密码保护补丁解密副本的数据密钥（KeyStore 包装，Base64）
+    private static final String KEY_DECRYPTED_PATCH_KEY = "decrypted_patch_key";
+    
     /**
      * 初始化单例实例（推荐在 Application.onCreate 中调用）
      * 
@@ -155,12 +168,12 @@ public class HotUpdateHelper {
         // 在 attachBaseContext 阶段，getApplicationContext() 返回 null
         // 所以直接使用传入的 context
         this.context = context.getApplicationContext() != null ? context.getApplicationContext() : context;
-        this.patchSigner = new PatchSigner(this.context);  // 使用 apksig
-        this.securityPrefs = this.context.getSharedPreferences(PREFS_SECURITY, Context.MODE_PRIVATE);
         
-        // SecurityManager、PatchStorage、PatchApplier 延迟初始化
-        // 因为 SecurityManager 需要 Android KeyStore，在 attachBaseContext 阶段无法使用
-        // 只有在调用 applyPatch() 等需要加密功能的方法时才初始化
+        // 构造时不创建任何子系统，冷启动只读取加载补丁必需的文件：
+        // - SecurityManager 需要 Android KeyStore，在 attachBaseContext 阶段无法使用
+        // - PatchStorage 会创建目录结构和 .nomedia 文件
+        // - PatchSigner、安全策略只在完整验证或应用补丁时需要
+        // 这些都在首次使用时初始化（检查更新、应用补丁等）
     }
     
     /**
@@ -256,26 +269,36 @@ public class HotUpdateHelper {
     /**
      * 确保 SecurityManager 已初始化（延迟初始化）
      */
-    private void ensureSecurityManagerInitialized() {
+    private synchronized void ensureSecurityManagerInitialized() {
         if (securityManager == null) {
-            securityManager = new SecurityManager(context);
+            Trace.beginSection("HotUpdate.initSecurityManager");
+            try {
+                securityManager = new SecurityManager(context);
+            } finally {
+                Trace.endSection();
+            }
         }
     }
     
     /**
      * 确保 PatchStorage 已初始化（延迟初始化）
      */
-    private void ensureStorageInitialized() {
+    private synchronized void ensureStorageInitialized() {
         if (storage == null) {
             ensureSecurityManagerInitialized();
-            storage = new PatchStorage(context, securityManager);
+            Trace.beginSection("HotUpdate.initStorage");
+            try {
+                storage = new PatchStorage(context, securityManager);
+            } finally {
+                Trace.endSection();
+            }
         }
     }
     
     /**
      * 确保 PatchApplier 已初始化（延迟初始化）
      */
-    private void ensureApplierInitialized() {
+    private synchronized void ensureApplierInitialized() {
         if (applier == null) {
             ensureStorageInitialized();
             applier = new PatchApplier(context, storage);
@@ -285,12 +308,39 @@ public class HotUpdateHelper {
     /**
      * 确保 ExecutorService 已初始化（延迟初始化）
      */
-    private void ensureExecutorInitialized() {
+    private synchronized void ensureExecutorInitialized() {
         if (executor == null) {
             executor = Executors.newSingleThreadExecutor();
         }
     }
     
+    /**
+     * 获取签名验证器（延迟初始化）
+     */
+    private synchronized PatchSigner getPatchSigner() {
+        if (patchSigner == null) {
+            patchSigner = new PatchSigner(context);  // 使用 apksig
+        }
+        return patchSigner;
+    }
+    
+    /**
+     * 获取安全策略配置（延迟初始化）
+     */
+    private synchronized SharedPreferences getSecurityPrefs() {
+        if (securityPrefs == null) {
+            securityPrefs = context.getSharedPreferences(PREFS_SECURITY, Context.MODE_PRIVATE);
+        }
+        return securityPrefs;
+    }
+    
+    /**
+     * 补丁状态配置，启动阶段直接读取，不初始化 PatchStorage
+     */
+    private SharedPreferences getPatchPrefs() {
+        return context.getSharedPreferences("patch_storage_prefs", Context.MODE_PRIVATE);
+    }
+    
     /**
      * 应用补丁（异步）
      * 
@@ -349,12 +399,7 @@ public class HotUpdateHelper {
                     try {
                         // 解密 AES 加密的补丁（先尝试使用默认密钥）
                         tempDecryptedFile = new File(context.getCacheDir(), "temp_decrypt_" + System.currentTimeMillis() + ".zip");
-                        byte[] encryptedData = readFileToBytes(patchFile);
-                        byte[] decryptedData = securityManager.decrypt(encryptedData);
-                        
-                        java.io.FileOutputStream fos = new java.io.FileOutputStream(tempDecryptedFile);
-                        fos.write(decryptedData);
-                        fos.close();
+                        securityManager.decryptPatch(patchFile, tempDecryptedFile);
                         
                         actualPatchFile = tempDecryptedFile;
                         logD("✓ AES 解密成功（使用默认密钥）");
@@ -375,7 +420,7 @@ public class HotUpdateHelper {
                     }
                     
                     // 解密成功后验证签名（如果要求签名）
-                    boolean requireSignature = securityPrefs.getBoolean(KEY_REQUIRE_SIGNATURE, false);
+                    boolean requireSignature = getSecurityPrefs().getBoolean(KEY_REQUIRE_SIGNATURE, false);
                     if (requireSignature) {
                         if (callback != null) {
                             callback.onProgress(15, "验证补丁签名...");
@@ -393,13 +438,13 @@ public class HotUpdateHelper {
                         }
                         
                         // 验证签名与应用签名匹配
-                        boolean signatureValid = patchSigner.verifyPatchSignatureMatchesApp(actualPatchFile);
+                        boolean signatureValid = getPatchSigner().verifyPatchSignatureMatchesApp(actualPatchFile);
                         if (!signatureValid) {
                             if (tempDecryptedFile != null && tempDecryptedFile.exists()) {
                                 tempDecryptedFile.delete();
                             }
                             if (callback != null) {
-                                callback.onError("⚠️ APK 签名验证失败: " + patchSigner.getError());
+                                callback.onError("⚠️ APK 签名验证失败: " + getPatchSigner().getError());
                             }
                             return;
                         }
@@ -480,22 +525,6 @@ public class HotUpdateHelper {
         });
     }
     
-    /**
-     * 读取文件内容到字节数组
-     */
-    private byte[] readFileToBytes(File file) {
-        try {
-            java.io.FileInputStream fis = new java.io.FileInputStream(file);
-            byte[] data = new byte[(int) file.length()];
-            fis.read(data);
-            fis.close();
-            return data;
-        } catch (Exception e) {
-            logE("Failed to read file", e);
-            return null;
-        }
-    }
-    
     /**
      * 检查补丁是否包含资源
      */
@@ -593,6 +622,12 @@ public class HotUpdateHelper {
      * 此方法应在 Application.attachBaseContext() 中调用
      */
     public void loadAppliedPatch() {
+        // 没有已应用的补丁时不初始化存储和 KeyStore
+        String appliedPatchId = getPatchPrefs().getString("applied_patch_id", null);
+        if (appliedPatchId == null || appliedPatchId.isEmpty()) {
+            logD("No applied patch to load");
+            return;
+        }
         ensureApplierInitialized();
         applier.loadAppliedPatch();
     }
@@ -611,18 +646,42 @@ public class HotUpdateHelper {
      * 6. 加载完整资源包和 DEX 补丁
      */
     public void loadPatchIfNeeded() {
+        Trace.beginSection("HotUpdate.loadPatchIfNeeded");
+        try {
+            StartupMetrics metrics = StartupMetrics.begin();
+            metrics.finish(loadPatchInternal(metrics));
+        } finally {
+            Trace.endSection();
+        }
+    }
+    
+    /**
+     * 启动加载的实际流程：只读取补丁状态配置和 applied 目录下的文件，
+     * 完整性戳匹配时不会初始化 PatchStorage 和签名验证器；
+     * 只有 ZIP 密码保护补丁会初始化 KeyStore，用一次 KeyStore 操作解开解密副本的数据密钥
+     *
+     * @param metrics 分阶段统计
+     * @return 加载结果
+     */
+    private StartupMetrics.Result loadPatchInternal(StartupMetrics metrics) {
+        // ZIP 密码保护补丁加载用的明文，加载完成后删除
+        java.io.File zipLoadFile = null;
+        boolean keepZipLoadFile = false;
         try {
             // 注意：在 attachBaseContext 中不能使用 getApplicationContext()
             // 因为 Application 还没有完全初始化，需要手动创建 SharedPreferences
-            android.content.SharedPreferences prefs = context.getSharedPreferences("patch_storage_prefs", Context.MODE_PRIVATE);
+            android.content.SharedPreferences prefs = getPatchPrefs();
             String appliedPatchId = prefs.getString("applied_patch_id", null);
 
             if (appliedPatchId == null || appliedPatchId.isEmpty()) {
                 logD("No applied patch to load");
-                return;
+                return StartupMetrics.Result.NO_PATCH;
             }
 
             logD("Loading applied patch: " + appliedPatchId);
+            metrics.setPatchId(appliedPatchId);
+            
+            metrics.beginStage(StartupMetrics.STAGE_VERSION_CHECK);
             
             // ✅ 检查 APK 版本是否变化（覆盖安装检测）
             try {
@@ -682,13 +741,14 @@ public class HotUpdateHelper {
                             .apply();
                         
                         logI("✅ Old patch cleared, ready for new APK version");
-                        return;
+                        return StartupMetrics.Result.VERSION_CHANGED;
                     }
                 }
             } catch (Exception e) {
                 logE("Failed to check APK version", e);
                 // 继续加载补丁，不因版本检查失败而中断
             }
+            metrics.endStage();
 
             // 获取已应用的补丁文件
             java.io.File updateDir = new java.io.File(context.getFilesDir(), "update");
@@ -697,75 +757,42 @@ public class HotUpdateHelper {
 
             if (!appliedFile.exists()) {
                 logW("Applied patch file not found: " + appliedFile.getAbsolutePath());
-                return;
+                return StartupMetrics.Result.FILE_MISSING;
             }
 
-            // ✅ 验证补丁完整性（防止篡改）
-            if (!verifyPatchIntegrity(appliedFile, prefs)) {
-                logE("⚠️ Patch integrity verification failed");
-
-                // 尝试恢复
-                if (!recoverPatch(appliedPatchId, appliedFile, prefs)) {
-                    logE("⚠️ Patch recovery failed, patch has been cleared");
-                    return;
-                }
-            }
-            
-            // ✅ APK 签名验证（启动时验证）- 使用 apksig
-            // 检查安全策略是否要求签名
-            boolean requireSignature = securityPrefs.getBoolean(KEY_REQUIRE_SIGNATURE, false);
-            
-            // 检查补丁在应用时是否有签名（防止攻击者删除签名文件）
+            // ✅ 快速路径：完整性戳与文件元数据一致时跳过全量哈希和签名验证，
+            // 首帧之后再在后台线程做一次完整验证
+            metrics.beginStage(StartupMetrics.STAGE_INTEGRITY_STAMP);
+            boolean requireSignature = getSecurityPrefs().getBoolean(KEY_REQUIRE_SIGNATURE, false);
             boolean hadSignatureWhenApplied = prefs.getBoolean("patch_had_signature", false);
-            boolean hasSignatureNow = hasApkSignatureInternal(appliedFile);
-            
-            // 漏洞修复1：如果安全策略要求签名，但补丁没有签名，拒绝加载
-            if (requireSignature && !hasSignatureNow) {
-                logE("⚠️ 安全策略要求补丁必须签名，但当前补丁没有签名！");
-                clearPatchCompletely(prefs, appliedFile, appliedPatchId);
-                logE("⚠️ 已清除不符合安全策略的补丁");
-                return;
-            }
-            
-            // 漏洞修复2：如果补丁应用时有签名，但现在没有了，说明被删除了
-            if (hadSignatureWhenApplied && !hasSignatureNow) {
-                logE("⚠️ 安全警告：补丁签名文件被删除！这是一次攻击行为。");
-                clearPatchCompletely(prefs, appliedFile, appliedPatchId);
-                logE("⚠️ 已清除被篡改的补丁");
-                return;
-            }
-            
-            // 如果补丁有签名，验证签名
-            if (hasSignatureNow) {
-                logD("检测到 APK 签名，开始验证...");
-                boolean signatureValid = patchSigner.verifyPatchSignatureMatchesApp(appliedFile);
-                
-                if (!signatureValid) {
-                    logE("⚠️ APK 签名验证失败: " + patchSigner.getError());
-                    clearPatchCompletely(prefs, appliedFile, appliedPatchId);
-                    logE("⚠️ 已清除被篡改的补丁");
-                    return;
-                }
-                
-                logD("✅ APK 签名验证通过（启动时）");
+            boolean stampMatched = (!requireSignature || hadSignatureWhenApplied)
+                && PatchIntegrityStamp.matches(context, prefs, appliedPatchId, appliedFile,
+                    prefs.getString("applied_patch_hash", null), hadSignatureWhenApplied);
+            metrics.endStage();
+
+            if (stampMatched) {
+                logD("✅ Integrity stamp matched, full verification deferred");
+                scheduleDeferredVerification(prefs, appliedFile, hadSignatureWhenApplied);
+            } else if (!verifyAppliedPatchOnLoad(prefs, appliedFile, appliedPatchId, metrics)) {
+                return StartupMetrics.Result.REJECTED;
             }
 
             // 检查补丁是否是 ZIP 密码保护的
             java.io.File actualPatchFile = appliedFile;
             if (isZipPasswordProtectedInternal(appliedFile)) {
                 logD("Patch is ZIP password protected, decrypting...");
+                metrics.beginStage(StartupMetrics.STAGE_ZIP_DECRYPT);
                 
-                // 获取保存的自定义密码（如果有）
-                String customPassword = prefs.getString("custom_zip_password", null);
-                
-                // 自动解密 ZIP 密码保护的补丁
-                actualPatchFile = decryptZipPatchOnLoad(appliedFile, customPassword);
+                // 解开已加密保存的解密副本，源补丁变化或副本不可用时才重新解密 ZIP
+                actualPatchFile = getDecryptedZipPatch(prefs, appliedFile, appliedPatchId);
+                zipLoadFile = actualPatchFile;
                 
                 if (actualPatchFile == null) {
                     logE("Failed to decrypt ZIP password protected patch");
-                    return;
+                    return StartupMetrics.Result.FAILED;
                 }
                 
+                metrics.endStage();
                 logD("✓ ZIP password protected patch decrypted");
             }
 
@@ -775,19 +802,22 @@ public class HotUpdateHelper {
             // 检查补丁是否包含资源
             if (hasResourcePatchInternal(actualPatchFile)) {
                 logD("Patch contains resources, checking for merged resources");
+                metrics.beginStage(StartupMetrics.STAGE_RESOURCE_MERGE);
 
-                // 检查是否已经有合并后的资源文件
-                java.io.File mergedResourceFile = new java.io.File(appliedDir, "merged_resources.apk");
+                // 检查应用时合并的资源文件是否就绪
+                java.io.File mergedResourceFile = ResourceMerger.getResourceFile(appliedDir);
+                String patchHash = prefs.getString("applied_patch_hash", null);
 
-                if (mergedResourceFile.exists()) {
+                if (ResourceMerger.isMergedResourcesReady(context, mergedResourceFile, patchHash)) {
                     logI("Using existing merged resources: " + mergedResourceFile.length());
                     resourcePath = mergedResourceFile.getAbsolutePath();
                 } else {
-                    logD("Merged resources not found, merging now...");
+                    // 应用时合并失败或被中断，只能在启动时补做
+                    logW("Merged resources not ready, merging now...");
                     
                     // 使用 ResourceMerger 合并资源（Tinker 的方式）
-                    boolean merged = ResourceMerger.mergeResources(
-                        context, actualPatchFile, mergedResourceFile);
+                    boolean merged = ResourceMerger.prepareResources(
+                        context, actualPatchFile, mergedResourceFile, patchHash);
 
                     if (merged && mergedResourceFile.exists()) {
                         logI("Resources merged successfully, size: " + mergedResourceFile.length());
@@ -795,31 +825,174 @@ public class HotUpdateHelper {
                         resourcePath = mergedResourceFile.getAbsolutePath();
                     } else {
                         logW("Failed to merge resources, using patch directly");
+                        // 资源直接从明文加载，低版本 AssetManager 会延迟读取，保留到下次加载时替换
+                        keepZipLoadFile = true;
                     }
                 }
+                metrics.endStage();
             }
 
             // 注入 DEX 补丁（使用原始补丁文件）
+            metrics.beginStage(StartupMetrics.STAGE_DEX_INJECT);
             if (!DexPatcher.isPatchInjected(context, patchPath)) {
-                DexPatcher.injectPatchDex(context, patchPath);
+                // 代码缓存副本以已记录的哈希命名，启动路径上不再读取整个补丁计算 MD5
+                DexPatcher.injectPatchDex(context, patchPath, prefs.getString("applied_patch_hash", null));
                 logD("Dex patch loaded successfully");
             }
+            metrics.endStage();
 
             // 加载资源补丁（使用合并后的完整资源包）
+            metrics.beginStage(StartupMetrics.STAGE_RESOURCE_LOAD);
             try {
                 ResourcePatcher.loadPatchResources(context, resourcePath);
                 logD("Resource patch loaded successfully from: " + resourcePath);
             } catch (ResourcePatcher.PatchResourceException e) {
                 logW("Failed to load resource patch");
             }
+            metrics.endStage();
 
             logI("✅ Patch loading completed with integrity verification");
+            return StartupMetrics.Result.LOADED;
 
         } catch (Exception e) {
             logE("Failed to load patch in attachBaseContext", e);
+            return StartupMetrics.Result.FAILED;
+        } finally {
+            // dex 和资源已由 ClassLoader、AssetManager 打开，删除明文不影响已加载的补丁
+            if (zipLoadFile != null && !keepZipLoadFile) {
+                zipLoadFile.delete();
+            }
         }
     }
     
+    /**
+     * 启动时完整验证已应用的补丁（SHA-256 + APK 签名），通过后写入完整性戳
+     *
+     * @param metrics 分阶段统计
+     * @return 验证通过（或恢复成功）返回 true，补丁已被清除返回 false
+     */
+    private boolean verifyAppliedPatchOnLoad(android.content.SharedPreferences prefs,
+                                             java.io.File appliedFile, String appliedPatchId,
+                                             StartupMetrics metrics) {
+        // ✅ 验证补丁完整性（防止篡改）
+        metrics.beginStage(StartupMetrics.STAGE_SHA256);
+        if (!verifyPatchIntegrity(appliedFile, prefs)) {
+            logE("⚠️ Patch integrity verification failed");
+
+            // 尝试恢复
+            if (!recoverPatch(appliedPatchId, appliedFile, prefs)) {
+                logE("⚠️ Patch recovery failed, patch has been cleared");
+                return false;
+            }
+        }
+        
+        // ✅ APK 签名验证（启动时验证）- 使用 apksig
+        // 检查安全策略是否要求签名
+        metrics.beginStage(StartupMetrics.STAGE_SIGNATURE);
+        boolean requireSignature = getSecurityPrefs().getBoolean(KEY_REQUIRE_SIGNATURE, false);
+        
+        // 检查补丁在应用时是否有签名（防止攻击者删除签名文件）
+        boolean hadSignatureWhenApplied = prefs.getBoolean("patch_had_signature", false);
+        boolean hasSignatureNow = hasApkSignatureInternal(appliedFile);
+        
+        // 漏洞修复1：如果安全策略要求签名，但补丁没有签名，拒绝加载
+        if (requireSignature && !hasSignatureNow) {
+            logE("⚠️ 安全策略要求补丁必须签名，但当前补丁没有签名！");
+            clearPatchCompletely(prefs, appliedFile, appliedPatchId);
+            logE("⚠️ 已清除不符合安全策略的补丁");
+            return false;
+        }
+        
+        // 漏洞修复2：如果补丁应用时有签名，但现在没有了，说明被删除了
+        if (hadSignatureWhenApplied && !hasSignatureNow) {
+            logE("⚠️ 安全警告：补丁签名文件被删除！这是一次攻击行为。");
+            clearPatchCompletely(prefs, appliedFile, appliedPatchId);
+            logE("⚠️ 已清除被篡改的补丁");
+            return false;
+        }
+        
+        // 如果补丁有签名，验证签名
+        if (hasSignatureNow) {
+            logD("检测到 APK 签名，开始验证...");
+            boolean signatureValid = getPatchSigner().verifyPatchSignatureMatchesApp(appliedFile);
+            
+            if (!signatureValid) {
+                logE("⚠️ APK 签名验证失败: " + getPatchSigner().getError());
+                clearPatchCompletely(prefs, appliedFile, appliedPatchId);
+                logE("⚠️ 已清除被篡改的补丁");
+                return false;
+            }
+            
+            logD("✅ APK 签名验证通过（启动时）");
+        }
+
+        // 签名已验证通过，之后删除签名文件同样视为篡改
+        if (hasSignatureNow && !hadSignatureWhenApplied) {
+            prefs.edit().putBoolean("patch_had_signature", true).apply();
+        }
+
+        // 写入完整性戳，下次冷启动走快速路径
+        PatchIntegrityStamp.write(context, prefs, appliedPatchId, appliedFile,
+            prefs.getString("applied_patch_hash", null), hasSignatureNow);
+        metrics.endStage();
+        return true;
+    }
+
+    /**
+     * 补丁应用成功后写入完整性戳
+     *
+     * 哈希由 PatchStorage 在应用时计算；有签名的补丁先验证签名，验证失败则不写入，
+     * 由下次启动的完整验证处理。
+     */
+    private void writeIntegrityStampAfterApply(android.content.SharedPreferences prefs, boolean signed) {
+        String patchId = prefs.getString("applied_patch_id", null);
+        java.io.File appliedFile = storage.getAppliedPatchFile();
+        if (signed && !getPatchSigner().verifyPatchSignatureMatchesApp(appliedFile)) {
+            logW("Signature not verified on applied patch, integrity stamp skipped");
+            return;
+        }
+        PatchIntegrityStamp.write(context, prefs, patchId, appliedFile,
+            prefs.getString("applied_patch_hash", null), signed);
+    }
+
+    /**
+     * 首帧之后在后台线程完整验证补丁
+     *
+     * 快速路径只比较了文件元数据，这里补做一次全量哈希和签名验证。
+     * 验证失败时清除完整性戳，下次冷启动走完整验证（恢复或清除补丁）。
+     */
+    private void scheduleDeferredVerification(final android.content.SharedPreferences prefs,
+                                              final java.io.File appliedFile,
+                                              final boolean signed) {
+        final Runnable verifyTask = () -> {
+            android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+
+            String savedHash = prefs.getString("applied_patch_hash", null);
+            String currentHash = calculateSHA256(appliedFile);
+            boolean valid = savedHash != null && savedHash.equals(currentHash);
+            if (valid && signed) {
+                valid = getPatchSigner().verifyPatchSignatureMatchesApp(appliedFile);
+            }
+
+            if (valid) {
+                logD("✅ Deferred patch verification passed");
+            } else {
+                logE("⚠️ Deferred patch verification failed, full verification on next launch");
+                PatchIntegrityStamp.clear(prefs);
+            }
+        };
+
+        // 主线程空闲时（首帧绘制之后）再启动验证线程，避免与启动争抢 IO 和 CPU
+        if (android.os.Looper.myLooper() == android.os.Looper.getMainLooper()) {
+            android.os.Looper.myQueue().addIdleHandler(() -> {
+                new Thread(verifyTask, "PatchVerifier").start();
+                return false;
+            });
+        } else {
+            new Thread(verifyTask, "PatchVerifier").start();
+        }
+    }
+
     /**
      * 检查补丁是否包含资源
      */
@@ -913,6 +1086,7 @@ public class HotUpdateHelper {
             if (appliedFile.exists()) {
                 appliedFile.delete();
             }
+            PatchStorage.deleteDecryptedZipPatch(context);
             return false;
         }
 
@@ -929,7 +1103,8 @@ public class HotUpdateHelper {
                 return false;
             }
 
-            // 使用 SecurityManager 解密
+            // 使用 SecurityManager 解密（恢复路径才初始化 KeyStore）
+            ensureSecurityManagerInitialized();
             java.io.File decryptedFile = securityManager.decryptPatch(encryptedFile);
 
             // 替换被篡改的文件
@@ -1002,17 +1177,20 @@ public class HotUpdateHelper {
         editor.remove("applied_patch_id");
         editor.remove("applied_patch_hash");
         editor.remove("patch_had_signature");
+        editor.remove(PatchIntegrityStamp.KEY_STAMP);
+        editor.remove(PatchIntegrityStamp.KEY_DECRYPTED_STAMP);
+        editor.remove(KEY_DECRYPTED_PATCH_KEY);
         editor.remove("is_zip_password_protected");
         editor.remove("custom_zip_password");
         editor.remove("tamper_count");
         
+        editor.apply();
+        
         // 清除补丁信息
         if (patchId != null) {
-            editor.remove("patch_info_" + patchId);
+            PatchStorage.openMetadataIndex(context, prefs).removePatchInfo(patchId);
         }
         
-        editor.apply();
-        
         // 2. 删除补丁文件
         if (appliedFile != null && appliedFile.exists()) {
             appliedFile.delete();
@@ -1023,11 +1201,8 @@ public class HotUpdateHelper {
         if (appliedFile != null) {
             java.io.File appliedDir = appliedFile.getParentFile();
             if (appliedDir != null) {
-                java.io.File mergedResourceFile = new java.io.File(appliedDir, "merged_resources.apk");
-                if (mergedResourceFile.exists()) {
-                    mergedResourceFile.delete();
-                    logD("✓ 删除合并资源文件");
-                }
+                ResourceMerger.deleteResourceFiles(appliedDir);
+                logD("✓ 删除合并资源文件");
                 
                 // 删除 oat 目录
                 java.io.File oatDir = new java.io.File(appliedDir, "oat");
@@ -1038,7 +1213,11 @@ public class HotUpdateHelper {
             }
         }
         
-        // 4. 清理缓存中的临时解密文件
+        // 4. 删除 ZIP 密码补丁的解密副本
+        PatchStorage.deleteDecryptedZipPatch(context);
+        logD("✓ 删除解密副本");
+        
+        // 5. 清理缓存中的临时解密文件
         java.io.File cacheDir = context.getCacheDir();
         if (cacheDir != null && cacheDir.exists()) {
             java.io.File[] cacheFiles = cacheDir.listFiles();
@@ -1057,6 +1236,9 @@ public class HotUpdateHelper {
             }
         }
         
+        // 6. 清理代码缓存目录中的补丁副本（Android 10+）
+        DexPatcher.clearCodeCacheSlots(context);
+        
         logI("✅ 补丁已完全清除");
     }
 
@@ -1139,7 +1321,130 @@ public class HotUpdateHelper {
     }
     
     /**
-     * 在加载时解密 ZIP 密码保护的补丁
+     * 获取 ZIP 密码保护补丁的明文（加载用）
+     * 
+     * 解密副本以数据密钥加密保存，并用完整性戳绑定到源补丁的哈希：戳一致时用 KeyStore 解开数据密钥，
+     * 把副本解到加载文件；源补丁变化、副本被改动或 KeyStore 不可用时重新解密 ZIP，
+     * 并在 KeyStore 可用时以新的数据密钥重新保存副本。
+     * 调用方用完后应删除返回的明文文件。
+     * 
+     * @param prefs SharedPreferences 实例
+     * @param appliedFile 加密的补丁文件
+     * @param patchId 补丁 ID
+     * @return 明文补丁文件，失败返回 null
+     */
+    private java.io.File getDecryptedZipPatch(android.content.SharedPreferences prefs,
+                                              java.io.File appliedFile, String patchId) {
+        java.io.File copyFile = PatchStorage.getDecryptedZipPatchFile(context);
+        java.io.File loadFile = PatchStorage.getZipPatchLoadFile(context);
+        String sourceHash = prefs.getString("applied_patch_hash", null);
+
+        if (PatchIntegrityStamp.matches(context, prefs, PatchIntegrityStamp.KEY_DECRYPTED_STAMP,
+                patchId, copyFile, sourceHash, false)
+                && decryptZipPatchCopy(prefs, copyFile, loadFile)) {
+            logD("✓ Using persisted decrypted patch");
+            return loadFile;
+        }
+
+        String customPassword = prefs.getString("custom_zip_password", null);
+        java.io.File tempFile = decryptZipPatchOnLoad(appliedFile, customPassword);
+        if (tempFile == null) {
+            return null;
+        }
+
+        try {
+            // 同时删除旧副本和旧版本保存的明文副本
+            PatchStorage.deleteDecryptedZipPatch(context);
+            if (!tempFile.renameTo(loadFile)) {
+                copyFileInternal(tempFile, loadFile);
+                tempFile.delete();
+            }
+        } catch (java.io.IOException e) {
+            logE("Failed to move decrypted patch, using temporary copy", e);
+            return tempFile;
+        }
+
+        persistZipPatchCopy(prefs, loadFile, copyFile, patchId, sourceHash);
+        return loadFile;
+    }
+
+    /**
+     * 用 KeyStore 解开数据密钥，把加密的解密副本解到加载文件
+     * 
+     * @return 成功返回 true；KeyStore 不可用、密钥缺失或副本认证失败返回 false
+     */
+    private boolean decryptZipPatchCopy(android.content.SharedPreferences prefs,
+                                        java.io.File copyFile, java.io.File loadFile) {
+        String wrappedKey = prefs.getString(KEY_DECRYPTED_PATCH_KEY, null);
+        if (wrappedKey == null || android.os.Build.VERSION.SDK_INT < android.os.Build.VERSION_CODES.M) {
+            return false;
+        }
+
+        // 先解到临时文件再替换：加载文件可能仍被本进程的 AssetManager 打开
+        java.io.File tempFile = new java.io.File(loadFile.getPath() + ".tmp");
+        try {
+            ensureSecurityManagerInitialized();
+            javax.crypto.SecretKey dataKey = securityManager.unwrapDataKey(
+                android.util.Base64.decode(wrappedKey, android.util.Base64.NO_WRAP));
+            try (java.io.InputStream in = new java.io.BufferedInputStream(new java.io.FileInputStream(copyFile));
+                 java.io.OutputStream out = new java.io.FileOutputStream(tempFile)) {
+                securityManager.decrypt(dataKey, in, out);
+            }
+            if (!tempFile.renameTo(loadFile)) {
+                throw new java.io.IOException("Failed to rename " + tempFile.getName());
+            }
+            return true;
+        } catch (SecurityException | IllegalArgumentException | java.io.IOException e) {
+            logW("Persisted patch copy not usable, decrypting ZIP again: " + e.getMessage());
+            tempFile.delete();
+            return false;
+        }
+    }
+
+    /**
+     * 以新的数据密钥加密保存解密副本，并写入完整性戳
+     * 
+     * KeyStore 不可用时不保存副本（不退化为明文保存），下次加载重新解密 ZIP。
+     */
+    private void persistZipPatchCopy(android.content.SharedPreferences prefs, java.io.File plainFile,
+                                     java.io.File copyFile, String patchId, String sourceHash) {
+        if (android.os.Build.VERSION.SDK_INT < android.os.Build.VERSION_CODES.M) {
+            return;
+        }
+
+        java.io.File tempFile = new java.io.File(copyFile.getPath() + ".tmp");
+        String wrappedKey;
+        try {
+            ensureSecurityManagerInitialized();
+            javax.crypto.SecretKey dataKey = SecurityManager.generateDataKey();
+            wrappedKey = android.util.Base64.encodeToString(
+                securityManager.wrapDataKey(dataKey), android.util.Base64.NO_WRAP);
+            try (java.io.InputStream in = new java.io.FileInputStream(plainFile);
+                 java.io.OutputStream out = securityManager.newEncryptOutputStream(dataKey,
+                     new java.io.FileOutputStream(tempFile))) {
+                byte[] buffer = new byte[64 * 1024];
+                int len;
+                while ((len = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, len);
+                }
+            }
+            if (!tempFile.renameTo(copyFile)) {
+                throw new java.io.IOException("Failed to rename " + tempFile.getName());
+            }
+        } catch (SecurityException | java.io.IOException e) {
+            logW("Decrypted patch not persisted, ZIP will be decrypted on next load: " + e.getMessage());
+            tempFile.delete();
+            return;
+        }
+
+        prefs.edit().putString(KEY_DECRYPTED_PATCH_KEY, wrappedKey).apply();
+        PatchIntegrityStamp.write(context, prefs, PatchIntegrityStamp.KEY_DECRYPTED_STAMP,
+            patchId, copyFile, sourceHash, false);
+        logD("✓ Decrypted patch persisted (encrypted): " + copyFile.getName());
+    }
+
+    /**
+     * 解密 ZIP 密码保护的补丁到缓存目录
      * 使用从应用签名派生的密码或保存的自定义密码自动解密
      * 
      * @param encryptedPatch 加密的补丁文件
@@ -1147,8 +1452,9 @@ public class HotUpdateHelper {
      */
     private java.io.File decryptZipPatchOnLoad(java.io.File encryptedPatch, String customPassword) {
         try {
-            // 创建 ZipPasswordManager 实例
-            ZipPasswordManager zipPasswordManager = storage.getZipPasswordManager();
+            // 创建 ZipPasswordManager 实例（attachBaseContext 阶段 storage 尚未初始化）
+            ZipPasswordManager zipPasswordManager = storage != null
+                ? storage.getZipPasswordManager() : new ZipPasswordManager(context);
             
             // 获取密码：优先使用自定义密码，否则使用派生密码
             String zipPassword;
@@ -1247,8 +1553,7 @@ public class HotUpdateHelper {
      * @return 是否有已应用的补丁
      */
     public boolean hasAppliedPatch() {
-        ensureStorageInitialized();
-        return storage.getAppliedPatchId() != null;
+        return getPatchPrefs().getString("applied_patch_id", null) != null;
     }
     
     /**
@@ -1257,8 +1562,13 @@ public class HotUpdateHelper {
      * @return 补丁信息，如果没有返回 null
      */
     public PatchInfo getAppliedPatchInfo() {
-        ensureStorageInitialized();
-        return storage.getAppliedPatchInfo();
+        if (storage != null) {
+            return storage.getAppliedPatchInfo();
+        }
+        // 只读查询直接访问元数据索引，不初始化 KeyStore 和存储目录
+        SharedPreferences prefs = getPatchPrefs();
+        String patchId = prefs.getString("applied_patch_id", null);
+        return patchId != null ? PatchStorage.openMetadataIndex(context, prefs).getPatchInfo(patchId) : null;
     }
     
     /**
@@ -1296,7 +1606,7 @@ public class HotUpdateHelper {
      * @return 补丁版本号，如果没有返回 null
      */
     public String getPatchedVersion() {
-        PatchInfo patchInfo = storage.getAppliedPatchInfo();
+        PatchInfo patchInfo = getAppliedPatchInfo();
         return patchInfo != null ? patchInfo.getPatchVersion() : null;
     }
     
@@ -1306,7 +1616,7 @@ public class HotUpdateHelper {
      * @return 补丁版本代码，如果没有返回 null
      */
     public String getPatchedVersionCode() {
-        PatchInfo patchInfo = storage.getAppliedPatchInfo();
+        PatchInfo patchInfo = getAppliedPatchInfo();
         if (patchInfo != null && patchInfo.getTargetAppVersion() != null) {
             return patchInfo.getTargetAppVersion();
         }
@@ -1353,7 +1663,7 @@ public class HotUpdateHelper {
     public String getCompatibilityInfo() {
         StringBuilder sb = new StringBuilder();
         sb.append("热更新支持: ").append(DexPatcher.isSupported() ? "✓" : "✗").append("\n");
-        sb.append("兼容级别: ").append(DexPatcher.getCompatibilityLevel()).append("\n");
+        sb.append("兼容级别: ").append(DexPatcher.getCompatibilityLevel(context)).append("\n");
         sb.append("SO 热更新: ").append(SoPatcher.isSupported() ? "✓" : "✗").append("\n");
         sb.append("资源热更新: ").append(ResourcePatcher.isSupported() ? "✓" : "✗");
         return sb.toString();
@@ -1383,7 +1693,7 @@ public class HotUpdateHelper {
      * @param required 是否要求签名
      */
     public void setRequireSignature(boolean required) {
-        securityPrefs.edit().putBoolean(KEY_REQUIRE_SIGNATURE, required).apply();
+        getSecurityPrefs().edit().putBoolean(KEY_REQUIRE_SIGNATURE, required).apply();
     }
     
     /**
@@ -1392,7 +1702,7 @@ public class HotUpdateHelper {
      * @param required 是否要求加密
      */
     public void setRequireEncryption(boolean required) {
-        securityPrefs.edit().putBoolean(KEY_REQUIRE_ENCRYPTION, required).apply();
+        getSecurityPrefs().edit().putBoolean(KEY_REQUIRE_ENCRYPTION, required).apply();
     }
     
     /**
@@ -1401,7 +1711,7 @@ public class HotUpdateHelper {
      * @return 是否要求签名
      */
     public boolean isRequireSignature() {
-        return securityPrefs.getBoolean(KEY_REQUIRE_SIGNATURE, false);
+        return getSecurityPrefs().getBoolean(KEY_REQUIRE_SIGNATURE, false);
     }
     
     /**
@@ -1410,7 +1720,7 @@ public class HotUpdateHelper {
      * @return 是否要求加密
      */
     public boolean isRequireEncryption() {
-        return securityPrefs.getBoolean(KEY_REQUIRE_ENCRYPTION, false);
+        return getSecurityPrefs().getBoolean(KEY_REQUIRE_ENCRYPTION, false);
     }
     
     /**
@@ -1594,8 +1904,8 @@ public class HotUpdateHelper {
     private String checkSecurityPolicy(File patchFile) {
         ensureStorageInitialized();
         
-        boolean requireSignature = securityPrefs.getBoolean(KEY_REQUIRE_SIGNATURE, false);
-        boolean requireEncryption = securityPrefs.getBoolean(KEY_REQUIRE_ENCRYPTION, false);
+        boolean requireSignature = getSecurityPrefs().getBoolean(KEY_REQUIRE_SIGNATURE, false);
+        boolean requireEncryption = getSecurityPrefs().getBoolean(KEY_REQUIRE_ENCRYPTION, false);
         
         // 检查两种加密方式：AES 加密（.enc）或 ZIP 密码加密
         boolean isAesEncrypted = patchFile.getName().endsWith(".enc");
@@ -1634,10 +1944,10 @@ public class HotUpdateHelper {
             // APK 签名验证（如果补丁有签名）- 使用 apksig
             if (hasSignature) {
                 logD("检测到补丁签名，开始验证 APK 签名...");
-                boolean signatureValid = patchSigner.verifyPatchSignatureMatchesApp(patchFile);
+                boolean signatureValid = getPatchSigner().verifyPatchSignatureMatchesApp(patchFile);
                 
                 if (!signatureValid) {
-                    return "⚠️ APK 签名验证失败: " + patchSigner.getError();
+                    return "⚠️ APK 签名验证失败: " + getPatchSigner().getError();
                 }
                 logD("✅ APK 签名验证通过");
             }
@@ -2078,7 +2388,7 @@ public class HotUpdateHelper {
                 logD("✓ AES 解密成功（使用自定义密码）");
                 
                 // 3. 解密后验证签名（如果要求签名）
-                boolean requireSignature = securityPrefs.getBoolean(KEY_REQUIRE_SIGNATURE, false);
+                boolean requireSignature = getSecurityPrefs().getBoolean(KEY_REQUIRE_SIGNATURE, false);
                 if (requireSignature) {
                     if (callback != null) {
                         callback.onProgress(15, "验证补丁签名...");
@@ -2096,13 +2406,13 @@ public class HotUpdateHelper {
                     }
                     
                     // 验证签名与应用签名匹配
-                    boolean signatureValid = patchSigner.verifyPatchSignatureMatchesApp(tempDecryptedFile);
+                    boolean signatureValid = getPatchSigner().verifyPatchSignatureMatchesApp(tempDecryptedFile);
                     if (!signatureValid) {
                         if (tempDecryptedFile.exists()) {
                             tempDecryptedFile.delete();
                         }
                         if (callback != null) {
-                            callback.onError("⚠️ APK 签名验证失败: " + patchSigner.getError());
+                            callback.onError("⚠️ APK 签名验证失败: " + getPatchSigner().getError());
                         }
                         return;
                     }
@@ -2252,10 +2562,10 @@ public class HotUpdateHelper {
                     callback.onProgress(22, "验证 APK 签名...");
                 }
                 
-                boolean signatureValid = patchSigner.verifyPatchSignatureMatchesApp(actualPatchFile);
+                boolean signatureValid = getPatchSigner().verifyPatchSignatureMatchesApp(actualPatchFile);
                 if (!signatureValid) {
                     if (callback != null) {
-                        callback.onError("⚠️ APK 签名验证失败: " + patchSigner.getError());
+                        callback.onError("⚠️ APK 签名验证失败: " + getPatchSigner().getError());
                     }
                     return;
                 }
@@ -2296,19 +2606,10 @@ public class HotUpdateHelper {
                 callback.onProgress(25, "验证补丁文件...");
             }
             
-            // 4. 读取补丁文件内容
+            // 4. 保存补丁文件到存储（流式加密，ZIP 密码保护的补丁保持加密状态）
             // 如果是 ZIP 密码保护的，保存原始加密文件；否则保存实际文件
             File fileToSave = isZipPasswordProtected ? originalPatchFile : actualPatchFile;
-            byte[] patchData = readFileToBytes(fileToSave);
-            if (patchData == null) {
-                if (callback != null) {
-                    callback.onError("读取补丁文件失败");
-                }
-                return;
-            }
-            
-            // 5. 保存补丁文件到存储（ZIP 密码保护的补丁保持加密状态）
-            boolean saved = storage.savePatchFile(patchInfo.getPatchId(), patchData);
+            boolean saved = storage.savePatchFromFile(patchInfo.getPatchId(), fileToSave);
             if (!saved) {
                 if (callback != null) {
                     callback.onError("保存补丁文件失败");
@@ -2350,6 +2651,32 @@ public class HotUpdateHelper {
                 prefs.edit().putBoolean("patch_had_signature", hasSignature).apply();
                 logD("✓ 记录补丁签名状态: " + (hasSignature ? "有签名" : "无签名"));
                 
+                // 写入完整性戳，冷启动时跳过全量哈希和签名验证
+                writeIntegrityStampAfterApply(prefs, hasSignature);
+                
+                // 启动时注入的补丁文件
+                java.io.File startupPatchFile = storage.getAppliedPatchFile();
+                
+                // ZIP 密码保护的补丁在应用时解密一次并加密保存副本，启动时解开副本而不是重新解密 ZIP
+                if (isZipPasswordProtected) {
+                    java.io.File decryptedPatch = getDecryptedZipPatch(prefs, storage.getAppliedPatchFile(),
+                        prefs.getString("applied_patch_id", null));
+                    startupPatchFile = decryptedPatch;
+                    
+                    // PatchApplier 无法读取加密的 ZIP，这里用解密副本预先合并资源
+                    if (decryptedPatch != null && hasResources) {
+                        ResourceMerger.prepareResources(context, decryptedPatch,
+                            ResourceMerger.getResourceFile(storage.getAppliedDir()),
+                            prefs.getString("applied_patch_hash", null));
+                    }
+                }
+                
+                // 后台预编译补丁 dex，下次冷启动直接使用编译产物；ZIP 密码保护补丁的明文在预编译后删除
+                if (startupPatchFile != null) {
+                    DexPatcher.precompilePatchAsync(context, startupPatchFile,
+                        prefs.getString("applied_patch_hash", null), isZipPasswordProtected);
+                }
+                
                 // 保存当前 APK 版本信息（用于检测覆盖安装）
                 try {
                     android.content.pm.PackageInfo packageInfo = context.getPackageManager()
@@ -129,7 +129,7 @@ public class PatchApplier {
             // 3. 注入补丁 Dex
             String patchPath = appliedPatchFile.getAbsolutePath();
             try {
-                DexPatcher.injectPatchDex(context, patchPath);
+                DexPatcher.injectPatchDex(context, patchPath, storage.getAppliedPatchHash());
                 Log.d(TAG, "Dex patch injected successfully");
             } catch (DexPatcher.PatchException e) {
                 Log.e(TAG, "Failed to inject dex patch", e);
@@ -139,16 +139,16 @@ public class PatchApplier {
             }
             
             // 4. 如果包含资源，进行资源合并（Tinker 的方式）
+            // 合并在应用阶段（后台线程）完成并写入清单，下次冷启动直接使用合并结果
             try {
                 if (hasResourcePatch(appliedPatchFile)) {
                     Log.d(TAG, "Patch contains resources, merging with original APK");
                     
-                    // 使用 ResourceMerger 合并资源
-                    File mergedResourceFile = new File(
-                        storage.getAppliedDir(), "merged_resources.apk");
+                    // 使用 ResourceMerger 合并资源（Android 11+ 只生成资源叠加包）
+                    File mergedResourceFile = ResourceMerger.getResourceFile(storage.getAppliedDir());
                     
-                    boolean merged = ResourceMerger.mergeResources(
-                        context, appliedPatchFile, mergedResourceFile);
+                    boolean merged = ResourceMerger.prepareResources(
+                        context, appliedPatchFile, mergedResourceFile, storage.getAppliedPatchHash());
                     
                     if (merged && mergedResourceFile.exists()) {
                         Log.i(TAG, "Resources merged successfully, size: " + mergedResourceFile.length());
@@ -233,6 +233,7 @@ public class PatchApplier {
             if (appliedFile.exists()) {
                 securityManager.secureDelete(appliedFile);
             }
+            PatchStorage.deleteDecryptedZipPatch(context);
             
             // 恢复之前的状态
             String previousPatchId = storage.getPreviousPatchId();
@@ -269,6 +270,7 @@ public class PatchApplier {
                 securityManager.secureDelete(appliedFile);
                 Log.d(TAG, "Cleared current applied patch file");
             }
+            PatchStorage.deleteDecryptedZipPatch(context);
             
             // 2. 如果有上一个补丁，恢复它
             if (previousPatchId != null) {
@@ -280,7 +282,8 @@ public class PatchApplier {
                     File restoredFile = storage.getAppliedPatchFile();
                     if (restoredFile.exists()) {
                         try {
-                            DexPatcher.injectPatchDex(context, restoredFile.getAbsolutePath());
+                            DexPatcher.injectPatchDex(context, restoredFile.getAbsolutePath(),
+                                    storage.getAppliedPatchHash());
                             Log.d(TAG, "Previous patch re-injected");
                         } catch (DexPatcher.PatchException e) {
                             Log.w(TAG, "Failed to re-inject previous patch", e);
@@ -326,6 +329,7 @@ public class PatchApplier {
             if (appliedFile.exists()) {
                 securityManager.secureDelete(appliedFile);
             }
+            PatchStorage.deleteDecryptedZipPatch(context);
             
             // 2. 清除应用状态
             storage.saveAppliedPatchId(null);
@@ -389,25 +393,27 @@ public class PatchApplier {
             }
             
             // 注入 Dex 补丁（使用原始补丁文件）
-            DexPatcher.injectPatchDex(context, patchPath);
+            DexPatcher.injectPatchDex(context, patchPath, storage.getAppliedPatchHash());
             Log.d(TAG, "Dex patch loaded successfully");
             
             // 加载资源补丁（如果存在）
             if (hasResourcePatch(appliedFile)) {
                 Log.d(TAG, "Patch contains resources, checking for merged resources");
                 
-                // 检查是否已经有合并后的资源文件
-                File mergedResourceFile = new File(storage.getAppliedDir(), "merged_resources.apk");
+                // 检查应用时合并的资源文件是否就绪
+                File mergedResourceFile = ResourceMerger.getResourceFile(storage.getAppliedDir());
+                String patchHash = storage.getAppliedPatchHash();
                 
-                if (mergedResourceFile.exists()) {
+                if (ResourceMerger.isMergedResourcesReady(context, mergedResourceFile, patchHash)) {
                     Log.i(TAG, "Using existing merged resources: " + mergedResourceFile.length());
                     resourcePath = mergedResourceFile.getAbsolutePath();
                 } else {
-                    Log.d(TAG, "Merged resources not found, merging now...");
+                    // 应用时合并失败或被中断，只能在启动时补做
+                    Log.w(TAG, "Merged resources not ready, merging now...");
                     
                     // 使用 ResourceMerger 合并资源（Tinker 的方式）
-                    boolean merged = ResourceMerger.mergeResources(
-                        context, appliedFile, mergedResourceFile);
+                    boolean merged = ResourceMerger.prepareResources(
+                        context, appliedFile, mergedResourceFile, patchHash);
                     
                     if (merged && mergedResourceFile.exists()) {
                         Log.i(TAG, "Resources merged successfully, size: " + mergedResourceFile.length());
@@ -448,6 +454,7 @@ public class PatchApplier {
         if (appliedFile.exists()) {
             securityManager.secureDelete(appliedFile);
         }
+        PatchStorage.deleteDecryptedZipPatch(context);
         
         // 尝试恢复上一个补丁
         String previousPatchId = storage.getPreviousPatchId();
@@ -507,6 +514,14 @@ public class PatchApplier {
         return patchId.equals(appliedId);
     }
     
+    /**
+     * 获取已应用补丁的 SHA-256
+     * @return 哈希值，如果没有返回 null
+     */
+    public String getAppliedPatchHash() {
+        return hasAppliedPatch() ? storage.getAppliedPatchHash() : null;
+    }
+    
     /**
      * 获取已应用的补丁文件
      * @return 已应用的补丁文件，如果没有返回 null
@@ -516,6 +531,14 @@ public class PatchApplier {
         return file.exists() ? file : null;
     }
     
+    /**
+     * 获取已应用补丁文件的 SHA-256 哈希
+     * @return 哈希值，如果没有返回 null
+     */
+    public String getAppliedPatchHash() {
+        return storage.getAppliedPatchHash();
+    }
+    
     // ==================== 兼容性检查 ====================
     
     /**
@@ -3,9 +3,10 @@ package com.orange.update;
 import android.util.Log;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.RandomAccessFile;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.SocketTimeoutException;
 import java.net.URL;
@@ -25,9 +26,13 @@ public class PatchDownloader {
     // 进度回调间隔（字节数）
     private static final int PROGRESS_CALLBACK_INTERVAL = 32768; // 32KB
     
+    // 不小于该大小的补丁分段并行下载
+    static final long SEGMENTED_DOWNLOAD_THRESHOLD = 4 * 1024 * 1024;
+    
     private final UpdateConfig config;
     private final AtomicBoolean cancelled = new AtomicBoolean(false);
     private HttpURLConnection currentConnection;
+    private volatile SegmentedDownloader currentSegmentedDownloader;
     
     /**
      * 构造函数
@@ -42,6 +47,9 @@ public class PatchDownloader {
     
     /**
      * 下载文件，支持断点续传
+     * 
+     * 使用单连接下载，按已下载长度续传。
+     * 
      * @param downloadUrl 下载地址
      * @param targetFile 目标文件
      * @param callback 下载回调
@@ -71,17 +79,10 @@ public class PatchDownloader {
 
         HttpURLConnection connection = null;
         InputStream inputStream = null;
-        RandomAccessFile outputFile = null;
+        OutputStream outputFile = null;
         
         try {
-            URL url = new URL(downloadUrl);
-            connection = (HttpURLConnection) url.openConnection();
-            currentConnection = connection;
-            
-            // 配置连接
-            connection.setConnectTimeout(config.getConnectTimeout());
-            connection.setReadTimeout(config.getReadTimeout());
-            connection.setRequestMethod("GET");
+            connection = openConnection(downloadUrl);
             
             // 检查是否需要断点续传
             long downloadedBytes = 0;
@@ -129,40 +130,137 @@ public class PatchDownloader {
             
             inputStream = connection.getInputStream();
             
-            // 使用 RandomAccessFile 支持断点续传
-            outputFile = new RandomAccessFile(targetFile, "rw");
-            outputFile.seek(downloadedBytes);
+            // 追加写入支持断点续传（downloadedBytes 即现有文件长度）
+            outputFile = new FileOutputStream(targetFile, downloadedBytes > 0);
             
-            byte[] buffer = new byte[BUFFER_SIZE];
-            int bytesRead;
-            long currentBytes = downloadedBytes;
-            long lastProgressCallback = currentBytes;
+            if (!transfer(inputStream, outputFile, downloadedBytes, totalSize, callback)) {
+                return;
+            }
             
-            while ((bytesRead = inputStream.read(buffer)) != -1) {
-                // 检查是否取消
-                if (cancelled.get()) {
+            Log.d(TAG, "Download completed: " + targetFile.getAbsolutePath());
+            notifySuccess(callback, targetFile);
+            
+        } catch (SocketTimeoutException e) {
+            Log.e(TAG, "Download timeout", e);
+            notifyError(callback, UpdateErrorCode.ERROR_TIMEOUT, "Download timeout");
+        } catch (IOException e) {
+            Log.e(TAG, "Download failed", e);
+            if (cancelled.get()) {
+                notifyError(callback, UpdateErrorCode.ERROR_DOWNLOAD_CANCELLED, 
+                        "Download cancelled");
+            } else {
+                notifyError(callback, UpdateErrorCode.ERROR_DOWNLOAD_FAILED, 
+                        "Download failed: " + e.getMessage());
+            }
+        } finally {
+            closeQuietly(inputStream);
+            closeQuietly(outputFile);
+            if (connection != null) {
+                connection.disconnect();
+            }
+            currentConnection = null;
+        }
+    }
+
+    /**
+     * 流式下载到补丁写入器：数据到达时直接计算哈希并加密写入，结束时校验并提交
+     * 
+     * 不支持断点续传（哈希和加密状态无法跨进程恢复），中断后重新下载。
+     * 
+     * @param downloadUrl 下载地址
+     * @param writer 补丁写入器，下载结束后无论成功与否都会被关闭
+     * @param callback 下载回调，成功时返回提交后的加密补丁文件
+     */
+    public void download(String downloadUrl, PatchStreamWriter writer, DownloadCallback callback) {
+        download(downloadUrl, writer, 0, callback);
+    }
+    
+    /**
+     * 流式下载到补丁写入器：数据到达时直接计算哈希并加密写入，结束时校验并提交
+     * 
+     * 预期大小不小于 {@link #SEGMENTED_DOWNLOAD_THRESHOLD} 且配置的最大连接数大于 1 时
+     * 分段并行下载，分段按顺序写入写入器；大小未知或较小时单连接下载，不额外探测服务器。
+     * 
+     * @param downloadUrl 下载地址
+     * @param writer 补丁写入器，下载结束后无论成功与否都会被关闭
+     * @param expectedSize 预期大小，未知时传 0
+     * @param callback 下载回调，成功时返回提交后的加密补丁文件
+     */
+    public void download(String downloadUrl, PatchStreamWriter writer, long expectedSize,
+                         DownloadCallback callback) {
+        download(downloadUrl, writer, expectedSize, null, callback);
+    }
+    
+    /**
+     * 流式下载到补丁写入器，分段下载时把完成的分段保存到缓存，进程重启后续传
+     * 
+     * 缓存在提交成功或校验失败后清理；下载失败或取消时保留，下次下载同一补丁时复用。
+     * 
+     * @param downloadUrl 下载地址
+     * @param writer 补丁写入器，下载结束后无论成功与否都会被关闭
+     * @param expectedSize 预期大小，未知时传 0
+     * @param segmentCache 分段缓存，为 null 时不续传
+     * @param callback 下载回调，成功时返回提交后的加密补丁文件
+     */
+    void download(String downloadUrl, PatchStreamWriter writer, long expectedSize,
+                  SegmentCache segmentCache, DownloadCallback callback) {
+        if (downloadUrl == null || downloadUrl.isEmpty()) {
+            notifyError(callback, UpdateErrorCode.ERROR_DOWNLOAD_FAILED, "Download URL is empty");
+            return;
+        }
+        
+        if (writer == null) {
+            notifyError(callback, UpdateErrorCode.ERROR_DOWNLOAD_FAILED, "Patch writer is null");
+            return;
+        }
+        
+        cancelled.set(false);
+        
+        HttpURLConnection connection = null;
+        InputStream inputStream = null;
+        // 单连接下载不使用缓存，结束时一并清理
+        boolean clearCache = true;
+        
+        try {
+            if (config.getMaxDownloadConnections() > 1 && expectedSize >= SEGMENTED_DOWNLOAD_THRESHOLD) {
+                SegmentedDownloader segmentedDownloader = new SegmentedDownloader(config, cancelled);
+                currentSegmentedDownloader = segmentedDownloader;
+                clearCache = false;
+                if (segmentedDownloader.download(downloadUrl, writer, segmentCache, callback)
+                        == SegmentedDownloader.Result.CANCELLED) {
                     Log.d(TAG, "Download cancelled");
                     notifyError(callback, UpdateErrorCode.ERROR_DOWNLOAD_CANCELLED, 
                             "Download cancelled");
                     return;
                 }
+            } else {
+                connection = openConnection(downloadUrl);
+                connection.connect();
+                
+                int responseCode = connection.getResponseCode();
+                if (responseCode != HttpURLConnection.HTTP_OK) {
+                    notifyError(callback, UpdateErrorCode.ERROR_SERVER_ERROR,
+                            "Server returned error code: " + responseCode);
+                    return;
+                }
                 
-                outputFile.write(buffer, 0, bytesRead);
-                currentBytes += bytesRead;
+                // 大小未知（chunked）时由写入器在提交时校验
+                long totalSize = connection.getContentLength();
+                inputStream = connection.getInputStream();
                 
-                // 定期回调进度
-                if (currentBytes - lastProgressCallback >= PROGRESS_CALLBACK_INTERVAL) {
-                    notifyProgress(callback, currentBytes, totalSize);
-                    lastProgressCallback = currentBytes;
+                if (!transfer(inputStream, writer, 0, totalSize, callback)) {
+                    return;
                 }
             }
             
-            // 最终进度回调
-            notifyProgress(callback, currentBytes, totalSize);
-            
-            Log.d(TAG, "Download completed: " + targetFile.getAbsolutePath());
-            notifySuccess(callback, targetFile);
+            clearCache = true;
+            File patchFile = writer.commit();
+            Log.d(TAG, "Download committed: " + patchFile.getAbsolutePath());
+            notifySuccess(callback, patchFile);
             
+        } catch (PatchStreamWriter.ChecksumMismatchException e) {
+            Log.e(TAG, "Downloaded patch verification failed", e);
+            notifyError(callback, UpdateErrorCode.ERROR_CHECKSUM_MISMATCH, e.getMessage());
         } catch (SocketTimeoutException e) {
             Log.e(TAG, "Download timeout", e);
             notifyError(callback, UpdateErrorCode.ERROR_TIMEOUT, "Download timeout");
@@ -176,20 +274,78 @@ public class PatchDownloader {
                         "Download failed: " + e.getMessage());
             }
         } finally {
+            // 已提交时为空操作，其余情况删除未完成的临时文件
+            writer.abort();
+            if (clearCache && segmentCache != null) {
+                segmentCache.clear();
+            }
+            currentSegmentedDownloader = null;
             closeQuietly(inputStream);
-            closeQuietly(outputFile);
             if (connection != null) {
                 connection.disconnect();
             }
             currentConnection = null;
         }
     }
+    
+    /**
+     * 创建并配置连接
+     */
+    private HttpURLConnection openConnection(String downloadUrl) throws IOException {
+        URL url = new URL(downloadUrl);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        currentConnection = connection;
+        
+        // 配置连接
+        connection.setConnectTimeout(config.getConnectTimeout());
+        connection.setReadTimeout(config.getReadTimeout());
+        connection.setRequestMethod("GET");
+        return connection;
+    }
+    
+    /**
+     * 复制响应数据到输出流，定期回调进度
+     * @return 是否完成，取消时返回 false（已回调错误）
+     */
+    private boolean transfer(InputStream inputStream, OutputStream output, long currentBytes,
+                             long totalSize, DownloadCallback callback) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int bytesRead;
+        long lastProgressCallback = currentBytes;
+        
+        while ((bytesRead = inputStream.read(buffer)) != -1) {
+            // 检查是否取消
+            if (cancelled.get()) {
+                Log.d(TAG, "Download cancelled");
+                notifyError(callback, UpdateErrorCode.ERROR_DOWNLOAD_CANCELLED, 
+                        "Download cancelled");
+                return false;
+            }
+            
+            output.write(buffer, 0, bytesRead);
+            currentBytes += bytesRead;
+            
+            // 定期回调进度
+            if (currentBytes - lastProgressCallback >= PROGRESS_CALLBACK_INTERVAL) {
+                notifyProgress(callback, currentBytes, totalSize);
+                lastProgressCallback = currentBytes;
+            }
+        }
+        
+        // 最终进度回调
+        notifyProgress(callback, currentBytes, totalSize);
+        return true;
+    }
 
     /**
      * 取消当前下载
      */
     public void cancel() {
         cancelled.set(true);
+        SegmentedDownloader segmentedDownloader = currentSegmentedDownloader;
+        if (segmentedDownloader != null) {
+            segmentedDownloader.cancel();
+        }
         HttpURLConnection conn = currentConnection;
         if (conn != null) {
             try {
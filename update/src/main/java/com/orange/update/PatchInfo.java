@@ -19,6 +19,10 @@ public class PatchInfo {
     private static final String KEY_MD5 = "md5";
     private static final String KEY_CREATE_TIME = "createTime";
     private static final String KEY_DESCRIPTION = "description";
+    private static final String KEY_DELTA_URL = "deltaUrl";
+    private static final String KEY_DELTA_MD5 = "deltaMd5";
+    private static final String KEY_DELTA_SIZE = "deltaSize";
+    private static final String KEY_DELTA_BASE_HASH = "deltaBaseHash";
     
     private String patchId;
     private String patchVersion;
@@ -30,6 +34,12 @@ public class PatchInfo {
     private long createTime;
     private String description;
     
+    // 差量更新（可选）：相对当前已应用补丁的差量包，只描述下载方式，不参与相等比较
+    private String deltaUrl;
+    private String deltaMd5;
+    private long deltaSize;
+    private String deltaBaseHash;
+    
     public PatchInfo() {
     }
     
@@ -107,6 +117,49 @@ public class PatchInfo {
         this.description = description;
     }
     
+    public String getDeltaUrl() {
+        return deltaUrl;
+    }
+    
+    public void setDeltaUrl(String deltaUrl) {
+        this.deltaUrl = deltaUrl;
+    }
+    
+    public String getDeltaMd5() {
+        return deltaMd5;
+    }
+    
+    public void setDeltaMd5(String deltaMd5) {
+        this.deltaMd5 = deltaMd5;
+    }
+    
+    public long getDeltaSize() {
+        return deltaSize;
+    }
+    
+    public void setDeltaSize(long deltaSize) {
+        this.deltaSize = deltaSize;
+    }
+    
+    /**
+     * 差量包的基准补丁（当前已应用补丁）的 SHA-256
+     */
+    public String getDeltaBaseHash() {
+        return deltaBaseHash;
+    }
+    
+    public void setDeltaBaseHash(String deltaBaseHash) {
+        this.deltaBaseHash = deltaBaseHash;
+    }
+    
+    /**
+     * 服务器是否提供了差量包
+     */
+    public boolean hasDelta() {
+        return deltaUrl != null && !deltaUrl.isEmpty()
+                && deltaBaseHash != null && !deltaBaseHash.isEmpty();
+    }
+    
     /**
      * 将 PatchInfo 序列化为 JSON 字符串
      * @return JSON 字符串
@@ -123,6 +176,12 @@ public class PatchInfo {
             json.put(KEY_MD5, md5);
             json.put(KEY_CREATE_TIME, createTime);
             json.put(KEY_DESCRIPTION, description);
+            if (hasDelta()) {
+                json.put(KEY_DELTA_URL, deltaUrl);
+                json.put(KEY_DELTA_MD5, deltaMd5);
+                json.put(KEY_DELTA_SIZE, deltaSize);
+                json.put(KEY_DELTA_BASE_HASH, deltaBaseHash);
+            }
             return json.toString();
         } catch (JSONException e) {
             throw new RuntimeException("Failed to serialize PatchInfo to JSON", e);
@@ -156,6 +215,10 @@ public class PatchInfo {
             patchInfo.setFileSize(jsonObject.optLong(KEY_FILE_SIZE, 0));
             patchInfo.setCreateTime(jsonObject.optLong(KEY_CREATE_TIME, 0));
             patchInfo.setDescription(jsonObject.optString(KEY_DESCRIPTION, null));
+            patchInfo.setDeltaUrl(jsonObject.optString(KEY_DELTA_URL, null));
+            patchInfo.setDeltaMd5(jsonObject.optString(KEY_DELTA_MD5, null));
+            patchInfo.setDeltaSize(jsonObject.optLong(KEY_DELTA_SIZE, 0));
+            patchInfo.setDeltaBaseHash(jsonObject.optString(KEY_DELTA_BASE_HASH, null));
             
             // 验证字段值
             patchInfo.validate();
@@ -255,6 +318,7 @@ public class PatchInfo {
                 ", md5='" + md5 + '\'' +
                 ", createTime=" + createTime +
                 ", description='" + description + '\'' +
+                (hasDelta() ? ", deltaUrl='" + deltaUrl + '\'' + ", deltaSize=" + deltaSize : "") +
                 '}';
     }
 }
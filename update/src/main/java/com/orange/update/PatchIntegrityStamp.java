@@ -0,0 +1,231 @@
+package com.orange.update;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * 已应用补丁的完整性戳（验证状态缓存）。
+ *
+ * 补丁通过完整验证（SHA-256 + 签名）后，记录补丁文件的大小、修改时间、inode
+ * 以及验证时的哈希和签名状态，并用设备本地密钥计算 HMAC-SHA256。
+ * 冷启动时只需 stat 文件并校验 HMAC，元数据一致即可跳过全量哈希和签名验证；
+ * 任何一项不一致（文件被替换、改写、戳被篡改）都回退到完整验证。
+ *
+ * 同样的机制也用于 ZIP 密码保护补丁的解密副本：戳记录副本的文件元数据和源补丁的哈希，
+ * 源补丁变化或副本被改动时重新解密。
+ *
+ * 戳格式（保存在 patch_storage_prefs 中）：
+ * version|patchId|size|mtime|inode|sha256|signed|hmac
+ *
+ * 密钥为 32 字节随机数，保存在 noBackupFilesDir 中，不随备份迁移到其他设备。
+ * 不使用 Android KeyStore，因为 attachBaseContext 阶段无法可靠使用 KeyStore。
+ */
+final class PatchIntegrityStamp {
+
+    private static final String TAG = "PatchIntegrityStamp";
+
+    static final String KEY_STAMP = "applied_patch_stamp";
+    static final String KEY_DECRYPTED_STAMP = "decrypted_patch_stamp";
+
+    private static final String STAMP_VERSION = "1";
+    private static final String SEPARATOR = "|";
+    private static final String KEY_FILE_NAME = "patch_stamp.key";
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final int KEY_SIZE = 32;
+    private static final char[] HEX_CHARS = "0123456789abcdef".toCharArray();
+
+    private PatchIntegrityStamp() {
+        // 防止实例化
+    }
+
+    /**
+     * 在补丁完整验证通过后写入完整性戳
+     *
+     * @param context 上下文
+     * @param prefs 补丁存储 SharedPreferences
+     * @param patchId 补丁 ID
+     * @param patchFile 已应用的补丁文件
+     * @param sha256 已验证的补丁哈希
+     * @param signed 补丁是否有签名（且已验证通过）
+     * @return 是否写入成功
+     */
+    static boolean write(Context context, SharedPreferences prefs, String patchId,
+                         File patchFile, String sha256, boolean signed) {
+        return write(context, prefs, KEY_STAMP, patchId, patchFile, sha256, signed);
+    }
+
+    /**
+     * 写入指定键的完整性戳
+     *
+     * @param stampKey 戳在 SharedPreferences 中的键
+     * @see #write(Context, SharedPreferences, String, File, String, boolean)
+     */
+    static boolean write(Context context, SharedPreferences prefs, String stampKey, String patchId,
+                         File patchFile, String sha256, boolean signed) {
+        if (patchId == null || sha256 == null || sha256.isEmpty()) {
+            return false;
+        }
+        try {
+            String payload = buildPayload(patchId, patchFile, sha256, signed);
+            if (payload == null) {
+                return false;
+            }
+            byte[] key = loadKey(context, true);
+            String stamp = payload + SEPARATOR + hmac(key, payload);
+            prefs.edit().putString(stampKey, stamp).apply();
+            Log.d(TAG, "Integrity stamp " + stampKey + " written for patch: " + patchId);
+            return true;
+        } catch (IOException | GeneralSecurityException e) {
+            Log.w(TAG, "Failed to write integrity stamp", e);
+            return false;
+        }
+    }
+
+    /**
+     * 检查完整性戳是否与当前补丁文件一致
+     *
+     * @param context 上下文
+     * @param prefs 补丁存储 SharedPreferences
+     * @param patchId 当前应用的补丁 ID
+     * @param patchFile 已应用的补丁文件
+     * @param sha256 保存的补丁哈希（applied_patch_hash）
+     * @param signed 应用时记录的签名状态（patch_had_signature）
+     * @return 一致返回 true，任何不一致或异常返回 false
+     */
+    static boolean matches(Context context, SharedPreferences prefs, String patchId,
+                           File patchFile, String sha256, boolean signed) {
+        return matches(context, prefs, KEY_STAMP, patchId, patchFile, sha256, signed);
+    }
+
+    /**
+     * 检查指定键的完整性戳是否与文件一致
+     *
+     * @param stampKey 戳在 SharedPreferences 中的键
+     * @see #matches(Context, SharedPreferences, String, File, String, boolean)
+     */
+    static boolean matches(Context context, SharedPreferences prefs, String stampKey, String patchId,
+                           File patchFile, String sha256, boolean signed) {
+        String stamp = prefs.getString(stampKey, null);
+        if (stamp == null || patchId == null || sha256 == null || sha256.isEmpty()) {
+            return false;
+        }
+        int macStart = stamp.lastIndexOf(SEPARATOR);
+        if (macStart < 0) {
+            return false;
+        }
+        try {
+            String expectedPayload = buildPayload(patchId, patchFile, sha256, signed);
+            String payload = stamp.substring(0, macStart);
+            if (expectedPayload == null || !expectedPayload.equals(payload)) {
+                return false;
+            }
+            byte[] key = loadKey(context, false);
+            if (key == null) {
+                return false;
+            }
+            byte[] expectedMac = hmac(key, payload).getBytes(StandardCharsets.US_ASCII);
+            byte[] actualMac = stamp.substring(macStart + 1).getBytes(StandardCharsets.US_ASCII);
+            return MessageDigest.isEqual(expectedMac, actualMac);
+        } catch (IOException | GeneralSecurityException e) {
+            Log.w(TAG, "Failed to check integrity stamp", e);
+            return false;
+        }
+    }
+
+    /**
+     * 清除完整性戳，下次启动将执行完整验证
+     */
+    static void clear(SharedPreferences prefs) {
+        prefs.edit().remove(KEY_STAMP).apply();
+    }
+
+    /**
+     * 构造戳的明文部分，文件不存在或无法 stat 时返回 null
+     */
+    private static String buildPayload(String patchId, File patchFile, String sha256, boolean signed) {
+        if (!patchFile.isFile()) {
+            return null;
+        }
+        long inode;
+        try {
+            inode = Os.stat(patchFile.getAbsolutePath()).st_ino;
+        } catch (ErrnoException e) {
+            Log.w(TAG, "Failed to stat patch file: " + e.getMessage());
+            return null;
+        }
+        return STAMP_VERSION + SEPARATOR + patchId
+            + SEPARATOR + patchFile.length()
+            + SEPARATOR + patchFile.lastModified()
+            + SEPARATOR + inode
+            + SEPARATOR + sha256
+            + SEPARATOR + (signed ? "1" : "0");
+    }
+
+    private static String hmac(byte[] key, String payload) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance(MAC_ALGORITHM);
+        mac.init(new SecretKeySpec(key, MAC_ALGORITHM));
+        byte[] result = mac.doFinal(payload.getBytes(StandardCharsets.UTF_8));
+        char[] hex = new char[result.length * 2];
+        for (int i = 0; i < result.length; i++) {
+            int v = result[i] & 0xFF;
+            hex[i * 2] = HEX_CHARS[v >>> 4];
+            hex[i * 2 + 1] = HEX_CHARS[v & 0x0F];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * 读取设备本地 MAC 密钥
+     *
+     * @param create 密钥不存在时是否生成
+     * @return 密钥，不存在且不生成时返回 null
+     */
+    private static byte[] loadKey(Context context, boolean create) throws IOException {
+        File keyFile = new File(context.getNoBackupFilesDir(), KEY_FILE_NAME);
+        if (keyFile.length() == KEY_SIZE) {
+            byte[] key = new byte[KEY_SIZE];
+            try (FileInputStream fis = new FileInputStream(keyFile)) {
+                int offset = 0;
+                while (offset < KEY_SIZE) {
+                    int read = fis.read(key, offset, KEY_SIZE - offset);
+                    if (read == -1) {
+                        throw new IOException("Truncated stamp key");
+                    }
+                    offset += read;
+                }
+            }
+            return key;
+        }
+        if (!create) {
+            return null;
+        }
+
+        byte[] key = new byte[KEY_SIZE];
+        new SecureRandom().nextBytes(key);
+        File tempFile = new File(keyFile.getParentFile(), KEY_FILE_NAME + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tempFile)) {
+            fos.write(key);
+            fos.getFD().sync();
+        }
+        if (!tempFile.renameTo(keyFile)) {
+            tempFile.delete();
+            throw new IOException("Failed to save stamp key");
+        }
+        return key;
+    }
+}
@@ -4,6 +4,7 @@ import android.content.Context;
 import android.util.Log;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.List;
 
@@ -88,8 +89,24 @@ public class PatchManager {
         String patchId = patchInfo.getPatchId();
         Log.d(TAG, "Starting download for patch: " + patchId);
         
-        // 获取临时下载文件
-        File tempFile = new File(storage.getTempDir(), patchId + ".tmp");
+        // 服务器提供了相对当前补丁的差量包时优先下载差量并在本地重建，失败时回退到完整补丁
+        boolean deltaApplicable = isDeltaApplicable(patchInfo);
+        if (deltaApplicable && downloadDelta(patchInfo, callback)) {
+            return;
+        }
+        notifyPhase(callback, deltaApplicable
+                ? DownloadCallback.PHASE_FULL_FALLBACK : DownloadCallback.PHASE_FULL);
+        
+        // 打开流式写入器：下载时同步计算哈希并加密写入，结束时校验 MD5/大小并原子提交
+        PatchStreamWriter writer;
+        try {
+            writer = storage.openPatchWriter(patchId, patchInfo.getMd5(), patchInfo.getFileSize());
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to open patch writer: " + patchId, e);
+            notifyError(callback, UpdateErrorCode.ERROR_FILE_WRITE_FAILED,
+                    "Failed to open patch file: " + e.getMessage());
+            return;
+        }
         
         // 创建内部回调处理下载完成后的逻辑
         DownloadCallback internalCallback = new DownloadCallback() {
@@ -101,67 +118,134 @@ public class PatchManager {
             }
             
             @Override
-            public void onSuccess(File file) {
-                // 下载完成后，验证 MD5 并加密存储
-                try {
-                    // 验证 MD5
-                    String expectedMd5 = patchInfo.getMd5();
-                    if (expectedMd5 != null && !expectedMd5.isEmpty()) {
-                        if (!Md5Utils.verifyMd5(file, expectedMd5)) {
-                            Log.e(TAG, "MD5 verification failed for patch: " + patchId);
-                            securityManager.secureDelete(file);
-                            notifyError(callback, UpdateErrorCode.ERROR_CHECKSUM_MISMATCH,
-                                    "MD5 checksum verification failed");
-                            return;
-                        }
-                        Log.d(TAG, "MD5 verification passed for patch: " + patchId);
-                    }
-                    
-                    // 加密存储补丁文件
-                    if (!storage.savePatchFromFile(patchId, file)) {
-                        Log.e(TAG, "Failed to save patch file: " + patchId);
-                        notifyError(callback, UpdateErrorCode.ERROR_FILE_WRITE_FAILED,
-                                "Failed to save patch file");
-                        return;
-                    }
-                    
-                    // 保存补丁信息
-                    storage.savePatchInfo(patchInfo);
-                    
-                    // 清理临时文件
-                    securityManager.secureDelete(file);
-                    
-                    Log.d(TAG, "Patch downloaded and saved: " + patchId);
-                    
-                    // 通知成功
-                    File savedFile = storage.getPatchFile(patchId);
-                    if (callback != null) {
-                        callback.onSuccess(savedFile);
-                    }
-                    
-                } catch (IOException e) {
-                    Log.e(TAG, "Error processing downloaded patch: " + patchId, e);
-                    securityManager.secureDelete(file);
-                    notifyError(callback, UpdateErrorCode.ERROR_DOWNLOAD_FAILED,
-                            "Error processing downloaded patch: " + e.getMessage());
-                }
+            public void onSuccess(File savedFile) {
+                onPatchSaved(patchInfo, savedFile, callback);
             }
             
             @Override
             public void onError(int errorCode, String message) {
                 Log.e(TAG, "Download failed for patch " + patchId + ": " + message);
-                // 清理临时文件
-                if (tempFile.exists()) {
-                    securityManager.secureDelete(tempFile);
-                }
                 if (callback != null) {
                     callback.onError(errorCode, message);
                 }
             }
         };
         
-        // 开始下载
-        downloader.download(downloadUrl, tempFile, internalCallback);
+        // 开始下载，大补丁由下载器分段并行下载并按顺序写入写入器，完成的分段加密保存用于重启后续传
+        SegmentCache segmentCache = patchInfo.getFileSize() >= PatchDownloader.SEGMENTED_DOWNLOAD_THRESHOLD
+                ? storage.openSegmentCache(patchId) : null;
+        downloader.download(downloadUrl, writer, patchInfo.getFileSize(), segmentCache, internalCallback);
+    }
+    
+    /**
+     * 服务器提供了差量包、差分引擎可用且差量包的基准与当前已应用的补丁一致
+     */
+    private boolean isDeltaApplicable(PatchInfo patchInfo) {
+        if (!patchInfo.hasDelta()) {
+            return false;
+        }
+        if (!DeltaPatchApplier.isAvailable() || !storage.getAppliedPatchFile().isFile()
+                || !patchInfo.getDeltaBaseHash().equalsIgnoreCase(storage.getAppliedPatchHash())) {
+            Log.d(TAG, "Delta not applicable for patch: " + patchInfo.getPatchId());
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * 下载差量包，与当前已应用的补丁合成新补丁，再经写入器校验 MD5/大小、加密并提交
+     * 
+     * @return 已处理（成功或取消）返回 true；下载、重建或校验失败返回 false，由调用方回退到完整补丁
+     */
+    private boolean downloadDelta(PatchInfo patchInfo, DownloadCallback callback) {
+        String patchId = patchInfo.getPatchId();
+        File baseFile = storage.getAppliedPatchFile();
+        notifyPhase(callback, DownloadCallback.PHASE_DELTA);
+        
+        File deltaFile = new File(storage.getTempDir(), patchId + ".delta");
+        File rebuiltFile = new File(storage.getTempDir(), patchId + ".rebuilt");
+        final int[] downloadError = {0};
+        try {
+            deltaFile.delete();
+            downloader.download(patchInfo.getDeltaUrl(), deltaFile, new DownloadCallback() {
+                @Override
+                public void onProgress(long current, long total) {
+                    if (callback != null) {
+                        callback.onProgress(current, total);
+                    }
+                }
+                
+                @Override
+                public void onSuccess(File file) {
+                }
+                
+                @Override
+                public void onError(int errorCode, String message) {
+                    Log.w(TAG, "Delta download failed for patch " + patchId + ": " + message);
+                    downloadError[0] = errorCode;
+                }
+            });
+            if (downloadError[0] == UpdateErrorCode.ERROR_DOWNLOAD_CANCELLED) {
+                notifyError(callback, UpdateErrorCode.ERROR_DOWNLOAD_CANCELLED, "Download cancelled");
+                return true;
+            }
+            if (downloadError[0] != 0) {
+                return false;
+            }
+            
+            String deltaMd5 = patchInfo.getDeltaMd5();
+            if (deltaMd5 != null && !deltaMd5.isEmpty() && !Md5Utils.verifyMd5(deltaFile, deltaMd5)) {
+                Log.w(TAG, "Delta MD5 mismatch for patch: " + patchId);
+                return false;
+            }
+            
+            if (!DeltaPatchApplier.apply(baseFile, deltaFile, rebuiltFile, patchInfo.getFileSize())) {
+                return false;
+            }
+            
+            // 重建结果按完整补丁的 MD5 和大小校验，不一致时回退
+            File savedFile;
+            PatchStreamWriter writer = storage.openPatchWriter(patchId, patchInfo.getMd5(), patchInfo.getFileSize());
+            try (FileInputStream fis = new FileInputStream(rebuiltFile)) {
+                byte[] buffer = new byte[65536];
+                int bytesRead;
+                while ((bytesRead = fis.read(buffer)) != -1) {
+                    writer.write(buffer, 0, bytesRead);
+                }
+                savedFile = writer.commit();
+            } finally {
+                writer.abort();
+            }
+            
+            Log.i(TAG, "Patch rebuilt from delta: " + patchId + ", delta size: " + deltaFile.length()
+                    + ", patch size: " + rebuiltFile.length());
+            onPatchSaved(patchInfo, savedFile, callback);
+            return true;
+        } catch (PatchStreamWriter.ChecksumMismatchException e) {
+            Log.w(TAG, "Rebuilt patch verification failed for " + patchId + ": " + e.getMessage());
+            return false;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to rebuild patch from delta: " + patchId, e);
+            return false;
+        } finally {
+            deltaFile.delete();
+            if (rebuiltFile.exists()) {
+                securityManager.secureDelete(rebuiltFile);
+            }
+        }
+    }
+    
+    /**
+     * 补丁已校验并加密提交，保存补丁信息并通知成功
+     */
+    private void onPatchSaved(PatchInfo patchInfo, File savedFile, DownloadCallback callback) {
+        storage.savePatchInfo(patchInfo);
+        
+        Log.d(TAG, "Patch downloaded and saved: " + patchInfo.getPatchId());
+        
+        if (callback != null) {
+            callback.onSuccess(savedFile);
+        }
     }
     
     /**
@@ -194,29 +278,36 @@ public class PatchManager {
             return false;
         }
         
-        // 读取解密后的补丁数据进行验证
-        byte[] patchData = storage.readPatchFile(patchId);
-        if (patchData == null) {
+        // 流式解密到临时文件进行验证，避免整个补丁读入内存
+        File patchFile = decryptToTempFile(patchId);
+        if (patchFile == null) {
             Log.e(TAG, "Failed to read patch file: " + patchId);
             return false;
         }
         
-        // 1. MD5 校验
-        String expectedMd5 = patchInfo.getMd5();
-        if (expectedMd5 != null && !expectedMd5.isEmpty()) {
-            String actualMd5 = Md5Utils.calculateMd5(patchData);
-            if (!actualMd5.equalsIgnoreCase(expectedMd5)) {
-                Log.e(TAG, "MD5 verification failed for patch: " + patchId + 
-                        ", expected: " + expectedMd5 + ", actual: " + actualMd5);
+        try {
+            // 1. MD5 校验
+            String expectedMd5 = patchInfo.getMd5();
+            if (expectedMd5 != null && !expectedMd5.isEmpty()) {
+                String actualMd5 = Md5Utils.calculateMd5(patchFile);
+                if (!actualMd5.equalsIgnoreCase(expectedMd5)) {
+                    Log.e(TAG, "MD5 verification failed for patch: " + patchId + 
+                            ", expected: " + expectedMd5 + ", actual: " + actualMd5);
+                    return false;
+                }
+                Log.d(TAG, "MD5 verification passed for patch: " + patchId);
+            }
+            
+            // 2. 验证补丁格式（基本检查）
+            if (!verifyPatchFormat(readHeader(patchFile))) {
+                Log.e(TAG, "Invalid patch format: " + patchId);
                 return false;
             }
-            Log.d(TAG, "MD5 verification passed for patch: " + patchId);
-        }
-        
-        // 2. 验证补丁格式（基本检查）
-        if (!verifyPatchFormat(patchData)) {
-            Log.e(TAG, "Invalid patch format: " + patchId);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to verify patch file: " + patchId, e);
             return false;
+        } finally {
+            securityManager.secureDelete(patchFile);
         }
         
         Log.d(TAG, "Patch verification passed: " + patchId);
@@ -247,15 +338,20 @@ public class PatchManager {
         
         String patchId = patchInfo.getPatchId();
         
-        // 读取解密后的补丁数据
-        byte[] patchData = storage.readPatchFile(patchId);
-        if (patchData == null) {
+        // 流式解密到临时文件
+        File patchFile = decryptToTempFile(patchId);
+        if (patchFile == null) {
             Log.e(TAG, "Failed to read patch file for signature verification: " + patchId);
             return false;
         }
         
         // 验证签名
-        boolean valid = securityManager.verifySignature(patchData, signature);
+        boolean valid;
+        try {
+            valid = securityManager.verifySignature(patchFile, signature);
+        } finally {
+            securityManager.secureDelete(patchFile);
+        }
         if (valid) {
             Log.d(TAG, "Signature verification passed for patch: " + patchId);
         } else {
@@ -265,6 +361,41 @@ public class PatchManager {
         return valid;
     }
     
+    /**
+     * 解密补丁到临时文件
+     * @return 临时文件，失败返回 null
+     */
+    private File decryptToTempFile(String patchId) {
+        try {
+            File tempFile = securityManager.createTempFile("verify_", ".tmp");
+            if (storage.readPatchFile(patchId, tempFile)) {
+                return tempFile;
+            }
+            tempFile.delete();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to create temp file", e);
+        }
+        return null;
+    }
+    
+    /**
+     * 读取文件头（最多 8 字节），用于格式检查
+     */
+    private byte[] readHeader(File file) throws IOException {
+        byte[] header = new byte[(int) Math.min(8, file.length())];
+        try (FileInputStream fis = new FileInputStream(file)) {
+            int offset = 0;
+            while (offset < header.length) {
+                int read = fis.read(header, offset, header.length - offset);
+                if (read == -1) {
+                    break;
+                }
+                offset += read;
+            }
+        }
+        return header;
+    }
+    
     /**
      * 验证补丁格式
      * @param patchData 补丁数据
@@ -424,4 +555,17 @@ public class PatchManager {
             }
         }
     }
+    
+    /**
+     * 通知下载阶段变化
+     */
+    private void notifyPhase(DownloadCallback callback, int phase) {
+        if (callback != null) {
+            try {
+                callback.onPhaseChanged(phase);
+            } catch (Exception e) {
+                Log.e(TAG, "Error in phase callback", e);
+            }
+        }
+    }
 }
@@ -0,0 +1,440 @@
+package com.orange.update;
+
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * 补丁元数据索引：以紧凑的二进制文件保存已下载补丁列表、补丁信息和下载时的 SHA-256。
+ *
+ * 替代原先保存在 patch_storage_prefs 中的 JSON 数组和每个补丁的 JSON 字符串，
+ * 让启动时解析的 SharedPreferences XML 只保留少量状态键。索引在首次访问时整体读入内存，
+ * 之后的查询不再解析；每次修改先写临时文件并同步，再原子重命名，进程中途被杀不会留下半个文件。
+ *
+ * 文件格式（大端序）：
+ * magic "OHPI"(4) | version(1) | count(4) | entry * count | crc32(4)
+ * entry: patchId | flags(1) | [PatchInfo 字段] | [sha256]
+ * 字符串为 长度(4, -1 表示 null) + UTF-8 字节；crc32 覆盖之前的所有字节。
+ *
+ * 同一文件在进程内只有一个实例，多个 PatchStorage 共享同一份内存数据。
+ */
+final class PatchMetadataIndex {
+
+    private static final String TAG = "PatchMetadataIndex";
+
+    private static final byte[] MAGIC = {'O', 'H', 'P', 'I'};
+    private static final int VERSION = 1;
+
+    private static final int FLAG_DOWNLOADED = 1;
+    private static final int FLAG_HAS_INFO = 1 << 1;
+    private static final int FLAG_HAS_SHA256 = 1 << 2;
+
+    // 迁移前保存在 SharedPreferences 中的键
+    private static final String LEGACY_KEY_DOWNLOADED_PATCH_IDS = "downloaded_patch_ids";
+    private static final String LEGACY_KEY_PATCH_INFO_PREFIX = "patch_info_";
+    private static final String LEGACY_KEY_PATCH_SHA256_PREFIX = "patch_sha256_";
+
+    private static final Map<String, PatchMetadataIndex> INSTANCES = new HashMap<>();
+
+    private final File indexFile;
+    private final SharedPreferences legacyPrefs;
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private boolean loaded;
+
+    private PatchMetadataIndex(File indexFile, SharedPreferences legacyPrefs) {
+        this.indexFile = indexFile;
+        this.legacyPrefs = legacyPrefs;
+    }
+
+    /**
+     * 获取索引实例，首次访问数据时才读取文件
+     *
+     * @param indexFile 索引文件
+     * @param legacyPrefs 旧版元数据所在的 SharedPreferences，索引文件不存在时从中迁移
+     */
+    static PatchMetadataIndex open(File indexFile, SharedPreferences legacyPrefs) {
+        synchronized (INSTANCES) {
+            String key = indexFile.getAbsolutePath();
+            PatchMetadataIndex index = INSTANCES.get(key);
+            if (index == null) {
+                index = new PatchMetadataIndex(indexFile, legacyPrefs);
+                INSTANCES.put(key, index);
+            }
+            return index;
+        }
+    }
+
+    // ==================== 查询 ====================
+
+    synchronized PatchInfo getPatchInfo(String patchId) {
+        Entry entry = entries().get(patchId);
+        return entry != null && entry.info != null ? copyOf(entry.info) : null;
+    }
+
+    synchronized String getSha256(String patchId) {
+        Entry entry = entries().get(patchId);
+        return entry != null ? entry.sha256 : null;
+    }
+
+    synchronized Set<String> getDownloadedPatchIds() {
+        Set<String> patchIds = new LinkedHashSet<>();
+        for (Map.Entry<String, Entry> e : entries().entrySet()) {
+            if (e.getValue().downloaded) {
+                patchIds.add(e.getKey());
+            }
+        }
+        return patchIds;
+    }
+
+    // ==================== 修改 ====================
+
+    synchronized void putPatchInfo(PatchInfo info) {
+        entryFor(info.getPatchId()).info = copyOf(info);
+        commit();
+    }
+
+    synchronized void removePatchInfo(String patchId) {
+        Entry entry = entries().get(patchId);
+        if (entry != null && entry.info != null) {
+            entry.info = null;
+            removeIfEmpty(patchId, entry);
+            commit();
+        }
+    }
+
+    /**
+     * 登记已下载补丁
+     *
+     * @param sha256 补丁明文 SHA-256，为 null 时保留已有记录
+     */
+    synchronized void markDownloaded(String patchId, String sha256) {
+        Entry entry = entryFor(patchId);
+        entry.downloaded = true;
+        if (sha256 != null) {
+            entry.sha256 = sha256;
+        }
+        commit();
+    }
+
+    synchronized void unmarkDownloaded(String patchId) {
+        Entry entry = entries().get(patchId);
+        if (entry != null && entry.downloaded) {
+            entry.downloaded = false;
+            removeIfEmpty(patchId, entry);
+            commit();
+        }
+    }
+
+    /**
+     * 删除补丁的全部元数据
+     */
+    synchronized void remove(String patchId) {
+        if (entries().remove(patchId) != null) {
+            commit();
+        }
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        loaded = true;
+        commit();
+    }
+
+    private Entry entryFor(String patchId) {
+        Entry entry = entries().get(patchId);
+        if (entry == null) {
+            entry = new Entry();
+            entries.put(patchId, entry);
+        }
+        return entry;
+    }
+
+    private void removeIfEmpty(String patchId, Entry entry) {
+        if (!entry.downloaded && entry.info == null) {
+            entries.remove(patchId);
+        }
+    }
+
+    // ==================== 读写 ====================
+
+    private Map<String, Entry> entries() {
+        if (!loaded) {
+            loaded = true;
+            if (indexFile.isFile()) {
+                load();
+            } else {
+                migrateFromPrefs();
+            }
+        }
+        return entries;
+    }
+
+    private void load() {
+        try {
+            byte[] data = readFile(indexFile);
+            if (data.length < MAGIC.length + 1 + 4 + 4) {
+                throw new IOException("Index file too short");
+            }
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, data.length - 4);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            for (byte b : MAGIC) {
+                if (in.readByte() != b) {
+                    throw new IOException("Invalid index magic");
+                }
+            }
+            int version = in.readUnsignedByte();
+            if (version != VERSION) {
+                throw new IOException("Unsupported index version: " + version);
+            }
+            if ((int) crc.getValue() != readTrailer(data)) {
+                throw new IOException("Index checksum mismatch");
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String patchId = readString(in);
+                int flags = in.readUnsignedByte();
+                Entry entry = new Entry();
+                entry.downloaded = (flags & FLAG_DOWNLOADED) != 0;
+                if ((flags & FLAG_HAS_INFO) != 0) {
+                    entry.info = readPatchInfo(in, patchId);
+                }
+                if ((flags & FLAG_HAS_SHA256) != 0) {
+                    entry.sha256 = readString(in);
+                }
+                entries.put(patchId, entry);
+            }
+            Log.d(TAG, "Loaded patch index, entries: " + count);
+        } catch (IOException e) {
+            // 索引损坏时按空索引处理，补丁文件本身不受影响，可重新下载登记
+            Log.e(TAG, "Failed to load patch index, starting empty", e);
+            entries.clear();
+        }
+    }
+
+    /**
+     * 从 SharedPreferences 迁移旧版元数据，迁移后删除旧键
+     */
+    private void migrateFromPrefs() {
+        if (legacyPrefs == null) {
+            return;
+        }
+        Map<String, ?> all = legacyPrefs.getAll();
+        SharedPreferences.Editor editor = legacyPrefs.edit();
+        boolean migrated = false;
+
+        for (Map.Entry<String, ?> pref : all.entrySet()) {
+            String key = pref.getKey();
+            Object value = pref.getValue();
+            if (!(value instanceof String)) {
+                continue;
+            }
+            if (key.startsWith(LEGACY_KEY_PATCH_INFO_PREFIX)) {
+                try {
+                    PatchInfo info = PatchInfo.fromJson((String) value);
+                    entryFor(info.getPatchId()).info = info;
+                } catch (IllegalArgumentException e) {
+                    Log.w(TAG, "Skip invalid legacy patch info: " + key);
+                }
+            } else if (key.startsWith(LEGACY_KEY_PATCH_SHA256_PREFIX)) {
+                entryFor(key.substring(LEGACY_KEY_PATCH_SHA256_PREFIX.length())).sha256 = (String) value;
+            } else if (key.equals(LEGACY_KEY_DOWNLOADED_PATCH_IDS)) {
+                try {
+                    JSONArray array = new JSONArray((String) value);
+                    for (int i = 0; i < array.length(); i++) {
+                        entryFor(array.getString(i)).downloaded = true;
+                    }
+                } catch (JSONException e) {
+                    Log.w(TAG, "Skip invalid legacy downloaded patch IDs");
+                }
+            } else {
+                continue;
+            }
+            editor.remove(key);
+            migrated = true;
+        }
+
+        // 只登记了哈希的残留项没有意义
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+            Entry entry = it.next();
+            if (!entry.downloaded && entry.info == null) {
+                it.remove();
+            }
+        }
+
+        // 先写入索引再删除旧键，迁移中途被杀时下次仍可重新迁移
+        if (commit() && migrated) {
+            editor.apply();
+            Log.i(TAG, "Migrated patch metadata from SharedPreferences, entries: " + entries.size());
+        }
+    }
+
+    /**
+     * 将内存中的索引完整写出：临时文件 + fsync + 原子重命名
+     *
+     * @return 是否写入成功
+     */
+    private boolean commit() {
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(buffer);
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                Entry entry = e.getValue();
+                int flags = (entry.downloaded ? FLAG_DOWNLOADED : 0)
+                        | (entry.info != null ? FLAG_HAS_INFO : 0)
+                        | (entry.sha256 != null ? FLAG_HAS_SHA256 : 0);
+                writeString(out, e.getKey());
+                out.writeByte(flags);
+                if (entry.info != null) {
+                    writePatchInfo(out, entry.info);
+                }
+                if (entry.sha256 != null) {
+                    writeString(out, entry.sha256);
+                }
+            }
+            out.flush();
+            CRC32 crc = new CRC32();
+            crc.update(buffer.toByteArray());
+            out.writeInt((int) crc.getValue());
+            out.flush();
+
+            File parent = indexFile.getParentFile();
+            if (parent != null && !parent.exists()) {
+                parent.mkdirs();
+            }
+            File tempFile = new File(indexFile.getPath() + ".tmp");
+            try (FileOutputStream fos = new FileOutputStream(tempFile)) {
+                buffer.writeTo(fos);
+                fos.getFD().sync();
+            }
+            if (!tempFile.renameTo(indexFile)) {
+                tempFile.delete();
+                throw new IOException("Failed to rename index file");
+            }
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write patch index", e);
+            return false;
+        }
+    }
+
+    // ==================== 编码 ====================
+
+    private static void writePatchInfo(DataOutputStream out, PatchInfo info) throws IOException {
+        writeString(out, info.getPatchVersion());
+        writeString(out, info.getTargetAppVersion());
+        writeString(out, info.getPackageName());
+        writeString(out, info.getDownloadUrl());
+        out.writeLong(info.getFileSize());
+        writeString(out, info.getMd5());
+        out.writeLong(info.getCreateTime());
+        writeString(out, info.getDescription());
+    }
+
+    private static PatchInfo readPatchInfo(DataInputStream in, String patchId) throws IOException {
+        PatchInfo info = new PatchInfo();
+        info.setPatchId(patchId);
+        info.setPatchVersion(readString(in));
+        info.setTargetAppVersion(readString(in));
+        info.setPackageName(readString(in));
+        info.setDownloadUrl(readString(in));
+        info.setFileSize(in.readLong());
+        info.setMd5(readString(in));
+        info.setCreateTime(in.readLong());
+        info.setDescription(readString(in));
+        return info;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > in.available()) {
+            throw new IOException("Truncated index entry");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int readTrailer(byte[] data) {
+        int n = data.length;
+        return ((data[n - 4] & 0xFF) << 24) | ((data[n - 3] & 0xFF) << 16)
+                | ((data[n - 2] & 0xFF) << 8) | (data[n - 1] & 0xFF);
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        long length = file.length();
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Index file too large");
+        }
+        byte[] data = new byte[(int) length];
+        try (FileInputStream fis = new FileInputStream(file)) {
+            int offset = 0;
+            while (offset < data.length) {
+                int read = fis.read(data, offset, data.length - offset);
+                if (read == -1) {
+                    throw new IOException("Unexpected end of index file");
+                }
+                offset += read;
+            }
+        }
+        return data;
+    }
+
+    private static PatchInfo copyOf(PatchInfo info) {
+        PatchInfo copy = new PatchInfo();
+        copy.setPatchId(info.getPatchId());
+        copy.setPatchVersion(info.getPatchVersion());
+        copy.setTargetAppVersion(info.getTargetAppVersion());
+        copy.setPackageName(info.getPackageName());
+        copy.setDownloadUrl(info.getDownloadUrl());
+        copy.setFileSize(info.getFileSize());
+        copy.setMd5(info.getMd5());
+        copy.setCreateTime(info.getCreateTime());
+        copy.setDescription(info.getDescription());
+        return copy;
+    }
+
+    /**
+     * 单个补丁的元数据
+     */
+    private static final class Entry {
+        boolean downloaded;
+        PatchInfo info;
+        String sha256;
+    }
+}
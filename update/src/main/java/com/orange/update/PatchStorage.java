@@ -5,20 +5,25 @@ import android.content.SharedPreferences;
 import android.os.Build;
 import android.util.Log;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+import javax.crypto.SecretKey;
+
 /**
  * 补丁存储类，管理补丁文件和元数据的本地存储。
  * 
@@ -30,16 +35,21 @@ import java.util.Set;
  * ├── applied/                          # 当前应用的补丁（解密后）
  * │   └── current_patch.dex
  * ├── temp/                             # 临时解密目录（使用后立即清理）
+ * │   ├── {patchId}.segments/           # 未完成的分段下载缓存，分段加密保存（见 SegmentCache）
  * │   └── .nomedia
  * ├── config/
- * │   └── patch_info.json               # 补丁元数据
+ * │   └── patch_index.bin               # 补丁元数据索引（见 PatchMetadataIndex）
  * └── backup/                           # 回滚备份
  *     └── previous_patch.enc
  * 
+ * /data/data/{package}/no_backup/
+ * ├── decrypted_patch.enc               # ZIP 密码保护补丁的解密副本，以数据密钥加密（见 getDecryptedZipPatchFile）
+ * └── zip_patch_load.zip                # 加载时临时解出的明文，注入完成后删除（见 getZipPatchLoadFile）
+ * 
  * 功能：
  * - 补丁目录管理
  * - 加密补丁文件读写
- * - SharedPreferences 存储补丁元数据
+ * - 二进制索引文件存储补丁元数据，SharedPreferences 只保存应用状态
  * - 集成 SecurityManager 进行加密存储
  */
 public class PatchStorage {
@@ -53,19 +63,23 @@ public class PatchStorage {
     private static final String DIR_TEMP = "temp";
     private static final String DIR_CONFIG = "config";
     private static final String DIR_BACKUP = "backup";
+    private static final String DIR_SUFFIX_SEGMENTS = ".segments";
 
     
     // 文件名常量
     private static final String FILE_CURRENT_PATCH = "current_patch.zip";
+    private static final String FILE_DECRYPTED_ZIP_PATCH = "decrypted_patch.enc";
+    private static final String FILE_LEGACY_DECRYPTED_ZIP_PATCH = "decrypted_patch.zip";
+    private static final String FILE_ZIP_PATCH_LOAD = "zip_patch_load.zip";
     private static final String FILE_NOMEDIA = ".nomedia";
     private static final String FILE_EXTENSION_ENC = ".enc";
     private static final String FILE_EXTENSION_DEX = ".dex";
+    private static final String FILE_METADATA_INDEX = "patch_index.bin";
+    private static final String FILE_SEGMENT_KEY = "segment.key";
     
     // SharedPreferences 常量
     private static final String PREFS_NAME = "patch_storage_prefs";
     private static final String KEY_APPLIED_PATCH_ID = "applied_patch_id";
-    private static final String KEY_PATCH_INFO_PREFIX = "patch_info_";
-    private static final String KEY_DOWNLOADED_PATCH_IDS = "downloaded_patch_ids";
     private static final String KEY_PREVIOUS_PATCH_ID = "previous_patch_id";
     private static final String KEY_APPLIED_PATCH_HASH = "applied_patch_hash";
     private static final String KEY_TAMPER_COUNT = "tamper_count";
@@ -75,6 +89,7 @@ public class PatchStorage {
     private final SharedPreferences prefs;
     private final SecurityManager securityManager;
     private final ZipPasswordManager zipPasswordManager;
+    private PatchMetadataIndex metadataIndex;
     
     // 目录缓存
     private File updateDir;
@@ -136,12 +151,24 @@ public class PatchStorage {
         // 配置目录: config/
         configDir = new File(updateDir, DIR_CONFIG);
         ensureDirectoryExists(configDir);
+        metadataIndex = openMetadataIndex(context, prefs);
         
         // 备份目录: backup/
         backupDir = new File(updateDir, DIR_BACKUP);
         ensureDirectoryExists(backupDir);
     }
     
+    /**
+     * 打开补丁元数据索引，无需创建 PatchStorage（启动阶段清理补丁时使用）
+     * @param context 应用上下文
+     * @param prefs patch_storage_prefs，索引不存在时从中迁移旧数据
+     * @return 元数据索引
+     */
+    static PatchMetadataIndex openMetadataIndex(Context context, SharedPreferences prefs) {
+        File configDir = new File(new File(context.getFilesDir(), DIR_UPDATE), DIR_CONFIG);
+        return PatchMetadataIndex.open(new File(configDir, FILE_METADATA_INDEX), prefs);
+    }
+    
     /**
      * 确保目录存在
      */
@@ -240,6 +267,51 @@ public class PatchStorage {
         return new File(appliedDir, FILE_CURRENT_PATCH);
     }
     
+    /**
+     * 获取 ZIP 密码保护补丁的解密副本
+     * 
+     * 副本用 SecurityManager 的分段 AES-GCM 格式加密，密钥为 KeyStore 包装的数据密钥；
+     * 放在 noBackupFilesDir 中，不会随自动备份或 adb backup 导出。
+     * 
+     * @param context 应用上下文
+     * @return 加密的解密副本文件
+     */
+    static File getDecryptedZipPatchFile(Context context) {
+        return new File(context.getNoBackupFilesDir(), FILE_DECRYPTED_ZIP_PATCH);
+    }
+    
+    /**
+     * 获取 ZIP 密码保护补丁加载时使用的明文文件
+     * 
+     * DexClassLoader 和 AssetManager 只接受明文路径，加载时把解密副本解到这里，注入完成后删除。
+     * 路径固定，Android 10 以下按路径命名的 odex 可以跨启动复用。
+     * 
+     * @param context 应用上下文
+     * @return 明文文件
+     */
+    static File getZipPatchLoadFile(Context context) {
+        return new File(context.getNoBackupFilesDir(), FILE_ZIP_PATCH_LOAD);
+    }
+    
+    /**
+     * 删除 ZIP 密码保护补丁的解密副本（源补丁被删除或替换时调用）
+     * 
+     * 同时删除加载用的明文文件，以及旧版本保存在 noBackupFilesDir 和 applied 目录中的明文副本。
+     * 
+     * @param context 应用上下文
+     */
+    static void deleteDecryptedZipPatch(Context context) {
+        File legacyFile = new File(new File(new File(context.getFilesDir(), DIR_UPDATE), DIR_APPLIED),
+                FILE_LEGACY_DECRYPTED_ZIP_PATCH);
+        File legacyNoBackupFile = new File(context.getNoBackupFilesDir(), FILE_LEGACY_DECRYPTED_ZIP_PATCH);
+        for (File file : new File[] { getDecryptedZipPatchFile(context), getZipPatchLoadFile(context),
+                legacyNoBackupFile, legacyFile }) {
+            if (file.exists() && !file.delete()) {
+                Log.w(TAG, "Failed to delete decrypted patch copy: " + file.getPath());
+            }
+        }
+    }
+    
     /**
      * 获取备份的补丁文件
      * @param patchId 补丁ID
@@ -293,19 +365,15 @@ public class PatchStorage {
         }
         
         try {
-            // 加密数据 (API 23+) 或直接存储 (API 21-22)
-            byte[] dataToWrite;
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-                dataToWrite = securityManager.encrypt(patchData);
-            } else {
-                // API 21-22 不支持 KeyStore 加密，直接存储
-                Log.w(TAG, "API level < 23, storing patch without encryption");
-                dataToWrite = patchData;
-            }
-            
-            // 写入文件
+            // 流式加密写入 (API 23+) 或直接存储 (API 21-22)
             try (FileOutputStream fos = new FileOutputStream(patchFile)) {
-                fos.write(dataToWrite);
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                    securityManager.encrypt(new ByteArrayInputStream(patchData), fos);
+                } else {
+                    // API 21-22 不支持 KeyStore 加密，直接存储
+                    Log.w(TAG, "API level < 23, storing patch without encryption");
+                    fos.write(patchData);
+                }
                 fos.flush();
             }
             
@@ -344,16 +412,17 @@ public class PatchStorage {
         }
         
         try {
-            // 读取数据
-            byte[] fileData = readFileBytes(patchFile);
-            
             // 解密数据 (API 23+) 或直接返回 (API 21-22)
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-                return securityManager.decrypt(fileData);
+                ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(patchFile.length(), Integer.MAX_VALUE));
+                try (FileInputStream fis = new FileInputStream(patchFile)) {
+                    securityManager.decrypt(fis, out);
+                }
+                return out.toByteArray();
             } else {
                 // API 21-22 不支持 KeyStore 加密，直接返回
                 Log.w(TAG, "API level < 23, reading patch without decryption");
-                return fileData;
+                return readFileBytes(patchFile);
             }
             
         } catch (IOException | SecurityException e) {
@@ -362,6 +431,47 @@ public class PatchStorage {
         }
     }
     
+    /**
+     * 读取补丁文件并流式解密到指定文件，内存占用与补丁大小无关
+     * 注意：解密功能需要 API 23+ (Android 6.0+)，低版本将直接复制未加密数据
+     * @param patchId 补丁ID
+     * @param outputFile 输出文件
+     * @return 是否成功，失败时输出文件会被删除
+     */
+    public boolean readPatchFile(String patchId, File outputFile) {
+        if (patchId == null || patchId.isEmpty()) {
+            throw new IllegalArgumentException("Patch ID cannot be null or empty");
+        }
+        if (outputFile == null) {
+            throw new IllegalArgumentException("Output file cannot be null");
+        }
+        
+        File patchFile = getPatchFile(patchId);
+        
+        if (!patchFile.exists()) {
+            Log.w(TAG, "Patch file not found: " + patchId);
+            return false;
+        }
+        
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                securityManager.decryptPatch(patchFile, outputFile);
+            } else {
+                // API 21-22 不支持 KeyStore 加密，直接复制
+                Log.w(TAG, "API level < 23, reading patch without decryption");
+                copyFile(patchFile, outputFile);
+            }
+            return true;
+            
+        } catch (IOException | SecurityException e) {
+            Log.e(TAG, "Failed to read patch file: " + patchId, e);
+            if (outputFile.exists()) {
+                outputFile.delete();
+            }
+            return false;
+        }
+    }
+    
     /**
      * 从原始文件保存补丁（加密存储）
      * 注意：加密功能需要 API 23+ (Android 6.0+)，低版本将直接存储未加密数据
@@ -379,13 +489,17 @@ public class PatchStorage {
         
         try {
             File targetFile = getPatchFile(patchId);
+            File parentDir = targetFile.getParentFile();
+            if (parentDir != null && !parentDir.exists()) {
+                parentDir.mkdirs();
+            }
             
             // 加密文件 (API 23+) 或直接复制 (API 21-22)
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-                // 使用 SecurityManager 加密文件
-                File encryptedFile = securityManager.encryptPatch(sourceFile);
+                // 流式加密到补丁目录的临时文件，完成后替换
+                File encryptedFile = new File(targetFile.getPath() + ".tmp");
+                securityManager.encryptPatch(sourceFile, encryptedFile);
                 
-                // 移动到补丁目录
                 if (targetFile.exists()) {
                     targetFile.delete();
                 }
@@ -416,6 +530,84 @@ public class PatchStorage {
         }
     }
     
+    /**
+     * 打开补丁流式写入器，下载数据边到达边计算哈希并加密写入
+     * 注意：加密功能需要 API 23+ (Android 6.0+)，低版本将直接存储未加密数据
+     * @param patchId 补丁ID
+     * @param expectedMd5 期望的 MD5，为空时不校验
+     * @param expectedSize 期望的大小，小于等于 0 时不校验
+     * @return 写入器，调用 {@link PatchStreamWriter#commit()} 校验并提交
+     * @throws IOException 如果创建失败
+     */
+    public PatchStreamWriter openPatchWriter(String patchId, String expectedMd5, long expectedSize)
+            throws IOException {
+        if (patchId == null || patchId.isEmpty()) {
+            throw new IllegalArgumentException("Patch ID cannot be null or empty");
+        }
+        
+        File targetFile = getPatchFile(patchId);
+        ensureDirectoryExists(targetFile.getParentFile());
+        
+        SecurityManager encryptor = null;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            encryptor = securityManager;
+        } else {
+            // API 21-22 不支持 KeyStore 加密，直接存储
+            Log.w(TAG, "API level < 23, storing patch without encryption");
+        }
+        return new PatchStreamWriter(this, patchId, targetFile, expectedMd5, expectedSize, encryptor);
+    }
+    
+    /**
+     * 流式写入的补丁提交后登记到已下载列表，并记录明文 SHA-256
+     */
+    void onPatchFileCommitted(String patchId, String sha256) {
+        metadataIndex.markDownloaded(patchId, sha256);
+    }
+    
+    /**
+     * 打开补丁的分段下载缓存，分段用数据密钥加密保存，数据密钥经 KeyStore 包装后存放在缓存目录中
+     * 注意：需要 API 23+ (Android 6.0+)，低版本或 KeyStore 不可用时返回 null（不续传，不保存明文分段）
+     * @param patchId 补丁ID
+     * @return 分段缓存，不可用时返回 null
+     */
+    SegmentCache openSegmentCache(String patchId) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return null;
+        }
+        
+        File cacheDir = new File(tempDir, patchId + DIR_SUFFIX_SEGMENTS);
+        File keyFile = new File(cacheDir, FILE_SEGMENT_KEY);
+        try {
+            SecretKey dataKey = null;
+            if (keyFile.isFile()) {
+                try {
+                    dataKey = securityManager.unwrapDataKey(readFileBytes(keyFile));
+                } catch (SecurityException | IOException e) {
+                    Log.w(TAG, "Segment cache key unreadable, restarting download: " + patchId, e);
+                }
+            }
+            if (dataKey == null) {
+                // 没有密钥时已保存的分段无法解密，清空后重新开始
+                securityManager.secureDelete(cacheDir);
+                ensureDirectoryExists(cacheDir);
+                dataKey = SecurityManager.generateDataKey();
+                File tempFile = new File(cacheDir, FILE_SEGMENT_KEY + ".tmp");
+                try (FileOutputStream fos = new FileOutputStream(tempFile)) {
+                    fos.write(securityManager.wrapDataKey(dataKey));
+                    fos.getFD().sync();
+                }
+                if (!tempFile.renameTo(keyFile)) {
+                    throw new IOException("Failed to save segment cache key");
+                }
+            }
+            return new SegmentCache(cacheDir, new SegmentCipher(securityManager, dataKey));
+        } catch (SecurityException | IOException e) {
+            Log.w(TAG, "Segment cache unavailable, download will not resume: " + patchId, e);
+            return null;
+        }
+    }
+    
     /**
      * 解密补丁到应用目录
      * 注意：解密功能需要 API 23+ (Android 6.0+)，低版本将直接复制未加密数据
@@ -448,44 +640,63 @@ public class PatchStorage {
             if (appliedFile.exists()) {
                 appliedFile.delete();
             }
+            deleteDecryptedZipPatch(context);
             
-            // 解密 (API 23+) 或直接复制 (API 21-22)
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-                // 解密到临时文件
-                File decryptedFile = securityManager.decryptPatch(patchFile);
-                
-                // 移动到应用目录
-                if (!decryptedFile.renameTo(appliedFile)) {
-                    // 如果重命名失败，尝试复制
-                    copyFile(decryptedFile, appliedFile);
-                    securityManager.secureDelete(decryptedFile);
+            // 解密 (API 23+) 或直接复制 (API 21-22) 到临时文件，同时计算 SHA-256，不再重新读取
+            File tempFile = new File(appliedFile.getPath() + ".tmp");
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            try (FileInputStream fis = new FileInputStream(patchFile);
+                 FileOutputStream fos = new FileOutputStream(tempFile)) {
+                DigestOutputStream dos = new DigestOutputStream(fos, digest);
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                    securityManager.decrypt(fis, dos);
+                } else {
+                    // API 21-22 不支持 KeyStore 加密，直接复制
+                    Log.w(TAG, "API level < 23, copying patch without decryption");
+                    byte[] buffer = new byte[8192];
+                    int bytesRead;
+                    while ((bytesRead = fis.read(buffer)) != -1) {
+                        dos.write(buffer, 0, bytesRead);
+                    }
                 }
-            } else {
-                // API 21-22 不支持 KeyStore 加密，直接复制
-                Log.w(TAG, "API level < 23, copying patch without decryption");
-                copyFile(patchFile, appliedFile);
+                dos.flush();
+                fos.getFD().sync();
+            } catch (IOException | SecurityException e) {
+                tempFile.delete();
+                throw e;
             }
+            String hash = toHexString(digest.digest());
             
-            // 计算并保存文件哈希值（用于完整性验证）
-            String hash = calculateSHA256(appliedFile);
-            if (hash != null) {
-                prefs.edit().putString(KEY_APPLIED_PATCH_HASH, hash).apply();
-                Log.d(TAG, "Saved patch hash: " + hash.substring(0, 16) + "...");
-            } else {
-                Log.w(TAG, "Failed to calculate patch hash");
+            // 与下载时记录的哈希比对
+            String downloadHash = metadataIndex.getSha256(patchId);
+            if (downloadHash != null && !downloadHash.equals(hash)) {
+                Log.e(TAG, "Patch hash mismatch with download record: " + patchId);
+                securityManager.secureDelete(tempFile);
+                return null;
             }
             
+            // 移动到应用目录
+            if (!tempFile.renameTo(appliedFile)) {
+                // 如果重命名失败，尝试复制
+                copyFile(tempFile, appliedFile);
+                securityManager.secureDelete(tempFile);
+            }
+            
+            // 保存文件哈希值（用于完整性验证）
+            prefs.edit().putString(KEY_APPLIED_PATCH_HASH, hash).apply();
+            Log.d(TAG, "Saved patch hash: " + hash.substring(0, 16) + "...");
+            
             Log.d(TAG, "Prepared patch to applied directory: " + patchId);
             return appliedFile;
             
-        } catch (IOException | SecurityException e) {
+        } catch (IOException | SecurityException | NoSuchAlgorithmException e) {
             Log.e(TAG, "Failed to prepare patch: " + patchId, e);
             return null;
         }
     }
 
     
-    // ==================== 补丁信息管理（SharedPreferences） ====================
+    // ==================== 补丁信息管理 ====================
     
     /**
      * 保存补丁信息
@@ -499,10 +710,7 @@ public class PatchStorage {
             throw new IllegalArgumentException("Patch ID cannot be null or empty");
         }
         
-        String key = KEY_PATCH_INFO_PREFIX + info.getPatchId();
-        String json = info.toJson();
-        
-        prefs.edit().putString(key, json).apply();
+        metadataIndex.putPatchInfo(info);
         Log.d(TAG, "Saved patch info: " + info.getPatchId());
     }
     
@@ -516,19 +724,7 @@ public class PatchStorage {
             return null;
         }
         
-        String key = KEY_PATCH_INFO_PREFIX + patchId;
-        String json = prefs.getString(key, null);
-        
-        if (json == null || json.isEmpty()) {
-            return null;
-        }
-        
-        try {
-            return PatchInfo.fromJson(json);
-        } catch (IllegalArgumentException e) {
-            Log.e(TAG, "Failed to parse patch info: " + patchId, e);
-            return null;
-        }
+        return metadataIndex.getPatchInfo(patchId);
     }
     
     /**
@@ -540,8 +736,7 @@ public class PatchStorage {
             return;
         }
         
-        String key = KEY_PATCH_INFO_PREFIX + patchId;
-        prefs.edit().remove(key).apply();
+        metadataIndex.removePatchInfo(patchId);
         Log.d(TAG, "Deleted patch info: " + patchId);
     }
     
@@ -568,6 +763,14 @@ public class PatchStorage {
         return prefs.getString(KEY_APPLIED_PATCH_ID, null);
     }
     
+    /**
+     * 获取当前应用补丁文件的 SHA-256 哈希
+     * @return 哈希值，如果没有返回 null
+     */
+    public String getAppliedPatchHash() {
+        return prefs.getString(KEY_APPLIED_PATCH_HASH, null);
+    }
+    
     /**
      * 保存上一个补丁ID（用于回滚）
      * @param patchId 补丁ID
@@ -611,9 +814,7 @@ public class PatchStorage {
      * @param patchId 补丁ID
      */
     private void addToDownloadedPatchIds(String patchId) {
-        Set<String> patchIds = getDownloadedPatchIds();
-        patchIds.add(patchId);
-        saveDownloadedPatchIds(patchIds);
+        metadataIndex.markDownloaded(patchId, null);
     }
     
     /**
@@ -621,43 +822,7 @@ public class PatchStorage {
      * @param patchId 补丁ID
      */
     private void removeFromDownloadedPatchIds(String patchId) {
-        Set<String> patchIds = getDownloadedPatchIds();
-        patchIds.remove(patchId);
-        saveDownloadedPatchIds(patchIds);
-    }
-    
-    /**
-     * 获取已下载的补丁ID列表
-     * @return 补丁ID集合
-     */
-    private Set<String> getDownloadedPatchIds() {
-        String json = prefs.getString(KEY_DOWNLOADED_PATCH_IDS, null);
-        Set<String> patchIds = new HashSet<>();
-        
-        if (json != null && !json.isEmpty()) {
-            try {
-                JSONArray array = new JSONArray(json);
-                for (int i = 0; i < array.length(); i++) {
-                    patchIds.add(array.getString(i));
-                }
-            } catch (JSONException e) {
-                Log.e(TAG, "Failed to parse downloaded patch IDs", e);
-            }
-        }
-        
-        return patchIds;
-    }
-    
-    /**
-     * 保存已下载的补丁ID列表
-     * @param patchIds 补丁ID集合
-     */
-    private void saveDownloadedPatchIds(Set<String> patchIds) {
-        JSONArray array = new JSONArray();
-        for (String patchId : patchIds) {
-            array.put(patchId);
-        }
-        prefs.edit().putString(KEY_DOWNLOADED_PATCH_IDS, array.toString()).apply();
+        metadataIndex.unmarkDownloaded(patchId);
     }
     
     /**
@@ -665,7 +830,7 @@ public class PatchStorage {
      * @return 补丁信息列表
      */
     public List<PatchInfo> getDownloadedPatches() {
-        Set<String> patchIds = getDownloadedPatchIds();
+        Set<String> patchIds = metadataIndex.getDownloadedPatchIds();
         List<PatchInfo> patches = new ArrayList<>();
         
         for (String patchId : patchIds) {
@@ -731,11 +896,8 @@ public class PatchStorage {
             success = securityManager.secureDelete(patchFile);
         }
         
-        // 删除补丁信息
-        deletePatchInfo(patchId);
-        
-        // 从已下载列表移除
-        removeFromDownloadedPatchIds(patchId);
+        // 删除补丁信息、下载哈希，并从已下载列表移除
+        metadataIndex.remove(patchId);
         
         // 如果是当前应用的补丁，清除应用状态
         String appliedPatchId = getAppliedPatchId();
@@ -746,6 +908,7 @@ public class PatchStorage {
             if (appliedFile.exists()) {
                 securityManager.secureDelete(appliedFile);
             }
+            deleteDecryptedZipPatch(context);
         }
         
         Log.d(TAG, "Deleted patch: " + patchId + ", success: " + success);
@@ -805,8 +968,10 @@ public class PatchStorage {
         success &= securityManager.secureDelete(appliedDir);
         success &= securityManager.secureDelete(tempDir);
         success &= securityManager.secureDelete(backupDir);
+        deleteDecryptedZipPatch(context);
         
-        // 清理 SharedPreferences
+        // 清理元数据索引和 SharedPreferences
+        metadataIndex.clear();
         prefs.edit().clear().apply();
         
         // 重新初始化目录
@@ -926,6 +1091,17 @@ public class PatchStorage {
         return data;
     }
     
+    /**
+     * 转换为十六进制字符串
+     */
+    private static String toHexString(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+    
     /**
      * 复制文件
      */
@@ -992,14 +1168,7 @@ public class PatchStorage {
                     digest.update(buffer, 0, bytesRead);
                 }
             }
-            byte[] hashBytes = digest.digest();
-            
-            // 转换为十六进制字符串
-            StringBuilder sb = new StringBuilder();
-            for (byte b : hashBytes) {
-                sb.append(String.format("%02x", b));
-            }
-            return sb.toString();
+            return toHexString(digest.digest());
         } catch (Exception e) {
             Log.e(TAG, "Failed to calculate SHA-256", e);
             return null;
@@ -1093,6 +1262,7 @@ public class PatchStorage {
             if (appliedFile.exists()) {
                 securityManager.secureDelete(appliedFile);
             }
+            deleteDecryptedZipPatch(context);
             
             // 上报篡改尝试（可选）
             reportTamperAttempt(appliedPatchId, tamperCount);
@@ -1192,4 +1362,35 @@ public class PatchStorage {
     public SecurityManager getSecurityManager() {
         return securityManager;
     }
+    
+    /**
+     * 用数据密钥加解密分段，不访问 KeyStore
+     */
+    private static final class SegmentCipher implements SegmentCache.Cipher {
+        private final SecurityManager securityManager;
+        private final SecretKey dataKey;
+        
+        SegmentCipher(SecurityManager securityManager, SecretKey dataKey) {
+            this.securityManager = securityManager;
+            this.dataKey = dataKey;
+        }
+        
+        @Override
+        public OutputStream newEncryptOutputStream(OutputStream out) throws IOException {
+            try {
+                return securityManager.newEncryptOutputStream(dataKey, out);
+            } catch (SecurityException e) {
+                throw new IOException("Failed to initialize encryption", e);
+            }
+        }
+        
+        @Override
+        public void decrypt(InputStream in, OutputStream out) throws IOException {
+            try {
+                securityManager.decrypt(dataKey, in, out);
+            } catch (SecurityException e) {
+                throw new IOException("Failed to decrypt segment", e);
+            }
+        }
+    }
 }
@@ -0,0 +1,225 @@
+package com.orange.update;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * 补丁流式写入器：下载数据到达时一次完成 MD5、SHA-256 计算和加密写入。
+ *
+ * 数据写入补丁目录下的临时文件，{@link #commit()} 时校验大小和 MD5，
+ * 通过后原子重命名为正式的加密补丁文件；校验失败或 {@link #abort()} 时删除临时文件。
+ * 整个过程不落地明文，也不需要再读取补丁文件计算哈希或加密。
+ *
+ * 通过 {@link PatchStorage#openPatchWriter(String, String, long)} 创建。
+ */
+public class PatchStreamWriter extends OutputStream {
+
+    private static final String TAG = "PatchStreamWriter";
+    private static final char[] HEX_CHARS = "0123456789abcdef".toCharArray();
+
+    private final PatchStorage storage;
+    private final String patchId;
+    private final File targetFile;
+    private final File tempFile;
+    private final String expectedMd5;
+    private final long expectedSize;
+    private final FileOutputStream fileOut;
+    private final OutputStream out;
+    private final MessageDigest md5;
+    private final MessageDigest sha256;
+
+    private long size;
+    private String md5Hex;
+    private String sha256Hex;
+    private boolean closed;
+
+    /**
+     * @param storage 补丁存储，提交后登记补丁
+     * @param patchId 补丁 ID
+     * @param targetFile 最终的加密补丁文件
+     * @param expectedMd5 期望的 MD5，为空时不校验
+     * @param expectedSize 期望的大小，小于等于 0 时不校验
+     * @param securityManager 安全管理器，为 null 时直接存储明文（API 21-22）
+     */
+    PatchStreamWriter(PatchStorage storage, String patchId, File targetFile, String expectedMd5,
+                      long expectedSize, SecurityManager securityManager) throws IOException {
+        this.storage = storage;
+        this.patchId = patchId;
+        this.targetFile = targetFile;
+        this.tempFile = new File(targetFile.getPath() + ".part");
+        this.expectedMd5 = expectedMd5;
+        this.expectedSize = expectedSize;
+        try {
+            this.md5 = MessageDigest.getInstance("MD5");
+            this.sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("Digest algorithm not available", e);
+        }
+
+        this.fileOut = new FileOutputStream(tempFile);
+        // 关闭前同步到磁盘，保证重命名后的文件内容完整
+        OutputStream syncOut = new FilterOutputStream(fileOut) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    flush();
+                    fileOut.getFD().sync();
+                } finally {
+                    super.close();
+                }
+            }
+        };
+        if (securityManager != null) {
+            try {
+                this.out = securityManager.newEncryptOutputStream(syncOut);
+            } catch (SecurityException e) {
+                closeQuietly(fileOut);
+                tempFile.delete();
+                throw new IOException("Failed to initialize encryption", e);
+            }
+        } else {
+            this.out = syncOut;
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Writer already closed");
+        }
+        md5.update(b, off, len);
+        sha256.update(b, off, len);
+        out.write(b, off, len);
+        size += len;
+    }
+
+    /**
+     * 完成写入：写出最后一段密文，校验大小和 MD5，原子替换正式文件并登记补丁
+     *
+     * @return 加密补丁文件
+     * @throws ChecksumMismatchException 大小或 MD5 不一致
+     * @throws IOException 写入失败
+     */
+    public File commit() throws IOException {
+        if (closed) {
+            throw new IOException("Writer already closed");
+        }
+        closed = true;
+
+        try {
+            // 关闭时写出最后一段密文并同步
+            out.close();
+        } catch (IOException e) {
+            closeQuietly(fileOut);
+            tempFile.delete();
+            throw e;
+        }
+
+        md5Hex = toHex(md5.digest());
+        sha256Hex = toHex(sha256.digest());
+
+        if (expectedSize > 0 && size != expectedSize) {
+            tempFile.delete();
+            throw new ChecksumMismatchException("Size mismatch, expected: " + expectedSize + ", actual: " + size);
+        }
+        if (expectedMd5 != null && !expectedMd5.isEmpty() && !expectedMd5.equalsIgnoreCase(md5Hex)) {
+            tempFile.delete();
+            throw new ChecksumMismatchException("MD5 mismatch, expected: " + expectedMd5 + ", actual: " + md5Hex);
+        }
+
+        if (!tempFile.renameTo(targetFile)) {
+            tempFile.delete();
+            throw new IOException("Failed to commit patch file: " + targetFile.getName());
+        }
+
+        storage.onPatchFileCommitted(patchId, sha256Hex);
+        Log.d(TAG, "Patch committed: " + patchId + ", size: " + size);
+        return targetFile;
+    }
+
+    /**
+     * 放弃写入并删除临时文件，可重复调用
+     */
+    public void abort() {
+        if (!closed) {
+            closed = true;
+            closeQuietly(fileOut);
+        }
+        if (tempFile.exists()) {
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * 未提交时关闭等同于 {@link #abort()}
+     */
+    @Override
+    public void close() {
+        abort();
+    }
+
+    /**
+     * 已写入的明文字节数
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * 明文 MD5，提交后可用
+     */
+    public String getMd5() {
+        return md5Hex;
+    }
+
+    /**
+     * 明文 SHA-256，提交后可用
+     */
+    public String getSha256() {
+        return sha256Hex;
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int v = bytes[i] & 0xFF;
+            hex[i * 2] = HEX_CHARS[v >>> 4];
+            hex[i * 2 + 1] = HEX_CHARS[v & 0x0F];
+        }
+        return new String(hex);
+    }
+
+    private static void closeQuietly(OutputStream stream) {
+        try {
+            stream.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Error closing stream", e);
+        }
+    }
+
+    /**
+     * 补丁大小或 MD5 校验失败
+     */
+    public static class ChecksumMismatchException extends IOException {
+        public ChecksumMismatchException(String message) {
+            super(message);
+        }
+    }
+}
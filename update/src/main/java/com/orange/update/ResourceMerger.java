@@ -8,8 +8,11 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
 import java.util.Enumeration;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
 import java.util.Set;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
@@ -24,11 +27,71 @@ import java.util.zip.ZipOutputStream;
  * - 补丁包只包含差异资源
  * - 客户端将原始资源和补丁资源合并成完整资源包
  * - 加载完整资源包，而不是增量补丁
+ * 
+ * 合并时原样复制压缩数据（{@link ZipRawCopier}），不解压再压缩；
+ * 不支持的 ZIP 格式回退到 ZipOutputStream 流式合并。
+ * 
+ * Android 11+ 使用 ResourcesLoader 叠加加载（见 {@link ResourcePatcher}），只需生成资源叠加包：
+ * 补丁的 resources.arsc、res/、assets/ 加上原始 APK 中补丁未包含的 res/ 文件
+ * （补丁的 resources.arsc 是完整资源表，文件型资源必须能在叠加包内找到），
+ * 不再复制 assets/、dex、so 等其他内容。
  */
 public class ResourceMerger {
     
     private static final String TAG = "ResourceMerger";
     
+    // 资源文件名（按加载策略）
+    private static final String MERGED_FILE_NAME = "merged_resources.apk";
+    private static final String OVERLAY_FILE_NAME = "resource_overlay.apk";
+    private static final String RES_DIR_PREFIX = "res/";
+    
+    // 合并结果清单
+    private static final String MANIFEST_SUFFIX = ".manifest";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String MANIFEST_VERSION = "1";
+    private static final String KEY_VERSION = "version";
+    private static final String KEY_BASE_APK = "base_apk";
+    private static final String KEY_BASE_APK_SIZE = "base_apk_size";
+    private static final String KEY_BASE_APK_TIME = "base_apk_time";
+    private static final String KEY_PATCH_HASH = "patch_hash";
+    private static final String KEY_MERGED_SIZE = "merged_size";
+    private static final String KEY_MODE = "mode";
+    private static final String MODE_MERGE = "merge";
+    private static final String MODE_OVERLAY = "overlay";
+    
+    /**
+     * 获取当前加载策略使用的资源文件
+     * 
+     * @param appliedDir 已应用补丁目录
+     * @return Android 11+ 为资源叠加包，其他版本为合并后的完整资源包
+     */
+    public static File getResourceFile(File appliedDir) {
+        return new File(appliedDir, ResourcePatcher.isOverlaySupported() ? OVERLAY_FILE_NAME : MERGED_FILE_NAME);
+    }
+    
+    /**
+     * 按当前加载策略生成资源文件（叠加包或完整资源包），并写入清单
+     * 
+     * @param context 应用上下文
+     * @param patchFile 补丁文件（包含差异资源）
+     * @param outputFile 输出文件，由 {@link #getResourceFile(File)} 获取
+     * @param patchHash 补丁哈希（applied_patch_hash）
+     * @return 是否成功
+     */
+    public static boolean prepareResources(Context context, File patchFile, File outputFile, String patchHash) {
+        return publish(context, patchFile, outputFile, patchHash, ResourcePatcher.isOverlaySupported());
+    }
+    
+    /**
+     * 删除所有策略生成的资源文件及其清单
+     * 
+     * @param appliedDir 已应用补丁目录
+     */
+    public static void deleteResourceFiles(File appliedDir) {
+        deleteMergedResources(new File(appliedDir, MERGED_FILE_NAME));
+        deleteMergedResources(new File(appliedDir, OVERLAY_FILE_NAME));
+    }
+    
     /**
      * 合并原始 APK 和补丁资源，生成完整的资源包
      * 
@@ -38,15 +101,154 @@ public class ResourceMerger {
      * @return 是否成功
      */
     public static boolean mergeResources(Context context, File patchFile, File outputFile) {
-        // 始终使用真正的原始 APK，而不是之前生成的 merged_resources.apk
-        // 这样可以避免在第二次应用补丁时，同时读写同一个文件导致的 SIGBUS 崩溃
+        return mergeResources(context, patchFile, outputFile, null);
+    }
+    
+    /**
+     * 合并原始 APK 和补丁资源，生成完整的资源包，并写入清单
+     * 
+     * 先写入临时文件并 fsync，再原子重命名为输出文件，最后写入清单。
+     * 清单记录原始 APK 和补丁哈希，启动时通过 {@link #isMergedResourcesReady} 判断能否直接使用。
+     * 重命名不会改动正在被 AssetManager 映射的旧文件。
+     * 
+     * @param context 应用上下文
+     * @param patchFile 补丁文件（包含差异资源）
+     * @param outputFile 输出文件（完整资源包）
+     * @param patchHash 补丁哈希（applied_patch_hash），为 null 时清单不会被视为就绪
+     * @return 是否成功
+     */
+    public static boolean mergeResources(Context context, File patchFile, File outputFile, String patchHash) {
+        return publish(context, patchFile, outputFile, patchHash, false);
+    }
+    
+    private static boolean publish(Context context, File patchFile, File outputFile, String patchHash,
+            boolean overlay) {
         String originalApkPath = context.getApplicationInfo().sourceDir;
+        File tempFile = new File(outputFile.getPath() + TEMP_SUFFIX);
+        File manifestFile = getManifestFile(outputFile);
+        
+        // 先让旧清单失效，中途中断时不会误用不完整的结果
+        manifestFile.delete();
+        
+        if (!mergeTo(originalApkPath, patchFile, tempFile, overlay)) {
+            return false;
+        }
+        
+        try {
+            syncFile(tempFile);
+            if (!tempFile.renameTo(outputFile)) {
+                throw new IOException("Failed to rename " + tempFile.getName());
+            }
+            writeManifest(manifestFile, originalApkPath, patchHash, outputFile.length(), overlay);
+            Log.i(TAG, (overlay ? "Resource overlay built" : "Resources merged")
+                + " successfully, size: " + outputFile.length());
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to publish merged resources", e);
+            tempFile.delete();
+            return false;
+        }
+    }
+    
+    /**
+     * 检查资源文件（完整资源包或叠加包）是否就绪（清单与当前原始 APK 和补丁一致）
+     * 
+     * @param context 应用上下文
+     * @param outputFile 资源文件
+     * @param patchHash 补丁哈希（applied_patch_hash）
+     * @return 就绪返回 true
+     */
+    public static boolean isMergedResourcesReady(Context context, File outputFile, String patchHash) {
+        File manifestFile = getManifestFile(outputFile);
+        if (patchHash == null || !manifestFile.isFile() || !outputFile.isFile()) {
+            return false;
+        }
+        
+        Properties manifest = new Properties();
+        try (FileInputStream fis = new FileInputStream(manifestFile)) {
+            manifest.load(fis);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read merge manifest: " + e.getMessage());
+            return false;
+        }
         
+        File originalApk = new File(context.getApplicationInfo().sourceDir);
+        return MANIFEST_VERSION.equals(manifest.getProperty(KEY_VERSION))
+            && originalApk.getPath().equals(manifest.getProperty(KEY_BASE_APK))
+            && String.valueOf(originalApk.length()).equals(manifest.getProperty(KEY_BASE_APK_SIZE))
+            && String.valueOf(originalApk.lastModified()).equals(manifest.getProperty(KEY_BASE_APK_TIME))
+            && patchHash.equals(manifest.getProperty(KEY_PATCH_HASH))
+            && String.valueOf(outputFile.length()).equals(manifest.getProperty(KEY_MERGED_SIZE));
+    }
+    
+    /**
+     * 删除资源文件及其清单
+     */
+    public static void deleteMergedResources(File outputFile) {
+        getManifestFile(outputFile).delete();
+        new File(outputFile.getPath() + TEMP_SUFFIX).delete();
+        outputFile.delete();
+    }
+    
+    private static File getManifestFile(File outputFile) {
+        return new File(outputFile.getPath() + MANIFEST_SUFFIX);
+    }
+    
+    private static void writeManifest(File manifestFile, String originalApkPath, String patchHash,
+            long mergedSize, boolean overlay) throws IOException {
+        File originalApk = new File(originalApkPath);
+        Properties manifest = new Properties();
+        manifest.setProperty(KEY_VERSION, MANIFEST_VERSION);
+        manifest.setProperty(KEY_BASE_APK, originalApk.getPath());
+        manifest.setProperty(KEY_BASE_APK_SIZE, String.valueOf(originalApk.length()));
+        manifest.setProperty(KEY_BASE_APK_TIME, String.valueOf(originalApk.lastModified()));
+        manifest.setProperty(KEY_MERGED_SIZE, String.valueOf(mergedSize));
+        manifest.setProperty(KEY_MODE, overlay ? MODE_OVERLAY : MODE_MERGE);
+        if (patchHash != null) {
+            manifest.setProperty(KEY_PATCH_HASH, patchHash);
+        }
+        
+        File tempFile = new File(manifestFile.getPath() + TEMP_SUFFIX);
+        try (FileOutputStream fos = new FileOutputStream(tempFile)) {
+            manifest.store(fos, null);
+            fos.getFD().sync();
+        }
+        if (!tempFile.renameTo(manifestFile)) {
+            tempFile.delete();
+            throw new IOException("Failed to rename " + tempFile.getName());
+        }
+    }
+    
+    private static void syncFile(File file) throws IOException {
+        try (FileOutputStream fos = new FileOutputStream(file, true)) {
+            fos.getFD().sync();
+        }
+    }
+    
+    /**
+     * 合并资源到指定文件
+     * 
+     * @param overlay 是否只生成叠加包（原始 APK 只取 res/ 条目）
+     */
+    private static boolean mergeTo(String originalApkPath, File patchFile, File outputFile, boolean overlay) {
+        // 始终使用真正的原始 APK，而不是之前生成的 merged_resources.apk
+        // 这样可以避免在第二次应用补丁时，同时读写同一个文件导致的 SIGBUS 崩溃
         Log.d(TAG, "Merging resources:");
         Log.d(TAG, "  Original APK: " + originalApkPath);
         Log.d(TAG, "  Patch file: " + patchFile.getAbsolutePath());
         Log.d(TAG, "  Output file: " + outputFile.getAbsolutePath());
         
+        try {
+            mergeRaw(new File(originalApkPath), patchFile, outputFile, overlay);
+            Log.d(TAG, "Resources merged by raw copy, size: " + outputFile.length());
+            return true;
+        } catch (Exception e) {
+            Log.w(TAG, "Raw copy merge failed, falling back to stream merge: " + e.getMessage());
+            if (outputFile.exists()) {
+                outputFile.delete();
+            }
+        }
+        
         try {
             // 1. 收集补丁中的资源文件名
             Set<String> patchEntries = collectPatchEntries(patchFile);
@@ -59,10 +261,10 @@ public class ResourceMerger {
                 writePatchEntries(patchFile, zos, patchEntries);
                 
                 // 4. 再写入原始 APK 中的资源（补丁中没有的）
-                writeOriginalEntries(originalApkPath, zos, patchEntries);
+                writeOriginalEntries(originalApkPath, zos, patchEntries, overlay);
             }
             
-            Log.i(TAG, "Resources merged successfully, size: " + outputFile.length());
+            Log.d(TAG, "Resources merged by stream, size: " + outputFile.length());
             return true;
             
         } catch (Exception e) {
@@ -74,6 +276,55 @@ public class ResourceMerger {
         }
     }
     
+    /**
+     * 原样复制条目合并资源
+     * 
+     * 压缩数据、CRC 和大小直接从原始 APK 和补丁复制，不解压再压缩；
+     * resources.arsc 强制 STORED 并 4 字节对齐。
+     * ZIP64 等不支持的格式抛出异常，由调用方回退到流式合并。
+     */
+    private static void mergeRaw(File originalApk, File patchFile, File outputFile, boolean overlay)
+            throws IOException {
+        try (FileInputStream patchStream = new FileInputStream(patchFile);
+             FileInputStream apkStream = new FileInputStream(originalApk);
+             ZipRawCopier copier = new ZipRawCopier(outputFile)) {
+            
+            FileChannel patchChannel = patchStream.getChannel();
+            FileChannel apkChannel = apkStream.getChannel();
+            List<ZipRawCopier.Entry> patchEntries = ZipRawCopier.readEntries(patchChannel);
+            List<ZipRawCopier.Entry> apkEntries = ZipRawCopier.readEntries(apkChannel);
+            
+            // 先写入补丁中的资源（优先级更高）
+            Set<String> written = new HashSet<>();
+            for (ZipRawCopier.Entry entry : patchEntries) {
+                if (isResourceEntry(entry.name) && written.add(entry.name)) {
+                    copyEntry(copier, patchChannel, patchFile, entry);
+                }
+            }
+            Log.d(TAG, "Patch contains " + written.size() + " entries");
+            
+            // 再写入原始 APK 中的资源（补丁中没有的）
+            for (ZipRawCopier.Entry entry : apkEntries) {
+                if (isOriginalEntryNeeded(entry.name, overlay) && written.add(entry.name)) {
+                    copyEntry(copier, apkChannel, originalApk, entry);
+                }
+            }
+            
+            copier.finish();
+        }
+    }
+    
+    private static void copyEntry(ZipRawCopier copier, FileChannel source, File sourceFile,
+            ZipRawCopier.Entry entry) throws IOException {
+        // resources.arsc 必须使用 STORED 方式（不压缩）
+        if (entry.name.equals("resources.arsc")) {
+            copier.copyAsStored(source, sourceFile, entry);
+            Log.d(TAG, "  Written resources.arsc as STORED, size: " + entry.size);
+        } else {
+            copier.copyRaw(source, entry);
+        }
+    }
+    
     /**
      * 收集补丁中的资源条目名称
      */
@@ -123,7 +374,7 @@ public class ResourceMerger {
      * 写入原始 APK 中的资源条目（排除补丁中已有的）
      */
     private static void writeOriginalEntries(String apkPath, ZipOutputStream zos, 
-            Set<String> patchEntries) throws IOException {
+            Set<String> patchEntries, boolean overlay) throws IOException {
         
         try (ZipFile zipFile = new ZipFile(apkPath)) {
             Enumeration<? extends ZipEntry> entries = zipFile.entries();
@@ -133,7 +384,7 @@ public class ResourceMerger {
                 String name = entry.getName();
                 
                 // 只写入资源相关的条目，且补丁中没有的
-                if (isResourceEntry(name) && !patchEntries.contains(name)) {
+                if (isOriginalEntryNeeded(name, overlay) && !patchEntries.contains(name)) {
                     writeEntry(zipFile, entry, zos);
                 }
             }
@@ -203,6 +454,18 @@ public class ResourceMerger {
         zos.closeEntry();
     }
     
+    /**
+     * 判断原始 APK 中的条目是否需要写入
+     * 
+     * 叠加包只需要 res/ 文件型资源，assets/ 等其他内容仍从原始 APK 加载
+     */
+    private static boolean isOriginalEntryNeeded(String name, boolean overlay) {
+        if (overlay) {
+            return name.startsWith(RES_DIR_PREFIX);
+        }
+        return isResourceEntry(name);
+    }
+    
     /**
      * 判断是否是资源相关的条目
      * 
@@ -5,7 +5,10 @@ import android.app.Application;
 import android.content.Context;
 import android.content.res.AssetManager;
 import android.content.res.Resources;
+import android.content.res.loader.ResourcesLoader;
+import android.content.res.loader.ResourcesProvider;
 import android.os.Build;
+import android.os.ParcelFileDescriptor;
 import android.util.ArrayMap;
 import android.util.Log;
 
@@ -29,7 +32,8 @@ import androidx.annotation.RequiresApi;
  * 兼容性：
  * - API 21-23: 标准 AssetManager 替换
  * - API 24-27: 需要处理 ResourcesImpl
- * - API 28+: 需要处理 ResourcesManager 缓存
+ * - API 28-29: 需要处理 ResourcesManager 缓存
+ * - API 30+: 使用公开的 ResourcesLoader 叠加资源叠加包（ResourceMerger 生成），不替换 AssetManager
  */
 public class ResourcePatcher {
     
@@ -47,6 +51,10 @@ public class ResourcePatcher {
     private static final String METHOD_ADD_ASSET_PATH = "addAssetPath";
     private static final String METHOD_ENSURE_STRING_BLOCKS = "ensureStringBlocks";
     
+    // 已添加的资源叠加（API 30+），避免重复添加
+    private static Object sOverlayLoader;
+    private static String sOverlayPath;
+    
     /**
      * 加载补丁资源
      * 
@@ -73,8 +81,11 @@ public class ResourcePatcher {
             int sdkVersion = Build.VERSION.SDK_INT;
             Log.d(TAG, "Loading patch resources, SDK version: " + sdkVersion);
             
-            if (sdkVersion >= Build.VERSION_CODES.P) {
-                // Android 9.0+ (API 28+)
+            if (isOverlaySupported()) {
+                // Android 11+ (API 30+)
+                loadPatchResourcesOverlay(context, patchResourcePath);
+            } else if (sdkVersion >= Build.VERSION_CODES.P) {
+                // Android 9.0-10 (API 28-29)
                 loadPatchResourcesForP(context, patchResourcePath);
             } else if (sdkVersion >= Build.VERSION_CODES.N) {
                 // Android 7.0+ (API 24+)
@@ -219,6 +230,40 @@ public class ResourcePatcher {
         Log.d(TAG, "Patch resources loaded (Android P+ method)");
     }
     
+    /**
+     * Android 11+ 资源加载方案 (API 30+)
+     * 
+     * 通过 ResourcesLoader 把资源叠加包叠加在原始 APK 之上，叠加包中的资源优先，
+     * 其余资源和 assets 仍从原始 APK 加载。
+     * 加载器添加到 Application 的 Resources，之后创建的 Activity 会继承 Application 的加载器。
+     */
+    @RequiresApi(Build.VERSION_CODES.R)
+    private static void loadPatchResourcesOverlay(Context context, String overlayPath) throws Exception {
+        Resources resources = context.getResources();
+        if (overlayPath.equals(sOverlayPath) && sOverlayLoader != null
+                && resources.getLoaders().contains(sOverlayLoader)) {
+            Log.d(TAG, "Resource overlay already loaded: " + overlayPath);
+            return;
+        }
+        
+        ResourcesLoader loader = new ResourcesLoader();
+        // ResourcesProvider 会复制文件描述符，这里可以立即关闭
+        try (ParcelFileDescriptor pfd = ParcelFileDescriptor.open(
+                new File(overlayPath), ParcelFileDescriptor.MODE_READ_ONLY)) {
+            loader.addProvider(ResourcesProvider.loadFromApk(pfd));
+        }
+        
+        // 替换之前添加的叠加（重新应用补丁时）
+        if (sOverlayLoader != null) {
+            resources.removeLoaders((ResourcesLoader) sOverlayLoader);
+        }
+        resources.addLoaders(loader);
+        sOverlayLoader = loader;
+        sOverlayPath = overlayPath;
+        
+        Log.d(TAG, "Patch resources loaded (ResourcesLoader overlay)");
+    }
+    
     /**
      * 替换所有 Resources 中的 AssetManager (Android 10+ 专用)
      * 
@@ -839,8 +884,19 @@ public class ResourcePatcher {
      */
     public static boolean isSupported() {
         int sdkVersion = Build.VERSION.SDK_INT;
-        // 支持 Android 5.0 (API 21) 到 Android 14 (API 34)
-        return sdkVersion >= Build.VERSION_CODES.LOLLIPOP && sdkVersion <= 34;
+        // 支持 Android 5.0 (API 21) 到 Android 14 (API 34)，Android 11+ 的叠加方案只使用公开 API
+        return sdkVersion >= Build.VERSION_CODES.LOLLIPOP && (sdkVersion <= 34 || isOverlaySupported());
+    }
+    
+    /**
+     * 当前版本是否使用 ResourcesLoader 叠加方案（Android 11+）
+     * 
+     * 叠加方案加载的是资源叠加包而不是完整资源包，见 {@link ResourceMerger#getResourceFile(File)}
+     * 
+     * @return 是否使用叠加方案
+     */
+    public static boolean isOverlaySupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.R;
     }
     
     /**
@@ -857,10 +913,10 @@ public class ResourcePatcher {
             return "FULL: Standard AssetManager replacement (Android 5.0-6.0)";
         } else if (sdkVersion <= Build.VERSION_CODES.O_MR1) {
             return "FULL: ResourcesImpl support (Android 7.0-8.1)";
-        } else if (sdkVersion <= 34) {
-            return "LIMITED: ResourcesManager cache handling (Android 9.0+)";
+        } else if (!isOverlaySupported()) {
+            return "LIMITED: ResourcesManager cache handling (Android 9.0-10)";
         } else {
-            return "UNKNOWN: Untested Android version (> 14)";
+            return "FULL: ResourcesLoader overlay (Android 11+)";
         }
     }
     
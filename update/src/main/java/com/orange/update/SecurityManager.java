@@ -9,11 +9,17 @@ import android.util.Log;
 
 import androidx.annotation.RequiresApi;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
 import java.io.RandomAccessFile;
+import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.KeyFactory;
@@ -30,13 +36,11 @@ import java.security.cert.CertificateException;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.X509EncodedKeySpec;
 
-import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
-import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.KeyGenerator;
-import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
 
 /**
  * 安全管理器，负责补丁的加密、解密和签名验证。
@@ -65,6 +69,14 @@ public class SecurityManager {
     private static final int GCM_IV_LENGTH = 12;  // 12 bytes for GCM IV
     private static final int GCM_TAG_LENGTH = 128; // 128 bits for GCM auth tag
     private static final int AES_KEY_SIZE = 256;   // 256 bits for AES key
+    private static final int GCM_TAG_BYTES = GCM_TAG_LENGTH / 8;
+    
+    // 分段加密格式（v2）
+    private static final byte[] ENC_MAGIC = {'O', 'H', 'P', 'E'};
+    private static final byte ENC_FORMAT_VERSION = 2;
+    private static final int ENC_HEADER_LENGTH = 9;               // magic(4) + version(1) + chunk_size(4)
+    private static final int ENC_CHUNK_SIZE = 256 * 1024;         // 每段明文 256KB
+    private static final int ENC_MAX_CHUNK_SIZE = 16 * 1024 * 1024;
     
     // 安全删除覆写次数
     private static final int SECURE_DELETE_PASSES = 3;
@@ -255,13 +267,75 @@ public class SecurityManager {
             return false;
         }
     }
+    
+    /**
+     * 生成软件 AES-256 数据密钥
+     * 
+     * 用于需要在进程内快速解密的大文件：数据密钥经 {@link #wrapDataKey(SecretKey)} 用 KeyStore 密钥包装后保存，
+     * 使用时只需一次 KeyStore 操作解开，正文的加解密不经过 KeyStore。
+     * 
+     * @return 数据密钥
+     * @throws SecurityException 如果生成失败
+     */
+    public static SecretKey generateDataKey() {
+        try {
+            KeyGenerator keyGenerator = KeyGenerator.getInstance(KEY_ALGORITHM_AES);
+            keyGenerator.init(AES_KEY_SIZE, new SecureRandom());
+            return keyGenerator.generateKey();
+        } catch (NoSuchAlgorithmException e) {
+            Log.e(TAG, "Failed to generate data key", e);
+            throw new SecurityException("Failed to generate data key: " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * 用 KeyStore 密钥包装数据密钥
+     * 
+     * @param dataKey {@link #generateDataKey()} 生成的数据密钥
+     * @return 包装后的密钥（v2 格式密文）
+     * @throws SecurityException 如果加密失败
+     */
+    @RequiresApi(api = Build.VERSION_CODES.M)
+    public byte[] wrapDataKey(SecretKey dataKey) {
+        if (dataKey == null) {
+            throw new IllegalArgumentException("Data key cannot be null");
+        }
+        return encrypt(dataKey.getEncoded());
+    }
+    
+    /**
+     * 用 KeyStore 密钥解开数据密钥
+     * 
+     * @param wrappedKey {@link #wrapDataKey(SecretKey)} 的结果
+     * @return 数据密钥
+     * @throws SecurityException 如果解密失败或密钥无效
+     */
+    @RequiresApi(api = Build.VERSION_CODES.M)
+    public SecretKey unwrapDataKey(byte[] wrappedKey) {
+        byte[] keyBytes = decrypt(wrappedKey);
+        if (keyBytes.length != AES_KEY_SIZE / 8) {
+            throw new SecurityException("Invalid data key length: " + keyBytes.length);
+        }
+        return new SecretKeySpec(keyBytes, KEY_ALGORITHM_AES);
+    }
 
     
     // ==================== AES-256-GCM 加密/解密 ====================
     
+    /*
+     * 加密文件格式（v2，分段 AES-GCM）：
+     *   [magic "OHPE"(4)] [version(1)] [chunk_size(4, big-endian)]
+     *   { [IV(12)] [ciphertext(<= chunk_size)] [auth_tag(16)] } * N
+     * 
+     * 每段独立加密和认证，附加数据（AAD）为 header + 段序号(8) + 是否最后一段(1)，
+     * 段被调换、删除或文件被截断时认证失败。加解密只需一个段大小的缓冲区，内存占用与文件大小无关。
+     * 
+     * 旧格式（v1）：[IV(12)] + [encrypted_data] + [auth_tag(16)]，解密时自动识别，仍需整体读入内存。
+     */
+    
     /**
      * 加密补丁文件（使用密码）
-     * 使用 PBKDF2 从密码派生密钥，然后使用 AES-256-GCM 加密
+     * 使用 PBKDF2 从密码派生密钥，然后使用 AES-256-GCM 分段加密
      * 
      * @param patchFile 原始补丁文件
      * @param password 加密密码
@@ -279,46 +353,13 @@ public class SecurityManager {
         }
         
         File encryptedFile = new File(patchFile.getPath() + ".enc");
-        
-        try {
-            // 从密码派生密钥
-            SecretKey key = deriveKeyFromPassword(password);
-            
-            // 初始化加密器（不提供 IV，让 Cipher 自动生成）
-            Cipher cipher = Cipher.getInstance(ENCRYPTION_ALGORITHM);
-            cipher.init(Cipher.ENCRYPT_MODE, key);
-            
-            // 读取原始文件
-            byte[] plainData = readFileBytes(patchFile);
-            
-            // 加密数据
-            byte[] encryptedData = cipher.doFinal(plainData);
-            
-            // 获取 Cipher 自动生成的 IV
-            byte[] iv = cipher.getIV();
-            
-            // 写入加密文件：IV + 加密数据（包含 auth tag）
-            try (FileOutputStream fos = new FileOutputStream(encryptedFile)) {
-                fos.write(iv);
-                fos.write(encryptedData);
-            }
-            
-            return encryptedFile;
-            
-        } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException |
-                 IllegalBlockSizeException | BadPaddingException | IOException e) {
-            Log.e(TAG, "Failed to encrypt patch file with password", e);
-            // 清理失败的加密文件
-            if (encryptedFile.exists()) {
-                encryptedFile.delete();
-            }
-            throw new SecurityException("Failed to encrypt patch file: " + e.getMessage(), e);
-        }
+        encryptFile(deriveKeyFromPassword(password), patchFile, encryptedFile);
+        return encryptedFile;
     }
     
     /**
      * 解密补丁文件（使用密码）
-     * 使用 PBKDF2 从密码派生密钥，然后使用 AES-256-GCM 解密
+     * 使用 PBKDF2 从密码派生密钥，然后使用 AES-256-GCM 解密，支持 v1 和 v2 格式
      * 
      * @param encryptedFile 加密的补丁文件
      * @param password 解密密码
@@ -335,59 +376,9 @@ public class SecurityManager {
             throw new IllegalArgumentException("Password cannot be null or empty");
         }
         
-        // 生成解密后的文件路径（移除 .enc 扩展名）
-        String decryptedPath = encryptedFile.getPath();
-        if (decryptedPath.endsWith(".enc")) {
-            decryptedPath = decryptedPath.substring(0, decryptedPath.length() - 4);
-        } else {
-            decryptedPath = decryptedPath + ".dec";
-        }
-        File decryptedFile = new File(decryptedPath);
-        
-        try {
-            // 从密码派生密钥
-            SecretKey key = deriveKeyFromPassword(password);
-            
-            // 读取加密文件
-            byte[] encryptedContent = readFileBytes(encryptedFile);
-            
-            if (encryptedContent.length < GCM_IV_LENGTH) {
-                throw new SecurityException("Invalid encrypted file: too short");
-            }
-            
-            // 提取 IV
-            byte[] iv = new byte[GCM_IV_LENGTH];
-            System.arraycopy(encryptedContent, 0, iv, 0, GCM_IV_LENGTH);
-            
-            // 提取加密数据
-            byte[] encryptedData = new byte[encryptedContent.length - GCM_IV_LENGTH];
-            System.arraycopy(encryptedContent, GCM_IV_LENGTH, encryptedData, 0, encryptedData.length);
-            
-            // 初始化解密器
-            Cipher cipher = Cipher.getInstance(ENCRYPTION_ALGORITHM);
-            GCMParameterSpec spec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
-            cipher.init(Cipher.DECRYPT_MODE, key, spec);
-            
-            // 解密数据
-            byte[] decryptedData = cipher.doFinal(encryptedData);
-            
-            // 写入解密文件
-            try (FileOutputStream fos = new FileOutputStream(decryptedFile)) {
-                fos.write(decryptedData);
-            }
-            
-            return decryptedFile;
-            
-        } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException |
-                 InvalidAlgorithmParameterException | IllegalBlockSizeException | 
-                 BadPaddingException | IOException e) {
-            Log.e(TAG, "Failed to decrypt patch file with password", e);
-            // 清理失败的解密文件
-            if (decryptedFile.exists()) {
-                decryptedFile.delete();
-            }
-            throw new SecurityException("Failed to decrypt patch file: " + e.getMessage(), e);
-        }
+        File decryptedFile = getDecryptedFile(encryptedFile);
+        decryptFile(deriveKeyFromPassword(password), encryptedFile, decryptedFile);
+        return decryptedFile;
     }
     
     /**
@@ -425,7 +416,7 @@ public class SecurityManager {
     
     /**
      * 加密补丁文件
-     * 使用 AES-256-GCM 加密，输出格式：[IV(12 bytes)] + [encrypted_data] + [auth_tag(16 bytes)]
+     * 使用 AES-256-GCM 分段加密（v2 格式），内存占用与文件大小无关
      * 
      * @param patchFile 原始补丁文件
      * @return 加密后的文件（.enc 扩展名）
@@ -433,52 +424,76 @@ public class SecurityManager {
      */
     @RequiresApi(api = Build.VERSION_CODES.M)
     public File encryptPatch(File patchFile) {
+        File encryptedFile = new File(patchFile != null ? patchFile.getPath() + ".enc" : "");
+        return encryptPatch(patchFile, encryptedFile);
+    }
+    
+    /**
+     * 加密补丁文件到指定文件
+     * 
+     * @param patchFile 原始补丁文件
+     * @param encryptedFile 输出的加密文件
+     * @return 加密后的文件
+     * @throws SecurityException 如果加密失败
+     */
+    @RequiresApi(api = Build.VERSION_CODES.M)
+    public File encryptPatch(File patchFile, File encryptedFile) {
         if (patchFile == null || !patchFile.exists()) {
             throw new IllegalArgumentException("Patch file does not exist");
         }
         
-        File encryptedFile = new File(patchFile.getPath() + ".enc");
+        encryptFile(getOrCreateEncryptionKey(), patchFile, encryptedFile);
+        return encryptedFile;
+    }
+    
+    /**
+     * 流式加密（v2 格式）
+     * 
+     * @param in 原始数据输入流（调用方负责关闭）
+     * @param out 加密数据输出流（调用方负责关闭）
+     * @throws SecurityException 如果加密失败
+     */
+    @RequiresApi(api = Build.VERSION_CODES.M)
+    public void encrypt(InputStream in, OutputStream out) {
+        if (in == null || out == null) {
+            throw new IllegalArgumentException("Streams cannot be null");
+        }
         
         try {
-            // 获取加密密钥
-            SecretKey key = getOrCreateEncryptionKey();
-            
-            // 初始化加密器（不提供 IV，让 Cipher 自动生成）
-            Cipher cipher = Cipher.getInstance(ENCRYPTION_ALGORITHM);
-            cipher.init(Cipher.ENCRYPT_MODE, key);
-            
-            // 读取原始文件
-            byte[] plainData = readFileBytes(patchFile);
-            
-            // 加密数据
-            byte[] encryptedData = cipher.doFinal(plainData);
-            
-            // 获取 Cipher 自动生成的 IV
-            byte[] iv = cipher.getIV();
-            
-            // 写入加密文件：IV + 加密数据（包含 auth tag）
-            try (FileOutputStream fos = new FileOutputStream(encryptedFile)) {
-                fos.write(iv);
-                fos.write(encryptedData);
-            }
-            
-            return encryptedFile;
-            
-        } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException |
-                 IllegalBlockSizeException | BadPaddingException | IOException e) {
-            Log.e(TAG, "Failed to encrypt patch file", e);
-            // 清理失败的加密文件
-            if (encryptedFile.exists()) {
-                encryptedFile.delete();
-            }
-            throw new SecurityException("Failed to encrypt patch file: " + e.getMessage(), e);
+            encryptStream(getOrCreateEncryptionKey(), in, out);
+        } catch (GeneralSecurityException | IOException e) {
+            Log.e(TAG, "Failed to encrypt stream", e);
+            throw new SecurityException("Failed to encrypt stream: " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * 创建加密输出流（v2 格式），写入的数据边到达边加密，用于下载等推送式场景
+     * 
+     * 注意：必须调用 close() 才会写出最后一段，未关闭的输出无法解密。
+     * 
+     * @param out 加密数据输出流，关闭返回的流时一并关闭
+     * @return 加密输出流
+     * @throws SecurityException 如果初始化失败
+     */
+    @RequiresApi(api = Build.VERSION_CODES.M)
+    public OutputStream newEncryptOutputStream(OutputStream out) {
+        if (out == null) {
+            throw new IllegalArgumentException("Output stream cannot be null");
+        }
+        
+        try {
+            return new SegmentedEncryptOutputStream(getOrCreateEncryptionKey(), out);
+        } catch (GeneralSecurityException | IOException e) {
+            Log.e(TAG, "Failed to create encrypt stream", e);
+            throw new SecurityException("Failed to create encrypt stream: " + e.getMessage(), e);
         }
     }
     
     /**
      * 加密字节数组
      * @param data 原始数据
-     * @return 加密后的数据（包含 IV）
+     * @return 加密后的数据（v2 格式）
      * @throws SecurityException 如果加密失败
      */
     @RequiresApi(api = Build.VERSION_CODES.M)
@@ -487,37 +502,16 @@ public class SecurityManager {
             throw new IllegalArgumentException("Data cannot be null");
         }
         
-        try {
-            SecretKey key = getOrCreateEncryptionKey();
-            
-            // 初始化加密器（不提供 IV，让 Cipher 自动生成）
-            Cipher cipher = Cipher.getInstance(ENCRYPTION_ALGORITHM);
-            cipher.init(Cipher.ENCRYPT_MODE, key);
-            
-            // 加密数据
-            byte[] encryptedData = cipher.doFinal(data);
-            
-            // 获取 Cipher 自动生成的 IV
-            byte[] iv = cipher.getIV();
-            
-            // 组合 IV + 加密数据
-            byte[] result = new byte[iv.length + encryptedData.length];
-            System.arraycopy(iv, 0, result, 0, iv.length);
-            System.arraycopy(encryptedData, 0, result, iv.length, encryptedData.length);
-            
-            return result;
-            
-        } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException |
-                 IllegalBlockSizeException | BadPaddingException e) {
-            Log.e(TAG, "Failed to encrypt data", e);
-            throw new SecurityException("Failed to encrypt data: " + e.getMessage(), e);
-        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length + ENC_HEADER_LENGTH
+                + (data.length / ENC_CHUNK_SIZE + 1) * (GCM_IV_LENGTH + GCM_TAG_BYTES));
+        encrypt(new ByteArrayInputStream(data), out);
+        return out.toByteArray();
     }
 
     
     /**
      * 解密补丁文件
-     * 输入格式：[IV(12 bytes)] + [encrypted_data] + [auth_tag(16 bytes)]
+     * 支持 v2 分段格式和 v1 格式（[IV(12 bytes)] + [encrypted_data] + [auth_tag(16 bytes)]）
      * 
      * @param encryptedFile 加密的补丁文件
      * @return 解密后的文件
@@ -529,64 +523,53 @@ public class SecurityManager {
             throw new IllegalArgumentException("Encrypted file does not exist");
         }
         
-        // 生成解密后的文件路径（移除 .enc 扩展名）
-        String decryptedPath = encryptedFile.getPath();
-        if (decryptedPath.endsWith(".enc")) {
-            decryptedPath = decryptedPath.substring(0, decryptedPath.length() - 4);
-        } else {
-            decryptedPath = decryptedPath + ".dec";
+        return decryptPatch(encryptedFile, getDecryptedFile(encryptedFile));
+    }
+    
+    /**
+     * 解密补丁文件到指定文件
+     * 
+     * @param encryptedFile 加密的补丁文件
+     * @param decryptedFile 输出的解密文件
+     * @return 解密后的文件
+     * @throws SecurityException 如果解密失败
+     */
+    @RequiresApi(api = Build.VERSION_CODES.M)
+    public File decryptPatch(File encryptedFile, File decryptedFile) {
+        if (encryptedFile == null || !encryptedFile.exists()) {
+            throw new IllegalArgumentException("Encrypted file does not exist");
+        }
+        
+        decryptFile(getOrCreateEncryptionKey(), encryptedFile, decryptedFile);
+        return decryptedFile;
+    }
+    
+    /**
+     * 流式解密，支持 v2 和 v1 格式
+     * 
+     * 注意：v2 格式每段认证通过后即写出，失败时输出流中可能已有部分数据，调用方应丢弃输出。
+     * 
+     * @param in 加密数据输入流（调用方负责关闭）
+     * @param out 解密数据输出流（调用方负责关闭）
+     * @throws SecurityException 如果解密失败
+     */
+    @RequiresApi(api = Build.VERSION_CODES.M)
+    public void decrypt(InputStream in, OutputStream out) {
+        if (in == null || out == null) {
+            throw new IllegalArgumentException("Streams cannot be null");
         }
-        File decryptedFile = new File(decryptedPath);
         
         try {
-            // 获取解密密钥
-            SecretKey key = getOrCreateEncryptionKey();
-            
-            // 读取加密文件
-            byte[] encryptedContent = readFileBytes(encryptedFile);
-            
-            if (encryptedContent.length < GCM_IV_LENGTH) {
-                throw new SecurityException("Invalid encrypted file: too short");
-            }
-            
-            // 提取 IV
-            byte[] iv = new byte[GCM_IV_LENGTH];
-            System.arraycopy(encryptedContent, 0, iv, 0, GCM_IV_LENGTH);
-            
-            // 提取加密数据
-            byte[] encryptedData = new byte[encryptedContent.length - GCM_IV_LENGTH];
-            System.arraycopy(encryptedContent, GCM_IV_LENGTH, encryptedData, 0, encryptedData.length);
-            
-            // 初始化解密器
-            Cipher cipher = Cipher.getInstance(ENCRYPTION_ALGORITHM);
-            GCMParameterSpec spec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
-            cipher.init(Cipher.DECRYPT_MODE, key, spec);
-            
-            // 解密数据
-            byte[] decryptedData = cipher.doFinal(encryptedData);
-            
-            // 写入解密文件
-            try (FileOutputStream fos = new FileOutputStream(decryptedFile)) {
-                fos.write(decryptedData);
-            }
-            
-            return decryptedFile;
-            
-        } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException |
-                 InvalidAlgorithmParameterException | IllegalBlockSizeException | 
-                 BadPaddingException | IOException e) {
-            Log.e(TAG, "Failed to decrypt patch file", e);
-            // 清理失败的解密文件
-            if (decryptedFile.exists()) {
-                decryptedFile.delete();
-            }
-            throw new SecurityException("Failed to decrypt patch file: " + e.getMessage(), e);
+            decryptStream(getOrCreateEncryptionKey(), in, out);
+        } catch (GeneralSecurityException | IOException e) {
+            Log.e(TAG, "Failed to decrypt stream", e);
+            throw new SecurityException("Failed to decrypt stream: " + e.getMessage(), e);
         }
     }
     
     /**
      * 解密字节数组
-     * @param encryptedData 加密的数据（包含 IV）
+     * @param encryptedData 加密的数据（v2 或 v1 格式）
      * @return 解密后的数据
      * @throws SecurityException 如果解密失败
      */
@@ -600,30 +583,331 @@ public class SecurityManager {
             throw new SecurityException("Invalid encrypted data: too short");
         }
         
+        ByteArrayOutputStream out = new ByteArrayOutputStream(encryptedData.length);
+        decrypt(new ByteArrayInputStream(encryptedData), out);
+        return out.toByteArray();
+    }
+    
+    /**
+     * 用数据密钥创建加密输出流（v2 格式），不访问 KeyStore
+     * 
+     * 注意：必须调用 close() 才会写出最后一段，未关闭的输出无法解密。
+     * 
+     * @param dataKey {@link #generateDataKey()} 生成的数据密钥
+     * @param out 加密数据输出流，关闭返回的流时一并关闭
+     * @return 加密输出流
+     * @throws SecurityException 如果初始化失败
+     */
+    public OutputStream newEncryptOutputStream(SecretKey dataKey, OutputStream out) {
+        if (dataKey == null || out == null) {
+            throw new IllegalArgumentException("Key and output stream cannot be null");
+        }
+        
         try {
-            SecretKey key = getOrCreateEncryptionKey();
-            
-            // 提取 IV
-            byte[] iv = new byte[GCM_IV_LENGTH];
-            System.arraycopy(encryptedData, 0, iv, 0, GCM_IV_LENGTH);
-            
-            // 提取加密数据
-            byte[] cipherData = new byte[encryptedData.length - GCM_IV_LENGTH];
-            System.arraycopy(encryptedData, GCM_IV_LENGTH, cipherData, 0, cipherData.length);
+            return new SegmentedEncryptOutputStream(dataKey, out);
+        } catch (GeneralSecurityException | IOException e) {
+            Log.e(TAG, "Failed to create encrypt stream", e);
+            throw new SecurityException("Failed to create encrypt stream: " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * 用数据密钥流式解密（v2 格式），不访问 KeyStore
+     * 
+     * 注意：每段认证通过后即写出，失败时输出流中可能已有部分数据，调用方应丢弃输出。
+     * 
+     * @param dataKey 加密时使用的数据密钥
+     * @param in 加密数据输入流（调用方负责关闭）
+     * @param out 解密数据输出流（调用方负责关闭）
+     * @throws SecurityException 如果解密失败
+     */
+    public void decrypt(SecretKey dataKey, InputStream in, OutputStream out) {
+        if (dataKey == null || in == null || out == null) {
+            throw new IllegalArgumentException("Key and streams cannot be null");
+        }
+        
+        try {
+            decryptStream(dataKey, in, out);
+        } catch (GeneralSecurityException | IOException e) {
+            Log.e(TAG, "Failed to decrypt stream", e);
+            throw new SecurityException("Failed to decrypt stream: " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * 生成解密后的文件路径（移除 .enc 扩展名）
+     */
+    private File getDecryptedFile(File encryptedFile) {
+        String decryptedPath = encryptedFile.getPath();
+        if (decryptedPath.endsWith(".enc")) {
+            decryptedPath = decryptedPath.substring(0, decryptedPath.length() - 4);
+        } else {
+            decryptedPath = decryptedPath + ".dec";
+        }
+        return new File(decryptedPath);
+    }
+    
+    /**
+     * 加密文件，失败时删除输出文件
+     */
+    private void encryptFile(SecretKey key, File source, File target) {
+        try (InputStream in = new FileInputStream(source);
+             FileOutputStream out = new FileOutputStream(target)) {
+            encryptStream(key, in, out);
+            out.getFD().sync();
+        } catch (GeneralSecurityException | IOException e) {
+            Log.e(TAG, "Failed to encrypt patch file", e);
+            // 清理失败的加密文件
+            if (target.exists()) {
+                target.delete();
+            }
+            throw new SecurityException("Failed to encrypt patch file: " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * 解密文件，失败时删除输出文件
+     */
+    private void decryptFile(SecretKey key, File source, File target) {
+        if (source.length() < GCM_IV_LENGTH) {
+            throw new SecurityException("Invalid encrypted file: too short");
+        }
+        
+        try (InputStream in = new FileInputStream(source);
+             FileOutputStream out = new FileOutputStream(target)) {
+            decryptStream(key, in, out);
+            out.getFD().sync();
+        } catch (GeneralSecurityException | IOException e) {
+            Log.e(TAG, "Failed to decrypt patch file", e);
+            // 清理失败的解密文件
+            if (target.exists()) {
+                target.delete();
+            }
+            throw new SecurityException("Failed to decrypt patch file: " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * 分段加密：从输入流读取并写入加密输出流
+     */
+    private void encryptStream(SecretKey key, InputStream in, OutputStream out)
+            throws GeneralSecurityException, IOException {
+        SegmentedEncryptOutputStream encryptOut = new SegmentedEncryptOutputStream(key, out);
+        byte[] buffer = new byte[8192];
+        int len;
+        while ((len = in.read(buffer)) != -1) {
+            encryptOut.write(buffer, 0, len);
+        }
+        encryptOut.finish();
+    }
+    
+    /**
+     * 分段解密，非 v2 格式回退到 v1 整体解密
+     */
+    private void decryptStream(SecretKey key, InputStream in, OutputStream out)
+            throws GeneralSecurityException, IOException {
+        PushbackInputStream input = new PushbackInputStream(in, ENC_HEADER_LENGTH);
+        byte[] header = new byte[ENC_HEADER_LENGTH];
+        int headerLength = readFully(input, header, 0, header.length);
+        if (headerLength < ENC_HEADER_LENGTH || !isSegmentedHeader(header)) {
+            input.unread(header, 0, headerLength);
+            decryptLegacyStream(key, input, out);
+            return;
+        }
+        
+        int chunkSize = readInt(header, 5);
+        if (chunkSize <= 0 || chunkSize > ENC_MAX_CHUNK_SIZE) {
+            throw new IOException("Invalid chunk size: " + chunkSize);
+        }
+        
+        byte[] record = new byte[GCM_IV_LENGTH + chunkSize + GCM_TAG_BYTES];
+        byte[] plain = new byte[chunkSize];
+        Cipher cipher = Cipher.getInstance(ENCRYPTION_ALGORITHM);
+        
+        long index = 0;
+        boolean last;
+        do {
+            int length = readFully(input, record, 0, record.length);
+            if (length < GCM_IV_LENGTH + GCM_TAG_BYTES) {
+                throw new IOException("Truncated encrypted chunk: " + index);
+            }
+            int next = input.read();
+            last = next == -1;
+            if (!last) {
+                input.unread(next);
+            }
             
-            // 初始化解密器
-            Cipher cipher = Cipher.getInstance(ENCRYPTION_ALGORITHM);
-            GCMParameterSpec spec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
+            GCMParameterSpec spec = new GCMParameterSpec(GCM_TAG_LENGTH, record, 0, GCM_IV_LENGTH);
             cipher.init(Cipher.DECRYPT_MODE, key, spec);
-            
-            // 解密数据
-            return cipher.doFinal(cipherData);
-            
-        } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException |
-                 InvalidAlgorithmParameterException | IllegalBlockSizeException | 
-                 BadPaddingException e) {
-            Log.e(TAG, "Failed to decrypt data", e);
-            throw new SecurityException("Failed to decrypt data: " + e.getMessage(), e);
+            cipher.updateAAD(chunkAad(header, index, last));
+            int plainLength = cipher.doFinal(record, GCM_IV_LENGTH, length - GCM_IV_LENGTH, plain, 0);
+            out.write(plain, 0, plainLength);
+            index++;
+        } while (!last);
+    }
+    
+    /**
+     * v1 格式解密：GCM 需要在末尾校验 auth tag，只能整体解密
+     */
+    private void decryptLegacyStream(SecretKey key, InputStream in, OutputStream out)
+            throws GeneralSecurityException, IOException {
+        byte[] iv = new byte[GCM_IV_LENGTH];
+        if (readFully(in, iv, 0, iv.length) < GCM_IV_LENGTH) {
+            throw new IOException("Invalid encrypted data: too short");
+        }
+        
+        ByteArrayOutputStream encryptedData = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int len;
+        while ((len = in.read(buffer)) != -1) {
+            encryptedData.write(buffer, 0, len);
+        }
+        
+        Cipher cipher = Cipher.getInstance(ENCRYPTION_ALGORITHM);
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(GCM_TAG_LENGTH, iv));
+        out.write(cipher.doFinal(encryptedData.toByteArray()));
+    }
+    
+    private static boolean isSegmentedHeader(byte[] header) {
+        for (int i = 0; i < ENC_MAGIC.length; i++) {
+            if (header[i] != ENC_MAGIC[i]) {
+                return false;
+            }
+        }
+        return header[4] == ENC_FORMAT_VERSION;
+    }
+    
+    /**
+     * 段的附加认证数据：header + 段序号 + 是否最后一段
+     */
+    private static byte[] chunkAad(byte[] header, long index, boolean last) {
+        byte[] aad = new byte[header.length + 9];
+        System.arraycopy(header, 0, aad, 0, header.length);
+        for (int i = 0; i < 8; i++) {
+            aad[header.length + i] = (byte) (index >>> (56 - i * 8));
+        }
+        aad[header.length + 8] = (byte) (last ? 1 : 0);
+        return aad;
+    }
+    
+    private static void writeInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+    
+    private static int readInt(byte[] buffer, int offset) {
+        return ((buffer[offset] & 0xFF) << 24)
+                | ((buffer[offset + 1] & 0xFF) << 16)
+                | ((buffer[offset + 2] & 0xFF) << 8)
+                | (buffer[offset + 3] & 0xFF);
+    }
+    
+    /**
+     * 读满缓冲区，返回实际读取的字节数（小于 length 表示已到流末尾）
+     */
+    private static int readFully(InputStream in, byte[] buffer, int offset, int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            int read = in.read(buffer, offset + total, length - total);
+            if (read == -1) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    
+    /**
+     * 分段加密输出流：缓冲一段明文，写满且有后续数据时才封装该段，
+     * 以便在 finish() 时把剩余数据（可能为空）作为最后一段写出。
+     * 每段使用 Cipher 生成的随机 IV（KeyStore 密钥不允许调用方指定加密 IV）。
+     */
+    private static final class SegmentedEncryptOutputStream extends OutputStream {
+        private final SecretKey key;
+        private final OutputStream out;
+        private final Cipher cipher;
+        private final byte[] header = new byte[ENC_HEADER_LENGTH];
+        private final byte[] plain = new byte[ENC_CHUNK_SIZE];
+        private final byte[] sealed = new byte[ENC_CHUNK_SIZE + GCM_TAG_BYTES];
+        private int length;
+        private long index;
+        private boolean finished;
+        
+        SegmentedEncryptOutputStream(SecretKey key, OutputStream out)
+                throws GeneralSecurityException, IOException {
+            this.key = key;
+            this.out = out;
+            this.cipher = Cipher.getInstance(ENCRYPTION_ALGORITHM);
+            System.arraycopy(ENC_MAGIC, 0, header, 0, ENC_MAGIC.length);
+            header[4] = ENC_FORMAT_VERSION;
+            writeInt(header, 5, ENC_CHUNK_SIZE);
+            out.write(header);
+        }
+        
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (finished) {
+                throw new IOException("Stream already finished");
+            }
+            while (len > 0) {
+                if (length == plain.length) {
+                    sealChunk(false);
+                }
+                int n = Math.min(len, plain.length - length);
+                System.arraycopy(b, off, plain, length, n);
+                length += n;
+                off += n;
+                len -= n;
+            }
+        }
+        
+        /**
+         * 写出最后一段，不关闭底层输出流
+         */
+        void finish() throws IOException {
+            if (finished) {
+                return;
+            }
+            sealChunk(true);
+            finished = true;
+            out.flush();
+        }
+        
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+        
+        @Override
+        public void close() throws IOException {
+            try {
+                finish();
+            } finally {
+                out.close();
+            }
+        }
+        
+        private void sealChunk(boolean last) throws IOException {
+            int sealedLength;
+            try {
+                cipher.init(Cipher.ENCRYPT_MODE, key);
+                cipher.updateAAD(chunkAad(header, index, last));
+                sealedLength = cipher.doFinal(plain, 0, length, sealed, 0);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Failed to encrypt chunk " + index, e);
+            }
+            out.write(cipher.getIV());
+            out.write(sealed, 0, sealedLength);
+            index++;
+            length = 0;
         }
     }
 
@@ -874,31 +1158,6 @@ public class SecurityManager {
     
     // ==================== 工具方法 ====================
     
-    /**
-     * 读取文件内容为字节数组
-     */
-    private byte[] readFileBytes(File file) throws IOException {
-        long fileLength = file.length();
-        if (fileLength > Integer.MAX_VALUE) {
-            throw new IOException("File too large: " + fileLength);
-        }
-        
-        byte[] data = new byte[(int) fileLength];
-        try (FileInputStream fis = new FileInputStream(file)) {
-            int offset = 0;
-            int remaining = data.length;
-            while (remaining > 0) {
-                int bytesRead = fis.read(data, offset, remaining);
-                if (bytesRead == -1) {
-                    throw new IOException("Unexpected end of file");
-                }
-                offset += bytesRead;
-                remaining -= bytesRead;
-            }
-        }
-        return data;
-    }
-    
     /**
      * 获取临时目录
      * @return 临时目录
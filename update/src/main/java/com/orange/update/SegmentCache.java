@@ -0,0 +1,273 @@
+package com.orange.update;
+
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.BitSet;
+import java.util.Properties;
+
+/**
+ * 分段下载缓存，保存已完成的分段用于进程重启后续传。
+ *
+ * 每个分段单独加密保存为一个文件（加密方式由 {@link Cipher} 提供，不落地明文），
+ * 分段数据同步到磁盘后才在状态文件的完成位图中登记，状态不会超前于数据。
+ * 状态文件同时记录下载地址、文件总大小、分段大小和资源校验值（ETag / Last-Modified），
+ * 任一项与本次下载不一致时丢弃已有分段重新开始。
+ *
+ * 目录结构：
+ * {dir}/
+ * ├── state.properties       # 版本、下载地址、总大小、分段大小、校验值、完成位图
+ * └── {index}.seg            # 已完成的分段（密文）
+ *
+ * 缓存目录中的其他文件（如加密密钥）由调用方管理，{@link #clear()} 时一并删除。
+ */
+final class SegmentCache {
+
+    private static final String TAG = "SegmentCache";
+
+    private static final String FILE_STATE = "state.properties";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final String STATE_VERSION = "1";
+    private static final String KEY_VERSION = "version";
+    private static final String KEY_URL = "url";
+    private static final String KEY_TOTAL_SIZE = "total_size";
+    private static final String KEY_SEGMENT_SIZE = "segment_size";
+    private static final String KEY_VALIDATOR = "validator";
+    private static final String KEY_COMPLETED = "completed";
+
+    /**
+     * 分段加解密
+     */
+    interface Cipher {
+
+        /**
+         * @param out 密文输出流，关闭返回的流时一并关闭
+         * @return 加密输出流
+         */
+        OutputStream newEncryptOutputStream(OutputStream out) throws IOException;
+
+        /**
+         * @param in 密文输入流（调用方负责关闭）
+         * @param out 明文输出流（调用方负责关闭）
+         * @throws IOException 解密或认证失败
+         */
+        void decrypt(InputStream in, OutputStream out) throws IOException;
+    }
+
+    private final File dir;
+    private final Cipher cipher;
+    // 以下字段由 this 保护
+    private final Properties state = new Properties();
+    private BitSet completed = new BitSet();
+    private int segmentCount;
+
+    /**
+     * @param dir 缓存目录，每个补丁一个
+     * @param cipher 分段加解密
+     */
+    SegmentCache(File dir, Cipher cipher) {
+        this.dir = dir;
+        this.cipher = cipher;
+    }
+
+    /**
+     * 读取与本次下载匹配的已完成分段，不匹配时删除已有分段
+     *
+     * @param downloadUrl 下载地址
+     * @param totalSize 文件总大小
+     * @param segmentSize 分段大小
+     * @param validator 强校验值（ETag 或 Last-Modified）
+     * @return 已完成分段的位图（副本）
+     */
+    synchronized BitSet open(String downloadUrl, long totalSize, int segmentSize, String validator) {
+        segmentCount = (int) ((totalSize + segmentSize - 1) / segmentSize);
+        completed = new BitSet(segmentCount);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.w(TAG, "Failed to create directory: " + dir.getAbsolutePath());
+        }
+
+        Properties saved = new Properties();
+        File stateFile = new File(dir, FILE_STATE);
+        if (stateFile.isFile()) {
+            try (FileInputStream fis = new FileInputStream(stateFile)) {
+                saved.load(fis);
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to read segment state", e);
+            }
+        }
+
+        state.clear();
+        state.setProperty(KEY_VERSION, STATE_VERSION);
+        state.setProperty(KEY_URL, downloadUrl);
+        state.setProperty(KEY_TOTAL_SIZE, String.valueOf(totalSize));
+        state.setProperty(KEY_SEGMENT_SIZE, String.valueOf(segmentSize));
+        state.setProperty(KEY_VALIDATOR, validator);
+
+        String flags = saved.getProperty(KEY_COMPLETED, "");
+        saved.remove(KEY_COMPLETED);
+        if (saved.equals(state) && flags.length() == segmentCount) {
+            for (int i = 0; i < segmentCount; i++) {
+                // 位图登记了但分段文件丢失时按未完成处理
+                if (flags.charAt(i) == '1' && new File(dir, i + SEGMENT_SUFFIX).isFile()) {
+                    completed.set(i);
+                }
+            }
+        } else if (!saved.isEmpty()) {
+            Log.d(TAG, "Segment state does not match remote file, restarting");
+        }
+        deleteSegments(completed);
+        return (BitSet) completed.clone();
+    }
+
+    /**
+     * 加密保存一个已完成的分段并登记到完成位图
+     *
+     * @throws IOException 写入失败，分段保持未完成
+     */
+    void put(int index, byte[] data) throws IOException {
+        File segmentFile = new File(dir, index + SEGMENT_SUFFIX);
+        File tempFile = new File(dir, index + SEGMENT_SUFFIX + TEMP_SUFFIX);
+        try {
+            final FileOutputStream fos = new FileOutputStream(tempFile);
+            // 加密流关闭时才写出最后一段，关闭前同步到磁盘
+            OutputStream syncOut = new FilterOutputStream(fos) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    try {
+                        flush();
+                        fos.getFD().sync();
+                    } finally {
+                        super.close();
+                    }
+                }
+            };
+            OutputStream out;
+            try {
+                out = cipher.newEncryptOutputStream(syncOut);
+            } catch (IOException e) {
+                fos.close();
+                throw e;
+            }
+            try (OutputStream encryptOut = out) {
+                encryptOut.write(data);
+            }
+            if (!tempFile.renameTo(segmentFile)) {
+                throw new IOException("Failed to rename segment " + index);
+            }
+        } catch (IOException e) {
+            tempFile.delete();
+            throw e;
+        }
+
+        synchronized (this) {
+            completed.set(index);
+            saveState();
+        }
+    }
+
+    /**
+     * 读取并解密已保存的分段
+     *
+     * @param length 分段长度
+     * @return 分段数据，文件损坏或长度不符时返回 null（已从位图中移除）
+     */
+    byte[] get(int index, int length) {
+        File segmentFile = new File(dir, index + SEGMENT_SUFFIX);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length);
+        try (FileInputStream in = new FileInputStream(segmentFile)) {
+            cipher.decrypt(in, out);
+            if (out.size() == length) {
+                return out.toByteArray();
+            }
+            Log.w(TAG, "Cached segment " + index + " has wrong length: " + out.size() + "/" + length);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read cached segment " + index, e);
+        }
+
+        synchronized (this) {
+            completed.clear(index);
+            segmentFile.delete();
+            try {
+                saveState();
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to save segment state", e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 删除缓存目录（下载已提交或校验失败后调用）
+     */
+    synchronized void clear() {
+        completed.clear();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    /**
+     * 删除位图中未登记的分段文件和残留的临时文件
+     */
+    private void deleteSegments(BitSet keep) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(TEMP_SUFFIX)) {
+                file.delete();
+            } else if (name.endsWith(SEGMENT_SUFFIX)) {
+                String index = name.substring(0, name.length() - SEGMENT_SUFFIX.length());
+                try {
+                    if (!keep.get(Integer.parseInt(index))) {
+                        file.delete();
+                    }
+                } catch (NumberFormatException e) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * 原子写入状态文件（调用方持有 this）
+     */
+    private void saveState() throws IOException {
+        StringBuilder flags = new StringBuilder(segmentCount);
+        for (int i = 0; i < segmentCount; i++) {
+            flags.append(completed.get(i) ? '1' : '0');
+        }
+        state.setProperty(KEY_COMPLETED, flags.toString());
+
+        File stateFile = new File(dir, FILE_STATE);
+        File tempFile = new File(dir, FILE_STATE + TEMP_SUFFIX);
+        try (FileOutputStream fos = new FileOutputStream(tempFile)) {
+            state.store(fos, null);
+            fos.getFD().sync();
+        }
+        if (!tempFile.renameTo(stateFile)) {
+            tempFile.delete();
+            throw new IOException("Failed to save segment state");
+        }
+    }
+}
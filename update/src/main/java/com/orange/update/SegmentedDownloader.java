@@ -0,0 +1,600 @@
+package com.orange.update;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 分段并行下载器。
+ *
+ * 第一个分段的请求同时用于探测：服务器返回 206 时从 Content-Range 得到文件总大小，
+ * 第一个分段直接写入输出流，其余分段由多个连接并行下载到内存，再按顺序写入输出流。
+ * 输出流通常是 {@link PatchStreamWriter}，哈希和加密仍是一次顺序处理，不落地明文文件。
+ * 服务器返回 200（不支持范围请求）时直接把这次响应作为单连接下载写完，不再发起其他请求。
+ *
+ * 工作线程最多领先写入位置 连接数 × {@link #WINDOW_PER_CONNECTION} 个分段，限制缓存的内存。
+ * 分段失败时在本次下载内重试。传入 {@link SegmentCache} 时每个完成的分段同时加密保存，
+ * 进程重启后只下载缺少的分段，已保存的分段解密后按顺序写入输出流，哈希和加密仍从头顺序计算。
+ * 第一个分段兼作探测请求，每次都重新下载，不保存。
+ *
+ * 分段请求带 If-Range，保证各分段来自同一版本的资源。ETag 是弱校验值（W/）时
+ * 服务器会忽略 If-Range 的范围请求返回 200，此时改为单连接顺序下载剩余部分。
+ *
+ * 连接数从 {@link #INITIAL_CONNECTIONS} 开始，按采样周期测量吞吐，
+ * 增加连接后吞吐明显提升则继续增加，直到不再提升或达到配置的上限。
+ */
+final class SegmentedDownloader {
+
+    private static final String TAG = "SegmentedDownloader";
+
+    static final int SEGMENT_SIZE = 1024 * 1024;              // 每段 1MB
+    private static final int INITIAL_CONNECTIONS = 2;
+    private static final int WINDOW_PER_CONNECTION = 2;       // 每个连接最多缓存 2 段
+    private static final long SAMPLE_INTERVAL_MS = 1000;      // 吞吐采样周期
+    private static final double GROWTH_THRESHOLD = 1.15;      // 吞吐提升 15% 以上才继续加连接
+    private static final int MAX_SEGMENT_RETRIES = 2;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int PROGRESS_CALLBACK_INTERVAL = 65536;
+
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes\\s+(\\d+)-(\\d+)/(\\d+)");
+    private static final String WEAK_ETAG_PREFIX = "W/";
+
+    /**
+     * 下载结果
+     */
+    enum Result {
+        COMPLETED,
+        CANCELLED
+    }
+
+    private final UpdateConfig config;
+    private final AtomicBoolean cancelled;
+    private final Set<HttpURLConnection> connections =
+            Collections.newSetFromMap(new ConcurrentHashMap<HttpURLConnection, Boolean>());
+
+    /**
+     * @param config SDK 配置（超时、最大连接数）
+     * @param cancelled 取消标记，与 {@link PatchDownloader} 共用
+     */
+    SegmentedDownloader(UpdateConfig config, AtomicBoolean cancelled) {
+        this.config = config;
+        this.cancelled = cancelled;
+    }
+
+    /**
+     * 按顺序下载到输出流，不保存分段
+     *
+     * @see #download(String, OutputStream, SegmentCache, DownloadCallback)
+     */
+    Result download(String downloadUrl, OutputStream output, DownloadCallback callback) throws IOException {
+        return download(downloadUrl, output, null, callback);
+    }
+
+    /**
+     * 按顺序下载到输出流
+     *
+     * @param downloadUrl 下载地址
+     * @param output 输出流，数据严格按文件顺序写入，不会被关闭
+     * @param cache 分段缓存，为 null 或服务器没有强校验值时不保存分段；由调用方在提交后清理
+     * @param callback 进度回调，可能在工作线程中调用（已串行化）
+     * @return 下载结果，失败时抛出异常
+     * @throws IOException 下载或写入失败
+     */
+    Result download(String downloadUrl, OutputStream output, SegmentCache cache,
+                    DownloadCallback callback) throws IOException {
+        Progress progress = new Progress(callback);
+        RemoteInfo remote;
+
+        // 1. 请求第一个分段，同时探测范围请求支持和文件大小
+        HttpURLConnection connection = openConnection(downloadUrl);
+        try {
+            connection.setRequestProperty("Range", "bytes=0-" + (SEGMENT_SIZE - 1));
+            connection.connect();
+            int responseCode = connection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_OK) {
+                Log.d(TAG, "Range requests unsupported, downloading over a single connection");
+                progress.totalSize = connection.getContentLength();
+                return copy(connection, output, -1, progress) ? finish(progress) : Result.CANCELLED;
+            }
+            if (responseCode != HttpURLConnection.HTTP_PARTIAL) {
+                throw new IOException("Server returned error code: " + responseCode);
+            }
+            remote = parseRemoteInfo(connection);
+            progress.totalSize = remote.totalSize;
+            if (!copy(connection, output, Math.min(SEGMENT_SIZE, remote.totalSize), progress)) {
+                return Result.CANCELLED;
+            }
+        } finally {
+            release(connection);
+        }
+
+        int segmentCount = (int) ((remote.totalSize + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+        if (segmentCount <= 1) {
+            return finish(progress);
+        }
+
+        // 2. 弱校验值不能用于 If-Range，剩余部分改为单连接下载
+        if (remote.weakValidator) {
+            Log.d(TAG, "Weak ETag, downloading the rest over a single connection");
+            return downloadRemainder(downloadUrl, output, remote, progress)
+                    ? finish(progress) : Result.CANCELLED;
+        }
+
+        // 3. 读取上次保存的分段，资源没有校验值时无法确认分段来自同一版本，不保存
+        BitSet cached = new BitSet(segmentCount);
+        if (cache != null && remote.validator != null) {
+            cached = cache.open(downloadUrl, remote.totalSize, SEGMENT_SIZE, remote.validator);
+            cached.clear(0);
+            for (int i = cached.nextSetBit(0); i >= 0; i = cached.nextSetBit(i + 1)) {
+                progress.add(segmentLength(i, remote.totalSize));
+            }
+            if (!cached.isEmpty()) {
+                Log.d(TAG, "Resuming with " + cached.cardinality() + " cached segments");
+            }
+        } else {
+            cache = null;
+        }
+
+        // 4. 并行下载其余分段，按顺序写入
+        Log.d(TAG, "Segmented download: " + remote.totalSize + " bytes, " + segmentCount + " segments");
+        Session session = new Session(downloadUrl, remote, output, segmentCount, cache, cached, progress);
+        return session.run() ? finish(progress) : Result.CANCELLED;
+    }
+
+    /**
+     * 取消下载，断开所有连接
+     */
+    void cancel() {
+        cancelled.set(true);
+        for (HttpURLConnection connection : connections) {
+            try {
+                connection.disconnect();
+            } catch (Exception e) {
+                Log.w(TAG, "Error disconnecting", e);
+            }
+        }
+    }
+
+    private Result finish(Progress progress) {
+        if (cancelled.get()) {
+            return Result.CANCELLED;
+        }
+        progress.notifyProgress(true);
+        return Result.COMPLETED;
+    }
+
+    /**
+     * 从第一个分段的响应中读取文件总大小和校验值
+     */
+    private static RemoteInfo parseRemoteInfo(HttpURLConnection connection) throws IOException {
+        String contentRange = connection.getHeaderField("Content-Range");
+        Matcher matcher = contentRange != null ? CONTENT_RANGE.matcher(contentRange) : null;
+        if (matcher == null || !matcher.find() || Long.parseLong(matcher.group(1)) != 0) {
+            throw new IOException("Invalid Content-Range: " + contentRange);
+        }
+        long totalSize = Long.parseLong(matcher.group(3));
+
+        String etag = connection.getHeaderField("ETag");
+        if (etag != null && etag.startsWith(WEAK_ETAG_PREFIX)) {
+            return new RemoteInfo(totalSize, null, true);
+        }
+        String validator = etag != null ? etag : connection.getHeaderField("Last-Modified");
+        return new RemoteInfo(totalSize, validator, false);
+    }
+
+    /**
+     * 单连接下载第一个分段之后的全部数据
+     *
+     * @return 是否完成，取消时返回 false
+     */
+    private boolean downloadRemainder(String downloadUrl, OutputStream output, RemoteInfo remote,
+                                      Progress progress) throws IOException {
+        HttpURLConnection connection = openConnection(downloadUrl);
+        try {
+            connection.setRequestProperty("Range", "bytes=" + SEGMENT_SIZE + "-");
+            connection.connect();
+            int responseCode = connection.getResponseCode();
+            String contentRange = connection.getHeaderField("Content-Range");
+            Matcher matcher = contentRange != null ? CONTENT_RANGE.matcher(contentRange) : null;
+            if (responseCode != HttpURLConnection.HTTP_PARTIAL || matcher == null || !matcher.find()
+                    || Long.parseLong(matcher.group(1)) != SEGMENT_SIZE) {
+                throw new IOException("Unexpected response for remaining data: " + responseCode);
+            }
+            return copy(connection, output, remote.totalSize - SEGMENT_SIZE, progress);
+        } finally {
+            release(connection);
+        }
+    }
+
+    /**
+     * 复制响应数据到输出流
+     *
+     * @param length 期望长度，小于 0 时读到流结束
+     * @return 是否完成，取消时返回 false
+     */
+    private boolean copy(HttpURLConnection connection, OutputStream output, long length,
+                         Progress progress) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long received = 0;
+        try (InputStream in = connection.getInputStream()) {
+            int read;
+            while ((length < 0 || received < length)
+                    && (read = in.read(buffer, 0, length < 0
+                            ? buffer.length : (int) Math.min(buffer.length, length - received))) != -1) {
+                if (cancelled.get()) {
+                    return false;
+                }
+                output.write(buffer, 0, read);
+                received += read;
+                progress.add(read);
+            }
+        }
+        if (length >= 0 && received != length) {
+            throw new IOException("Response truncated: " + received + "/" + length);
+        }
+        return true;
+    }
+
+    private HttpURLConnection openConnection(String downloadUrl) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(downloadUrl).openConnection();
+        connection.setConnectTimeout(config.getConnectTimeout());
+        connection.setReadTimeout(config.getReadTimeout());
+        connection.setRequestMethod("GET");
+        connections.add(connection);
+        // 在 add 之后检查，避免与 cancel() 竞争时漏断开
+        if (cancelled.get()) {
+            connection.disconnect();
+        }
+        return connection;
+    }
+
+    private void release(HttpURLConnection connection) {
+        connections.remove(connection);
+        connection.disconnect();
+    }
+
+    private static long segmentLength(int index, long totalSize) {
+        long start = (long) index * SEGMENT_SIZE;
+        return Math.min(SEGMENT_SIZE, totalSize - start);
+    }
+
+    /**
+     * 远程文件信息
+     */
+    private static final class RemoteInfo {
+        final long totalSize;
+        final String validator;
+        final boolean weakValidator;
+
+        RemoteInfo(long totalSize, String validator, boolean weakValidator) {
+            this.totalSize = totalSize;
+            this.validator = validator;
+            this.weakValidator = weakValidator;
+        }
+    }
+
+    /**
+     * 已下载字节数和进度回调（多个线程共用，回调已串行化）
+     */
+    private static final class Progress {
+        private final DownloadCallback callback;
+        private final AtomicLong downloadedBytes = new AtomicLong();
+        private volatile long totalSize = -1;
+        private long lastProgressBytes;
+
+        Progress(DownloadCallback callback) {
+            this.callback = callback;
+        }
+
+        void add(long bytes) {
+            downloadedBytes.addAndGet(bytes);
+            if (bytes > 0) {
+                notifyProgress(false);
+            }
+        }
+
+        long get() {
+            return downloadedBytes.get();
+        }
+
+        synchronized void notifyProgress(boolean force) {
+            if (callback == null) {
+                return;
+            }
+            long current = downloadedBytes.get();
+            if (!force && current - lastProgressBytes < PROGRESS_CALLBACK_INTERVAL) {
+                return;
+            }
+            lastProgressBytes = current;
+            try {
+                callback.onProgress(current, totalSize);
+            } catch (Exception e) {
+                Log.e(TAG, "Error in progress callback", e);
+            }
+        }
+    }
+
+    /**
+     * 一次分段下载过程：工作线程并行下载分段，调用线程按顺序写入输出流并调整连接数
+     */
+    private final class Session {
+        private final String downloadUrl;
+        private final RemoteInfo remote;
+        private final OutputStream output;
+        private final int segmentCount;
+        private final SegmentCache cache;
+        // 上次保存的分段，运行期间只读
+        private final BitSet cached;
+        private final Progress progress;
+        // 出错或结束时通知其他工作线程停止
+        private final AtomicBoolean stopped = new AtomicBoolean(false);
+        private final Object lock = new Object();
+        // 以下字段由 lock 保护
+        private final Map<Integer, byte[]> ready = new HashMap<>();
+        private int nextClaim;
+        private int nextWrite = 1;
+        private int window;
+        private IOException failure;
+
+        Session(String downloadUrl, RemoteInfo remote, OutputStream output, int segmentCount,
+                SegmentCache cache, BitSet cached, Progress progress) {
+            this.downloadUrl = downloadUrl;
+            this.remote = remote;
+            this.output = output;
+            this.segmentCount = segmentCount;
+            this.cache = cache;
+            this.cached = cached;
+            this.progress = progress;
+            this.nextClaim = cached.nextClearBit(1);
+        }
+
+        /**
+         * @return 是否全部完成，取消时返回 false
+         */
+        boolean run() throws IOException {
+            int maxConnections = Math.max(1, Math.min(config.getMaxDownloadConnections(), segmentCount - 1));
+            ExecutorService executor = Executors.newFixedThreadPool(maxConnections);
+            try {
+                int running = Math.min(INITIAL_CONNECTIONS, maxConnections);
+                synchronized (lock) {
+                    window = running * WINDOW_PER_CONNECTION;
+                }
+                for (int i = 0; i < running; i++) {
+                    executor.execute(this::work);
+                }
+                boolean growing = running < maxConnections;
+                double bestThroughput = 0;
+                long sampleBytes = progress.get();
+                long sampleTime = System.nanoTime();
+
+                while (true) {
+                    byte[] data;
+                    int segment = -1;
+                    boolean fromCache = false;
+                    synchronized (lock) {
+                        if (failure != null) {
+                            throw failure;
+                        }
+                        if (cancelled.get()) {
+                            return false;
+                        }
+                        if (nextWrite == segmentCount) {
+                            break;
+                        }
+                        data = ready.remove(nextWrite);
+                        fromCache = data == null && cached.get(nextWrite);
+                        if (data != null || fromCache) {
+                            segment = nextWrite++;
+                            lock.notifyAll();
+                        } else {
+                            lock.wait(SAMPLE_INTERVAL_MS);
+                        }
+                    }
+                    if (fromCache) {
+                        data = readCachedSegment(segment);
+                    }
+                    if (data != null) {
+                        output.write(data);
+                    }
+
+                    // 按采样周期调整连接数
+                    long now = System.nanoTime();
+                    if (now - sampleTime < TimeUnit.MILLISECONDS.toNanos(SAMPLE_INTERVAL_MS)) {
+                        continue;
+                    }
+                    long bytes = progress.get();
+                    double throughput = (bytes - sampleBytes) * 1e9 / (now - sampleTime);
+                    sampleBytes = bytes;
+                    sampleTime = now;
+                    if (growing) {
+                        if (throughput > bestThroughput * GROWTH_THRESHOLD) {
+                            bestThroughput = throughput;
+                            running++;
+                            synchronized (lock) {
+                                window = running * WINDOW_PER_CONNECTION;
+                                lock.notifyAll();
+                            }
+                            executor.execute(this::work);
+                            growing = running < maxConnections;
+                            Log.d(TAG, "Throughput " + (long) throughput + " B/s, connections: " + running);
+                        } else {
+                            growing = false;
+                            Log.d(TAG, "Throughput saturated at " + running + " connections");
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancel();
+                return false;
+            } finally {
+                stopped.set(true);
+                synchronized (lock) {
+                    ready.clear();
+                    lock.notifyAll();
+                }
+                executor.shutdownNow();
+                for (HttpURLConnection connection : connections) {
+                    connection.disconnect();
+                }
+            }
+            return !cancelled.get();
+        }
+
+        /**
+         * 工作线程：在写入窗口内依次领取并下载分段，直到没有剩余分段
+         */
+        private void work() {
+            while (true) {
+                int segment;
+                synchronized (lock) {
+                    try {
+                        while (!stopped.get() && nextClaim < segmentCount && nextClaim >= nextWrite + window) {
+                            lock.wait();
+                        }
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    if (stopped.get() || cancelled.get() || nextClaim >= segmentCount) {
+                        return;
+                    }
+                    segment = nextClaim++;
+                    // 跳过上次已保存的分段
+                    while (nextClaim < segmentCount && cached.get(nextClaim)) {
+                        nextClaim++;
+                    }
+                }
+
+                byte[] data;
+                try {
+                    data = downloadSegmentWithRetry(segment);
+                } catch (IOException | RuntimeException e) {
+                    // 连接被并发断开时 HttpURLConnection 可能抛出运行时异常，同样视为分段失败
+                    synchronized (lock) {
+                        if (failure == null && !stopped.get()) {
+                            failure = e instanceof IOException
+                                    ? (IOException) e : new IOException("Segment download failed", e);
+                        }
+                        stopped.set(true);
+                        lock.notifyAll();
+                    }
+                    return;
+                }
+                saveSegment(segment, data);
+                synchronized (lock) {
+                    if (stopped.get()) {
+                        return;
+                    }
+                    ready.put(segment, data);
+                    lock.notifyAll();
+                }
+            }
+        }
+
+        /**
+         * 读取上次保存的分段，无法解密时重新下载
+         */
+        private byte[] readCachedSegment(int segment) throws IOException {
+            int length = (int) segmentLength(segment, remote.totalSize);
+            byte[] data = cache.get(segment, length);
+            if (data == null) {
+                Log.w(TAG, "Cached segment " + segment + " unreadable, downloading again");
+                // 回退启动时计入的进度，重新下载时再计入
+                progress.add(-length);
+                data = downloadSegmentWithRetry(segment);
+                saveSegment(segment, data);
+            }
+            return data;
+        }
+
+        /**
+         * 保存已完成的分段，失败时只影响续传，不影响本次下载
+         */
+        private void saveSegment(int segment, byte[] data) {
+            if (cache == null) {
+                return;
+            }
+            try {
+                cache.put(segment, data);
+            } catch (IOException | RuntimeException e) {
+                Log.w(TAG, "Failed to cache segment " + segment + ": " + e.getMessage());
+            }
+        }
+
+        private byte[] downloadSegmentWithRetry(int segment) throws IOException {
+            for (int attempt = 0; ; attempt++) {
+                try {
+                    return downloadSegment(segment);
+                } catch (IOException e) {
+                    if (cancelled.get() || stopped.get() || attempt >= MAX_SEGMENT_RETRIES) {
+                        throw e;
+                    }
+                    Log.w(TAG, "Segment " + segment + " failed, retrying: " + e.getMessage());
+                }
+            }
+        }
+
+        /**
+         * 下载单个分段到内存，失败时回退已计入进度的字节
+         */
+        private byte[] downloadSegment(int segment) throws IOException {
+            long start = (long) segment * SEGMENT_SIZE;
+            int length = (int) segmentLength(segment, remote.totalSize);
+            long end = start + length - 1;
+
+            HttpURLConnection connection = openConnection(downloadUrl);
+            int received = 0;
+            try {
+                connection.setRequestProperty("Range", "bytes=" + start + "-" + end);
+                if (remote.validator != null) {
+                    // 资源变化时服务器返回 200 全量内容
+                    connection.setRequestProperty("If-Range", remote.validator);
+                }
+                connection.connect();
+                int responseCode = connection.getResponseCode();
+                if (responseCode != HttpURLConnection.HTTP_PARTIAL) {
+                    throw new IOException("Unexpected response for segment " + segment + ": " + responseCode);
+                }
+
+                byte[] data = new byte[length];
+                try (InputStream in = connection.getInputStream()) {
+                    int read;
+                    while (received < length && (read = in.read(data, received, length - received)) != -1) {
+                        if (cancelled.get() || stopped.get()) {
+                            throw new IOException("Download cancelled");
+                        }
+                        received += read;
+                        progress.add(read);
+                    }
+                }
+                if (received != length) {
+                    throw new IOException("Segment " + segment + " truncated: " + received + "/" + length);
+                }
+                return data;
+            } catch (IOException e) {
+                // 回退未完成分段计入的进度
+                progress.add(-received);
+                throw e;
+            } finally {
+                release(connection);
+            }
+        }
+    }
+}
@@ -18,6 +18,10 @@ import java.nio.charset.StandardCharsets;
 /**
  * 服务器接口类，封装与服务器的 HTTP 通信。
  * 负责检查更新和解析服务器响应。
+ * 
+ * 差量更新：请求中携带当前已应用补丁的 SHA-256（patchHash）时，服务器可在 patchInfo 中
+ * 额外返回相对该补丁的差量包（deltaUrl、deltaMd5、deltaSize、deltaBaseHash），
+ * 客户端在本地重建新补丁；差量不可用或重建失败时仍按 downloadUrl 下载完整补丁。
  */
 public class ServerApi {
     
@@ -56,6 +60,20 @@ public class ServerApi {
      */
     public PatchInfo checkUpdate(String appKey, String appVersion, String patchVersion) 
             throws UpdateException {
+        return checkUpdate(appKey, appVersion, patchVersion, null);
+    }
+    
+    /**
+     * 检查更新接口（支持差量更新）
+     * @param appKey 应用标识
+     * @param appVersion 应用版本
+     * @param patchVersion 当前补丁版本，可为 null
+     * @param patchHash 当前已应用补丁的 SHA-256，为 null 时服务器只返回完整补丁
+     * @return 如果有更新返回 PatchInfo，否则返回 null
+     * @throws UpdateException 如果请求失败或响应格式错误
+     */
+    public PatchInfo checkUpdate(String appKey, String appVersion, String patchVersion, String patchHash) 
+            throws UpdateException {
         HttpURLConnection connection = null;
         
         try {
@@ -67,7 +85,7 @@ public class ServerApi {
             configureConnection(connection);
             
             // 构建请求体
-            String requestBody = buildRequestBody(appKey, appVersion, patchVersion);
+            String requestBody = buildRequestBody(appKey, appVersion, patchVersion, patchHash);
             
             // 发送请求
             connection.setDoOutput(true);
@@ -133,7 +151,7 @@ public class ServerApi {
     /**
      * 构建请求体 JSON
      */
-    private String buildRequestBody(String appKey, String appVersion, String patchVersion) 
+    private String buildRequestBody(String appKey, String appVersion, String patchVersion, String patchHash) 
             throws JSONException {
         JSONObject json = new JSONObject();
         json.put("appKey", appKey);
@@ -141,6 +159,9 @@ public class ServerApi {
         if (patchVersion != null && !patchVersion.isEmpty()) {
             json.put("patchVersion", patchVersion);
         }
+        if (patchHash != null && !patchHash.isEmpty()) {
+            json.put("patchHash", patchHash);
+        }
         return json.toString();
     }
     
@@ -121,9 +121,13 @@ public class SoPatcher {
     }
     
     /**
-     * 提取 SO 库到临时目录
+     * 增量提取 SO 库
      * 
-     * @return SO 库根目录（包含各个 ABI 子目录）
+     * 只提取当前进程可加载的 ABI（按进程位数对应的 ABI 优先级，取补丁中第一个存在的 ABI）；
+     * 磁盘上大小和 CRC 与补丁条目一致的库直接跳过，其余先写临时文件再原子重命名；
+     * 补丁中已不存在的库和其他 ABI 目录会被删除。
+     * 
+     * @return SO 库根目录（包含选中的 ABI 子目录）
      */
     private static File extractSoLibraries(Context context, File patchFile) throws Exception {
         // 创建 SO 库目录
@@ -132,69 +136,163 @@ public class SoPatcher {
             soRootDir.mkdirs();
         }
         
-        // 清空旧的 SO 库
-        deleteDirectory(soRootDir);
-        soRootDir.mkdirs();
-        
-        // 获取当前设备的主 ABI
-        String primaryAbi = Build.SUPPORTED_ABIS[0];
-        Log.d(TAG, "Device primary ABI: " + primaryAbi);
-        
-        // 提取 SO 库
         try (ZipFile zipFile = new ZipFile(patchFile)) {
+            // 1. 选择 ABI
+            String abi = selectAbi(zipFile);
+            if (abi == null) {
+                Log.w(TAG, "No loadable ABI found in patch");
+                deleteDirectory(soRootDir);
+                soRootDir.mkdirs();
+                return soRootDir;
+            }
+            Log.d(TAG, "Selected ABI: " + abi);
+            
+            File abiDir = new File(soRootDir, abi);
+            if (!abiDir.exists()) {
+                abiDir.mkdirs();
+            }
+            
+            // 2. 逐个提取（跳过未变化的库）
+            String abiPrefix = LIB_DIR_PREFIX + abi + "/";
+            List<String> libNames = new ArrayList<>();
+            int extracted = 0;
             java.util.Enumeration<? extends ZipEntry> entries = zipFile.entries();
             while (entries.hasMoreElements()) {
                 ZipEntry entry = entries.nextElement();
                 String name = entry.getName();
+                if (entry.isDirectory() || !name.startsWith(abiPrefix) || !name.endsWith(".so")) {
+                    continue;
+                }
+                String libName = name.substring(abiPrefix.length());
+                if (libName.indexOf('/') >= 0) {
+                    continue;
+                }
+                libNames.add(libName);
                 
-                // 只提取 lib/ 目录下的 .so 文件
-                if (name.startsWith(LIB_DIR_PREFIX) && name.endsWith(".so") && !entry.isDirectory()) {
-                    // 提取 ABI 和文件名
-                    // 例如: lib/arm64-v8a/libtest.so -> arm64-v8a/libtest.so
-                    String relativePath = name.substring(LIB_DIR_PREFIX.length());
-                    
-                    // 检查是否是支持的 ABI
-                    boolean isSupported = false;
-                    for (String abi : SUPPORTED_ABIS) {
-                        if (relativePath.startsWith(abi + "/")) {
-                            isSupported = true;
-                            break;
-                        }
-                    }
-                    
-                    if (!isSupported) {
-                        Log.d(TAG, "Skipping unsupported ABI: " + relativePath);
-                        continue;
-                    }
-                    
-                    // 创建目标文件
-                    File targetFile = new File(soRootDir, relativePath);
-                    File parentDir = targetFile.getParentFile();
-                    if (parentDir != null && !parentDir.exists()) {
-                        parentDir.mkdirs();
-                    }
-                    
-                    // 提取文件
-                    try (InputStream is = zipFile.getInputStream(entry);
-                         FileOutputStream fos = new FileOutputStream(targetFile)) {
-                        byte[] buffer = new byte[8192];
-                        int len;
-                        while ((len = is.read(buffer)) > 0) {
-                            fos.write(buffer, 0, len);
-                        }
-                    }
-                    
-                    // 设置可执行权限
-                    targetFile.setExecutable(true, false);
-                    
-                    Log.d(TAG, "Extracted SO library: " + relativePath + " -> " + targetFile.getAbsolutePath());
+                File targetFile = new File(abiDir, libName);
+                if (isSameLibrary(targetFile, entry)) {
+                    Log.d(TAG, "SO library unchanged, skipped: " + libName);
+                    continue;
                 }
+                
+                extractLibrary(zipFile, entry, targetFile);
+                extracted++;
+                Log.d(TAG, "Extracted SO library: " + abi + "/" + libName + " -> " + targetFile.getAbsolutePath());
             }
+            
+            // 3. 删除补丁中已不存在的库和其他 ABI 目录
+            removeStaleLibraries(soRootDir, abi, libNames);
+            
+            Log.d(TAG, "SO libraries extracted: " + extracted + "/" + libNames.size());
         }
         
         return soRootDir;
     }
     
+    /**
+     * 选择要提取的 ABI：当前进程可加载的 ABI 中，补丁包含的第一个
+     */
+    private static String selectAbi(ZipFile zipFile) {
+        String[] processAbis = SUPPORTED_ABIS;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            // 64 位设备上的 32 位进程只能加载 32 位库
+            processAbis = android.os.Process.is64Bit()
+                    ? Build.SUPPORTED_64_BIT_ABIS : Build.SUPPORTED_32_BIT_ABIS;
+        }
+        
+        java.util.Set<String> patchAbis = new java.util.HashSet<>();
+        java.util.Enumeration<? extends ZipEntry> entries = zipFile.entries();
+        while (entries.hasMoreElements()) {
+            String name = entries.nextElement().getName();
+            if (name.startsWith(LIB_DIR_PREFIX) && name.endsWith(".so")) {
+                int slash = name.indexOf('/', LIB_DIR_PREFIX.length());
+                if (slash > 0) {
+                    patchAbis.add(name.substring(LIB_DIR_PREFIX.length(), slash));
+                }
+            }
+        }
+        
+        for (String abi : processAbis) {
+            if (patchAbis.contains(abi)) {
+                return abi;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * 磁盘上的库是否与补丁条目一致（大小 + CRC32）
+     */
+    private static boolean isSameLibrary(File file, ZipEntry entry) {
+        if (!file.isFile() || entry.getSize() < 0 || entry.getCrc() < 0
+                || file.length() != entry.getSize()) {
+            return false;
+        }
+        try (java.io.FileInputStream fis = new java.io.FileInputStream(file)) {
+            java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+            byte[] buffer = new byte[8192];
+            int len;
+            while ((len = fis.read(buffer)) > 0) {
+                crc.update(buffer, 0, len);
+            }
+            return crc.getValue() == entry.getCrc();
+        } catch (java.io.IOException e) {
+            return false;
+        }
+    }
+    
+    /**
+     * 提取单个库：写入临时文件并同步后原子重命名
+     */
+    private static void extractLibrary(ZipFile zipFile, ZipEntry entry, File targetFile) throws Exception {
+        File tempFile = new File(targetFile.getPath() + ".tmp");
+        try (InputStream is = zipFile.getInputStream(entry);
+             FileOutputStream fos = new FileOutputStream(tempFile)) {
+            byte[] buffer = new byte[8192];
+            int len;
+            while ((len = is.read(buffer)) > 0) {
+                fos.write(buffer, 0, len);
+            }
+            fos.getFD().sync();
+        }
+        
+        // 设置可执行权限
+        tempFile.setExecutable(true, false);
+        
+        if (!tempFile.renameTo(targetFile)) {
+            tempFile.delete();
+            throw new PatchSoException(UpdateErrorCode.ERROR_APPLY_FAILED,
+                    "Failed to rename SO library: " + targetFile.getName());
+        }
+    }
+    
+    /**
+     * 删除不再需要的库：其他 ABI 目录、补丁中已不存在的库和残留的临时文件
+     */
+    private static void removeStaleLibraries(File soRootDir, String abi, List<String> libNames) {
+        File[] abiDirs = soRootDir.listFiles();
+        if (abiDirs == null) {
+            return;
+        }
+        for (File dir : abiDirs) {
+            if (!dir.getName().equals(abi)) {
+                deleteDirectory(dir);
+                Log.d(TAG, "Removed stale ABI directory: " + dir.getName());
+                continue;
+            }
+            File[] libs = dir.listFiles();
+            if (libs == null) {
+                continue;
+            }
+            for (File lib : libs) {
+                if (!libNames.contains(lib.getName())) {
+                    lib.delete();
+                    Log.d(TAG, "Removed stale SO library: " + lib.getName());
+                }
+            }
+        }
+    }
+    
     /**
      * 注入 SO 库路径到 ClassLoader
      * 
@@ -0,0 +1,320 @@
+package com.orange.update;
+
+import android.os.Debug;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 启动加载补丁的分阶段耗时统计。
+ *
+ * {@link HotUpdateHelper#loadPatchIfNeeded()} 的每个阶段都包在 android.os.Trace 区段中，
+ * 可直接在 Perfetto/systrace 中查看。设置 {@link Listener} 后还会记录每个阶段的耗时、
+ * 读取字节数（来自 /proc 的线程 IO 统计）以及可选的分配次数，加载结束时回调汇总结果，
+ * 由应用上报到自己的监控系统。
+ *
+ * 未设置监听器时只有 Trace 区段，不读取时钟和 /proc，也不记录阶段。
+ *
+ * 使用示例：
+ * <pre>
+ * StartupMetrics.setListener(metrics -> {
+ *     for (StartupMetrics.Stage stage : metrics.getStages()) {
+ *         report(stage.getName(), stage.getDurationNanos() / 1000);
+ *     }
+ * });
+ * </pre>
+ */
+public final class StartupMetrics {
+
+    private static final String TAG = "StartupMetrics";
+
+    // 阶段名称，同时用作 Trace 区段名
+    public static final String STAGE_VERSION_CHECK = "HotUpdate.versionCheck";
+    public static final String STAGE_INTEGRITY_STAMP = "HotUpdate.integrityStamp";
+    public static final String STAGE_SHA256 = "HotUpdate.sha256";
+    public static final String STAGE_SIGNATURE = "HotUpdate.signature";
+    public static final String STAGE_ZIP_DECRYPT = "HotUpdate.zipDecrypt";
+    public static final String STAGE_RESOURCE_MERGE = "HotUpdate.resourceMerge";
+    public static final String STAGE_DEX_INJECT = "HotUpdate.dexInject";
+    public static final String STAGE_RESOURCE_LOAD = "HotUpdate.resourceLoad";
+
+    /** 未采集的数值 */
+    public static final long UNAVAILABLE = -1;
+
+    private static volatile Listener sListener;
+    private static volatile boolean sCountAllocations;
+
+    /**
+     * 加载结果
+     */
+    public enum Result {
+        /** 没有已应用的补丁 */
+        NO_PATCH,
+        /** 补丁加载完成 */
+        LOADED,
+        /** APK 已覆盖安装，旧补丁被清除 */
+        VERSION_CHANGED,
+        /** 已应用的补丁文件不存在 */
+        FILE_MISSING,
+        /** 完整性或签名验证失败，补丁被拒绝 */
+        REJECTED,
+        /** 加载过程出错 */
+        FAILED
+    }
+
+    /**
+     * 统计结果回调，在调用 loadPatchIfNeeded 的线程（通常是 attachBaseContext）中执行，
+     * 实现应尽快返回，上报等耗时操作请转到其他线程
+     */
+    public interface Listener {
+        void onStartupMetrics(StartupMetrics metrics);
+    }
+
+    /**
+     * 单个阶段的统计
+     */
+    public static final class Stage {
+        private final String name;
+        private final long durationNanos;
+        private final long bytesRead;
+        private final long allocationCount;
+
+        Stage(String name, long durationNanos, long bytesRead, long allocationCount) {
+            this.name = name;
+            this.durationNanos = durationNanos;
+            this.bytesRead = bytesRead;
+            this.allocationCount = allocationCount;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getDurationNanos() {
+            return durationNanos;
+        }
+
+        /**
+         * 阶段内当前线程读取的字节数（rchar，含页缓存命中，为近似值），无法获取时为 {@link #UNAVAILABLE}
+         */
+        public long getBytesRead() {
+            return bytesRead;
+        }
+
+        /**
+         * 阶段内当前线程的对象分配次数，未开启分配统计时为 {@link #UNAVAILABLE}
+         */
+        public long getAllocationCount() {
+            return allocationCount;
+        }
+
+        @Override
+        public String toString() {
+            return name + "{" + durationNanos / 1000 + "us"
+                    + (bytesRead != UNAVAILABLE ? ", read=" + bytesRead : "")
+                    + (allocationCount != UNAVAILABLE ? ", allocs=" + allocationCount : "")
+                    + "}";
+        }
+    }
+
+    private final boolean enabled;
+    private final boolean countAllocations;
+    private final List<Stage> stages;
+    private final long startNanos;
+
+    private String patchId;
+    private Result result;
+    private long totalDurationNanos;
+
+    // 当前阶段的起始值
+    private String stageName;
+    private long stageStartNanos;
+    private long stageStartBytes;
+    private long stageStartAllocs;
+
+    private StartupMetrics(boolean enabled, boolean countAllocations) {
+        this.enabled = enabled;
+        this.countAllocations = countAllocations;
+        this.stages = enabled ? new ArrayList<Stage>() : Collections.<Stage>emptyList();
+        this.startNanos = enabled ? SystemClock.elapsedRealtimeNanos() : 0;
+    }
+
+    /**
+     * 设置统计监听器，传 null 关闭统计
+     */
+    public static void setListener(Listener listener) {
+        setListener(listener, false);
+    }
+
+    /**
+     * 设置统计监听器
+     *
+     * @param listener 监听器，传 null 关闭统计
+     * @param countAllocations 是否统计分配次数。开启后运行时需要记录每次分配，
+     *                         会拖慢加载过程本身，只建议在调试或抽样时开启
+     */
+    public static void setListener(Listener listener, boolean countAllocations) {
+        sListener = listener;
+        sCountAllocations = countAllocations;
+    }
+
+    /**
+     * 开始一次加载统计，未设置监听器时只输出 Trace 区段
+     */
+    @SuppressWarnings("deprecation")
+    static StartupMetrics begin() {
+        if (sListener == null) {
+            return new StartupMetrics(false, false);
+        }
+        boolean countAllocations = sCountAllocations;
+        if (countAllocations) {
+            Debug.resetThreadAllocCount();
+            Debug.startAllocCounting();
+        }
+        return new StartupMetrics(true, countAllocations);
+    }
+
+    /**
+     * 开始一个阶段；阶段不嵌套，未结束的上一个阶段会先结束
+     */
+    void beginStage(String name) {
+        if (stageName != null) {
+            endStage();
+        }
+        stageName = name;
+        Trace.beginSection(name);
+        if (enabled) {
+            stageStartBytes = readThreadBytes();
+            stageStartAllocs = countAllocations ? threadAllocCount() : UNAVAILABLE;
+            stageStartNanos = SystemClock.elapsedRealtimeNanos();
+        }
+    }
+
+    /**
+     * 结束当前阶段
+     */
+    void endStage() {
+        if (stageName == null) {
+            return;
+        }
+        Trace.endSection();
+        if (enabled) {
+            long duration = SystemClock.elapsedRealtimeNanos() - stageStartNanos;
+            long bytes = readThreadBytes();
+            long allocs = countAllocations ? threadAllocCount() : UNAVAILABLE;
+            stages.add(new Stage(stageName, duration,
+                    bytes != UNAVAILABLE && stageStartBytes != UNAVAILABLE ? bytes - stageStartBytes : UNAVAILABLE,
+                    allocs != UNAVAILABLE ? allocs - stageStartAllocs : UNAVAILABLE));
+        }
+        stageName = null;
+    }
+
+    void setPatchId(String patchId) {
+        if (enabled) {
+            this.patchId = patchId;
+        }
+    }
+
+    /**
+     * 结束统计并回调监听器
+     */
+    @SuppressWarnings("deprecation")
+    void finish(Result result) {
+        endStage();
+        if (!enabled) {
+            return;
+        }
+        this.result = result;
+        this.totalDurationNanos = SystemClock.elapsedRealtimeNanos() - startNanos;
+        if (countAllocations) {
+            Debug.stopAllocCounting();
+        }
+
+        Listener listener = sListener;
+        if (listener != null) {
+            try {
+                listener.onStartupMetrics(this);
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Startup metrics listener failed", e);
+            }
+        }
+    }
+
+    public String getPatchId() {
+        return patchId;
+    }
+
+    public Result getResult() {
+        return result;
+    }
+
+    public long getTotalDurationNanos() {
+        return totalDurationNanos;
+    }
+
+    /**
+     * 按执行顺序排列的阶段统计，未执行的阶段不出现
+     */
+    public List<Stage> getStages() {
+        return Collections.unmodifiableList(stages);
+    }
+
+    /**
+     * 获取指定阶段的统计，未执行时返回 null
+     */
+    public Stage getStage(String name) {
+        for (Stage stage : stages) {
+            if (stage.name.equals(name)) {
+                return stage;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "StartupMetrics{patchId=" + patchId + ", result=" + result
+                + ", total=" + totalDurationNanos / 1000 + "us, stages=" + stages + "}";
+    }
+
+    @SuppressWarnings("deprecation")
+    private static long threadAllocCount() {
+        return Debug.getThreadAllocCount();
+    }
+
+    /**
+     * 读取当前线程累计读取的字节数（/proc/self/task/<tid>/io 的 rchar）
+     */
+    private static long readThreadBytes() {
+        byte[] buffer = new byte[256];
+        int length = 0;
+        try (FileInputStream fis = new FileInputStream("/proc/self/task/" + Process.myTid() + "/io")) {
+            int read;
+            while (length < buffer.length && (read = fis.read(buffer, length, buffer.length - length)) > 0) {
+                length += read;
+            }
+        } catch (IOException | SecurityException e) {
+            return UNAVAILABLE;
+        }
+        // 第一行为 "rchar: <字节数>"
+        String content = new String(buffer, 0, length);
+        int start = content.indexOf("rchar:");
+        if (start < 0) {
+            return UNAVAILABLE;
+        }
+        start += "rchar:".length();
+        int end = content.indexOf('\n', start);
+        try {
+            return Long.parseLong(content.substring(start, end > 0 ? end : content.length()).trim());
+        } catch (NumberFormatException e) {
+            return UNAVAILABLE;
+        }
+    }
+}
@@ -25,6 +25,13 @@ public interface UpdateCallback {
      */
     void onDownloadProgress(long current, long total);
     
+    /**
+     * 下载阶段变化时调用，回退到完整补丁时进度从 0 重新开始
+     * @param phase 下载阶段，参见 {@link DownloadCallback#PHASE_DELTA} 等常量
+     */
+    default void onDownloadPhaseChanged(int phase) {
+    }
+    
     /**
      * 下载完成时调用
      * @param patchInfo 已下载的补丁信息
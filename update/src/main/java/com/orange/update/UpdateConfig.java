@@ -12,6 +12,7 @@ public class UpdateConfig {
     
     private static final int DEFAULT_CONNECT_TIMEOUT = 10000; // 10 seconds
     private static final int DEFAULT_READ_TIMEOUT = 30000;    // 30 seconds
+    private static final int DEFAULT_MAX_DOWNLOAD_CONNECTIONS = 4;
     
     private final String serverUrl;
     private final String appKey;
@@ -19,6 +20,7 @@ public class UpdateConfig {
     private final int connectTimeout;
     private final int readTimeout;
     private final boolean debugMode;
+    private final int maxDownloadConnections;
     
     private UpdateConfig(Builder builder) {
         this.serverUrl = builder.serverUrl;
@@ -27,6 +29,7 @@ public class UpdateConfig {
         this.connectTimeout = builder.connectTimeout;
         this.readTimeout = builder.readTimeout;
         this.debugMode = builder.debugMode;
+        this.maxDownloadConnections = builder.maxDownloadConnections;
     }
     
     public String getServerUrl() {
@@ -53,6 +56,10 @@ public class UpdateConfig {
         return debugMode;
     }
     
+    public int getMaxDownloadConnections() {
+        return maxDownloadConnections;
+    }
+    
     /**
      * Builder 类用于构建 UpdateConfig 实例
      */
@@ -63,6 +70,7 @@ public class UpdateConfig {
         private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
         private int readTimeout = DEFAULT_READ_TIMEOUT;
         private boolean debugMode = false;
+        private int maxDownloadConnections = DEFAULT_MAX_DOWNLOAD_CONNECTIONS;
         
         public Builder() {
         }
@@ -135,6 +143,19 @@ public class UpdateConfig {
             return this;
         }
         
+        /**
+         * 设置分段下载的最大并发连接数
+         * @param connections 最大连接数，1 表示只使用单连接下载
+         * @return Builder 实例
+         */
+        public Builder maxDownloadConnections(int connections) {
+            if (connections <= 0) {
+                throw new IllegalArgumentException("Max download connections must be positive");
+            }
+            this.maxDownloadConnections = connections;
+            return this;
+        }
+        
         /**
          * 构建 UpdateConfig 实例
          * @return UpdateConfig 实例
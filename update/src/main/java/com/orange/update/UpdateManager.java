@@ -223,7 +223,7 @@ public class UpdateManager {
                 String currentPatchVersion = getCurrentPatchVersion();
                 
                 // 检查更新
-                PatchInfo patchInfo = versionChecker.checkUpdate(currentPatchVersion);
+                PatchInfo patchInfo = versionChecker.checkUpdate(currentPatchVersion, getCurrentPatchHash());
                 
                 boolean hasUpdate = patchInfo != null;
                 
@@ -251,7 +251,7 @@ public class UpdateManager {
      */
     public PatchInfo checkUpdateSync() throws ServerApi.UpdateException {
         String currentPatchVersion = getCurrentPatchVersion();
-        return versionChecker.checkUpdate(currentPatchVersion);
+        return versionChecker.checkUpdate(currentPatchVersion, getCurrentPatchHash());
     }
     
     /**
@@ -261,6 +261,16 @@ public class UpdateManager {
         PatchInfo appliedPatch = patchApplier.getAppliedPatchInfo();
         return appliedPatch != null ? appliedPatch.getPatchVersion() : null;
     }
+    
+    /**
+     * 获取当前补丁的 SHA-256，用于请求差量更新；设备无法应用差量包时返回 null
+     */
+    private String getCurrentPatchHash() {
+        if (!DeltaPatchApplier.isAvailable()) {
+            return null;
+        }
+        return patchApplier.getAppliedPatchHash();
+    }
 
     
     // ==================== 下载补丁 ====================
@@ -269,10 +279,11 @@ public class UpdateManager {
      * 下载补丁（异步）
      * 
      * 回调顺序：
-     * 1. onDownloadProgress(current, total) - 下载进度（多次）
-     * 2. onDownloadComplete(patchInfo) - 下载完成
+     * 1. onDownloadPhaseChanged(phase) - 下载阶段（差量包、完整补丁或回退到完整补丁）
+     * 2. onDownloadProgress(current, total) - 下载进度（多次，回退时从 0 重新开始）
+     * 3. onDownloadComplete(patchInfo) - 下载完成
      * 或
-     * 2. onError(errorCode, message) - 下载失败
+     * 3. onError(errorCode, message) - 下载失败
      * 
      * @param patchInfo 补丁信息
      * 
@@ -294,6 +305,11 @@ public class UpdateManager {
         
         // 创建下载回调
         DownloadCallback downloadCallback = new DownloadCallback() {
+            @Override
+            public void onPhaseChanged(int phase) {
+                dispatchOnDownloadPhaseChanged(phase);
+            }
+            
             @Override
             public void onProgress(long current, long total) {
                 dispatchOnDownloadProgress(current, total);
@@ -387,6 +403,10 @@ public class UpdateManager {
                 dispatchOnApplyComplete(success);
                 
                 if (success) {
+                    // 后台预编译补丁 dex，下次冷启动直接使用编译产物
+                    DexPatcher.precompilePatchAsync(context, patchApplier.getAppliedPatchFile(),
+                            patchApplier.getAppliedPatchHash());
+                    
                     // 通知更新成功
                     dispatchOnUpdateSuccess();
                 } else {
@@ -422,7 +442,12 @@ public class UpdateManager {
         }
         
         // 应用补丁
-        return patchApplier.apply(patchInfo);
+        boolean success = patchApplier.apply(patchInfo);
+        if (success) {
+            DexPatcher.precompilePatchAsync(context, patchApplier.getAppliedPatchFile(),
+                    patchApplier.getAppliedPatchHash());
+        }
+        return success;
     }
     
     /**
@@ -611,6 +636,21 @@ public class UpdateManager {
         }
     }
     
+    /**
+     * 分发 onDownloadPhaseChanged 回调
+     */
+    private void dispatchOnDownloadPhaseChanged(int phase) {
+        if (callback != null) {
+            mainHandler.post(() -> {
+                try {
+                    callback.onDownloadPhaseChanged(phase);
+                } catch (Exception e) {
+                    Log.e(TAG, "Error in onDownloadPhaseChanged callback", e);
+                }
+            });
+        }
+    }
+    
     /**
      * 分发 onDownloadProgress 回调
      * Requirements: 7.2
@@ -48,13 +48,26 @@ public class VersionChecker {
      * @throws ServerApi.UpdateException 如果请求失败
      */
     public PatchInfo checkUpdate(String currentPatchVersion) throws ServerApi.UpdateException {
+        return checkUpdate(currentPatchVersion, null);
+    }
+    
+    /**
+     * 检查更新（支持差量更新）
+     * @param currentPatchVersion 当前补丁版本，可为 null 表示没有已应用的补丁
+     * @param currentPatchHash 当前已应用补丁的 SHA-256，服务器据此返回差量包，可为 null
+     * @return 如果有更新返回 PatchInfo，否则返回 null
+     * @throws ServerApi.UpdateException 如果请求失败
+     */
+    public PatchInfo checkUpdate(String currentPatchVersion, String currentPatchHash)
+            throws ServerApi.UpdateException {
         Log.d(TAG, "Checking for updates, current patch version: " + currentPatchVersion);
         
         // 调用服务器接口检查更新
         PatchInfo serverPatchInfo = serverApi.checkUpdate(
                 config.getAppKey(),
                 config.getAppVersion(),
-                currentPatchVersion
+                currentPatchVersion,
+                currentPatchHash
         );
         
         // 如果服务器没有返回补丁信息，说明没有更新
@@ -0,0 +1,397 @@
+package com.orange.update;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+/**
+ * ZIP 条目原样复制器
+ *
+ * 直接从源 ZIP 的中央目录读取条目的 CRC、大小和数据偏移，把压缩后的数据原样复制到
+ * 输出 ZIP，不做解压和重新压缩。用于 ResourceMerger 合并大体积 APK 的资源。
+ *
+ * 输出格式：
+ * - 本地文件头直接写入 CRC 和大小，不使用数据描述符
+ * - STORED 条目的数据按 4 字节对齐（zipalign 格式的对齐扩展字段），
+ *   保证 resources.arsc 可以被框架直接 mmap
+ * - 需要强制 STORED 但源条目是压缩的（resources.arsc），流式解压写入，不整体缓存
+ *
+ * 不支持 ZIP64、分卷和加密条目，遇到时抛出 ZipException，由调用方回退到流式合并。
+ */
+final class ZipRawCopier implements Closeable {
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_HEADER_SIGNATURE = 0x06054b50;
+
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_HEADER_SIZE = 22;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+
+    private static final int FLAG_ENCRYPTED = 0x0001;
+    private static final int FLAG_UTF8 = 0x0800;
+
+    private static final int VERSION_STORED = 10;
+    private static final int VERSION_DEFLATED = 20;
+
+    private static final int ALIGNMENT = 4;
+    private static final short ALIGNMENT_EXTRA_ID = (short) 0xD935;
+    private static final int ALIGNMENT_EXTRA_MIN_SIZE = 6;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * 源 ZIP 中央目录中的条目
+     */
+    static final class Entry {
+        final String name;
+        final byte[] nameBytes;
+        final int flags;
+        final int method;
+        final int time;
+        final int date;
+        final long crc;
+        final long compressedSize;
+        final long size;
+        final long localHeaderOffset;
+
+        Entry(String name, byte[] nameBytes, int flags, int method, int time, int date,
+              long crc, long compressedSize, long size, long localHeaderOffset) {
+            this.name = name;
+            this.nameBytes = nameBytes;
+            this.flags = flags;
+            this.method = method;
+            this.time = time;
+            this.date = date;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+    }
+
+    /**
+     * 已写入输出的条目（用于生成中央目录）
+     */
+    private static final class WrittenEntry {
+        final Entry source;
+        final int method;
+        final long compressedSize;
+        final long offset;
+
+        WrittenEntry(Entry source, int method, long compressedSize, long offset) {
+            this.source = source;
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.offset = offset;
+        }
+    }
+
+    private final FileChannel out;
+    private final FileOutputStream outStream;
+    private final List<WrittenEntry> written = new ArrayList<>();
+    private boolean finished;
+
+    /**
+     * @param outputFile 输出 ZIP 文件（会被覆盖）
+     */
+    ZipRawCopier(File outputFile) throws IOException {
+        this.outStream = new FileOutputStream(outputFile);
+        this.out = outStream.getChannel();
+    }
+
+    /**
+     * 读取源 ZIP 的中央目录
+     *
+     * @param source 源 ZIP 的文件通道
+     * @return 条目列表（中央目录顺序）
+     * @throws ZipException ZIP64、分卷、加密或格式损坏
+     */
+    static List<Entry> readEntries(FileChannel source) throws IOException {
+        long fileSize = source.size();
+        int tailSize = (int) Math.min(fileSize, END_HEADER_SIZE + MAX_COMMENT_SIZE);
+        if (tailSize < END_HEADER_SIZE) {
+            throw new ZipException("Not a zip file");
+        }
+        ByteBuffer tail = readFully(source, fileSize - tailSize, tailSize);
+
+        int endPos = -1;
+        for (int i = tailSize - END_HEADER_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_HEADER_SIGNATURE
+                    && i + END_HEADER_SIZE + (tail.getShort(i + 20) & 0xFFFF) == tailSize) {
+                endPos = i;
+                break;
+            }
+        }
+        if (endPos < 0) {
+            throw new ZipException("End of central directory not found");
+        }
+
+        int diskNumber = tail.getShort(endPos + 4) & 0xFFFF;
+        int entryCount = tail.getShort(endPos + 10) & 0xFFFF;
+        long centralSize = tail.getInt(endPos + 12) & 0xFFFFFFFFL;
+        long centralOffset = tail.getInt(endPos + 16) & 0xFFFFFFFFL;
+        if (diskNumber != 0 || entryCount == 0xFFFF || centralOffset == 0xFFFFFFFFL) {
+            throw new ZipException("ZIP64 or multi-disk archives are not supported");
+        }
+        if (centralOffset + centralSize > fileSize) {
+            throw new ZipException("Invalid central directory offset");
+        }
+
+        ByteBuffer central = readFully(source, centralOffset, (int) centralSize);
+        List<Entry> entries = new ArrayList<>(entryCount);
+        int pos = 0;
+        for (int i = 0; i < entryCount; i++) {
+            if (pos + CENTRAL_HEADER_SIZE > central.limit()
+                    || central.getInt(pos) != CENTRAL_HEADER_SIGNATURE) {
+                throw new ZipException("Invalid central directory entry " + i);
+            }
+            int flags = central.getShort(pos + 8) & 0xFFFF;
+            int method = central.getShort(pos + 10) & 0xFFFF;
+            int time = central.getShort(pos + 12) & 0xFFFF;
+            int date = central.getShort(pos + 14) & 0xFFFF;
+            long crc = central.getInt(pos + 16) & 0xFFFFFFFFL;
+            long compressedSize = central.getInt(pos + 20) & 0xFFFFFFFFL;
+            long size = central.getInt(pos + 24) & 0xFFFFFFFFL;
+            int nameLength = central.getShort(pos + 28) & 0xFFFF;
+            int extraLength = central.getShort(pos + 30) & 0xFFFF;
+            int commentLength = central.getShort(pos + 32) & 0xFFFF;
+            long localHeaderOffset = central.getInt(pos + 42) & 0xFFFFFFFFL;
+
+            if ((flags & FLAG_ENCRYPTED) != 0) {
+                throw new ZipException("Encrypted entries are not supported");
+            }
+            if (compressedSize == 0xFFFFFFFFL || size == 0xFFFFFFFFL
+                    || localHeaderOffset == 0xFFFFFFFFL) {
+                throw new ZipException("ZIP64 entries are not supported");
+            }
+            if (method != ZipEntry.STORED && method != ZipEntry.DEFLATED) {
+                throw new ZipException("Unsupported compression method: " + method);
+            }
+
+            byte[] nameBytes = new byte[nameLength];
+            central.position(pos + CENTRAL_HEADER_SIZE);
+            central.get(nameBytes);
+            String name = new String(nameBytes, StandardCharsets.UTF_8);
+
+            entries.add(new Entry(name, nameBytes, flags, method, time, date,
+                crc, compressedSize, size, localHeaderOffset));
+            pos += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+        return entries;
+    }
+
+    /**
+     * 原样复制条目的压缩数据
+     *
+     * @param source 源 ZIP 的文件通道
+     * @param entry 源条目
+     */
+    void copyRaw(FileChannel source, Entry entry) throws IOException {
+        long dataOffset = getDataOffset(source, entry);
+        long offset = writeLocalHeader(entry, entry.method, entry.compressedSize);
+        transferFully(source, dataOffset, entry.compressedSize);
+        written.add(new WrittenEntry(entry, entry.method, entry.compressedSize, offset));
+    }
+
+    /**
+     * 以 STORED 方式写入条目，源条目已是 STORED 时原样复制，否则流式解压写入
+     *
+     * @param source 源 ZIP 的文件通道
+     * @param sourceFile 源 ZIP 文件（解压时使用）
+     * @param entry 源条目
+     */
+    void copyAsStored(FileChannel source, File sourceFile, Entry entry) throws IOException {
+        if (entry.method == ZipEntry.STORED) {
+            copyRaw(source, entry);
+            return;
+        }
+
+        long offset = writeLocalHeader(entry, ZipEntry.STORED, entry.size);
+        long copied = 0;
+        try (ZipFile zipFile = new ZipFile(sourceFile)) {
+            ZipEntry zipEntry = zipFile.getEntry(entry.name);
+            if (zipEntry == null) {
+                throw new ZipException("Entry not found: " + entry.name);
+            }
+            try (InputStream is = zipFile.getInputStream(zipEntry)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int len;
+                while ((len = is.read(buffer)) > 0) {
+                    writeFully(ByteBuffer.wrap(buffer, 0, len));
+                    copied += len;
+                }
+            }
+        }
+        if (copied != entry.size) {
+            throw new ZipException("Size mismatch for " + entry.name + ": " + copied + " != " + entry.size);
+        }
+        written.add(new WrittenEntry(entry, ZipEntry.STORED, entry.size, offset));
+    }
+
+    /**
+     * 写入中央目录并结束输出
+     */
+    void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        if (written.size() >= 0xFFFF) {
+            throw new ZipException("Too many entries: " + written.size());
+        }
+
+        long centralOffset = out.position();
+        for (WrittenEntry item : written) {
+            Entry entry = item.source;
+            ByteBuffer header = ByteBuffer.allocate(CENTRAL_HEADER_SIZE + entry.nameBytes.length)
+                .order(ByteOrder.LITTLE_ENDIAN);
+            int version = item.method == ZipEntry.STORED ? VERSION_STORED : VERSION_DEFLATED;
+            header.putInt(CENTRAL_HEADER_SIGNATURE)
+                .putShort((short) version)                  // version made by
+                .putShort((short) version)                  // version needed
+                .putShort((short) (entry.flags & FLAG_UTF8))
+                .putShort((short) item.method)
+                .putShort((short) entry.time)
+                .putShort((short) entry.date)
+                .putInt((int) entry.crc)
+                .putInt((int) item.compressedSize)
+                .putInt((int) entry.size)
+                .putShort((short) entry.nameBytes.length)
+                .putShort((short) 0)                        // extra length
+                .putShort((short) 0)                        // comment length
+                .putShort((short) 0)                        // disk number
+                .putShort((short) 0)                        // internal attributes
+                .putInt(0)                                  // external attributes
+                .putInt((int) item.offset)
+                .put(entry.nameBytes);
+            header.flip();
+            writeFully(header);
+        }
+        long centralSize = out.position() - centralOffset;
+        if (out.position() > 0xFFFFFFFFL) {
+            throw new ZipException("Output exceeds 4GB");
+        }
+
+        ByteBuffer end = ByteBuffer.allocate(END_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        end.putInt(END_HEADER_SIGNATURE)
+            .putShort((short) 0)
+            .putShort((short) 0)
+            .putShort((short) written.size())
+            .putShort((short) written.size())
+            .putInt((int) centralSize)
+            .putInt((int) centralOffset)
+            .putShort((short) 0);
+        end.flip();
+        writeFully(end);
+        finished = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        outStream.close();
+    }
+
+    /**
+     * 写入本地文件头，STORED 条目添加对齐扩展字段
+     *
+     * @return 本地文件头在输出中的偏移
+     */
+    private long writeLocalHeader(Entry entry, int method, long compressedSize) throws IOException {
+        if (written.size() >= 0xFFFF) {
+            throw new ZipException("Too many entries");
+        }
+        long offset = out.position();
+        if (offset > 0xFFFFFFFFL) {
+            throw new ZipException("Output exceeds 4GB");
+        }
+
+        int extraLength = 0;
+        if (method == ZipEntry.STORED) {
+            long dataStart = offset + LOCAL_HEADER_SIZE + entry.nameBytes.length + ALIGNMENT_EXTRA_MIN_SIZE;
+            extraLength = ALIGNMENT_EXTRA_MIN_SIZE + (int) ((ALIGNMENT - dataStart % ALIGNMENT) % ALIGNMENT);
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(LOCAL_HEADER_SIZE + entry.nameBytes.length + extraLength)
+            .order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(LOCAL_HEADER_SIGNATURE)
+            .putShort((short) (method == ZipEntry.STORED ? VERSION_STORED : VERSION_DEFLATED))
+            .putShort((short) (entry.flags & FLAG_UTF8))
+            .putShort((short) method)
+            .putShort((short) entry.time)
+            .putShort((short) entry.date)
+            .putInt((int) entry.crc)
+            .putInt((int) compressedSize)
+            .putInt((int) entry.size)
+            .putShort((short) entry.nameBytes.length)
+            .putShort((short) extraLength)
+            .put(entry.nameBytes);
+        if (extraLength > 0) {
+            // zipalign 对齐扩展字段：id, size, alignment, 填充
+            header.putShort(ALIGNMENT_EXTRA_ID)
+                .putShort((short) (extraLength - 4))
+                .putShort((short) ALIGNMENT);
+            // 剩余填充字节保持为 0
+        }
+        header.position(0);
+        writeFully(header);
+        return offset;
+    }
+
+    /**
+     * 计算条目数据在源 ZIP 中的偏移（需要读取本地文件头的扩展字段长度）
+     */
+    private static long getDataOffset(FileChannel source, Entry entry) throws IOException {
+        ByteBuffer local = readFully(source, entry.localHeaderOffset, LOCAL_HEADER_SIZE);
+        if (local.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+            throw new ZipException("Invalid local header: " + entry.name);
+        }
+        int nameLength = local.getShort(26) & 0xFFFF;
+        int extraLength = local.getShort(28) & 0xFFFF;
+        long dataOffset = entry.localHeaderOffset + LOCAL_HEADER_SIZE + nameLength + extraLength;
+        if (dataOffset + entry.compressedSize > source.size()) {
+            throw new ZipException("Entry data out of range: " + entry.name);
+        }
+        return dataOffset;
+    }
+
+    private void transferFully(FileChannel source, long position, long count) throws IOException {
+        while (count > 0) {
+            long transferred = source.transferTo(position, count, out);
+            if (transferred <= 0) {
+                throw new IOException("Failed to transfer entry data");
+            }
+            position += transferred;
+            count -= transferred;
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel source, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            int read = source.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new ZipException("Unexpected end of zip file");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
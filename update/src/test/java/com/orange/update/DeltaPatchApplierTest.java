@@ -0,0 +1,130 @@
+package com.orange.update;
+
+import com.orange.patchgen.bsdiff.BsDiff;
+import com.orange.patchgen.bsdiff.BsPatch;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * DeltaPatchApplier 测试：用 patch-core 的 BsDiff 生成 N→N+1 差量包，
+ * 校验差量包格式可被接受，损坏的差量包被拒绝从而回退到完整补丁
+ */
+public class DeltaPatchApplierTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private byte[] next;
+    private File baseFile;
+    private File nextFile;
+    private File deltaFile;
+
+    @Before
+    public void setUp() throws Exception {
+        Random random = new Random(25);
+        byte[] base = new byte[200_000];
+        random.nextBytes(base);
+
+        // N+1：少量字节修改，中间插入一段新数据
+        byte[] modified = base.clone();
+        for (int i = 0; i < 1000; i++) {
+            modified[random.nextInt(modified.length)] ^= 0x5A;
+        }
+        byte[] inserted = new byte[20_000];
+        random.nextBytes(inserted);
+        next = new byte[modified.length + inserted.length];
+        System.arraycopy(modified, 0, next, 0, 100_000);
+        System.arraycopy(inserted, 0, next, 100_000, inserted.length);
+        System.arraycopy(modified, 100_000, next, 100_000 + inserted.length, modified.length - 100_000);
+
+        baseFile = write("base.zip", base);
+        nextFile = write("next.zip", next);
+        deltaFile = new File(tempFolder.getRoot(), "next.delta");
+        new BsDiff.Builder().build().diff(baseFile, nextFile, deltaFile);
+    }
+
+    @Test
+    public void bsDiffOutputIsValidDelta() {
+        assertTrue(DeltaPatchApplier.isValidDelta(deltaFile, next.length));
+        assertTrue(DeltaPatchApplier.isValidDelta(deltaFile, 0));
+    }
+
+    /**
+     * 只校验 BsDiff/BsPatch 往返；客户端经 native 引擎重建的路径由 androidTest 的 DeltaDownloadTest 覆盖
+     */
+    @Test
+    public void bsDiffOutputRoundTripsThroughBsPatch() throws Exception {
+        File rebuilt = new File(tempFolder.getRoot(), "next.rebuilt");
+
+        BsPatch.apply(baseFile, deltaFile, rebuilt, null);
+
+        assertArrayEquals(next, Files.readAllBytes(rebuilt.toPath()));
+    }
+
+    @Test
+    public void wrongExpectedSizeIsRejected() {
+        assertFalse(DeltaPatchApplier.isValidDelta(deltaFile, next.length + 1));
+    }
+
+    @Test
+    public void truncatedDeltaIsRejected() throws Exception {
+        byte[] delta = Files.readAllBytes(deltaFile.toPath());
+        for (int length : new int[] {0, 16, 32, 100, delta.length / 2, delta.length - 1}) {
+            File truncated = write("truncated.delta", Arrays.copyOf(delta, length));
+            assertFalse("length " + length, DeltaPatchApplier.isValidDelta(truncated, next.length));
+        }
+    }
+
+    @Test
+    public void corruptControlBlockIsRejected() throws Exception {
+        byte[] delta = Files.readAllBytes(deltaFile.toPath());
+        // 第一条控制记录的差异长度改为超出差异块
+        delta[32 + 6] = (byte) 0x7F;
+        assertFalse(DeltaPatchApplier.isValidDelta(write("corrupt.delta", delta), next.length));
+    }
+
+    @Test
+    public void compressedBlocksAreRejected() throws Exception {
+        // 原版 bsdiff 的头部相同，但各块为 bzip2 压缩数据
+        byte[] delta = Files.readAllBytes(deltaFile.toPath());
+        byte[] bzip2 = "BZh91AY&SY".getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(bzip2, 0, delta, 32, bzip2.length);
+        assertFalse(DeltaPatchApplier.isValidDelta(write("bzip2.delta", delta), next.length));
+    }
+
+    @Test
+    public void garbageIsRejected() throws Exception {
+        byte[] garbage = new byte[4096];
+        new Random(1).nextBytes(garbage);
+        assertFalse(DeltaPatchApplier.isValidDelta(write("garbage.delta", garbage), 0));
+    }
+
+    @Test
+    public void applyFailsWithoutNativeEngine() {
+        // 单元测试中没有 patch-native，apply 返回 false，PatchManager 回退到完整补丁
+        File rebuilt = new File(tempFolder.getRoot(), "next.rebuilt");
+        assertFalse(DeltaPatchApplier.isAvailable());
+        assertFalse(DeltaPatchApplier.apply(baseFile, deltaFile, rebuilt, next.length));
+        assertFalse(rebuilt.exists());
+    }
+
+    private File write(String name, byte[] data) throws IOException {
+        File file = new File(tempFolder.getRoot(), name);
+        Files.write(file.toPath(), data);
+        return file;
+    }
+}
@@ -0,0 +1,151 @@
+package com.orange.update;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 测试用的本地 HTTP 服务器，提供一个固定内容的文件。
+ *
+ * 可配置是否支持范围请求、ETag，以及让指定起始位置的范围请求失败一次或一直失败，
+ * 并记录收到的每个请求的 Range 头。
+ */
+final class LocalHttpServer implements AutoCloseable {
+
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+
+    private final byte[] content;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final List<String> ranges = Collections.synchronizedList(new ArrayList<String>());
+    private final Set<Long> failOnce = Collections.synchronizedSet(new HashSet<Long>());
+    private final Set<Long> failAlways = Collections.synchronizedSet(new HashSet<Long>());
+
+    private volatile boolean rangeSupported = true;
+    private volatile String etag = "\"v1\"";
+
+    LocalHttpServer(byte[] content) throws IOException {
+        this.content = content;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/patch", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/patch";
+    }
+
+    LocalHttpServer rangeSupported(boolean supported) {
+        this.rangeSupported = supported;
+        return this;
+    }
+
+    LocalHttpServer etag(String etag) {
+        this.etag = etag;
+        return this;
+    }
+
+    /**
+     * 从 start 开始的范围请求第一次返回 503
+     */
+    LocalHttpServer failOnce(long start) {
+        failOnce.add(start);
+        return this;
+    }
+
+    /**
+     * 从 start 开始的范围请求一直返回 503，直到调用 {@link #stopFailing()}
+     */
+    LocalHttpServer failAlways(long start) {
+        failAlways.add(start);
+        return this;
+    }
+
+    /**
+     * 取消所有失败设置
+     */
+    LocalHttpServer stopFailing() {
+        failOnce.clear();
+        failAlways.clear();
+        return this;
+    }
+
+    /**
+     * 清空已记录的 Range 头
+     */
+    LocalHttpServer clearRanges() {
+        ranges.clear();
+        return this;
+    }
+
+    /**
+     * @return 每个请求的 Range 头，没有时为 "-"
+     */
+    List<String> ranges() {
+        synchronized (ranges) {
+            return new ArrayList<>(ranges);
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+            ranges.add(range != null ? range : "-");
+            if (etag != null) {
+                exchange.getResponseHeaders().add("ETag", etag);
+            }
+
+            Matcher matcher = range != null ? RANGE.matcher(range) : null;
+            // 弱 ETag 或不一致的 If-Range 按 RFC 7233 忽略范围请求
+            boolean ifRangeMatches = ifRange == null
+                    || (etag != null && !etag.startsWith("W/") && etag.equals(ifRange));
+            if (!rangeSupported || matcher == null || !matcher.matches() || !ifRangeMatches) {
+                send(exchange, 200, 0, content.length);
+                return;
+            }
+
+            long start = Long.parseLong(matcher.group(1));
+            long end = matcher.group(2).isEmpty()
+                    ? content.length - 1 : Math.min(Long.parseLong(matcher.group(2)), content.length - 1);
+            if (failOnce.remove(start) || failAlways.contains(start)) {
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+            exchange.getResponseHeaders().add("Content-Range",
+                    "bytes " + start + "-" + end + "/" + content.length);
+            send(exchange, 206, (int) start, (int) (end - start + 1));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void send(HttpExchange exchange, int code, int offset, int length) throws IOException {
+        exchange.sendResponseHeaders(code, length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(content, offset, length);
+        } catch (IOException e) {
+            // 客户端取消时断开连接
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
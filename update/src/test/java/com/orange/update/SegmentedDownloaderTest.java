@@ -0,0 +1,325 @@
+package com.orange.update;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * SegmentedDownloader / PatchDownloader 测试，使用本地 HTTP 服务器代替真实服务端
+ */
+public class SegmentedDownloaderTest {
+
+    private static final int SEGMENT = SegmentedDownloader.SEGMENT_SIZE;
+
+    /**
+     * 逐字节异或，代替 SecurityManager 的数据密钥加密（本地单元测试中没有 KeyStore）
+     */
+    private static final SegmentCache.Cipher XOR_CIPHER = new SegmentCache.Cipher() {
+        @Override
+        public OutputStream newEncryptOutputStream(OutputStream out) {
+            return new FilterOutputStream(out) {
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b ^ 0x5A);
+                }
+            };
+        }
+
+        @Override
+        public void decrypt(InputStream in, OutputStream out) throws IOException {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                for (int i = 0; i < read; i++) {
+                    buffer[i] ^= 0x5A;
+                }
+                out.write(buffer, 0, read);
+            }
+        }
+    };
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private final byte[] content = new byte[5 * SEGMENT + SEGMENT / 2];
+    private LocalHttpServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        new Random(20).nextBytes(content);
+        server = new LocalHttpServer(content);
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void segmentsAreWrittenInOrderWithoutProbe() throws Exception {
+        AtomicLong lastProgress = new AtomicLong();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        SegmentedDownloader.Result result = newDownloader(4).download(server.url(), output,
+                progressCallback(lastProgress));
+
+        assertEquals(SegmentedDownloader.Result.COMPLETED, result);
+        assertArrayEquals(content, output.toByteArray());
+        assertEquals(content.length, lastProgress.get());
+        // 第一个分段即探测请求，每个分段只请求一次
+        assertEquals(6, server.ranges().size());
+        assertEquals("bytes=0-" + (SEGMENT - 1), server.ranges().get(0));
+    }
+
+    @Test
+    public void serverWithoutRangeSupportUsesFirstResponse() throws Exception {
+        server.rangeSupported(false);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        SegmentedDownloader.Result result = newDownloader(4).download(server.url(), output, null);
+
+        assertEquals(SegmentedDownloader.Result.COMPLETED, result);
+        assertArrayEquals(content, output.toByteArray());
+        assertEquals(1, server.ranges().size());
+    }
+
+    @Test
+    public void weakEtagFallsBackToSingleStream() throws Exception {
+        server.etag("W/\"v1\"");
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        SegmentedDownloader.Result result = newDownloader(4).download(server.url(), output, null);
+
+        assertEquals(SegmentedDownloader.Result.COMPLETED, result);
+        assertArrayEquals(content, output.toByteArray());
+        assertEquals(Arrays.asList("bytes=0-" + (SEGMENT - 1), "bytes=" + SEGMENT + "-"), server.ranges());
+    }
+
+    @Test
+    public void failedSegmentIsRetried() throws Exception {
+        server.failOnce(3L * SEGMENT);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        SegmentedDownloader.Result result = newDownloader(4).download(server.url(), output, null);
+
+        assertEquals(SegmentedDownloader.Result.COMPLETED, result);
+        assertArrayEquals(content, output.toByteArray());
+        assertEquals(7, server.ranges().size());
+    }
+
+    @Test
+    public void restartDownloadsOnlyMissingSegments() throws Exception {
+        server.failAlways(4L * SEGMENT);
+        try {
+            newDownloader(1).download(server.url(), new ByteArrayOutputStream(), newCache(), null);
+            fail("Segment 4 should fail");
+        } catch (IOException expected) {
+            // 分段 1-3 已保存
+        }
+        server.stopFailing().clearRanges();
+
+        // 模拟进程重启：新的下载器和缓存实例，同一缓存目录
+        AtomicLong lastProgress = new AtomicLong();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        SegmentedDownloader.Result result = newDownloader(1).download(server.url(), output, newCache(),
+                progressCallback(lastProgress));
+
+        assertEquals(SegmentedDownloader.Result.COMPLETED, result);
+        assertArrayEquals(content, output.toByteArray());
+        assertEquals(content.length, lastProgress.get());
+        assertEquals(Arrays.asList(
+                "bytes=0-" + (SEGMENT - 1),
+                "bytes=" + 4 * SEGMENT + "-" + (5 * SEGMENT - 1),
+                "bytes=" + 5 * SEGMENT + "-" + (content.length - 1)), server.ranges());
+    }
+
+    @Test
+    public void cachedSegmentsAreNotPlaintext() throws Exception {
+        server.failAlways(2L * SEGMENT);
+        try {
+            newDownloader(1).download(server.url(), new ByteArrayOutputStream(), newCache(), null);
+            fail("Segment 2 should fail");
+        } catch (IOException expected) {
+            // 分段 1 已保存
+        }
+
+        byte[] saved = Files.readAllBytes(new File(cacheDir(), "1.seg").toPath());
+        assertEquals(SEGMENT, saved.length);
+        assertFalse(Arrays.equals(Arrays.copyOfRange(content, SEGMENT, 2 * SEGMENT), saved));
+    }
+
+    @Test
+    public void changedEtagDiscardsCachedSegments() throws Exception {
+        server.failAlways(4L * SEGMENT);
+        try {
+            newDownloader(1).download(server.url(), new ByteArrayOutputStream(), newCache(), null);
+            fail("Segment 4 should fail");
+        } catch (IOException expected) {
+            // 分段 1-3 已保存
+        }
+        server.stopFailing().clearRanges().etag("\"v2\"");
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        SegmentedDownloader.Result result = newDownloader(1).download(server.url(), output, newCache(), null);
+
+        assertEquals(SegmentedDownloader.Result.COMPLETED, result);
+        assertArrayEquals(content, output.toByteArray());
+        assertEquals(6, server.ranges().size());
+    }
+
+    @Test
+    public void unreadableCachedSegmentIsDownloadedAgain() throws Exception {
+        server.failAlways(4L * SEGMENT);
+        try {
+            newDownloader(1).download(server.url(), new ByteArrayOutputStream(), newCache(), null);
+            fail("Segment 4 should fail");
+        } catch (IOException expected) {
+            // 分段 1-3 已保存
+        }
+        server.stopFailing().clearRanges();
+        File segment2 = new File(cacheDir(), "2.seg");
+        Files.write(segment2.toPath(), Arrays.copyOf(Files.readAllBytes(segment2.toPath()), SEGMENT / 2));
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        SegmentedDownloader.Result result = newDownloader(1).download(server.url(), output, newCache(), null);
+
+        assertEquals(SegmentedDownloader.Result.COMPLETED, result);
+        assertArrayEquals(content, output.toByteArray());
+        assertTrue(server.ranges().contains("bytes=" + 2 * SEGMENT + "-" + (3 * SEGMENT - 1)));
+        assertEquals(4, server.ranges().size());
+    }
+
+    @Test
+    public void smallFileNeedsOneRequest() throws Exception {
+        byte[] small = Arrays.copyOf(content, SEGMENT / 3);
+        try (LocalHttpServer smallServer = new LocalHttpServer(small)) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+            SegmentedDownloader.Result result = newDownloader(4).download(smallServer.url(), output, null);
+
+            assertEquals(SegmentedDownloader.Result.COMPLETED, result);
+            assertArrayEquals(small, output.toByteArray());
+            assertEquals(1, smallServer.ranges().size());
+        }
+    }
+
+    @Test
+    public void fileDownloadSendsNoRangeProbe() throws Exception {
+        File target = new File(tempFolder.getRoot(), "patch.delta");
+        final String[] error = {null};
+        PatchDownloader downloader = new PatchDownloader(newConfig(4));
+
+        downloader.download(server.url(), target, new DownloadCallback() {
+            @Override
+            public void onProgress(long current, long total) {
+            }
+
+            @Override
+            public void onSuccess(File file) {
+            }
+
+            @Override
+            public void onError(int errorCode, String message) {
+                error[0] = message;
+            }
+        });
+
+        assertNull(error[0]);
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        assertEquals(Collections.singletonList("-"), server.ranges());
+    }
+
+    @Test
+    public void cancelStopsDownload() throws Exception {
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        final SegmentedDownloader downloader = new SegmentedDownloader(newConfig(4), cancelled);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        SegmentedDownloader.Result result;
+        try {
+            result = downloader.download(server.url(), output, new DownloadCallback() {
+                @Override
+                public void onProgress(long current, long total) {
+                    if (current > SEGMENT) {
+                        downloader.cancel();
+                    }
+                }
+
+                @Override
+                public void onSuccess(File file) {
+                }
+
+                @Override
+                public void onError(int errorCode, String message) {
+                }
+            });
+        } catch (IOException e) {
+            // 取消时断开连接，读取中的请求以异常结束
+            result = SegmentedDownloader.Result.CANCELLED;
+        }
+
+        assertEquals(SegmentedDownloader.Result.CANCELLED, result);
+        assertTrue(cancelled.get());
+        assertTrue(output.size() < content.length);
+    }
+
+    private File cacheDir() {
+        return new File(tempFolder.getRoot(), "patch.segments");
+    }
+
+    private SegmentCache newCache() {
+        return new SegmentCache(cacheDir(), XOR_CIPHER);
+    }
+
+    private SegmentedDownloader newDownloader(int connections) {
+        return new SegmentedDownloader(newConfig(connections), new AtomicBoolean());
+    }
+
+    private static UpdateConfig newConfig(int connections) {
+        return new UpdateConfig.Builder()
+                .serverUrl("http://127.0.0.1")
+                .appKey("test")
+                .appVersion("1.0")
+                .maxDownloadConnections(connections)
+                .build();
+    }
+
+    private static DownloadCallback progressCallback(final AtomicLong lastProgress) {
+        return new DownloadCallback() {
+            @Override
+            public void onProgress(long current, long total) {
+                lastProgress.set(current);
+            }
+
+            @Override
+            public void onSuccess(File file) {
+            }
+
+            @Override
+            public void onError(int errorCode, String message) {
+            }
+        };
+    }
+}